@@ -5,6 +5,7 @@ import java.util.HashMap;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
+import java.util.function.Function;
 
 /**
  * Implementation of a list that allows a constant lookup and a traversing of 
@@ -163,6 +164,24 @@ public class ConstantLookupList<E> extends LinkedList<E> {
     return null;
   }
 
+  /**
+   * Returns a copy of this list, with each element mapped by the given
+   * function. The function must map equal elements to equal elements. The
+   * index of the copy is the mapped index of this list, so lookups in the copy
+   * behave exactly as in this list.
+   */
+  public <T> ConstantLookupList<T> copy(Function<? super E, ? extends T> fn) {
+    ConstantLookupList<T> copy = new ConstantLookupList<>();
+    for (E element : this) {
+      copy.add(fn.apply(element));
+    }
+    copy.map.clear();
+    for (Map.Entry<E, Integer> entry : map.entrySet()) {
+      copy.map.put(fn.apply(entry.getKey()), entry.getValue());
+    }
+    return copy;
+  }
+
   /**
    * Replaces the given element by the another given element.
    */
@@ -0,0 +1,398 @@
+package de.freiburg.iif.collection;
+
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.Serializable;
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.RandomAccess;
+import java.util.function.Function;
+
+/**
+ * An array-backed list that allows a constant positional access and a
+ * constant lookup of the index of an element. Elements are compared by
+ * identity (not by equals()).
+ *
+ * The indexes of the elements are kept in a map. Instead of updating the map
+ * on each insertion or removal (which shifts the indexes of all following
+ * elements), only the indexes of the elements in front of the first changed
+ * position are considered valid. The indexes of the elements behind are
+ * recomputed on the next lookup that needs them, so a sequence of splices
+ * costs a single pass over the list on the next lookup.
+ *
+ * Most lists are small (like the elements of a group), so the map is only 
+ * created on the first lookup in a list of more than 
+ * {@link #INDEX_THRESHOLD} elements; smaller lists are scanned. The array of
+ * the elements is allocated on the first insertion.
+ *
+ * indexOf() returns the first occurrence of an element, as specified by
+ * {@link List}.
+ *
+ * @author Claudius Korzen
+ *
+ * @param <E>
+ *          the type of elements in this list.
+ */
+public class IdentityIndexedList<E> extends AbstractList<E>
+    implements RandomAccess, Serializable {
+  /**
+   * The serial version id.
+   */
+  protected static final long serialVersionUID = 1L;
+
+  /**
+   * The default capacity of a list.
+   */
+  protected static final int DEFAULT_CAPACITY = 8;
+
+  /**
+   * The size from which on the indexes of the elements are kept in a map.
+   */
+  protected static final int INDEX_THRESHOLD = 16;
+
+  /**
+   * The elements of an empty list without capacity.
+   */
+  protected static final Object[] EMPTY_ELEMENTS = {};
+
+  /**
+   * The elements of this list.
+   */
+  protected Object[] elements;
+
+  /**
+   * The number of elements in this list.
+   */
+  protected int size;
+
+  /**
+   * The indexes of the first occurrences of the elements (null as long as
+   * there was no lookup in a list of more than INDEX_THRESHOLD elements). 
+   * Only the indexes smaller than numIndexed are valid.
+   */
+  protected transient Map<Object, Integer> indexes;
+
+  /**
+   * The number of leading elements of which the indexes are valid.
+   */
+  protected transient int numIndexed;
+
+  /**
+   * Creates a new empty list.
+   */
+  public IdentityIndexedList() {
+    this(0);
+  }
+
+  /**
+   * Creates a new empty list with the given initial capacity.
+   */
+  public IdentityIndexedList(int capacity) {
+    this.elements = capacity > 0 ? new Object[capacity] : EMPTY_ELEMENTS;
+  }
+
+  /**
+   * Creates a new list with the given elements.
+   */
+  public IdentityIndexedList(Collection<? extends E> elements) {
+    this(elements.size());
+    addAll(elements);
+  }
+
+  // ___________________________________________________________________________
+
+  @Override
+  @SuppressWarnings("unchecked")
+  public E get(int index) {
+    checkIndex(index, size);
+    return (E) elements[index];
+  }
+
+  @Override
+  public int size() {
+    return size;
+  }
+
+  @Override
+  public int indexOf(Object element) {
+    if (indexes == null) {
+      if (size <= INDEX_THRESHOLD) {
+        for (int i = 0; i < size; i++) {
+          if (elements[i] == element) {
+            return i;
+          }
+        }
+        return -1;
+      }
+      indexes = new IdentityHashMap<>();
+      numIndexed = 0;
+    }
+    Integer index = indexes.get(element);
+    if (isValidIndex(element, index)) {
+      return index;
+    }
+    if (numIndexed < size) {
+      updateIndexes();
+      index = indexes.get(element);
+      if (isValidIndex(element, index)) {
+        return index;
+      }
+    }
+    return -1;
+  }
+
+  @Override
+  public int lastIndexOf(Object element) {
+    for (int i = size - 1; i >= 0; i--) {
+      if (elements[i] == element) {
+        return i;
+      }
+    }
+    return -1;
+  }
+
+  @Override
+  public boolean contains(Object element) {
+    return indexOf(element) >= 0;
+  }
+
+  /**
+   * Returns the element that follows the given element.
+   */
+  public E next(E element) {
+    int index = indexOf(element);
+    if (index + 1 > 0 && index + 1 < size) {
+      return get(index + 1);
+    }
+    return null;
+  }
+
+  /**
+   * Returns the element that is followed by the given element.
+   */
+  public E previous(E element) {
+    int index = indexOf(element);
+    if (index - 1 > -1) {
+      return get(index - 1);
+    }
+    return null;
+  }
+
+  // ___________________________________________________________________________
+
+  @Override
+  public boolean add(E element) {
+    ensureCapacity(size + 1);
+    elements[size] = element;
+    if (indexes != null && numIndexed == size) {
+      // Keep the list fully indexed.
+      index(element, size);
+      numIndexed++;
+    }
+    size++;
+    modCount++;
+    return true;
+  }
+
+  @Override
+  public void add(int index, E element) {
+    checkIndex(index, size + 1);
+    ensureCapacity(size + 1);
+    System.arraycopy(elements, index, elements, index + 1, size - index);
+    elements[index] = element;
+    size++;
+    modCount++;
+    invalidateIndexes(index);
+  }
+
+  @Override
+  public boolean addAll(Collection<? extends E> elements) {
+    return addAll(size, elements);
+  }
+
+  @Override
+  public boolean addAll(int index, Collection<? extends E> elements) {
+    checkIndex(index, size + 1);
+    Object[] added = elements.toArray();
+    if (added.length == 0) {
+      return false;
+    }
+    ensureCapacity(size + added.length);
+    System.arraycopy(this.elements, index, this.elements,
+        index + added.length, size - index);
+    System.arraycopy(added, 0, this.elements, index, added.length);
+    size += added.length;
+    modCount++;
+    invalidateIndexes(index);
+    return true;
+  }
+
+  @Override
+  @SuppressWarnings("unchecked")
+  public E set(int index, E element) {
+    checkIndex(index, size);
+    E previous = (E) elements[index];
+    elements[index] = element;
+    unindex(previous, index);
+    // The previous element may occur again behind, the given element may
+    // occur already behind.
+    invalidateIndexes(index);
+    return previous;
+  }
+
+  @Override
+  @SuppressWarnings("unchecked")
+  public E remove(int index) {
+    checkIndex(index, size);
+    E removed = (E) elements[index];
+    System.arraycopy(elements, index + 1, elements, index, size - index - 1);
+    elements[--size] = null;
+    modCount++;
+    unindex(removed, index);
+    invalidateIndexes(index);
+    return removed;
+  }
+
+  @Override
+  public boolean remove(Object element) {
+    int index = indexOf(element);
+    if (index < 0) {
+      return false;
+    }
+    remove(index);
+    return true;
+  }
+
+  @Override
+  protected void removeRange(int from, int to) {
+    System.arraycopy(elements, to, elements, from, size - to);
+    Arrays.fill(elements, size - (to - from), size, null);
+    size -= to - from;
+    modCount++;
+    invalidateIndexes(from);
+  }
+
+  @Override
+  public void clear() {
+    Arrays.fill(elements, 0, size, null);
+    size = 0;
+    modCount++;
+    invalidateIndexes(0);
+  }
+
+  /**
+   * Replaces the given element by the given elements. Does nothing if the
+   * given element isn't contained in this list or if the given elements are
+   * empty.
+   */
+  public boolean replace(E element, List<E> elements) {
+    int index = indexOf(element);
+    if (index > -1 && !elements.isEmpty()) {
+      set(index, elements.get(0));
+      addAll(index + 1, elements.subList(1, elements.size()));
+    }
+    return true;
+  }
+
+  /**
+   * Returns a copy of this list, with each element mapped by the given
+   * function.
+   */
+  public <T> IdentityIndexedList<T> copy(Function<? super E, ? extends T> fn) {
+    IdentityIndexedList<T> copy = new IdentityIndexedList<>(size);
+    for (int i = 0; i < size; i++) {
+      copy.add(fn.apply(get(i)));
+    }
+    return copy;
+  }
+
+  // ___________________________________________________________________________
+
+  /**
+   * Returns true, if the given index is a valid index of the given element.
+   */
+  protected boolean isValidIndex(Object element, Integer index) {
+    return index != null && index < numIndexed && elements[index] == element;
+  }
+
+  /**
+   * Registers the given index of the given element, if it is the first
+   * occurrence of the element.
+   */
+  protected void index(Object element, int index) {
+    if (!isValidIndex(element, indexes.get(element))) {
+      indexes.put(element, index);
+    }
+  }
+
+  /**
+   * Removes the index of the given element, if it is the given index (such
+   * that the map doesn't keep removed elements).
+   */
+  protected void unindex(Object element, int index) {
+    if (indexes == null) {
+      return;
+    }
+    Integer registered = indexes.get(element);
+    if (registered != null && registered == index) {
+      indexes.remove(element);
+    }
+  }
+
+  /**
+   * Computes the indexes of all elements which are not indexed yet.
+   */
+  protected void updateIndexes() {
+    for (int i = numIndexed; i < size; i++) {
+      index(elements[i], i);
+      numIndexed = i + 1;
+    }
+  }
+
+  /**
+   * Marks the indexes of the elements from the given position as invalid.
+   */
+  protected void invalidateIndexes(int from) {
+    numIndexed = Math.min(numIndexed, from);
+    if (numIndexed == 0 && indexes != null) {
+      // Get rid of the references to elements that were removed.
+      indexes.clear();
+    }
+  }
+
+  /**
+   * Ensures that the array of elements can hold the given number of elements.
+   */
+  protected void ensureCapacity(int capacity) {
+    if (capacity > elements.length) {
+      int grown = elements.length == 0 ? DEFAULT_CAPACITY
+          : elements.length + (elements.length >> 1);
+      elements = Arrays.copyOf(elements, Math.max(capacity, grown));
+    }
+  }
+
+  /**
+   * Throws an IndexOutOfBoundsException if the given index isn't in the range
+   * [0, bound).
+   */
+  protected void checkIndex(int index, int bound) {
+    if (index < 0 || index >= bound) {
+      throw new IndexOutOfBoundsException("Index: " + index + ", Size: "
+          + size);
+    }
+  }
+
+  /**
+   * Resets the (transient) indexes on deserialization.
+   */
+  private void readObject(ObjectInputStream in)
+      throws IOException, ClassNotFoundException {
+    in.defaultReadObject();
+    this.indexes = null;
+    this.numIndexed = 0;
+  }
+}
@@ -0,0 +1,311 @@
+package de.freiburg.iif.collection;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.function.IntConsumer;
+
+/**
+ * A sorted set of primitive ints, stored as a sorted array of disjoint ranges
+ * of consecutive values. Sets of mostly consecutive values (like the line
+ * numbers of a paragraph) are stored in a few ranges, with no boxing.
+ *
+ * The smallest and the largest value are read in constant time. Adding a
+ * value takes constant time if the value isn't smaller than the start of
+ * the last range (the common case of ascending values), and a binary search
+ * (plus a shift of the following ranges) otherwise. The values can be
+ * iterated without allocations, either range by range (see
+ * {@link #getNumRanges()}) or value by value (see {@link #forEach}).
+ *
+ * @author Claudius Korzen
+ *
+ */
+public class IntRangeSet {
+  /**
+   * The ranges: the start of the i-th range at index 2 * i and its
+   * (inclusive) end at index 2 * i + 1. The ranges are sorted and there is at
+   * least one missing value between two ranges.
+   */
+  protected int[] ranges;
+
+  /**
+   * The number of ranges.
+   */
+  protected int numRanges;
+
+  /**
+   * The number of values.
+   */
+  protected int size;
+
+  /**
+   * Creates a new empty set.
+   */
+  public IntRangeSet() {
+    this.ranges = new int[8];
+  }
+
+  // ___________________________________________________________________________
+
+  /**
+   * Adds the given value to this set.
+   *
+   * @return true, if the value wasn't contained in this set yet.
+   */
+  public boolean add(int value) {
+    int last = 2 * numRanges - 2;
+    if (numRanges > 0 && value >= ranges[last]) {
+      // The fast path for ascending values.
+      int end = ranges[last + 1];
+      if (value <= end) {
+        return false;
+      }
+      if (value == end + 1) {
+        ranges[last + 1] = value;
+        size++;
+        return true;
+      }
+      insertRange(numRanges, value);
+      return true;
+    }
+
+    // The index of the first range with an end >= value.
+    int i = findRange(value);
+    if (i < numRanges && ranges[2 * i] <= value) {
+      return false;
+    }
+    boolean joinsPrevious = i > 0 && ranges[2 * i - 1] == value - 1;
+    boolean joinsNext = i < numRanges && ranges[2 * i] == value + 1;
+    if (joinsPrevious && joinsNext) {
+      // Merge the previous and the next range.
+      ranges[2 * i - 1] = ranges[2 * i + 1];
+      System.arraycopy(ranges, 2 * i + 2, ranges, 2 * i,
+          2 * (numRanges - i - 1));
+      numRanges--;
+    } else if (joinsPrevious) {
+      ranges[2 * i - 1] = value;
+    } else if (joinsNext) {
+      ranges[2 * i] = value;
+    } else {
+      insertRange(i, value);
+      return true;
+    }
+    size++;
+    return true;
+  }
+
+  /**
+   * Adds all values from start to end (both inclusive) to this set.
+   */
+  public void addRange(int start, int end) {
+    for (int value = start; value <= end; value++) {
+      add(value);
+      if (value == end) {
+        break; // Don't overflow if end is Integer.MAX_VALUE.
+      }
+    }
+  }
+
+  /**
+   * Inserts a range that consists of the given value at the given index.
+   */
+  protected void insertRange(int index, int value) {
+    if (2 * numRanges == ranges.length) {
+      ranges = Arrays.copyOf(ranges, ranges.length * 2);
+    }
+    System.arraycopy(ranges, 2 * index, ranges, 2 * index + 2,
+        2 * (numRanges - index));
+    ranges[2 * index] = value;
+    ranges[2 * index + 1] = value;
+    numRanges++;
+    size++;
+  }
+
+  /**
+   * Returns the index of the first range with an end >= the given value (or
+   * numRanges if there is no such range).
+   */
+  protected int findRange(int value) {
+    int low = 0;
+    int high = numRanges;
+    while (low < high) {
+      int mid = (low + high) >>> 1;
+      if (ranges[2 * mid + 1] < value) {
+        low = mid + 1;
+      } else {
+        high = mid;
+      }
+    }
+    return low;
+  }
+
+  /**
+   * Returns true, if this set contains the given value.
+   */
+  public boolean contains(int value) {
+    int i = findRange(value);
+    return i < numRanges && ranges[2 * i] <= value;
+  }
+
+  /**
+   * Removes all values from this set.
+   */
+  public void clear() {
+    numRanges = 0;
+    size = 0;
+  }
+
+  // ___________________________________________________________________________
+
+  /**
+   * Returns true, if this set contains no values.
+   */
+  public boolean isEmpty() {
+    return size == 0;
+  }
+
+  /**
+   * Returns the number of values in this set.
+   */
+  public int size() {
+    return size;
+  }
+
+  /**
+   * Returns the smallest value in this set.
+   *
+   * @throws NoSuchElementException if this set is empty.
+   */
+  public int first() {
+    if (numRanges == 0) {
+      throw new NoSuchElementException();
+    }
+    return ranges[0];
+  }
+
+  /**
+   * Returns the largest value in this set.
+   *
+   * @throws NoSuchElementException if this set is empty.
+   */
+  public int last() {
+    if (numRanges == 0) {
+      throw new NoSuchElementException();
+    }
+    return ranges[2 * numRanges - 1];
+  }
+
+  /**
+   * Returns the number of ranges of consecutive values.
+   */
+  public int getNumRanges() {
+    return numRanges;
+  }
+
+  /**
+   * Returns the first value of the i-th range.
+   */
+  public int getRangeStart(int i) {
+    checkRangeIndex(i);
+    return ranges[2 * i];
+  }
+
+  /**
+   * Returns the last value of the i-th range.
+   */
+  public int getRangeEnd(int i) {
+    checkRangeIndex(i);
+    return ranges[2 * i + 1];
+  }
+
+  /**
+   * Checks if there is a range with the given index.
+   */
+  protected void checkRangeIndex(int i) {
+    if (i < 0 || i >= numRanges) {
+      throw new IndexOutOfBoundsException("Range: " + i);
+    }
+  }
+
+  /**
+   * Passes the values of this set to the given consumer, in ascending order.
+   */
+  public void forEach(IntConsumer consumer) {
+    for (int i = 0; i < numRanges; i++) {
+      int end = ranges[2 * i + 1];
+      for (int value = ranges[2 * i];; value++) {
+        consumer.accept(value);
+        if (value == end) {
+          break; // Don't overflow if end is Integer.MAX_VALUE.
+        }
+      }
+    }
+  }
+
+  /**
+   * Returns the values of this set in ascending order.
+   */
+  public int[] toArray() {
+    int[] values = new int[size];
+    int n = 0;
+    for (int i = 0; i < numRanges; i++) {
+      int end = ranges[2 * i + 1];
+      for (int value = ranges[2 * i];; value++) {
+        values[n++] = value;
+        if (value == end) {
+          break; // Don't overflow if end is Integer.MAX_VALUE.
+        }
+      }
+    }
+    return values;
+  }
+
+  /**
+   * Returns the values of this set in a (new) list, in ascending order.
+   */
+  public List<Integer> toList() {
+    List<Integer> values = new ArrayList<>(size);
+    for (int value : toArray()) {
+      values.add(value);
+    }
+    return values;
+  }
+
+  // ___________________________________________________________________________
+
+  @Override
+  public boolean equals(Object other) {
+    if (!(other instanceof IntRangeSet)) {
+      return false;
+    }
+    IntRangeSet set = (IntRangeSet) other;
+    if (set.numRanges != numRanges) {
+      return false;
+    }
+    for (int i = 0; i < 2 * numRanges; i++) {
+      if (ranges[i] != set.ranges[i]) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  @Override
+  public int hashCode() {
+    int hash = 1;
+    for (int i = 0; i < 2 * numRanges; i++) {
+      hash = 31 * hash + ranges[i];
+    }
+    return hash;
+  }
+
+  /**
+   * Returns the values of this set, like the string of a list of the values
+   * (e.g. "[1, 2, 5]").
+   */
+  @Override
+  public String toString() {
+    return Arrays.toString(toArray());
+  }
+}
@@ -0,0 +1,214 @@
+package de.freiburg.iif.collection;
+
+import java.util.AbstractMap.SimpleImmutableEntry;
+import java.util.Arrays;
+import java.util.Map;
+
+/**
+ * A trie that maps string keys to values and allows to find the longest key
+ * that is a prefix of a given string in time linear to the length of the
+ * matching key (independent of the number of keys in the trie).
+ *
+ * The trie is not thread-safe on modification, but can be shared between
+ * threads once it is fully built.
+ *
+ * @author Claudius Korzen
+ *
+ * @param <V>
+ *          the type of the values in this trie.
+ */
+public class PrefixTrie<V> {
+  /**
+   * The root node of this trie.
+   */
+  protected final Node<V> root = new Node<>();
+
+  /**
+   * The number of keys in this trie.
+   */
+  protected int size;
+
+  /**
+   * Associates the given value with the given key. Replaces the value
+   * previously associated with the key (if any).
+   *
+   * @return the previously associated value or null if there is no such value.
+   */
+  public V put(String key, V value) {
+    if (key == null) {
+      throw new IllegalArgumentException("The key must not be null.");
+    }
+
+    Node<V> node = root;
+    for (int i = 0; i < key.length(); i++) {
+      node = node.getOrCreateChild(key.charAt(i));
+    }
+
+    V previous = node.entry != null ? node.entry.getValue() : null;
+    if (node.entry == null) {
+      size++;
+    }
+    node.entry = new SimpleImmutableEntry<>(key, value);
+    return previous;
+  }
+
+  /**
+   * Returns the value associated with the given key or null if there is no
+   * such key.
+   */
+  public V get(CharSequence key) {
+    Node<V> node = getNode(key);
+    return node != null && node.entry != null ? node.entry.getValue() : null;
+  }
+
+  /**
+   * Returns true, if this trie contains the given key.
+   */
+  public boolean containsKey(CharSequence key) {
+    Node<V> node = getNode(key);
+    return node != null && node.entry != null;
+  }
+
+  /**
+   * Returns the entry with the longest key that is a prefix of the given
+   * string or null if there is no such key.
+   */
+  public Map.Entry<String, V> getLongestPrefixEntry(CharSequence string) {
+    if (string == null) {
+      return null;
+    }
+
+    Node<V> node = root;
+    Map.Entry<String, V> match = node.entry;
+    for (int i = 0; i < string.length(); i++) {
+      node = node.getChild(string.charAt(i));
+      if (node == null) {
+        break;
+      }
+      if (node.entry != null) {
+        match = node.entry;
+      }
+    }
+    return match;
+  }
+
+  /**
+   * Returns the longest key that is a prefix of the given string or null if
+   * there is no such key.
+   */
+  public String getLongestPrefix(CharSequence string) {
+    Map.Entry<String, V> entry = getLongestPrefixEntry(string);
+    return entry != null ? entry.getKey() : null;
+  }
+
+  /**
+   * Returns the number of keys in this trie.
+   */
+  public int size() {
+    return size;
+  }
+
+  /**
+   * Returns true, if this trie doesn't contain any key.
+   */
+  public boolean isEmpty() {
+    return size == 0;
+  }
+
+  /**
+   * Returns the node reached by the given key or null if there is no such
+   * node.
+   */
+  protected Node<V> getNode(CharSequence key) {
+    if (key == null) {
+      return null;
+    }
+
+    Node<V> node = root;
+    for (int i = 0; i < key.length() && node != null; i++) {
+      node = node.getChild(key.charAt(i));
+    }
+    return node;
+  }
+
+  // ___________________________________________________________________________
+
+  /**
+   * A node in the trie. The children are held in parallel arrays sorted by
+   * their labels, such that a child can be found by binary search.
+   *
+   * @param <V>
+   *          the type of the values in the trie.
+   */
+  static class Node<V> {
+    /**
+     * The (sorted) labels of the children.
+     */
+    protected char[] labels = new char[0];
+
+    /**
+     * The children, in the same order as the labels.
+     */
+    protected Node<V>[] children = newArray(0);
+
+    /**
+     * The entry of the key that ends at this node, or null if there is no
+     * such key.
+     */
+    protected Map.Entry<String, V> entry;
+
+    /**
+     * Returns the child with the given label or null if there is no such
+     * child.
+     */
+    protected Node<V> getChild(char label) {
+      // Most nodes have only a few children; a linear scan is faster then.
+      if (labels.length < 8) {
+        for (int i = 0; i < labels.length; i++) {
+          if (labels[i] == label) {
+            return children[i];
+          }
+        }
+        return null;
+      }
+      int index = Arrays.binarySearch(labels, label);
+      return index >= 0 ? children[index] : null;
+    }
+
+    /**
+     * Returns the child with the given label. Creates the child if there is
+     * no such child yet.
+     */
+    protected Node<V> getOrCreateChild(char label) {
+      int index = Arrays.binarySearch(labels, label);
+      if (index >= 0) {
+        return children[index];
+      }
+
+      int insertionPoint = -(index + 1);
+      char[] newLabels = new char[labels.length + 1];
+      Node<V>[] newChildren = newArray(children.length + 1);
+      System.arraycopy(labels, 0, newLabels, 0, insertionPoint);
+      System.arraycopy(children, 0, newChildren, 0, insertionPoint);
+      System.arraycopy(labels, insertionPoint, newLabels, insertionPoint + 1,
+          labels.length - insertionPoint);
+      System.arraycopy(children, insertionPoint, newChildren,
+          insertionPoint + 1, children.length - insertionPoint);
+
+      Node<V> child = new Node<>();
+      newLabels[insertionPoint] = label;
+      newChildren[insertionPoint] = child;
+      labels = newLabels;
+      children = newChildren;
+      return child;
+    }
+
+    /**
+     * Creates a new array of nodes with the given length.
+     */
+    @SuppressWarnings("unchecked")
+    protected static <V> Node<V>[] newArray(int length) {
+      return (Node<V>[]) new Node<?>[length];
+    }
+  }
+}
@@ -0,0 +1,40 @@
+package de.freiburg.iif.metrics;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A monotonically increasing counter that may be updated by multiple threads
+ * at the same time.
+ *
+ * @author Claudius Korzen
+ */
+public class Counter {
+  /**
+   * The value of this counter.
+   */
+  protected final LongAdder value = new LongAdder();
+
+  /**
+   * Increments this counter by 1.
+   */
+  public void inc() {
+    this.value.increment();
+  }
+
+  /**
+   * Increments this counter by the given amount (must not be negative).
+   */
+  public void add(long amount) {
+    if (amount < 0) {
+      throw new IllegalArgumentException("A counter can't be decremented.");
+    }
+    this.value.add(amount);
+  }
+
+  /**
+   * Returns the value of this counter.
+   */
+  public long get() {
+    return this.value.sum();
+  }
+}
@@ -0,0 +1,176 @@
+package de.freiburg.iif.metrics;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.DoubleAdder;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A histogram that counts observed values (e.g., latencies) in buckets with
+ * fixed upper bounds, as known from Prometheus. There is an implicit last
+ * bucket with the upper bound +Inf. A value is counted in the first bucket
+ * whose upper bound is >= the value.
+ *
+ * Observing a value is lock-free, so a histogram may be updated by multiple
+ * threads at the same time.
+ *
+ * @author Claudius Korzen
+ */
+public class Histogram {
+  /**
+   * The (finite) upper bounds of the buckets, in ascending order.
+   */
+  protected final double[] upperBounds;
+
+  /**
+   * The number of values per bucket (not cumulative). The last bucket counts
+   * the values greater than the largest upper bound.
+   */
+  protected final AtomicLongArray bucketCounts;
+
+  /**
+   * The number of observed values.
+   */
+  protected final LongAdder count = new LongAdder();
+
+  /**
+   * The sum of the observed values.
+   */
+  protected final DoubleAdder sum = new DoubleAdder();
+
+  /**
+   * Creates a new histogram with buckets of the given (finite) upper bounds.
+   */
+  public Histogram(double... upperBounds) {
+    affirmAscending(upperBounds);
+    this.upperBounds = upperBounds.clone();
+    this.bucketCounts = new AtomicLongArray(upperBounds.length + 1);
+  }
+
+  /**
+   * Returns the given number of upper bounds, where the first bound is the
+   * given start value and each further bound is the previous bound
+   * multiplied by the given factor.
+   */
+  public static double[] exponentialBounds(double start, double factor,
+      int num) {
+    if (start <= 0 || factor <= 1 || num < 1) {
+      throw new IllegalArgumentException("Invalid exponential bounds.");
+    }
+    double[] bounds = new double[num];
+    bounds[0] = start;
+    for (int i = 1; i < num; i++) {
+      bounds[i] = bounds[i - 1] * factor;
+    }
+    return bounds;
+  }
+
+  /**
+   * Checks that the given bounds are finite and strictly ascending.
+   */
+  protected static void affirmAscending(double[] bounds) {
+    for (int i = 0; i < bounds.length; i++) {
+      if (Double.isNaN(bounds[i]) || Double.isInfinite(bounds[i])
+          || (i > 0 && bounds[i] <= bounds[i - 1])) {
+        throw new IllegalArgumentException("The upper bounds must be finite "
+            + "and strictly ascending.");
+      }
+    }
+  }
+
+  // ___________________________________________________________________________
+
+  /**
+   * Observes the given value.
+   */
+  public void observe(double value) {
+    int index = Arrays.binarySearch(this.upperBounds, value);
+    if (index < 0) {
+      // The insertion point is the first bucket whose bound is > value.
+      index = -(index + 1);
+    }
+    this.bucketCounts.incrementAndGet(index);
+    this.count.increment();
+    this.sum.add(value);
+  }
+
+  /**
+   * Observes the given duration in nanoseconds as seconds.
+   */
+  public void observeNanos(long nanos) {
+    observe(nanos / 1e9);
+  }
+
+  // ___________________________________________________________________________
+
+  /**
+   * Returns the number of buckets, including the last bucket with the upper
+   * bound +Inf.
+   */
+  public int getNumBuckets() {
+    return this.bucketCounts.length();
+  }
+
+  /**
+   * Returns the upper bound of the i-th bucket (+Inf for the last bucket).
+   */
+  public double getUpperBound(int i) {
+    return i < this.upperBounds.length ? this.upperBounds[i]
+        : Double.POSITIVE_INFINITY;
+  }
+
+  /**
+   * Returns the number of values counted in the i-th bucket (not cumulative).
+   */
+  public long getBucketCount(int i) {
+    return this.bucketCounts.get(i);
+  }
+
+  /**
+   * Returns the number of observed values.
+   */
+  public long getCount() {
+    return this.count.sum();
+  }
+
+  /**
+   * Returns the sum of the observed values.
+   */
+  public double getSum() {
+    return this.sum.sum();
+  }
+
+  /**
+   * Estimates the given quantile (between 0 and 1) of the observed values by
+   * interpolating linearly within the bucket that contains it. Values in the
+   * last bucket are estimated by the largest finite upper bound. Returns NaN
+   * if there are no observed values.
+   */
+  public double getQuantile(double quantile) {
+    int numBuckets = getNumBuckets();
+    long[] counts = new long[numBuckets];
+    long total = 0;
+    for (int i = 0; i < numBuckets; i++) {
+      counts[i] = getBucketCount(i);
+      total += counts[i];
+    }
+    if (total == 0) {
+      return Double.NaN;
+    }
+
+    double rank = Math.max(0, Math.min(1, quantile)) * total;
+    long cumulative = 0;
+    for (int i = 0; i < numBuckets; i++) {
+      if (counts[i] > 0 && cumulative + counts[i] >= rank) {
+        if (i == this.upperBounds.length) {
+          return i > 0 ? this.upperBounds[i - 1] : 0;
+        }
+        double lower = i > 0 ? this.upperBounds[i - 1] : 0;
+        double upper = this.upperBounds[i];
+        return lower + (upper - lower) * (rank - cumulative) / counts[i];
+      }
+      cumulative += counts[i];
+    }
+    return Double.NaN;
+  }
+}
@@ -0,0 +1,92 @@
+package de.freiburg.iif.metrics;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+
+import de.freiburg.iif.net.HttpRequest;
+import de.freiburg.iif.net.HttpResponse;
+import de.freiburg.iif.net.HttpServer;
+
+/**
+ * A http server that exposes the metrics of a {@link MetricsRegistry}, to be
+ * scraped by Prometheus. It serves the following paths (on GET requests):
+ *
+ * <ul>
+ * <li>"/metrics" (and "/"): the metrics in the text exposition format.</li>
+ * <li>"/metrics.json": the metrics as JSON summary.</li>
+ * </ul>
+ *
+ * @author Claudius Korzen
+ */
+public class MetricsHttpServer extends HttpServer {
+  /**
+   * The path of the metrics in the text exposition format.
+   */
+  public static final String TEXT_PATH = "/metrics";
+
+  /**
+   * The path of the metrics as JSON.
+   */
+  public static final String JSON_PATH = "/metrics.json";
+
+  /**
+   * The registry of the metrics to expose.
+   */
+  protected final MetricsRegistry registry;
+
+  /**
+   * Creates a new server that exposes the metrics of the given registry.
+   */
+  public MetricsHttpServer(MetricsRegistry registry) {
+    this.registry = registry;
+  }
+
+  @Override
+  public void handleHttpRequest(HttpRequest req) throws IOException {
+    if (!"GET".equals(req.getMethod())) {
+      respond(req, 405, "Method Not Allowed", "text/plain; charset=utf-8",
+          "Only GET is supported.\n");
+      return;
+    }
+
+    String path = req.getPath();
+    switch (path) {
+      case "/":
+      case TEXT_PATH:
+        respond(req, 200, "OK", MetricsRegistry.TEXT_CONTENT_TYPE,
+            this.registry.toText());
+        break;
+      case JSON_PATH:
+        respond(req, 200, "OK", MetricsRegistry.JSON_CONTENT_TYPE,
+            this.registry.toJson());
+        break;
+      default:
+        respond(req, 404, "Not Found", "text/plain; charset=utf-8",
+            "Not found: " + path + "\n");
+        break;
+    }
+  }
+
+  /**
+   * Writes a response with the given status and body to the given request.
+   */
+  protected void respond(HttpRequest req, int statusCode, String status,
+      String contentType, String body) throws IOException {
+    respond(req, statusCode, status, contentType,
+        body.getBytes(StandardCharsets.UTF_8));
+  }
+
+  /**
+   * Writes a response with the given status and body to the given request.
+   */
+  protected void respond(HttpRequest req, int statusCode, String status,
+      String contentType, byte[] bytes) throws IOException {
+    HttpResponse response = req.createHttpResponse(statusCode, status);
+    response.addHeader("Content-Type", contentType);
+    response.addHeader("Content-Length", String.valueOf(bytes.length));
+    OutputStream stream = response.getPayloadStream();
+    stream.write(bytes);
+    stream.flush();
+  }
+}
@@ -0,0 +1,438 @@
+package de.freiburg.iif.metrics;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.DoubleSupplier;
+
+/**
+ * A registry of metrics (counters, gauges and histograms) that can be written
+ * in the text exposition format of Prometheus (to be scraped by a
+ * {@link MetricsHttpServer}) or as a JSON summary.
+ *
+ * The metrics are grouped into families by their names. The metrics of a
+ * family have the same type and help text, but differ in their labels, given
+ * as pairs of label names and values, e.g. ("stage", "parse"). The families
+ * are written in the order of their registration.
+ *
+ * @author Claudius Korzen
+ */
+public class MetricsRegistry {
+  /**
+   * The content type of the text exposition format of Prometheus.
+   */
+  public static final String TEXT_CONTENT_TYPE =
+      "text/plain; version=0.0.4; charset=utf-8";
+
+  /**
+   * The content type of the JSON summary.
+   */
+  public static final String JSON_CONTENT_TYPE =
+      "application/json; charset=utf-8";
+
+  /**
+   * The quantiles of histograms to include in the JSON summary.
+   */
+  protected static final double[] SUMMARY_QUANTILES = { 0.5, 0.9, 0.99 };
+
+  /**
+   * The types of metrics.
+   */
+  public enum Type {
+    /** A monotonically increasing value. */
+    COUNTER,
+    /** A value that may go up and down. */
+    GAUGE,
+    /** Values counted in buckets. */
+    HISTOGRAM
+  }
+
+  /**
+   * The families of metrics, per name.
+   */
+  protected final Map<String, Family> families = new LinkedHashMap<>();
+
+  // ___________________________________________________________________________
+  // Registration.
+
+  /**
+   * Registers a new counter with the given name, help text and labels.
+   */
+  public Counter counter(String name, String help, String... labels) {
+    Counter counter = new Counter();
+    register(name, help, Type.COUNTER, labels, counter);
+    return counter;
+  }
+
+  /**
+   * Registers a counter whose value is given by the given supplier (e.g.,
+   * for counters maintained elsewhere).
+   */
+  public void counter(String name, String help, DoubleSupplier value,
+      String... labels) {
+    register(name, help, Type.COUNTER, labels, value);
+  }
+
+  /**
+   * Registers a gauge whose value is given by the given supplier.
+   */
+  public void gauge(String name, String help, DoubleSupplier value,
+      String... labels) {
+    register(name, help, Type.GAUGE, labels, value);
+  }
+
+  /**
+   * Registers a new histogram with buckets of the given upper bounds.
+   */
+  public Histogram histogram(String name, String help, double[] upperBounds,
+      String... labels) {
+    Histogram histogram = new Histogram(upperBounds);
+    register(name, help, Type.HISTOGRAM, labels, histogram);
+    return histogram;
+  }
+
+  /**
+   * Registers the given metric.
+   */
+  protected synchronized void register(String name, String help, Type type,
+      String[] labels, Object metric) {
+    if (name == null || !name.matches("[a-zA-Z_:][a-zA-Z0-9_:]*")) {
+      throw new IllegalArgumentException("Invalid metric name: " + name);
+    }
+    if (labels.length % 2 != 0) {
+      throw new IllegalArgumentException("The labels must be given as pairs "
+          + "of names and values.");
+    }
+
+    Family family = this.families.get(name);
+    if (family == null) {
+      family = new Family(name, help, type);
+      this.families.put(name, family);
+    } else if (family.type != type) {
+      throw new IllegalArgumentException("The metric '" + name
+          + "' is already registered as " + family.type + ".");
+    }
+
+    for (Sample sample : family.samples) {
+      if (formatLabels(sample.labels).equals(formatLabels(labels))) {
+        throw new IllegalArgumentException("The metric '" + name
+            + formatLabels(labels) + "' is already registered.");
+      }
+    }
+    family.samples.add(new Sample(labels.clone(), metric));
+  }
+
+  // ___________________________________________________________________________
+  // Text exposition format.
+
+  /**
+   * Writes all metrics in the text exposition format of Prometheus.
+   */
+  public synchronized void writeText(Writer writer) throws IOException {
+    for (Family family : this.families.values()) {
+      writer.write("# HELP " + family.name + " "
+          + escapeHelp(family.help) + "\n");
+      writer.write("# TYPE " + family.name + " "
+          + family.type.name().toLowerCase() + "\n");
+
+      for (Sample sample : family.samples) {
+        if (family.type == Type.HISTOGRAM) {
+          writeHistogramText(writer, family.name, sample.labels,
+              (Histogram) sample.metric);
+        } else {
+          writeSampleText(writer, family.name, sample.labels, null,
+              formatValue(sample.getValue()));
+        }
+      }
+    }
+    writer.flush();
+  }
+
+  /**
+   * Writes the cumulative buckets, the sum and the count of the given
+   * histogram.
+   */
+  protected void writeHistogramText(Writer writer, String name,
+      String[] labels, Histogram histogram) throws IOException {
+    long cumulative = 0;
+    for (int i = 0; i < histogram.getNumBuckets(); i++) {
+      cumulative += histogram.getBucketCount(i);
+      String le = formatValue(histogram.getUpperBound(i));
+      writeSampleText(writer, name + "_bucket", labels, le,
+          String.valueOf(cumulative));
+    }
+    writeSampleText(writer, name + "_sum", labels, null,
+        formatValue(histogram.getSum()));
+    // The count must match the +Inf bucket.
+    writeSampleText(writer, name + "_count", labels, null,
+        String.valueOf(cumulative));
+  }
+
+  /**
+   * Writes a single sample line. The given bound (may be null) is added as
+   * label "le".
+   */
+  protected void writeSampleText(Writer writer, String name, String[] labels,
+      String le, String value) throws IOException {
+    writer.write(name);
+    if (le != null) {
+      String[] withLe = new String[labels.length + 2];
+      System.arraycopy(labels, 0, withLe, 0, labels.length);
+      withLe[labels.length] = "le";
+      withLe[labels.length + 1] = le;
+      writer.write(formatLabels(withLe));
+    } else {
+      writer.write(formatLabels(labels));
+    }
+    writer.write(" ");
+    writer.write(value);
+    writer.write("\n");
+  }
+
+  /**
+   * Returns all metrics in the text exposition format of Prometheus.
+   */
+  public String toText() {
+    StringWriter writer = new StringWriter();
+    try {
+      writeText(writer);
+    } catch (IOException e) {
+      // Can't happen on writing to a string.
+      throw new IllegalStateException(e);
+    }
+    return writer.toString();
+  }
+
+  // ___________________________________________________________________________
+  // JSON.
+
+  /**
+   * Writes all metrics as JSON object that maps the name of each family to
+   * its type, help text and samples. The samples of histograms consist of
+   * the count, the sum, the mean and estimated quantiles of the observed
+   * values (instead of the buckets).
+   */
+  public synchronized void writeJson(Writer writer) throws IOException {
+    writer.write("{");
+    String familySeparator = "\n";
+    for (Family family : this.families.values()) {
+      writer.write(familySeparator);
+      writer.write("  " + quote(family.name) + ": {\n");
+      writer.write("    \"type\": "
+          + quote(family.type.name().toLowerCase()) + ",\n");
+      writer.write("    \"help\": " + quote(family.help) + ",\n");
+      writer.write("    \"samples\": [");
+
+      String sampleSeparator = "\n";
+      for (Sample sample : family.samples) {
+        writer.write(sampleSeparator);
+        writer.write("      {\"labels\": {");
+        for (int i = 0; i < sample.labels.length; i += 2) {
+          writer.write((i > 0 ? ", " : "") + quote(sample.labels[i]) + ": "
+              + quote(sample.labels[i + 1]));
+        }
+        writer.write("}");
+        if (family.type == Type.HISTOGRAM) {
+          writeHistogramJson(writer, (Histogram) sample.metric);
+        } else {
+          writer.write(", \"value\": " + formatJsonValue(sample.getValue()));
+        }
+        writer.write("}");
+        sampleSeparator = ",\n";
+      }
+      writer.write(family.samples.isEmpty() ? "]\n" : "\n    ]\n");
+      writer.write("  }");
+      familySeparator = ",\n";
+    }
+    writer.write(this.families.isEmpty() ? "}\n" : "\n}\n");
+    writer.flush();
+  }
+
+  /**
+   * Writes the count, the sum, the mean and estimated quantiles of the given
+   * histogram as JSON fields.
+   */
+  protected void writeHistogramJson(Writer writer, Histogram histogram)
+    throws IOException {
+    long count = histogram.getCount();
+    double sum = histogram.getSum();
+    writer.write(", \"count\": " + count);
+    writer.write(", \"sum\": " + formatJsonValue(sum));
+    writer.write(", \"mean\": "
+        + formatJsonValue(count > 0 ? sum / count : Double.NaN));
+    for (double quantile : SUMMARY_QUANTILES) {
+      writer.write(", \"p" + Math.round(quantile * 100) + "\": "
+          + formatJsonValue(histogram.getQuantile(quantile)));
+    }
+  }
+
+  /**
+   * Returns all metrics as JSON.
+   */
+  public String toJson() {
+    StringWriter writer = new StringWriter();
+    try {
+      writeJson(writer);
+    } catch (IOException e) {
+      // Can't happen on writing to a string.
+      throw new IllegalStateException(e);
+    }
+    return writer.toString();
+  }
+
+  // ___________________________________________________________________________
+  // Util methods.
+
+  /**
+   * Formats the given labels as "{name1="value1",name2="value2"}" (or as an
+   * empty string if there are no labels).
+   */
+  protected static String formatLabels(String[] labels) {
+    if (labels.length == 0) {
+      return "";
+    }
+    StringBuilder sb = new StringBuilder("{");
+    for (int i = 0; i < labels.length; i += 2) {
+      if (i > 0) {
+        sb.append(",");
+      }
+      sb.append(labels[i]).append("=\"");
+      sb.append(escapeLabelValue(labels[i + 1])).append("\"");
+    }
+    return sb.append("}").toString();
+  }
+
+  /**
+   * Formats the given value, where integral values are formatted without
+   * fraction digits.
+   */
+  protected static String formatValue(double value) {
+    if (Double.isNaN(value)) {
+      return "NaN";
+    }
+    if (Double.isInfinite(value)) {
+      return value > 0 ? "+Inf" : "-Inf";
+    }
+    if (value == Math.rint(value) && Math.abs(value) < 1e15) {
+      return String.valueOf((long) value);
+    }
+    return String.valueOf(value);
+  }
+
+  /**
+   * Formats the given value as JSON number (or null, if the value isn't
+   * finite).
+   */
+  protected static String formatJsonValue(double value) {
+    if (Double.isNaN(value) || Double.isInfinite(value)) {
+      return "null";
+    }
+    return formatValue(value);
+  }
+
+  /**
+   * Escapes the backslashes and newlines in the given help text.
+   */
+  protected static String escapeHelp(String help) {
+    return String.valueOf(help).replace("\\", "\\\\").replace("\n", "\\n");
+  }
+
+  /**
+   * Escapes the backslashes, quotes and newlines in the given label value.
+   */
+  protected static String escapeLabelValue(String value) {
+    return escapeHelp(value).replace("\"", "\\\"");
+  }
+
+  /**
+   * Returns the given string as quoted JSON string.
+   */
+  protected static String quote(String str) {
+    StringBuilder sb = new StringBuilder("\"");
+    String s = String.valueOf(str);
+    for (int i = 0; i < s.length(); i++) {
+      char c = s.charAt(i);
+      switch (c) {
+        case '"':
+          sb.append("\\\"");
+          break;
+        case '\\':
+          sb.append("\\\\");
+          break;
+        case '\n':
+          sb.append("\\n");
+          break;
+        case '\r':
+          sb.append("\\r");
+          break;
+        case '\t':
+          sb.append("\\t");
+          break;
+        default:
+          if (c < 0x20) {
+            sb.append(String.format("\\u%04x", (int) c));
+          } else {
+            sb.append(c);
+          }
+      }
+    }
+    return sb.append("\"").toString();
+  }
+
+  // ___________________________________________________________________________
+
+  /**
+   * A family of metrics with the same name.
+   */
+  protected static class Family {
+    /** The name of the metrics. */
+    protected final String name;
+    /** The help text of the metrics. */
+    protected final String help;
+    /** The type of the metrics. */
+    protected final Type type;
+    /** The metrics, one per label set. */
+    protected final List<Sample> samples = new ArrayList<>();
+
+    /**
+     * Creates a new family.
+     */
+    Family(String name, String help, Type type) {
+      this.name = name;
+      this.help = help;
+      this.type = type;
+    }
+  }
+
+  /**
+   * A single metric of a family with its labels.
+   */
+  protected static class Sample {
+    /** The labels, as pairs of names and values. */
+    protected final String[] labels;
+    /** The metric: a Counter, a Histogram or a DoubleSupplier. */
+    protected final Object metric;
+
+    /**
+     * Creates a new sample.
+     */
+    Sample(String[] labels, Object metric) {
+      this.labels = labels;
+      this.metric = metric;
+    }
+
+    /**
+     * Returns the value of the metric (if it isn't a histogram).
+     */
+    protected double getValue() {
+      if (this.metric instanceof Counter) {
+        return ((Counter) this.metric).get();
+      }
+      return ((DoubleSupplier) this.metric).getAsDouble();
+    }
+  }
+}
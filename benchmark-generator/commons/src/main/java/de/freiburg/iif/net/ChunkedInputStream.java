@@ -0,0 +1,122 @@
+package de.freiburg.iif.net;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * A stream of a payload in the chunked transfer encoding, which decodes the
+ * chunks while reading them from the stream of the connection (without
+ * holding more than the buffer of the connection in memory). The trailer
+ * is read and ignored. Closing this stream doesn't close the connection.
+ *
+ * @author Claudius Korzen
+ */
+class ChunkedInputStream extends InputStream {
+  /**
+   * The stream of the connection.
+   */
+  protected final InputStream in;
+
+  /**
+   * The number of bytes left to read in the current chunk.
+   */
+  protected long remaining;
+
+  /**
+   * Flag to indicate whether the last chunk was read.
+   */
+  protected boolean isEnd;
+
+  /**
+   * Creates a new stream that decodes the chunks read from the given stream.
+   *
+   * @param in
+   *          the stream of the connection.
+   */
+  ChunkedInputStream(InputStream in) {
+    this.in = in;
+  }
+
+  @Override
+  public int read() throws IOException {
+    if (!nextChunk()) {
+      return -1;
+    }
+    int b = this.in.read();
+    if (b < 0) {
+      throw new EOFException("The payload is incomplete.");
+    }
+    this.remaining--;
+    return b;
+  }
+
+  @Override
+  public int read(byte[] b, int off, int len) throws IOException {
+    if (!nextChunk()) {
+      return -1;
+    }
+    if (len == 0) {
+      return 0;
+    }
+    int n = this.in.read(b, off, (int) Math.min(len, this.remaining));
+    if (n < 0) {
+      throw new EOFException("The payload is incomplete.");
+    }
+    this.remaining -= n;
+    return n;
+  }
+
+  @Override
+  public int available() throws IOException {
+    return (int) Math.min(this.in.available(), this.remaining);
+  }
+
+  /**
+   * Reads the header of the next chunk, if the current chunk is read
+   * completely.
+   *
+   * @return false if the last chunk was read, true otherwise.
+   * @throws IOException
+   *           if reading the header fails.
+   */
+  protected boolean nextChunk() throws IOException {
+    while (this.remaining == 0 && !this.isEnd) {
+      String line = ClientSocketWorker.readLine(this.in);
+      if (line == null) {
+        throw new EOFException("The payload is incomplete.");
+      }
+      if (line.isEmpty()) {
+        // The line break behind the data of the previous chunk.
+        continue;
+      }
+
+      // The size may be followed by extensions, separated by ';'.
+      int index = line.indexOf(';');
+      String size = (index < 0 ? line : line.substring(0, index)).trim();
+      try {
+        this.remaining = Long.parseLong(size, 16);
+      } catch (NumberFormatException e) {
+        throw new IOException("The chunk size is malformed: " + line);
+      }
+      if (this.remaining < 0) {
+        throw new IOException("The chunk size is malformed: " + line);
+      }
+
+      if (this.remaining == 0) {
+        // The last chunk, followed by the (ignored) trailer.
+        this.isEnd = true;
+        while ((line = ClientSocketWorker.readLine(this.in)) != null
+            && !line.isEmpty()) {
+          continue;
+        }
+      }
+    }
+    return !this.isEnd;
+  }
+
+  @Override
+  public void close() {
+    // The connection is closed by the server.
+  }
+}
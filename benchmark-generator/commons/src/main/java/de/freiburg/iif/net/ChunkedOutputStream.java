@@ -0,0 +1,138 @@
+package de.freiburg.iif.net;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * A stream that writes a payload of unknown length in the chunked transfer
+ * encoding. The written bytes are buffered and written as a chunk when the
+ * buffer is full or the stream is flushed. Closing the stream writes the
+ * last chunk, but doesn't close the connection.
+ *
+ * @author Claudius Korzen
+ */
+class ChunkedOutputStream extends OutputStream {
+  /**
+   * The default size of the buffer, i.e. the maximal size of a chunk.
+   */
+  protected static final int DEFAULT_BUFFER_SIZE = 8192;
+
+  /**
+   * The stream of the connection.
+   */
+  protected final OutputStream out;
+
+  /**
+   * The buffer of the current chunk.
+   */
+  protected final byte[] buffer;
+
+  /**
+   * The number of bytes in the buffer.
+   */
+  protected int size;
+
+  /**
+   * Flag to indicate whether the last chunk was written.
+   */
+  protected boolean isClosed;
+
+  /**
+   * Creates a new stream that writes chunks to the given stream.
+   *
+   * @param out
+   *          the stream of the connection.
+   */
+  ChunkedOutputStream(OutputStream out) {
+    this(out, DEFAULT_BUFFER_SIZE);
+  }
+
+  /**
+   * Creates a new stream that writes chunks of at most the given size to the
+   * given stream.
+   *
+   * @param out
+   *          the stream of the connection.
+   * @param bufferSize
+   *          the maximal size of a chunk.
+   */
+  ChunkedOutputStream(OutputStream out, int bufferSize) {
+    this.out = out;
+    this.buffer = new byte[bufferSize];
+  }
+
+  @Override
+  public void write(int b) throws IOException {
+    ensureOpen();
+    if (this.size == this.buffer.length) {
+      writeChunk();
+    }
+    this.buffer[this.size++] = (byte) b;
+  }
+
+  @Override
+  public void write(byte[] b, int off, int len) throws IOException {
+    ensureOpen();
+    while (len > 0) {
+      if (this.size == this.buffer.length) {
+        writeChunk();
+      }
+      int n = Math.min(len, this.buffer.length - this.size);
+      System.arraycopy(b, off, this.buffer, this.size, n);
+      this.size += n;
+      off += n;
+      len -= n;
+    }
+  }
+
+  @Override
+  public void flush() throws IOException {
+    if (!this.isClosed) {
+      writeChunk();
+    }
+    this.out.flush();
+  }
+
+  @Override
+  public void close() throws IOException {
+    if (this.isClosed) {
+      return;
+    }
+    writeChunk();
+    // The last chunk and the (empty) trailer.
+    this.out.write("0\r\n\r\n".getBytes(StandardCharsets.ISO_8859_1));
+    this.out.flush();
+    this.isClosed = true;
+  }
+
+  /**
+   * Writes the buffered bytes as a chunk (if there are any).
+   *
+   * @throws IOException
+   *           if writing the chunk fails.
+   */
+  protected void writeChunk() throws IOException {
+    if (this.size == 0) {
+      return;
+    }
+    String header = Integer.toHexString(this.size) + "\r\n";
+    this.out.write(header.getBytes(StandardCharsets.ISO_8859_1));
+    this.out.write(this.buffer, 0, this.size);
+    this.out.write('\r');
+    this.out.write('\n');
+    this.size = 0;
+  }
+
+  /**
+   * Throws an exception if the last chunk was written.
+   *
+   * @throws IOException
+   *           if the last chunk was written.
+   */
+  protected void ensureOpen() throws IOException {
+    if (this.isClosed) {
+      throw new IOException("The payload is complete.");
+    }
+  }
+}
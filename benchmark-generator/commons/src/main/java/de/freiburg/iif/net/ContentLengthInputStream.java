@@ -0,0 +1,78 @@
+package de.freiburg.iif.net;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * A stream of a payload of known length (given by the header
+ * "Content-Length"), which reads exactly this number of bytes from the
+ * stream of the connection. Closing this stream doesn't close the
+ * connection.
+ *
+ * @author Claudius Korzen
+ */
+class ContentLengthInputStream extends InputStream {
+  /**
+   * The stream of the connection.
+   */
+  protected final InputStream in;
+
+  /**
+   * The number of bytes left to read.
+   */
+  protected long remaining;
+
+  /**
+   * Creates a new stream that reads the given number of bytes from the given
+   * stream.
+   *
+   * @param in
+   *          the stream of the connection.
+   * @param length
+   *          the length of the payload.
+   */
+  ContentLengthInputStream(InputStream in, long length) {
+    this.in = in;
+    this.remaining = length;
+  }
+
+  @Override
+  public int read() throws IOException {
+    if (this.remaining <= 0) {
+      return -1;
+    }
+    int b = this.in.read();
+    if (b < 0) {
+      throw new EOFException("The payload is incomplete.");
+    }
+    this.remaining--;
+    return b;
+  }
+
+  @Override
+  public int read(byte[] b, int off, int len) throws IOException {
+    if (this.remaining <= 0) {
+      return -1;
+    }
+    if (len == 0) {
+      return 0;
+    }
+    int n = this.in.read(b, off, (int) Math.min(len, this.remaining));
+    if (n < 0) {
+      throw new EOFException("The payload is incomplete.");
+    }
+    this.remaining -= n;
+    return n;
+  }
+
+  @Override
+  public int available() throws IOException {
+    return (int) Math.min(this.in.available(), this.remaining);
+  }
+
+  @Override
+  public void close() {
+    // The connection is closed by the server.
+  }
+}
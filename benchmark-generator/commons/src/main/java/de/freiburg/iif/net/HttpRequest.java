@@ -1,8 +1,17 @@
 package de.freiburg.iif.net;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
 import java.net.Socket;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 
 /**
@@ -20,6 +29,17 @@ public class HttpRequest {
    * The http method. 
    */
   protected String httpMethod;
+
+  /**
+   * The request target, i.e. the path of the requested resource, including 
+   * the query (if any).
+   */
+  protected String target;
+
+  /**
+   * The version of the protocol, e.g. "HTTP/1.1".
+   */
+  protected String version = "HTTP/1.0";
   
   /** 
    * The headers. 
@@ -30,12 +50,36 @@ public class HttpRequest {
    * The payload. 
    */
   protected byte[] payload;
+
+  /**
+   * The stream of the payload, if the payload is read from the connection
+   * (null if the payload is given as array or was read into an array).
+   */
+  protected InputStream payloadStream;
+
+  /**
+   * Flag to indicate whether the client expects the response
+   * "100 Continue" before sending the payload.
+   */
+  protected boolean isContinueExpected;
   
   /** 
    * The http response. 
    */
   protected HttpResponse response;
 
+  /**
+   * The (buffered) stream to write the response to, if it is not the stream
+   * of the client socket.
+   */
+  protected OutputStream outputStream;
+
+  /**
+   * Flag to indicate whether the connection may be kept alive after the
+   * response, if the client wishes so.
+   */
+  protected boolean isKeepAliveAllowed;
+
   /**
    * Creates a new http request object.
    * 
@@ -50,8 +94,29 @@ public class HttpRequest {
    */
   public HttpRequest(Socket clientSocket, String httpMethod,
       Map<String, String> headers, byte[] payload) {
+    this(clientSocket, httpMethod, null, headers, payload);
+  }
+
+  /**
+   * Creates a new http request object.
+   * 
+   * @param clientSocket
+   *          the client socket.
+   * @param httpMethod
+   *          the http method.
+   * @param target
+   *          the request target, i.e. the path of the requested resource, 
+   *          including the query (if any).
+   * @param headers
+   *          the headers.
+   * @param payload
+   *          the payload.
+   */
+  public HttpRequest(Socket clientSocket, String httpMethod, String target,
+      Map<String, String> headers, byte[] payload) {
     this.clientSocket = clientSocket;
     this.httpMethod = httpMethod;
+    this.target = target;
     this.headers = headers;
     this.payload = payload;
   }
@@ -64,6 +129,9 @@ public class HttpRequest {
    *           if opening the output stream fails.
    */
   public OutputStream getOutputStream() throws IOException {
+    if (this.outputStream != null) {
+      return this.outputStream;
+    }
     return this.clientSocket.getOutputStream();
   }
 
@@ -76,6 +144,128 @@ public class HttpRequest {
     return this.httpMethod;
   }
 
+  /**
+   * Returns the request target, i.e. the path of the requested resource,
+   * including the query (if any), e.g. "/paragraphs?format=tsv".
+   * 
+   * @return the request target.
+   */
+  public String getTarget() {
+    return this.target;
+  }
+
+  /**
+   * Returns the version of the protocol.
+   * 
+   * @return the version of the protocol, e.g. "HTTP/1.1".
+   */
+  public String getVersion() {
+    return this.version;
+  }
+
+  /**
+   * Returns true, if the client wishes to keep the connection alive after
+   * the response, i.e. if the request is a HTTP/1.1 request without the
+   * header "Connection: close" or a HTTP/1.0 request with the header
+   * "Connection: keep-alive".
+   * 
+   * @return true, if the client wishes to keep the connection alive.
+   */
+  public boolean isKeepAlive() {
+    String connection = getHeader("Connection");
+    if ("HTTP/1.1".equals(this.version)) {
+      return !"close".equalsIgnoreCase(connection);
+    }
+    return "keep-alive".equalsIgnoreCase(connection);
+  }
+
+  /**
+   * Returns the path of the requested resource, without the query, e.g.
+   * "/paragraphs".
+   * 
+   * @return the path ("/" if there is no request target).
+   */
+  public String getPath() {
+    if (this.target == null) {
+      return "/";
+    }
+    int index = this.target.indexOf('?');
+    return index < 0 ? this.target : this.target.substring(0, index);
+  }
+
+  /**
+   * Returns the (undecoded) query of the request target, e.g. "format=tsv".
+   * 
+   * @return the query or null if there is no query.
+   */
+  public String getQuery() {
+    if (this.target == null) {
+      return null;
+    }
+    int index = this.target.indexOf('?');
+    return index < 0 ? null : this.target.substring(index + 1);
+  }
+
+  /**
+   * Returns the (decoded) parameters of the query, in the order of their
+   * appearance. A parameter may be given multiple times.
+   * 
+   * @return the parameters, per name (empty if there is no query).
+   */
+  public Map<String, List<String>> getQueryParameters() {
+    Map<String, List<String>> params = new LinkedHashMap<>();
+    String query = getQuery();
+    if (query == null || query.isEmpty()) {
+      return params;
+    }
+
+    for (String param : query.split("&")) {
+      if (param.isEmpty()) {
+        continue;
+      }
+      int index = param.indexOf('=');
+      String name = decode(index < 0 ? param : param.substring(0, index));
+      String value = index < 0 ? "" : decode(param.substring(index + 1));
+      List<String> values = params.get(name);
+      if (values == null) {
+        values = new ArrayList<>();
+        params.put(name, values);
+      }
+      values.add(value);
+    }
+    return params;
+  }
+
+  /**
+   * Returns the (first) value of the given query parameter.
+   * 
+   * @param name
+   *          the name of the parameter.
+   * @param defaultValue
+   *          the value to return if the parameter isn't given.
+   * @return the value of the parameter or the default value.
+   */
+  public String getQueryParameter(String name, String defaultValue) {
+    List<String> values = getQueryParameters().get(name);
+    return values != null ? values.get(0) : defaultValue;
+  }
+
+  /**
+   * Decodes the given url-encoded string (as UTF-8).
+   * 
+   * @param str
+   *          the string to decode.
+   * @return the decoded string.
+   */
+  protected static String decode(String str) {
+    try {
+      return URLDecoder.decode(str, "UTF-8");
+    } catch (UnsupportedEncodingException | IllegalArgumentException e) {
+      // The encoding is supported, but the string may be malformed.
+      return str;
+    }
+  }
+
   /**
    * Returns the http headers.
    * 
@@ -86,14 +276,99 @@ public class HttpRequest {
   }
 
   /**
-   * Returns the payload.
+   * Returns the value of the given header (the name is case-insensitive).
+   * 
+   * @param name
+   *          the name of the header.
+   * @return the value of the header or null if there is no such header.
+   */
+  public String getHeader(String name) {
+    if (this.headers == null) {
+      return null;
+    }
+    for (Map.Entry<String, String> header : this.headers.entrySet()) {
+      if (header.getKey().equalsIgnoreCase(name)) {
+        return header.getValue();
+      }
+    }
+    return null;
+  }
+
+  /**
+   * Returns the payload. If the payload is read from the connection, it is
+   * read completely into memory on the first call. Use
+   * {@link #getPayloadStream()} to read large payloads.
    * 
-   * @return the payload.
+   * @return the payload or null if there is no payload.
+   * @throws IOException
+   *           if reading the payload fails.
    */
-  public byte[] getPayload() {
+  public byte[] getPayload() throws IOException {
+    if (this.payload == null && this.payloadStream != null) {
+      InputStream stream = getPayloadStream();
+      ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+      byte[] buffer = new byte[8192];
+      int n;
+      while ((n = stream.read(buffer)) >= 0) {
+        bytes.write(buffer, 0, n);
+      }
+      this.payload = bytes.toByteArray();
+      this.payloadStream = null;
+    }
     return this.payload;
   }
 
+  /**
+   * Returns the stream of the payload. If the payload is read from the
+   * connection, the stream reads it in pieces, without holding it in memory
+   * completely (either of the length given by the header "Content-Length"
+   * or in the chunked transfer encoding). If the client expects the
+   * response "100 Continue" before sending the payload, it is written on the
+   * first call.
+   * 
+   * @return the stream of the payload (empty if there is no payload).
+   * @throws IOException
+   *           if writing the response "100 Continue" fails.
+   */
+  public InputStream getPayloadStream() throws IOException {
+    if (this.payload != null) {
+      return new ByteArrayInputStream(this.payload);
+    }
+    if (this.payloadStream == null) {
+      return new ByteArrayInputStream(new byte[0]);
+    }
+    if (this.isContinueExpected && this.response == null) {
+      OutputStream stream = getOutputStream();
+      stream.write((this.version + " 100 Continue\r\n\r\n")
+          .getBytes(StandardCharsets.ISO_8859_1));
+      stream.flush();
+      this.isContinueExpected = false;
+    }
+    return this.payloadStream;
+  }
+
+  /**
+   * Returns the length of the payload, as given by the header
+   * "Content-Length".
+   * 
+   * @return the length of the payload or -1 if it is unknown (e.g., if the
+   *         payload is chunked).
+   */
+  public long getContentLength() {
+    if (this.payload != null) {
+      return this.payload.length;
+    }
+    String length = getHeader("Content-Length");
+    if (length == null || getHeader("Transfer-Encoding") != null) {
+      return -1;
+    }
+    try {
+      return Long.parseLong(length.trim());
+    } catch (NumberFormatException e) {
+      return -1;
+    }
+  }
+
   /**
    * Creates a http response for this http request.
    * 
@@ -108,10 +383,22 @@ public class HttpRequest {
   public HttpResponse createHttpResponse(int statusCode, String status)
     throws IOException {
     if (this.response == null) {
-      OutputStream stream = this.clientSocket.getOutputStream();
-      this.response = new HttpResponse(stream, statusCode, status);
+      this.response = new HttpResponse(getOutputStream(), statusCode, status);
+      if ("HTTP/1.1".equals(this.version)) {
+        this.response.version = this.version;
+      }
+      this.response.isKeepAlive = this.isKeepAliveAllowed && isKeepAlive();
       return this.response;
     }
     throw new IllegalStateException("You can't create multiple http responses");
   }
+
+  /**
+   * Returns the http response created for this request.
+   * 
+   * @return the response or null if no response was created yet.
+   */
+  public HttpResponse getHttpResponse() {
+    return this.response;
+  }
 }
\ No newline at end of file
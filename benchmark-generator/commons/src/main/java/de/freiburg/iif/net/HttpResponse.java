@@ -1,5 +1,6 @@
 package de.freiburg.iif.net;
 
+import java.io.FilterOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
 import java.util.HashMap;
@@ -26,6 +27,17 @@ public class HttpResponse {
    */
   protected String status;
   
+  /**
+   * The version of the protocol.
+   */
+  protected String version = "HTTP/1.0";
+
+  /**
+   * Flag to indicate whether the connection is kept alive after this
+   * response.
+   */
+  protected boolean isKeepAlive;
+
   /** 
    * The headers. 
    */
@@ -36,6 +48,11 @@ public class HttpResponse {
    */
   protected boolean isHeaderWritten;
 
+  /**
+   * The stream of the payload (null until the header is written).
+   */
+  protected OutputStream payloadStream;
+
   /**
    * Creates a new http response object.
    * 
@@ -109,6 +126,17 @@ public class HttpResponse {
     return this.headers;
   }
 
+  /**
+   * Returns true, if the connection is kept alive after this response. This
+   * requires a response of known length, i.e. with the header
+   * "Content-Length" or with a chunked payload.
+   * 
+   * @return true, if the connection is kept alive after this response.
+   */
+  public boolean isKeepAlive() {
+    return this.isKeepAlive;
+  }
+
   /**
    * Returns the statusCode.
    * 
@@ -136,24 +164,46 @@ public class HttpResponse {
    *           if writing to the stream fails.
    */
   public void addPayload(String payload) throws IOException {
-    if (!isHeaderWritten) {
-      writeHeader();
-    }
-    write(payload);
+    getPayloadStream().write(payload.getBytes());
   }
 
   /**
-   * Returns the output stream.
+   * Returns the stream of the payload. Writes the header on the first call.
+   * If the header "Content-Length" isn't given, the payload of a HTTP/1.1
+   * response is written in the chunked transfer encoding, such that it can
+   * be streamed without knowing its length (and the connection can be kept
+   * alive). Closing the stream completes the payload, but doesn't close the
+   * connection.
    * 
-   * @return the output stream.
+   * @return the stream of the payload.
    * @throws IOException
-   *           if opening the stream fails.
+   *           if writing the header fails.
    */
   public OutputStream getPayloadStream() throws IOException {
     if (!isHeaderWritten) {
       writeHeader();
     }
-    return this.outputStream;
+    return this.payloadStream;
+  }
+
+  /**
+   * Completes the payload, i.e. writes the last chunk of a chunked payload,
+   * and flushes the stream (writes the header, if it wasn't written yet).
+   * 
+   * @throws IOException
+   *           if writing fails.
+   */
+  public void finish() throws IOException {
+    getPayloadStream().close();
+  }
+
+  /**
+   * Returns true, if the payload is written in the chunked transfer encoding.
+   * 
+   * @return true, if the payload is chunked.
+   */
+  public boolean isChunked() {
+    return "chunked".equals(headers.get("Transfer-Encoding"));
   }
 
   /**
@@ -163,8 +213,20 @@ public class HttpResponse {
    *           if writing the header fails.
    */
   protected void writeHeader() throws IOException {
+    if (!headers.containsKey("Content-Length") && "HTTP/1.1".equals(version)) {
+      headers.put("Transfer-Encoding", "chunked");
+    }
+    // Without a length, the end of the payload is marked by closing the
+    // connection.
+    if ((!headers.containsKey("Content-Length") && !isChunked())
+        || "close".equalsIgnoreCase(headers.get("Connection"))) {
+      isKeepAlive = false;
+    }
+    headers.put("Connection", isKeepAlive ? "keep-alive" : "close");
+
     // Write first line.
-    write("HTTP/1.0 ");
+    write(version);
+    write(" ");
     write(String.valueOf(statusCode));
     write(" ");
     writeln(status);
@@ -180,6 +242,22 @@ public class HttpResponse {
     writeln("");
 
     isHeaderWritten = true;
+    if (isChunked()) {
+      payloadStream = new ChunkedOutputStream(outputStream);
+    } else {
+      // Closing the stream completes the payload, not the connection.
+      payloadStream = new FilterOutputStream(outputStream) {
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+          out.write(b, off, len);
+        }
+
+        @Override
+        public void close() throws IOException {
+          flush();
+        }
+      };
+    }
   }
 
   /**
@@ -193,7 +271,7 @@ public class HttpResponse {
    */
   protected void writeln(String str) throws IOException {
     write(str);
-    write("\n");
+    write("\r\n");
   }
 
   /**
@@ -215,9 +293,6 @@ public class HttpResponse {
    *           if flushing fails.
    */
   public void flush() throws IOException {
-    if (!isHeaderWritten) {
-      writeHeader();
-    }
-    this.outputStream.flush();
+    getPayloadStream().flush();
   }
 }
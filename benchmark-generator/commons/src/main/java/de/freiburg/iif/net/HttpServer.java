@@ -1,30 +1,108 @@
 package de.freiburg.iif.net;
 
-import java.io.BufferedReader;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.InputStreamReader;
 import java.io.OutputStream;
-import java.lang.Thread.UncaughtExceptionHandler;
 import java.net.InetAddress;
-import java.net.ServerSocket;
+import java.net.InetSocketAddress;
 import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * A simple multithreaded HTTP server. The server is bound to
  * an IP address and port number and listens for incoming TCP connections.
  * 
+ * The connections are kept alive between requests (HTTP/1.1 keep-alive).
+ * A single thread accepts the connections and waits for requests on the
+ * idle connections (by a selector), such that an idle connection doesn't
+ * occupy a thread. A request is handled by a bounded pool of threads. The
+ * size of this pool, the backlog, the maximal number of connections and the
+ * timeouts can be configured before starting the server.
+ * 
+ * The payloads of requests and responses are streamed: a handler reads the
+ * payload of a request (of known length or chunked) from the connection
+ * and writes a response of unknown length in chunks, such that the memory
+ * of a request doesn't depend on the size of its payload.
+ * 
  * @author Claudius Korzen
  */
 public abstract class HttpServer {
+  /**
+   * The default maximal number of pending connections.
+   */
+  public static final int DEFAULT_BACKLOG = 50;
+
+  /**
+   * The default number of threads that handle the requests.
+   */
+  public static final int DEFAULT_MAX_THREADS = 16;
+
+  /**
+   * The default maximal number of open connections.
+   */
+  public static final int DEFAULT_MAX_CONNECTIONS = 1024;
+
+  /**
+   * The default time to read a request, in milliseconds.
+   */
+  public static final int DEFAULT_READ_TIMEOUT = 30000;
+
+  /**
+   * The default time to keep an idle connection alive, in milliseconds.
+   */
+  public static final int DEFAULT_KEEP_ALIVE_TIMEOUT = 15000;
+
   /** 
    * The server worker. 
    */
   protected HttpServerWorker serverWorker;
 
+  /**
+   * The maximal number of pending connections.
+   */
+  protected int backlog = DEFAULT_BACKLOG;
+
+  /**
+   * The number of threads that handle the requests.
+   */
+  protected int maxThreads = DEFAULT_MAX_THREADS;
+
+  /**
+   * The maximal number of open connections.
+   */
+  protected int maxConnections = DEFAULT_MAX_CONNECTIONS;
+
+  /**
+   * The time to read a request, in milliseconds.
+   */
+  protected int readTimeout = DEFAULT_READ_TIMEOUT;
+
+  /**
+   * The time to keep an idle connection alive, in milliseconds.
+   */
+  protected int keepAliveTimeout = DEFAULT_KEEP_ALIVE_TIMEOUT;
+
   /**
    * Starts this server at the given port.
    * 
@@ -54,7 +132,40 @@ public abstract class HttpServer {
         handleHttpRequest(req);
       }
     };
-    new Thread(this.serverWorker).start();
+    this.serverWorker.backlog = this.backlog;
+    this.serverWorker.maxThreads = this.maxThreads;
+    this.serverWorker.maxConnections = this.maxConnections;
+    this.serverWorker.readTimeout = this.readTimeout;
+    this.serverWorker.keepAliveTimeout = this.keepAliveTimeout;
+    // Bind the socket before returning, such that the server is reachable
+    // (and errors on binding are reported to the caller).
+    this.serverWorker.bind();
+    new Thread(this.serverWorker, "http-server").start();
+  }
+
+  /**
+   * Returns the port this server is listening at (useful if the server was
+   * started at port 0, i.e. at any free port).
+   * 
+   * @return the port or -1 if this server wasn't started.
+   */
+  public int getPort() {
+    if (this.serverWorker == null) {
+      return -1;
+    }
+    return this.serverWorker.getPort();
+  }
+
+  /**
+   * Returns the number of open connections.
+   * 
+   * @return the number of open connections.
+   */
+  public int getNumConnections() {
+    if (this.serverWorker == null) {
+      return 0;
+    }
+    return this.serverWorker.numConnections.get();
   }
 
   /**
@@ -65,7 +176,66 @@ public abstract class HttpServer {
       this.serverWorker.close();
     }
   }
-  
+
+  /**
+   * Sets the maximal number of pending connections, i.e. of connections that
+   * weren't accepted yet (must be set before starting the server).
+   * 
+   * @param backlog
+   *          the maximal number of pending connections.
+   */
+  public void setBacklog(int backlog) {
+    this.backlog = backlog;
+  }
+
+  /**
+   * Sets the number of threads that handle the requests (must be set before
+   * starting the server). Requests on further connections wait until a
+   * thread is free.
+   * 
+   * @param maxThreads
+   *          the number of threads.
+   */
+  public void setMaxThreads(int maxThreads) {
+    this.maxThreads = Math.max(1, maxThreads);
+  }
+
+  /**
+   * Sets the maximal number of open connections (must be set before starting
+   * the server). Further connections are not accepted until a connection is
+   * closed, i.e. they are pending.
+   * 
+   * @param maxConnections
+   *          the maximal number of open connections.
+   */
+  public void setMaxConnections(int maxConnections) {
+    this.maxConnections = Math.max(1, maxConnections);
+  }
+
+  /**
+   * Sets the time to read a request (must be set before starting the
+   * server). The connection is closed if the request isn't read within this
+   * time.
+   * 
+   * @param readTimeout
+   *          the time in milliseconds (0 for no limit).
+   */
+  public void setReadTimeout(int readTimeout) {
+    this.readTimeout = readTimeout;
+  }
+
+  /**
+   * Sets the time to keep an idle connection alive (must be set before
+   * starting the server).
+   * 
+   * @param keepAliveTimeout
+   *          the time in milliseconds (0 to close the connections after each
+   *          request).
+   */
+  public void setKeepAliveTimeout(int keepAliveTimeout) {
+    this.keepAliveTimeout = keepAliveTimeout;
+  }
+
   /**
    * Handles the given http request.
    * 
@@ -79,19 +249,46 @@ public abstract class HttpServer {
 
 /**
  * Class implementing a simple HTTP server. The server is bound to an IP address
- * and port number and listens for incoming TCP connections.
+ * and port number and listens for incoming TCP connections. New and idle
+ * connections are registered at a selector; once a request arrives on a
+ * connection, the connection is handed to the pool of handler threads (in
+ * blocking mode) and is registered again after the response.
  * 
  * @author Claudius Korzen
  */
 abstract class HttpServerWorker implements Runnable {
-  /** The server socket. */
-  protected ServerSocket serverSocket;
+  /** The maximal time to wait for events of the selector, in milliseconds. */
+  protected static final int SELECT_TIMEOUT = 1000;
+
+  /** The server socket channel. */
+  protected ServerSocketChannel serverChannel;
+  /** The selector of new connections and idle connections. */
+  protected Selector selector;
+  /** The threads that handle the requests. */
+  protected ExecutorService handlers;
+  /** The idle connections to register at the selector. */
+  protected final Queue<ClientSocketWorker> idleConnections =
+      new ConcurrentLinkedQueue<>();
+  /** The number of open connections. */
+  protected final AtomicInteger numConnections = new AtomicInteger();
   /** The ip address. */
   protected InetAddress address;
   /** The port. */
   protected int port;
+  /** The maximal number of pending connections. */
+  protected int backlog = HttpServer.DEFAULT_BACKLOG;
+  /** The number of threads that handle the requests. */
+  protected int maxThreads = HttpServer.DEFAULT_MAX_THREADS;
+  /** The maximal number of open connections. */
+  protected int maxConnections = HttpServer.DEFAULT_MAX_CONNECTIONS;
+  /** The time to read a request, in milliseconds. */
+  protected int readTimeout = HttpServer.DEFAULT_READ_TIMEOUT;
+  /** The time to keep an idle connection alive, in milliseconds. */
+  protected int keepAliveTimeout = HttpServer.DEFAULT_KEEP_ALIVE_TIMEOUT;
+  /** The time of the last check for expired connections, in nanoseconds. */
+  protected long lastExpiryCheck = System.nanoTime();
   /** Flag to indicate, whether or not the server is stopped. */
-  protected boolean isClosed;
+  protected volatile boolean isClosed;
 
   /**
    * The default constructor.
@@ -112,249 +309,618 @@ abstract class HttpServerWorker implements Runnable {
    *          the port of this server.
    */
   public HttpServerWorker(InetAddress address, int port) {
-    this.address = null;
+    this.address = address;
     this.port = port;
   }
 
+  /**
+   * Opens the server socket, if it isn't open yet.
+   * 
+   * @throws IOException
+   *           if opening the server socket fails.
+   */
+  public synchronized void bind() throws IOException {
+    if (this.serverChannel == null) {
+      this.selector = Selector.open();
+      this.serverChannel = ServerSocketChannel.open();
+      this.serverChannel.socket().bind(
+          new InetSocketAddress(this.address, this.port), this.backlog);
+      this.serverChannel.configureBlocking(false);
+
+      final AtomicInteger numThreads = new AtomicInteger();
+      // The queue is bounded by the maximal number of connections, since
+      // each connection is queued at most once.
+      this.handlers = new ThreadPoolExecutor(this.maxThreads, this.maxThreads,
+          0, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<Runnable>(),
+          runnable -> {
+            Thread thread = new Thread(runnable,
+                "http-handler-" + numThreads.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+          });
+    }
+  }
+
+  /**
+   * Returns the port the server socket is bound to.
+   * 
+   * @return the local port of the server socket.
+   */
+  public synchronized int getPort() {
+    return this.serverChannel != null
+        ? this.serverChannel.socket().getLocalPort() : this.port;
+  }
+
   @Override
   public void run() {
     try {
       // Try to setup the server socket
-      this.serverSocket = new ServerSocket(this.port, 50, this.address);
+      bind();
     } catch (IOException e) {
       throw new RuntimeException("Can't open the server socket.", e);
     }
 
-    while (!isClosed()) {
-      Socket socket = null;
-      try {
-        // Listen to an incoming TCP connection.
-        socket = this.serverSocket.accept();
-      } catch (IOException e) {
-        if (!isClosed()) {
-          throw new RuntimeException("Error on listening to connection", e);
+    try {
+      SelectionKey acceptKey = this.serverChannel.register(this.selector,
+          SelectionKey.OP_ACCEPT);
+
+      List<ClientSocketWorker> readyConnections = new ArrayList<>();
+      while (!isClosed()) {
+        // Don't accept further connections while at the maximum. They wait
+        // in the backlog.
+        boolean isAccepting = numConnections.get() < this.maxConnections;
+        acceptKey.interestOps(isAccepting ? SelectionKey.OP_ACCEPT : 0);
+
+        // Keys may be left from deregistering the cancelled keys.
+        if (this.selector.selectedKeys().isEmpty()) {
+          this.selector.select(SELECT_TIMEOUT);
+        }
+        if (isClosed()) {
+          break;
+        }
+
+        Iterator<SelectionKey> keys = this.selector.selectedKeys().iterator();
+        while (keys.hasNext()) {
+          SelectionKey key = keys.next();
+          keys.remove();
+          if (!key.isValid()) {
+            continue;
+          }
+          if (key.isAcceptable()) {
+            acceptConnections();
+          } else if (key.isReadable()) {
+            // A request arrived (or the client closed the connection).
+            key.cancel();
+            readyConnections.add((ClientSocketWorker) key.attachment());
+          }
+        }
+
+        registerIdleConnections();
+        closeExpiredConnections();
+
+        if (!readyConnections.isEmpty()) {
+          // Deregister the cancelled keys, such that the channels can be
+          // switched to blocking mode.
+          this.selector.selectNow();
+          for (ClientSocketWorker connection : readyConnections) {
+            handleConnection(connection);
+          }
+          readyConnections.clear();
         }
       }
+    } catch (IOException e) {
+      if (!isClosed()) {
+        throw new RuntimeException("Error on listening to connections", e);
+      }
+    } finally {
+      shutdown();
+    }
+  }
 
-      // Handle the socket.
-      handleClientSocket(socket);
+  /**
+   * Accepts the pending connections (up to the maximal number of open
+   * connections) and registers them at the selector.
+   * 
+   * @throws IOException
+   *           if accepting a connection fails.
+   */
+  protected void acceptConnections() throws IOException {
+    while (numConnections.get() < this.maxConnections) {
+      SocketChannel channel = this.serverChannel.accept();
+      if (channel == null) {
+        return;
+      }
+      numConnections.incrementAndGet();
+
+      ClientSocketWorker connection = new ClientSocketWorker(this, channel) {
+        @Override
+        public void onHttpReq(HttpRequest req) throws IOException {
+          onHttpRequest(req);
+        }
+      };
+      try {
+        channel.socket().setTcpNoDelay(true);
+        register(connection);
+      } catch (IOException e) {
+        connection.close();
+      }
     }
   }
 
   /**
-   * Handles the given client socket.
+   * Registers the given (idle) connection at the selector, to wait for its
+   * next request.
    * 
-   * @param socket
-   *          the client socket to handle.
-   * @return the thread, that handles the request.
+   * @param connection
+   *          the connection to register.
+   * @throws IOException
+   *           if registering the connection fails.
    */
-  protected Thread handleClientSocket(final Socket socket) {
-    ClientSocketWorker worker = new ClientSocketWorker(socket) {
-      @Override
-      public void onHttpReq(HttpRequest req) throws IOException {
-        onHttpRequest(req);
+  protected void register(ClientSocketWorker connection) throws IOException {
+    connection.idleSince = System.nanoTime();
+    connection.channel.configureBlocking(false);
+    connection.channel.register(this.selector, SelectionKey.OP_READ,
+        connection);
+  }
+
+  /**
+   * Registers the connections that became idle at the selector.
+   */
+  protected void registerIdleConnections() {
+    ClientSocketWorker connection;
+    while ((connection = this.idleConnections.poll()) != null) {
+      try {
+        register(connection);
+      } catch (IOException e) {
+        connection.close();
       }
-    };
+    }
+  }
+
+  /**
+   * Closes the connections that are idle for longer than the keep-alive
+   * timeout and new connections without a request within the read timeout
+   * (checked at most once per second).
+   */
+  protected void closeExpiredConnections() {
+    long now = System.nanoTime();
+    if (now - this.lastExpiryCheck < TimeUnit.SECONDS.toNanos(1)) {
+      return;
+    }
+    this.lastExpiryCheck = now;
 
-    // Handle the request.
-    Thread thread = new Thread(worker);
-    thread.setUncaughtExceptionHandler(new UncaughtExceptionHandler() {
-      public void uncaughtException(Thread th, Throwable ex) {
-        handleHttpRequestException(socket, ex);
+    for (SelectionKey key : this.selector.keys()) {
+      Object attachment = key.attachment();
+      if (key.isValid() && attachment instanceof ClientSocketWorker) {
+        ClientSocketWorker connection = (ClientSocketWorker) attachment;
+        int timeout = connection.numRequests > 0 ? this.keepAliveTimeout
+            : this.readTimeout;
+        if (timeout > 0 && now - connection.idleSince
+            > TimeUnit.MILLISECONDS.toNanos(timeout)) {
+          key.cancel();
+          connection.close();
+        }
       }
-    });
-    thread.start();
-    return thread;
+    }
   }
-  
+
   /**
-   * Stops this server.
+   * Hands the given connection, on which a request arrived, to the handler
+   * threads.
+   * 
+   * @param connection
+   *          the connection to handle.
    */
-  public synchronized void close() {
+  protected void handleConnection(ClientSocketWorker connection) {
     try {
-      this.serverSocket.close();
-      this.isClosed = true;
-    } catch (IOException e) {
-      throw new RuntimeException("Error on closing the server");
+      connection.channel.configureBlocking(true);
+      this.handlers.execute(connection);
+    } catch (IOException | RejectedExecutionException e) {
+      connection.close();
     }
   }
 
   /**
-   * Returns true, if this server is stopped.
+   * Parks the given connection after a response, until its next request
+   * arrives.
    * 
-   * @return true, if this server is stopped.
+   * @param connection
+   *          the connection to park.
    */
-  protected synchronized boolean isClosed() {
-    return this.isClosed;
+  protected void park(ClientSocketWorker connection) {
+    if (isClosed()) {
+      connection.close();
+      return;
+    }
+    this.idleConnections.add(connection);
+    this.selector.wakeup();
   }
-  
+
   /**
-   * Handles a http request.
+   * Called when the given connection was closed.
    * 
-   * @param req the request to handle.
-   * @throws IOException if handling the request fails.
+   * @param connection
+   *          the closed connection.
    */
-  public abstract void onHttpRequest(HttpRequest req) throws IOException;
-  
+  protected void onConnectionClosed(ClientSocketWorker connection) {
+    if (numConnections.getAndDecrement() >= this.maxConnections) {
+      // Accept the pending connections.
+      this.selector.wakeup();
+    }
+  }
+
   /**
-   * Handles an exception on handling the http request.
-   * 
-   * @param socket the related socket thread.
-   * @param reason the thrown exception.
+   * Closes the idle connections and stops the handler threads, once the
+   * requests in process are handled.
    */
-  public void handleHttpRequestException(Socket socket, Throwable reason) {
-    if (reason != null && reason.getCause() != null) {
-      reason = reason.getCause();
+  protected void shutdown() {
+    for (SelectionKey key : this.selector.keys()) {
+      if (key.attachment() instanceof ClientSocketWorker) {
+        ((ClientSocketWorker) key.attachment()).close();
+      }
+    }
+    ClientSocketWorker connection;
+    while ((connection = this.idleConnections.poll()) != null) {
+      connection.close();
     }
-    
-    writeError(socket, reason);
-    
+    this.handlers.shutdown();
     try {
-      socket.close();
+      this.selector.close();
     } catch (IOException e) {
-      System.err.println("Error on closing the connection: " + e.getMessage());
-      e.printStackTrace();
+      System.err.println("Error on closing the selector: " + e.getMessage());
     }
   }
-  
+
   /**
-   * Writes the given error to the socket's output stream.
-   * 
-   * @param socket the socket.
-   * @param error the error to write.
+   * Stops this server.
    */
-  protected void writeError(Socket socket, Throwable error) {
+  public synchronized void close() {
+    // Set the flag first, such that the failing accept() isn't reported.
+    this.isClosed = true;
     try {
-      OutputStream stream = socket.getOutputStream();
-      writeln(stream, "HTTP/1.0 500 Internal Server Error");
-      if (error != null) {
-        writeln(stream, "Error: " + error.toString());
-        writeln(stream, "Message: " + error.getMessage());  
+      if (this.serverChannel != null) {
+        this.serverChannel.close();
+        this.selector.wakeup();
       }
-      stream.flush();
     } catch (IOException e) {
-      throw new RuntimeException("Error on writing error.", e);
+      throw new RuntimeException("Error on closing the server");
     }
   }
-  
+
   /**
-   * Appends a newline character to given string and writes it to the given 
-   * output stream.
+   * Returns true, if this server is stopped.
    * 
-   * @param stream the output stream-
-   * @param str the string.
-   * @throws IOException if writing fails.
+   * @return true, if this server is stopped.
    */
-  protected void writeln(OutputStream stream, String str) throws IOException {
-    if (stream != null) {
-      stream.write((str + "\n").getBytes());
-    }
+  protected boolean isClosed() {
+    return this.isClosed;
   }
+
+  /**
+   * Handles a http request.
+   * 
+   * @param req the request to handle.
+   * @throws IOException if handling the request fails.
+   */
+  public abstract void onHttpRequest(HttpRequest req) throws IOException;
 }
 
 /**
- * A worker, that handles a single client socket.
+ * A worker, that handles the requests on a single client connection, one
+ * after another, as long as the connection is kept alive and a request is
+ * available. Once the connection is idle, it is parked at the server worker.
  * 
  * @author Claudius Korzen
  */
 abstract class ClientSocketWorker implements Runnable {
+  /** The maximal number of unread payload bytes to discard after a request. */
+  protected static final int MAX_DISCARD = 65536;
+  /** The server worker. */
+  protected HttpServerWorker server;
+  /** The channel of the connection. */
+  protected SocketChannel channel;
   /** The socket to handle. */
   protected Socket socket;
+  /** The stream to read the requests from. */
+  protected InputStream in;
+  /** The stream to write the responses to. */
+  protected OutputStream out;
+  /** The time since the connection is idle, in nanoseconds. */
+  protected long idleSince;
+  /** The number of requests handled on the connection. */
+  protected int numRequests;
+  /** Flag to indicate whether the connection is closed. */
+  protected boolean isClosed;
 
   /**
    * The default constructor.
    * 
-   * @param socket
-   *          the socket to handle.
+   * @param server
+   *          the server worker.
+   * @param channel
+   *          the channel of the connection to handle.
    */
-  public ClientSocketWorker(Socket socket) {
-    this.socket = socket;
+  public ClientSocketWorker(HttpServerWorker server, SocketChannel channel) {
+    this.server = server;
+    this.channel = channel;
+    this.socket = channel.socket();
   }
 
   @Override
   public void run() {
-    HttpRequest req = null;
-
     try {
-      req = readRequest();
-    } catch (IOException e) {
-      throw new RuntimeException("Error on reading request", e);
-    }
+      if (this.in == null) {
+        // The streams are read and written in blocking mode only.
+        this.in = new BufferedInputStream(this.socket.getInputStream());
+        this.out = new BufferedOutputStream(this.socket.getOutputStream());
+      }
+      this.socket.setSoTimeout(this.server.readTimeout);
 
-    try {
-      onHttpReq(req);
-    } catch (IOException e) {
-      throw new RuntimeException("Error on handling request.", e);
-    }
-    
-    try {
-      socket.close();
+      while (true) {
+        HttpRequest req;
+        try {
+          req = readRequest();
+        } catch (IllegalArgumentException e) {
+          writeError(null, 400, "Bad Request", e);
+          close();
+          return;
+        }
+
+        if (req == null) {
+          // The client closed the connection.
+          close();
+          return;
+        }
+
+        this.numRequests++;
+        try {
+          onHttpReq(req);
+        } catch (IOException | RuntimeException | Error e) {
+          handleHttpRequestException(req, e);
+          close();
+          return;
+        }
+
+        HttpResponse response = req.getHttpResponse();
+        if (response == null) {
+          close();
+          return;
+        }
+        response.finish();
+        this.out.flush();
+
+        if (!response.isKeepAlive() || this.server.isClosed()
+            || !discardPayload(req)) {
+          close();
+          return;
+        }
+
+        // Handle pipelined requests right away.
+        if (this.in.available() == 0) {
+          this.server.park(this);
+          return;
+        }
+      }
+    } catch (SocketTimeoutException e) {
+      close();
     } catch (IOException e) {
-      throw new RuntimeException("Error on closing the connection.", e);
+      // The client closed the connection or the connection is broken.
+      close();
     }
   }
 
   /**
    * Reads the request.
    * 
-   * @return the created http request.
+   * @return the created http request or null if the end of the stream was
+   *         reached.
    * 
    * @throws IOException
    *           if reading the request fails.
    */
   protected HttpRequest readRequest() throws IOException {
-    InputStream is = this.socket.getInputStream();
-    try (BufferedReader r = new BufferedReader(new InputStreamReader(is))) {
-
-      String httpMethod = null;
-      Map<String, String> headers = new HashMap<String, String>();
-      byte[] payload = null;
-  
-      // Read the first line to get the http method.
-      String line = r.readLine();
-      if (line != null) {
-        httpMethod = line.split(" ")[0].toUpperCase();
-      } else {
-        throw new IllegalArgumentException("The http header is malformed.");
+    InputStream is = this.in;
+
+    String httpMethod = null;
+    String target = null;
+    String version = null;
+    Map<String, String> headers = new HashMap<String, String>();
+
+    // Read the first line to get the http method and the request target.
+    String line = readLine(is);
+    if (line == null) {
+      return null;
+    }
+    String[] fields = line.split(" ");
+    if (fields[0].isEmpty()) {
+      throw new IllegalArgumentException("The http header is malformed.");
+    }
+    httpMethod = fields[0].toUpperCase();
+    target = fields.length > 1 ? fields[1] : "/";
+    version = fields.length > 2 ? fields[2].trim() : "HTTP/1.0";
+
+    // Read the headers
+    while ((line = readLine(is)) != null) {
+      // The headers are sepeated by an empty line.
+      if (line.isEmpty()) {
+        break;
       }
-  
-      // Read the headers
-      while ((line = r.readLine()) != null) {
-        // The headers are sepeated by an empty line.
-        if (line.isEmpty()) {
-          break;
-        }
-  
-        int index = line.indexOf(": ");
-        if (index > -1) {
-          String key = line.substring(0, index);
-          String value = line.substring(index + 2);
-          headers.put(key, value);
-        }
+
+      int index = line.indexOf(": ");
+      if (index > -1) {
+        String key = line.substring(0, index);
+        String value = line.substring(index + 2);
+        headers.put(key, value);
       }
-  
-      // Read the payload.
-      String contentLengthStr = headers.get("Content-Length");
-      if (contentLengthStr != null) {
-        int contentLength = 0;
-        try {
-          contentLength = Integer.parseInt(contentLengthStr);
-        } catch (NumberFormatException e) {
-          throw new IOException("The field 'Content-Length' is malformed.");
-        }
-  
-        if (contentLength > 0) {
-          ByteArrayOutputStream os = new ByteArrayOutputStream();
-  
-          for (int i = 0; i < contentLength; i++) {
-            os.write(r.read());
-          }
-          payload = os.toByteArray();
-          os.close();
+    }
+
+    HttpRequest req = new HttpRequest(this.socket, httpMethod, target,
+        headers, null);
+    req.version = version;
+    req.outputStream = this.out;
+    req.isKeepAliveAllowed = this.server.keepAliveTimeout > 0;
+
+    // The payload is read by the handler, through a stream.
+    String transferEncoding = req.getHeader("Transfer-Encoding");
+    String contentLengthStr = req.getHeader("Content-Length");
+    if (transferEncoding != null) {
+      if (!"chunked".equalsIgnoreCase(transferEncoding.trim())) {
+        throw new IllegalArgumentException("The transfer encoding '"
+            + transferEncoding + "' is not supported.");
+      }
+      req.payloadStream = new ChunkedInputStream(is);
+    } else if (contentLengthStr != null) {
+      long contentLength = 0;
+      try {
+        contentLength = Long.parseLong(contentLengthStr.trim());
+      } catch (NumberFormatException e) {
+        contentLength = -1;
+      }
+      if (contentLength < 0) {
+        throw new IllegalArgumentException(
+            "The field 'Content-Length' is malformed.");
+      }
+      if (contentLength > 0) {
+        req.payloadStream = new ContentLengthInputStream(is, contentLength);
+      }
+    }
+    req.isContinueExpected = req.payloadStream != null
+        && "100-continue".equalsIgnoreCase(req.getHeader("Expect"));
+    return req;
+  }
+
+  /**
+   * Discards the rest of the payload of the given request that wasn't read by
+   * the handler, such that the connection can be kept alive, but no more
+   * than {@link #MAX_DISCARD} bytes.
+   * 
+   * @param req
+   *          the request.
+   * @return true if the payload was read completely, false if the
+   *         connection must be closed.
+   * @throws IOException
+   *           if reading the payload fails.
+   */
+  protected boolean discardPayload(HttpRequest req) throws IOException {
+    if (req.payloadStream == null) {
+      return true;
+    }
+    if (req.isContinueExpected) {
+      // The client wasn't asked for the payload and may not send it.
+      return false;
+    }
+    byte[] buffer = new byte[4096];
+    long numDiscarded = 0;
+    while (numDiscarded <= MAX_DISCARD) {
+      int n = req.payloadStream.read(buffer);
+      if (n < 0) {
+        return true;
+      }
+      numDiscarded += n;
+    }
+    return false;
+  }
+
+  /**
+   * Reads a line of the http header (terminated by CRLF or LF) from the given
+   * stream.
+   * 
+   * @param is
+   *          the stream to read from.
+   * @return the line without the line terminator or null if the end of the
+   *         stream was reached.
+   * @throws IOException
+   *           if reading the line fails.
+   */
+  protected static String readLine(InputStream is) throws IOException {
+    ByteArrayOutputStream line = new ByteArrayOutputStream();
+    int b;
+    while ((b = is.read()) != '\n') {
+      if (b < 0) {
+        if (line.size() == 0) {
+          return null;
         }
+        break;
       }
-      return new HttpRequest(this.socket, httpMethod, headers, payload);
+      line.write(b);
+    }
+    String str = new String(line.toByteArray(), StandardCharsets.ISO_8859_1);
+    return str.endsWith("\r") ? str.substring(0, str.length() - 1) : str;
+  }
+
+  /**
+   * Handles an exception on handling the given http request. Writes an error
+   * response, if no response was written yet.
+   * 
+   * @param req
+   *          the request.
+   * @param reason
+   *          the thrown exception.
+   */
+  protected void handleHttpRequestException(HttpRequest req,
+      Throwable reason) {
+    if (req.getHttpResponse() == null) {
+      writeError(req, 500, "Internal Server Error", reason);
+    } else {
+      // The response is incomplete. The client notices the closed connection.
+      System.err.println("Error on handling request " + req.getTarget()
+          + ": " + reason);
+    }
+  }
+
+  /**
+   * Writes an error response with the given status (and closes the
+   * connection afterwards).
+   * 
+   * @param req
+   *          the request (null if the request couldn't be read).
+   * @param statusCode
+   *          the status code.
+   * @param status
+   *          the status.
+   * @param error
+   *          the error to write.
+   */
+  protected void writeError(HttpRequest req, int statusCode, String status,
+      Throwable error) {
+    StringBuilder body = new StringBuilder();
+    if (error != null) {
+      body.append("Error: ").append(error.toString()).append("\n");
+      body.append("Message: ").append(error.getMessage()).append("\n");
+    }
+    byte[] bytes = body.toString().getBytes(StandardCharsets.UTF_8);
+
+    try {
+      HttpResponse response = req != null
+          ? req.createHttpResponse(statusCode, status)
+          : new HttpResponse(this.out, statusCode, status);
+      response.addHeader("Content-Type", "text/plain; charset=utf-8");
+      response.addHeader("Content-Length", String.valueOf(bytes.length));
+      response.addHeader("Connection", "close");
+      OutputStream stream = response.getPayloadStream();
+      stream.write(bytes);
+      stream.flush();
+    } catch (IOException e) {
+      // The connection is broken, there is nobody to report the error to.
+    }
+  }
+
+  /**
+   * Closes the connection (if it isn't closed yet).
+   */
+  protected void close() {
+    synchronized (this) {
+      if (this.isClosed) {
+        return;
+      }
+      this.isClosed = true;
+    }
+    try {
+      this.channel.close();
+    } catch (IOException e) {
+      System.err.println("Error on closing the connection: " + e.getMessage());
     }
+    this.server.onConnectionClosed(this);
   }
 
   /**
@@ -366,4 +932,4 @@ abstract class ClientSocketWorker implements Runnable {
    *           if handling the request fails.
    */
   public abstract void onHttpReq(HttpRequest req) throws IOException;
-};
\ No newline at end of file
+};
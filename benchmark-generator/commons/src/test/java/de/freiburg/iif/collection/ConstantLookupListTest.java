@@ -290,4 +290,30 @@ public class ConstantLookupListTest {
     Assert.assertEquals("D", list.next("X"));
     Assert.assertEquals(null, list.next("D"));
   }
+  
+  /**
+   * Test copy().
+   */
+  @Test
+  public void testCopy() {
+    ConstantLookupList<String> list = new ConstantLookupList<>();
+            
+    list.add("A");
+    list.add("B");
+    list.add("C");
+    list.replace("B", Arrays.asList("X", "Y"));
+    
+    ConstantLookupList<String> copy = list.copy(String::toLowerCase);
+    
+    Assert.assertEquals(Arrays.asList("a", "x", "y", "c"), copy);
+    Assert.assertEquals(4, copy.map.size());
+    Assert.assertEquals(0, copy.indexOf("a"));
+    Assert.assertEquals(1, copy.indexOf("x"));
+    Assert.assertEquals(2, copy.indexOf("y"));
+    Assert.assertEquals(3, copy.indexOf("c"));
+    Assert.assertEquals(-1, copy.indexOf("b"));
+    Assert.assertEquals("y", copy.next("x"));
+    Assert.assertEquals(4, list.size());
+    Assert.assertEquals(1, list.indexOf("X"));
+  }
 }
@@ -0,0 +1,320 @@
+package de.freiburg.iif.collection;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Tests for the IdentityIndexedList.
+ *
+ * @author Claudius Korzen
+ *
+ */
+public class IdentityIndexedListTest {
+
+  /**
+   * Test the constructor.
+   */
+  @Test
+  public void testConstructor() {
+    IdentityIndexedList<String> list = new IdentityIndexedList<>();
+    Assert.assertTrue(list.isEmpty());
+    Assert.assertEquals(-1, list.indexOf("A"));
+
+    list = new IdentityIndexedList<>(Arrays.asList("A", "B"));
+    Assert.assertEquals(Arrays.asList("A", "B"), list);
+    Assert.assertEquals(1, list.indexOf("B"));
+  }
+
+  /**
+   * Test add(element).
+   */
+  @Test
+  public void testAdd() {
+    IdentityIndexedList<String> list = new IdentityIndexedList<>(1);
+
+    list.add("A");
+    list.add("B");
+    list.add("C");
+    list.add("D");
+
+    Assert.assertEquals(Arrays.asList("A", "B", "C", "D"), list);
+    Assert.assertEquals(0, list.indexOf("A"));
+    Assert.assertEquals(1, list.indexOf("B"));
+    Assert.assertEquals(2, list.indexOf("C"));
+    Assert.assertEquals(3, list.indexOf("D"));
+    Assert.assertEquals(-1, list.indexOf("E"));
+    Assert.assertEquals(null, list.previous("A"));
+    Assert.assertEquals("A", list.previous("B"));
+    Assert.assertEquals("C", list.next("B"));
+    Assert.assertEquals(null, list.next("D"));
+  }
+
+  /**
+   * Test add(index, element).
+   */
+  @Test
+  public void testAdd2() {
+    IdentityIndexedList<String> list = new IdentityIndexedList<>();
+
+    list.add("A");
+    list.add("C");
+    list.add("D");
+    list.add(1, "B");
+    list.add(4, "E");
+
+    Assert.assertEquals(Arrays.asList("A", "B", "C", "D", "E"), list);
+    Assert.assertEquals(0, list.indexOf("A"));
+    Assert.assertEquals(1, list.indexOf("B"));
+    Assert.assertEquals(2, list.indexOf("C"));
+    Assert.assertEquals(3, list.indexOf("D"));
+    Assert.assertEquals(4, list.indexOf("E"));
+  }
+
+  /**
+   * Test addAll(index, collection).
+   */
+  @Test
+  public void testAddAll() {
+    IdentityIndexedList<String> list = new IdentityIndexedList<>();
+
+    list.add("X");
+    list.add("Z");
+    list.addAll(1, Arrays.asList("A", "B", "C"));
+    list.addAll(Arrays.asList("D"));
+
+    Assert.assertEquals(Arrays.asList("X", "A", "B", "C", "Z", "D"), list);
+    Assert.assertEquals(0, list.indexOf("X"));
+    Assert.assertEquals(1, list.indexOf("A"));
+    Assert.assertEquals(3, list.indexOf("C"));
+    Assert.assertEquals(4, list.indexOf("Z"));
+    Assert.assertEquals(5, list.indexOf("D"));
+    Assert.assertEquals("Z", list.next("C"));
+  }
+
+  /**
+   * Test remove(index) and remove(element).
+   */
+  @Test
+  public void testRemove() {
+    IdentityIndexedList<String> list = new IdentityIndexedList<>();
+
+    list.addAll(Arrays.asList("A", "B", "C", "D"));
+    Assert.assertEquals("B", list.remove(1));
+    Assert.assertTrue(list.remove("A"));
+    Assert.assertFalse(list.remove("A"));
+
+    Assert.assertEquals(Arrays.asList("C", "D"), list);
+    Assert.assertEquals(-1, list.indexOf("A"));
+    Assert.assertEquals(-1, list.indexOf("B"));
+    Assert.assertEquals(0, list.indexOf("C"));
+    Assert.assertEquals(1, list.indexOf("D"));
+
+    list.clear();
+    Assert.assertTrue(list.isEmpty());
+    Assert.assertEquals(-1, list.indexOf("C"));
+  }
+
+  /**
+   * Test set().
+   */
+  @Test
+  public void testSet() {
+    IdentityIndexedList<String> list = new IdentityIndexedList<>();
+
+    list.addAll(Arrays.asList("A", "B", "C", "D"));
+    Assert.assertEquals("C", list.set(2, "X"));
+
+    Assert.assertEquals(Arrays.asList("A", "B", "X", "D"), list);
+    Assert.assertEquals(-1, list.indexOf("C"));
+    Assert.assertEquals(2, list.indexOf("X"));
+    Assert.assertEquals(3, list.indexOf("D"));
+  }
+
+  /**
+   * Test replace().
+   */
+  @Test
+  public void testReplace() {
+    IdentityIndexedList<String> list = new IdentityIndexedList<>();
+
+    list.addAll(Arrays.asList("A", "B", "C", "D"));
+    list.replace("C", Arrays.asList("X", "Y"));
+    list.replace("A", new ArrayList<String>());
+    list.replace("E", Arrays.asList("Z"));
+
+    Assert.assertEquals(Arrays.asList("A", "B", "X", "Y", "D"), list);
+    Assert.assertEquals(-1, list.indexOf("C"));
+    Assert.assertEquals(2, list.indexOf("X"));
+    Assert.assertEquals(3, list.indexOf("Y"));
+    Assert.assertEquals(4, list.indexOf("D"));
+    Assert.assertEquals(-1, list.indexOf("Z"));
+  }
+
+  /**
+   * Test that elements are compared by identity.
+   */
+  @Test
+  public void testIdentity() {
+    IdentityIndexedList<String> list = new IdentityIndexedList<>();
+    String a = new String("A");
+
+    list.add(a);
+
+    Assert.assertEquals(0, list.indexOf(a));
+    Assert.assertEquals(-1, list.indexOf(new String("A")));
+    Assert.assertFalse(list.contains(new String("A")));
+  }
+
+  /**
+   * Test that indexOf() returns the first occurrence of duplicates.
+   */
+  @Test
+  public void testDuplicates() {
+    IdentityIndexedList<String> list = new IdentityIndexedList<>();
+
+    list.addAll(Arrays.asList("A", "B", "A"));
+    Assert.assertEquals(0, list.indexOf("A"));
+    Assert.assertEquals(2, list.lastIndexOf("A"));
+
+    list.add(0, "B");
+    Assert.assertEquals(0, list.indexOf("B"));
+    Assert.assertEquals(1, list.indexOf("A"));
+
+    list.remove(1);
+    Assert.assertEquals(2, list.indexOf("A"));
+  }
+
+  /**
+   * Test copy().
+   */
+  @Test
+  public void testCopy() {
+    IdentityIndexedList<String> list = new IdentityIndexedList<>();
+
+    list.addAll(Arrays.asList("A", "B", "C"));
+    IdentityIndexedList<String> copy =
+        list.copy(s -> s.toLowerCase().intern());
+
+    Assert.assertEquals(Arrays.asList("a", "b", "c"), copy);
+    Assert.assertEquals(2, copy.indexOf("c"));
+    Assert.assertEquals(3, list.size());
+  }
+
+  /**
+   * Test that the index map is only created for lookups in large lists.
+   */
+  @Test
+  public void testLazyIndexes() {
+    IdentityIndexedList<String> list = new IdentityIndexedList<>();
+    Assert.assertEquals(0, list.elements.length);
+    List<String> expected = new ArrayList<>();
+    for (int i = 0; i < IdentityIndexedList.INDEX_THRESHOLD; i++) {
+      String element = "E" + i;
+      list.add(element);
+      expected.add(element);
+      Assert.assertEquals(i, list.indexOf(element));
+      Assert.assertEquals(-1, list.indexOf("X"));
+      Assert.assertNull(list.indexes);
+    }
+
+    String element = "E" + IdentityIndexedList.INDEX_THRESHOLD;
+    list.add(element);
+    expected.add(element);
+    Assert.assertEquals(expected.size() - 1, list.indexOf(element));
+    Assert.assertNotNull(list.indexes);
+
+    // The indexes are kept up to date after the lookup.
+    list.remove(0);
+    expected.remove(0);
+    for (int i = 0; i < expected.size(); i++) {
+      Assert.assertEquals(i, list.indexOf(expected.get(i)));
+    }
+    list.clear();
+    Assert.assertEquals(-1, list.indexOf(element));
+  }
+
+  /**
+   * Test random modifications against an ArrayList.
+   */
+  @Test
+  public void testRandomModifications() {
+    testRandomModifications(Integer.MAX_VALUE);
+  }
+
+  /**
+   * Test random modifications against an ArrayList, with lists that are 
+   * about as large as the size from which on the indexes are kept in a map.
+   */
+  @Test
+  public void testRandomModificationsOfSmallLists() {
+    testRandomModifications(2 * IdentityIndexedList.INDEX_THRESHOLD);
+  }
+
+  /**
+   * Test random modifications against an ArrayList, clearing the lists when
+   * they exceed the given size.
+   */
+  protected void testRandomModifications(int maxSize) {
+    IdentityIndexedList<Integer> list = new IdentityIndexedList<>();
+    List<Integer> expected = new ArrayList<>();
+    Integer[] values = new Integer[20];
+    for (int i = 0; i < values.length; i++) {
+      values[i] = new Integer(1000 + i);
+    }
+
+    Random random = new Random(0);
+    for (int i = 0; i < 10000; i++) {
+      Integer value = values[random.nextInt(values.length)];
+      int index = expected.isEmpty() ? 0 : random.nextInt(expected.size());
+      switch (random.nextInt(5)) {
+        case 0:
+          list.add(value);
+          expected.add(value);
+          break;
+        case 1:
+          list.add(index, value);
+          expected.add(index, value);
+          break;
+        case 2:
+          if (!expected.isEmpty()) {
+            Assert.assertEquals(expected.remove(index), list.remove(index));
+          }
+          break;
+        case 3:
+          if (!expected.isEmpty()) {
+            Assert.assertEquals(expected.set(index, value),
+                list.set(index, value));
+          }
+          break;
+        default:
+          Assert.assertEquals(indexOf(expected, value), list.indexOf(value));
+          break;
+      }
+      Assert.assertEquals(expected.size(), list.size());
+      if (expected.size() > maxSize) {
+        Assert.assertEquals(expected, list);
+        expected.clear();
+        list.clear();
+      }
+    }
+    Assert.assertEquals(expected, list);
+  }
+
+  /**
+   * Returns the index of the first occurrence of the given value in the given
+   * list, compared by identity.
+   */
+  protected int indexOf(List<Integer> list, Integer value) {
+    for (int i = 0; i < list.size(); i++) {
+      if (list.get(i) == value) {
+        return i;
+      }
+    }
+    return -1;
+  }
+}
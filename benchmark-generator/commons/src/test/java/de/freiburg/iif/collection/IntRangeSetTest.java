@@ -0,0 +1,147 @@
+package de.freiburg.iif.collection;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Random;
+import java.util.TreeSet;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Tests for the IntRangeSet.
+ *
+ * @author Claudius Korzen
+ *
+ */
+public class IntRangeSetTest {
+
+  /**
+   * Test an empty set.
+   */
+  @Test
+  public void testEmpty() {
+    IntRangeSet set = new IntRangeSet();
+    Assert.assertTrue(set.isEmpty());
+    Assert.assertEquals(0, set.size());
+    Assert.assertEquals(0, set.getNumRanges());
+    Assert.assertFalse(set.contains(0));
+    Assert.assertEquals("[]", set.toString());
+    Assert.assertEquals(new ArrayList<>(), set.toList());
+    try {
+      set.first();
+      Assert.fail();
+    } catch (NoSuchElementException e) {
+      // Expected.
+    }
+    try {
+      set.last();
+      Assert.fail();
+    } catch (NoSuchElementException e) {
+      // Expected.
+    }
+  }
+
+  /**
+   * Test add(value) with ascending values.
+   */
+  @Test
+  public void testAddAscending() {
+    IntRangeSet set = new IntRangeSet();
+    Assert.assertTrue(set.add(3));
+    Assert.assertTrue(set.add(4));
+    Assert.assertFalse(set.add(4));
+    Assert.assertTrue(set.add(5));
+    Assert.assertTrue(set.add(8));
+    Assert.assertFalse(set.add(3));
+
+    Assert.assertEquals(4, set.size());
+    Assert.assertEquals(3, set.first());
+    Assert.assertEquals(8, set.last());
+    Assert.assertEquals(2, set.getNumRanges());
+    Assert.assertEquals(3, set.getRangeStart(0));
+    Assert.assertEquals(5, set.getRangeEnd(0));
+    Assert.assertEquals(8, set.getRangeStart(1));
+    Assert.assertEquals(8, set.getRangeEnd(1));
+    Assert.assertEquals("[3, 4, 5, 8]", set.toString());
+  }
+
+  /**
+   * Test add(value) with values that join and merge ranges.
+   */
+  @Test
+  public void testAddMerge() {
+    IntRangeSet set = new IntRangeSet();
+    set.add(10);
+    set.add(1);
+    set.add(5);
+    Assert.assertEquals(3, set.getNumRanges());
+    set.add(9);
+    set.add(2);
+    set.add(4);
+    Assert.assertEquals(3, set.getNumRanges());
+    set.add(3);
+    Assert.assertEquals(2, set.getNumRanges());
+    set.addRange(6, 8);
+    Assert.assertEquals(1, set.getNumRanges());
+    Assert.assertEquals(10, set.size());
+    Assert.assertEquals(1, set.first());
+    Assert.assertEquals(10, set.last());
+    Assert.assertTrue(set.contains(7));
+    Assert.assertFalse(set.contains(11));
+
+    set.add(Integer.MAX_VALUE);
+    set.add(Integer.MIN_VALUE);
+    Assert.assertEquals(Integer.MIN_VALUE, set.first());
+    Assert.assertEquals(Integer.MAX_VALUE, set.last());
+    Assert.assertEquals(12, set.toArray().length);
+
+    set.clear();
+    Assert.assertTrue(set.isEmpty());
+    Assert.assertEquals(0, set.getNumRanges());
+  }
+
+  /**
+   * Test forEach().
+   */
+  @Test
+  public void testForEach() {
+    IntRangeSet set = new IntRangeSet();
+    set.addRange(Integer.MAX_VALUE - 1, Integer.MAX_VALUE);
+    set.add(-1);
+    List<Integer> values = new ArrayList<>();
+    set.forEach(values::add);
+    Assert.assertEquals(Arrays.asList(-1, Integer.MAX_VALUE - 1,
+        Integer.MAX_VALUE), values);
+  }
+
+  /**
+   * Test the set against a TreeSet with random values.
+   */
+  @Test
+  public void testRandom() {
+    Random random = new Random(42);
+    for (int run = 0; run < 100; run++) {
+      IntRangeSet set = new IntRangeSet();
+      TreeSet<Integer> expected = new TreeSet<>();
+      int bound = 1 + random.nextInt(200);
+      for (int i = 0; i < 300; i++) {
+        int value = random.nextInt(bound);
+        Assert.assertEquals(expected.add(value), set.add(value));
+        Assert.assertEquals(expected.size(), set.size());
+        Assert.assertEquals((int) expected.first(), set.first());
+        Assert.assertEquals((int) expected.last(), set.last());
+      }
+      Assert.assertEquals(new ArrayList<>(expected), set.toList());
+      for (int value = -1; value <= bound; value++) {
+        Assert.assertEquals(expected.contains(value), set.contains(value));
+      }
+      // The ranges must be maximal.
+      for (int i = 1; i < set.getNumRanges(); i++) {
+        Assert.assertTrue(set.getRangeStart(i) > set.getRangeEnd(i - 1) + 1);
+      }
+    }
+  }
+}
@@ -0,0 +1,109 @@
+package de.freiburg.iif.collection;
+
+import java.util.Map;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Tests for the PrefixTrie.
+ *
+ * @author Claudius Korzen
+ *
+ */
+public class PrefixTrieTest {
+
+  /**
+   * Test the constructor.
+   */
+  @Test
+  public void testConstructor() {
+    PrefixTrie<Integer> trie = new PrefixTrie<>();
+    Assert.assertTrue(trie.isEmpty());
+    Assert.assertEquals(0, trie.size());
+    Assert.assertNull(trie.get("A"));
+    Assert.assertNull(trie.getLongestPrefixEntry("A"));
+  }
+
+  /**
+   * Test put() and get().
+   */
+  @Test
+  public void testPutAndGet() {
+    PrefixTrie<Integer> trie = new PrefixTrie<>();
+    Assert.assertNull(trie.put("\\title", 1));
+    Assert.assertNull(trie.put("\\t", 2));
+    Assert.assertNull(trie.put("\\begin{abstract}", 3));
+    Assert.assertEquals(Integer.valueOf(2), trie.put("\\t", 4));
+
+    Assert.assertEquals(3, trie.size());
+    Assert.assertEquals(Integer.valueOf(1), trie.get("\\title"));
+    Assert.assertEquals(Integer.valueOf(4), trie.get("\\t"));
+    Assert.assertEquals(Integer.valueOf(3), trie.get("\\begin{abstract}"));
+    Assert.assertNull(trie.get("\\ti"));
+    Assert.assertNull(trie.get("\\titles"));
+    Assert.assertNull(trie.get(null));
+    Assert.assertTrue(trie.containsKey("\\title"));
+    Assert.assertFalse(trie.containsKey("\\tit"));
+  }
+
+  /**
+   * Test getLongestPrefixEntry().
+   */
+  @Test
+  public void testGetLongestPrefixEntry() {
+    PrefixTrie<Integer> trie = new PrefixTrie<>();
+    trie.put("\\t", 1);
+    trie.put("\\title", 2);
+    trie.put("\\begin", 3);
+    trie.put("\\begin{abstract}", 4);
+
+    Map.Entry<String, Integer> entry = trie.getLongestPrefixEntry("\\title{x}");
+    Assert.assertEquals("\\title", entry.getKey());
+    Assert.assertEquals(Integer.valueOf(2), entry.getValue());
+
+    Assert.assertEquals("\\t", trie.getLongestPrefix("\\tit"));
+    Assert.assertEquals("\\t", trie.getLongestPrefix("\\textbf{x}"));
+    Assert.assertEquals("\\begin", trie.getLongestPrefix("\\begin{figure}"));
+    Assert.assertEquals("\\begin{abstract}",
+        trie.getLongestPrefix("\\begin{abstract}"));
+    Assert.assertNull(trie.getLongestPrefix("\\"));
+    Assert.assertNull(trie.getLongestPrefix("foo"));
+    Assert.assertNull(trie.getLongestPrefix(""));
+    Assert.assertNull(trie.getLongestPrefix(null));
+  }
+
+  /**
+   * Test getLongestPrefixEntry() with the empty key.
+   */
+  @Test
+  public void testEmptyKey() {
+    PrefixTrie<Integer> trie = new PrefixTrie<>();
+    trie.put("", 1);
+    trie.put("ab", 2);
+
+    Assert.assertEquals("", trie.getLongestPrefix("foo"));
+    Assert.assertEquals("", trie.getLongestPrefix("a"));
+    Assert.assertEquals("ab", trie.getLongestPrefix("abc"));
+  }
+
+  /**
+   * Test a node with many children (which are looked up by binary search).
+   */
+  @Test
+  public void testManyChildren() {
+    PrefixTrie<Integer> trie = new PrefixTrie<>();
+    String chars = "zyxwvutsrqponmlkjihgfedcba";
+    for (int i = 0; i < chars.length(); i++) {
+      trie.put("\\" + chars.charAt(i), i);
+    }
+
+    Assert.assertEquals(chars.length(), trie.size());
+    for (int i = 0; i < chars.length(); i++) {
+      Assert.assertEquals(Integer.valueOf(i), trie.get("\\" + chars.charAt(i)));
+      Assert.assertEquals("\\" + chars.charAt(i),
+          trie.getLongestPrefix("\\" + chars.charAt(i) + "{foo}"));
+    }
+    Assert.assertNull(trie.getLongestPrefix("\\A"));
+  }
+}
@@ -0,0 +1,213 @@
+package de.freiburg.iif.metrics;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.InetAddress;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Tests for the MetricsRegistry, the Histogram and the MetricsHttpServer.
+ *
+ * @author Claudius Korzen
+ *
+ */
+public class MetricsRegistryTest {
+
+  /**
+   * Test the buckets, the count, the sum and the quantiles of a histogram.
+   */
+  @Test
+  public void testHistogram() {
+    Histogram histogram = new Histogram(1, 2, 4);
+    Assert.assertEquals(4, histogram.getNumBuckets());
+    Assert.assertTrue(Double.isNaN(histogram.getQuantile(0.5)));
+
+    histogram.observe(0.5);
+    histogram.observe(1);
+    histogram.observe(1.5);
+    histogram.observe(3);
+    histogram.observe(10);
+
+    Assert.assertEquals(2, histogram.getBucketCount(0));
+    Assert.assertEquals(1, histogram.getBucketCount(1));
+    Assert.assertEquals(1, histogram.getBucketCount(2));
+    Assert.assertEquals(1, histogram.getBucketCount(3));
+    Assert.assertEquals(Double.POSITIVE_INFINITY, histogram.getUpperBound(3),
+        0);
+    Assert.assertEquals(5, histogram.getCount());
+    Assert.assertEquals(16, histogram.getSum(), 1e-9);
+
+    // The 2nd value is the upper bound of the first bucket.
+    Assert.assertEquals(1, histogram.getQuantile(0.4), 1e-9);
+    // Interpolated within the second bucket.
+    Assert.assertEquals(1.5, histogram.getQuantile(0.5), 1e-9);
+    // Values in the last bucket are estimated by the largest finite bound.
+    Assert.assertEquals(4, histogram.getQuantile(1), 1e-9);
+
+    Assert.assertArrayEquals(new double[] { 0.5, 1, 2 },
+        Histogram.exponentialBounds(0.5, 2, 3), 1e-9);
+  }
+
+  /**
+   * Test that invalid bounds are rejected.
+   */
+  @Test(expected = IllegalArgumentException.class)
+  public void testHistogramInvalidBounds() {
+    new Histogram(1, 1);
+  }
+
+  /**
+   * Test the text exposition format.
+   */
+  @Test
+  public void testText() {
+    MetricsRegistry registry = createRegistry();
+    String expected = ""
+        + "# HELP files_total The number of files.\n"
+        + "# TYPE files_total counter\n"
+        + "files_total{status=\"ok\"} 3\n"
+        + "files_total{status=\"timeout\"} 1\n"
+        + "# HELP queue_depth The number of \\\\queued\\n files.\n"
+        + "# TYPE queue_depth gauge\n"
+        + "queue_depth 2.5\n"
+        + "# HELP duration_seconds The durations.\n"
+        + "# TYPE duration_seconds histogram\n"
+        + "duration_seconds_bucket{stage=\"a\\\"b\",le=\"0.5\"} 1\n"
+        + "duration_seconds_bucket{stage=\"a\\\"b\",le=\"1\"} 1\n"
+        + "duration_seconds_bucket{stage=\"a\\\"b\",le=\"+Inf\"} 2\n"
+        + "duration_seconds_sum{stage=\"a\\\"b\"} 2.25\n"
+        + "duration_seconds_count{stage=\"a\\\"b\"} 2\n";
+    Assert.assertEquals(expected, registry.toText());
+  }
+
+  /**
+   * Test the JSON summary.
+   */
+  @Test
+  public void testJson() {
+    MetricsRegistry registry = createRegistry();
+    String json = registry.toJson();
+    Assert.assertTrue(json, json.startsWith("{\n  \"files_total\": {\n"));
+    Assert.assertTrue(json, json.contains(
+        "{\"labels\": {\"status\": \"timeout\"}, \"value\": 1}"));
+    Assert.assertTrue(json, json.contains(
+        "\"help\": \"The number of \\\\queued\\n files.\""));
+    Assert.assertTrue(json, json.contains("{\"labels\": {\"stage\": \"a\\\"b\"}"
+        + ", \"count\": 2, \"sum\": 2.25, \"mean\": 1.125, \"p50\": 0.5, "
+        + "\"p90\": 1, \"p99\": 1}"));
+    Assert.assertTrue(json, json.endsWith("\n}\n"));
+
+    Assert.assertEquals("{}\n", new MetricsRegistry().toJson());
+  }
+
+  /**
+   * Test that metrics can't be registered twice.
+   */
+  @Test
+  public void testDuplicates() {
+    MetricsRegistry registry = new MetricsRegistry();
+    registry.counter("a_total", "A.", "x", "1");
+    registry.counter("a_total", "A.", "x", "2");
+    try {
+      registry.counter("a_total", "A.", "x", "1");
+      Assert.fail();
+    } catch (IllegalArgumentException e) {
+      // Expected.
+    }
+    try {
+      registry.gauge("a_total", "A.", () -> 1);
+      Assert.fail();
+    } catch (IllegalArgumentException e) {
+      // Expected.
+    }
+    try {
+      registry.counter("a-b", "A.");
+      Assert.fail();
+    } catch (IllegalArgumentException e) {
+      // Expected.
+    }
+  }
+
+  /**
+   * Test the scraping of the metrics over the loopback interface.
+   */
+  @Test
+  public void testHttpServer() throws IOException {
+    MetricsRegistry registry = createRegistry();
+    MetricsHttpServer server = new MetricsHttpServer(registry);
+    server.start(InetAddress.getLoopbackAddress(), 0);
+    try {
+      String base = "http://"
+          + InetAddress.getLoopbackAddress().getHostAddress() + ":"
+          + server.getPort();
+
+      HttpURLConnection conn = open(base + "/metrics");
+      Assert.assertEquals(200, conn.getResponseCode());
+      Assert.assertEquals(MetricsRegistry.TEXT_CONTENT_TYPE,
+          conn.getContentType());
+      Assert.assertEquals(registry.toText(), read(conn.getInputStream()));
+
+      conn = open(base + "/metrics.json?pretty");
+      Assert.assertEquals(200, conn.getResponseCode());
+      Assert.assertEquals(registry.toJson(), read(conn.getInputStream()));
+
+      conn = open(base + "/foo");
+      Assert.assertEquals(404, conn.getResponseCode());
+    } finally {
+      server.stop();
+    }
+  }
+
+  // ___________________________________________________________________________
+
+  /**
+   * Creates a registry with some metrics.
+   */
+  protected MetricsRegistry createRegistry() {
+    MetricsRegistry registry = new MetricsRegistry();
+    Counter ok = registry.counter("files_total", "The number of files.",
+        "status", "ok");
+    registry.counter("files_total", "The number of files.", () -> 1,
+        "status", "timeout");
+    registry.gauge("queue_depth", "The number of \\queued\n files.",
+        () -> 2.5);
+    Histogram histogram = registry.histogram("duration_seconds",
+        "The durations.", new double[] { 0.5, 1 }, "stage", "a\"b");
+    ok.add(2);
+    ok.inc();
+    histogram.observe(0.25);
+    histogram.observe(2);
+    return registry;
+  }
+
+  /**
+   * Opens a connection to the given url.
+   */
+  protected HttpURLConnection open(String url) throws IOException {
+    HttpURLConnection conn = (HttpURLConnection) new URL(url).openConnection();
+    conn.setConnectTimeout(5000);
+    conn.setReadTimeout(5000);
+    return conn;
+  }
+
+  /**
+   * Reads the given stream into a string.
+   */
+  protected String read(InputStream is) throws IOException {
+    try (InputStream in = is) {
+      ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+      byte[] buffer = new byte[4096];
+      int n;
+      while ((n = in.read(buffer)) > 0) {
+        bytes.write(buffer, 0, n);
+      }
+      return new String(bytes.toByteArray(), StandardCharsets.UTF_8);
+    }
+  }
+}
@@ -0,0 +1,63 @@
+package de.freiburg.iif.net;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Tests for the HttpRequest.
+ *
+ * @author Claudius Korzen
+ *
+ */
+public class HttpRequestTest {
+
+  /**
+   * Test the path and the query of the request target.
+   */
+  @Test
+  public void testTarget() {
+    HttpRequest req = createRequest("/paragraphs?format=tsv");
+    Assert.assertEquals("/paragraphs?format=tsv", req.getTarget());
+    Assert.assertEquals("/paragraphs", req.getPath());
+    Assert.assertEquals("format=tsv", req.getQuery());
+
+    req = createRequest("/paragraphs");
+    Assert.assertEquals("/paragraphs", req.getPath());
+    Assert.assertNull(req.getQuery());
+    Assert.assertTrue(req.getQueryParameters().isEmpty());
+
+    req = createRequest(null);
+    Assert.assertEquals("/", req.getPath());
+    Assert.assertNull(req.getQuery());
+  }
+
+  /**
+   * Test the decoding of the query parameters.
+   */
+  @Test
+  public void testQueryParameters() {
+    HttpRequest req = createRequest(
+        "/p?role=text&path=a%2Fb+c.tex&role=heading&&flag&x=%C3%A4");
+    Map<String, List<String>> params = req.getQueryParameters();
+    Assert.assertEquals(Arrays.asList("role", "path", "flag", "x"),
+        Arrays.asList(params.keySet().toArray()));
+    Assert.assertEquals(Arrays.asList("text", "heading"), params.get("role"));
+    Assert.assertEquals("a/b c.tex", req.getQueryParameter("path", null));
+    Assert.assertEquals("", req.getQueryParameter("flag", null));
+    Assert.assertEquals("ä", req.getQueryParameter("x", null));
+    Assert.assertEquals("txt", req.getQueryParameter("format", "txt"));
+  }
+
+  /**
+   * Creates a GET request with the given target.
+   */
+  protected HttpRequest createRequest(String target) {
+    return new HttpRequest(null, "GET", target, new HashMap<String, String>(),
+        null);
+  }
+}
@@ -0,0 +1,319 @@
+package de.freiburg.iif.net;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests for the HttpServer.
+ *
+ * @author Claudius Korzen
+ *
+ */
+public class HttpServerTest {
+  /**
+   * The server under test. It echoes the target and the payload of each
+   * request (streamed without a length, if the path is "/stream"; without
+   * reading the payload, if the path is "/ignore").
+   */
+  protected HttpServer server;
+
+  /**
+   * Starts the server.
+   */
+  @Before
+  public void setUp() throws IOException {
+    server = new HttpServer() {
+      @Override
+      public void handleHttpRequest(HttpRequest req) throws IOException {
+        if (req.getPath().equals("/error")) {
+          throw new IOException("Failed.");
+        }
+        String body = req.getMethod() + " " + req.getTarget();
+        if (!req.getPath().equals("/ignore") && req.getPayload() != null) {
+          body += " " + new String(req.getPayload(), StandardCharsets.UTF_8);
+        }
+        byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+        HttpResponse response = req.createHttpResponse(200, "OK");
+        if (req.getPath().equals("/stream")) {
+          for (byte b : bytes) {
+            response.getPayloadStream().write(b);
+            response.flush();
+          }
+          return;
+        }
+        response.addHeader("Content-Length", String.valueOf(bytes.length));
+        response.getPayloadStream().write(bytes);
+      }
+    };
+    server.setMaxThreads(2);
+    server.setMaxConnections(2);
+    server.start(InetAddress.getLoopbackAddress(), 0);
+  }
+
+  /**
+   * Stops the server.
+   */
+  @After
+  public void tearDown() {
+    server.stop();
+  }
+
+  /**
+   * Test that multiple requests are handled on a single connection.
+   */
+  @Test
+  public void testKeepAlive() throws IOException {
+    try (Socket socket = connect()) {
+      InputStream in = new BufferedInputStream(socket.getInputStream());
+      for (int i = 0; i < 3; i++) {
+        write(socket, "GET /a?i=" + i + " HTTP/1.1\r\nHost: x\r\n\r\n");
+        Response response = readResponse(in);
+        Assert.assertEquals("HTTP/1.1 200 OK", response.statusLine);
+        Assert.assertEquals("keep-alive", response.headers.get("Connection"));
+        Assert.assertEquals("GET /a?i=" + i, response.body);
+      }
+      Assert.assertEquals(1, server.getNumConnections());
+
+      // The connection is closed after a request with "Connection: close".
+      write(socket, "POST /b HTTP/1.1\r\nConnection: close\r\n"
+          + "content-length: 3\r\n\r\nabc");
+      Response response = readResponse(in);
+      Assert.assertEquals("close", response.headers.get("Connection"));
+      Assert.assertEquals("POST /b abc", response.body);
+      Assert.assertEquals(-1, in.read());
+    }
+  }
+
+  /**
+   * Test that pipelined requests are answered in order.
+   */
+  @Test
+  public void testPipelining() throws IOException {
+    try (Socket socket = connect()) {
+      InputStream in = new BufferedInputStream(socket.getInputStream());
+      write(socket, "GET /1 HTTP/1.1\r\n\r\nPOST /2 HTTP/1.1\r\n"
+          + "Content-Length: 1\r\n\r\nxGET /3 HTTP/1.1\r\n\r\n");
+      Assert.assertEquals("GET /1", readResponse(in).body);
+      Assert.assertEquals("POST /2 x", readResponse(in).body);
+      Assert.assertEquals("GET /3", readResponse(in).body);
+    }
+  }
+
+  /**
+   * Test that HTTP/1.0 connections are closed after the response.
+   */
+  @Test
+  public void testHttp10() throws IOException {
+    try (Socket socket = connect()) {
+      InputStream in = new BufferedInputStream(socket.getInputStream());
+      write(socket, "GET /a HTTP/1.0\r\n\r\n");
+      Response response = readResponse(in);
+      Assert.assertEquals("HTTP/1.0 200 OK", response.statusLine);
+      Assert.assertEquals("close", response.headers.get("Connection"));
+      Assert.assertEquals(-1, in.read());
+    }
+  }
+
+  /**
+   * Test that chunked payloads of requests are decoded.
+   */
+  @Test
+  public void testChunkedRequest() throws IOException {
+    try (Socket socket = connect()) {
+      InputStream in = new BufferedInputStream(socket.getInputStream());
+      write(socket, "POST /a HTTP/1.1\r\nTransfer-Encoding: chunked\r\n\r\n"
+          + "3\r\nabc\r\na;ext=1\r\n0123456789\r\n0\r\nX-Trailer: y\r\n\r\n");
+      Assert.assertEquals("POST /a abc0123456789", readResponse(in).body);
+
+      // The connection is kept alive.
+      write(socket, "GET /b HTTP/1.1\r\n\r\n");
+      Assert.assertEquals("GET /b", readResponse(in).body);
+    }
+  }
+
+  /**
+   * Test that payloads of unknown length are streamed in chunks to HTTP/1.1
+   * clients and until the end of the connection to HTTP/1.0 clients.
+   */
+  @Test
+  public void testChunkedResponse() throws IOException {
+    try (Socket socket = connect()) {
+      InputStream in = new BufferedInputStream(socket.getInputStream());
+      write(socket, "POST /stream HTTP/1.1\r\nContent-Length: 3\r\n\r\nabc");
+      Response response = readResponse(in);
+      Assert.assertEquals("chunked", response.headers.get("Transfer-Encoding"));
+      Assert.assertEquals("keep-alive", response.headers.get("Connection"));
+      Assert.assertEquals("POST /stream abc", response.body);
+
+      write(socket, "GET /b HTTP/1.1\r\n\r\n");
+      Assert.assertEquals("GET /b", readResponse(in).body);
+    }
+
+    try (Socket socket = connect()) {
+      InputStream in = new BufferedInputStream(socket.getInputStream());
+      write(socket, "GET /stream HTTP/1.0\r\n\r\n");
+      Response response = readResponse(in);
+      Assert.assertNull(response.headers.get("Transfer-Encoding"));
+      Assert.assertEquals("close", response.headers.get("Connection"));
+      Assert.assertEquals("GET /stream", response.body);
+    }
+  }
+
+  /**
+   * Test that "100 Continue" is sent before the payload is read, and that
+   * payloads not read by the handler are discarded.
+   */
+  @Test
+  public void testContinue() throws IOException {
+    try (Socket socket = connect()) {
+      InputStream in = new BufferedInputStream(socket.getInputStream());
+      write(socket, "POST /a HTTP/1.1\r\nExpect: 100-continue\r\n"
+          + "Content-Length: 3\r\n\r\n");
+      Assert.assertEquals("HTTP/1.1 100 Continue",
+          ClientSocketWorker.readLine(in));
+      Assert.assertEquals("", ClientSocketWorker.readLine(in));
+      write(socket, "abc");
+      Assert.assertEquals("POST /a abc", readResponse(in).body);
+    }
+
+    try (Socket socket = connect()) {
+      InputStream in = new BufferedInputStream(socket.getInputStream());
+      write(socket, "POST /ignore HTTP/1.1\r\nContent-Length: 3\r\n\r\nabc"
+          + "GET /b HTTP/1.1\r\n\r\n");
+      Assert.assertEquals("POST /ignore", readResponse(in).body);
+      Assert.assertEquals("GET /b", readResponse(in).body);
+    }
+  }
+
+  /**
+   * Test the responses on malformed requests and failing handlers.
+   */
+  @Test
+  public void testErrors() throws IOException {
+    try (Socket socket = connect()) {
+      InputStream in = new BufferedInputStream(socket.getInputStream());
+      write(socket, "GET /error HTTP/1.1\r\n\r\n");
+      Response response = readResponse(in);
+      Assert.assertEquals("HTTP/1.1 500 Internal Server Error",
+          response.statusLine);
+      Assert.assertTrue(response.body.contains("Failed."));
+      Assert.assertEquals(-1, in.read());
+    }
+
+    try (Socket socket = connect()) {
+      InputStream in = new BufferedInputStream(socket.getInputStream());
+      write(socket, "POST /a HTTP/1.1\r\nContent-Length: x\r\n\r\n");
+      Assert.assertEquals("HTTP/1.0 400 Bad Request",
+          readResponse(in).statusLine);
+    }
+  }
+
+  /**
+   * Test that no more than the maximal number of connections are accepted.
+   */
+  @Test
+  public void testMaxConnections() throws IOException {
+    try (Socket socket1 = connect(); Socket socket2 = connect()) {
+      InputStream in1 = new BufferedInputStream(socket1.getInputStream());
+      InputStream in2 = new BufferedInputStream(socket2.getInputStream());
+      write(socket1, "GET /1 HTTP/1.1\r\n\r\n");
+      write(socket2, "GET /2 HTTP/1.1\r\n\r\n");
+      Assert.assertEquals("GET /1", readResponse(in1).body);
+      Assert.assertEquals("GET /2", readResponse(in2).body);
+
+      // The third connection is pending until another connection is closed.
+      try (Socket socket3 = connect()) {
+        InputStream in3 = new BufferedInputStream(socket3.getInputStream());
+        write(socket3, "GET /3 HTTP/1.1\r\n\r\n");
+        socket3.setSoTimeout(500);
+        try {
+          in3.read();
+          Assert.fail();
+        } catch (SocketTimeoutException e) {
+          // Expected.
+        }
+        socket1.close();
+        socket3.setSoTimeout(5000);
+        Assert.assertEquals("GET /3", readResponse(in3).body);
+      }
+    }
+  }
+
+  // ___________________________________________________________________________
+
+  /**
+   * Opens a connection to the server.
+   */
+  protected Socket connect() throws IOException {
+    Socket socket = new Socket(InetAddress.getLoopbackAddress(),
+        server.getPort());
+    socket.setSoTimeout(5000);
+    return socket;
+  }
+
+  /**
+   * Writes the given string to the given socket.
+   */
+  protected void write(Socket socket, String str) throws IOException {
+    OutputStream out = socket.getOutputStream();
+    out.write(str.getBytes(StandardCharsets.UTF_8));
+    out.flush();
+  }
+
+  /**
+   * Reads a response (with a Content-Length, chunked or delimited by the end
+   * of the connection) from the given stream.
+   */
+  protected Response readResponse(InputStream in) throws IOException {
+    Response response = new Response();
+    response.statusLine = ClientSocketWorker.readLine(in);
+    String line;
+    while (!(line = ClientSocketWorker.readLine(in)).isEmpty()) {
+      int index = line.indexOf(": ");
+      response.headers.put(line.substring(0, index),
+          line.substring(index + 2));
+    }
+    InputStream payload;
+    if (response.headers.containsKey("Transfer-Encoding")) {
+      payload = new ChunkedInputStream(in);
+    } else if (response.headers.containsKey("Content-Length")) {
+      payload = new ContentLengthInputStream(in,
+          Long.parseLong(response.headers.get("Content-Length")));
+    } else {
+      payload = in;
+    }
+    ByteArrayOutputStream body = new ByteArrayOutputStream();
+    int b;
+    while ((b = payload.read()) >= 0) {
+      body.write(b);
+    }
+    response.body = new String(body.toByteArray(), StandardCharsets.UTF_8);
+    return response;
+  }
+
+  /**
+   * A response read from a connection.
+   */
+  protected static class Response {
+    /** The status line. */
+    protected String statusLine;
+    /** The headers. */
+    protected Map<String, String> headers = new HashMap<>();
+    /** The body. */
+    protected String body;
+  }
+}
@@ -0,0 +1,122 @@
+package performance;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import model.Command;
+import model.Document;
+import model.Element;
+import model.Group;
+import parse.ParseException;
+import parse.TeXParser;
+
+/**
+ * The tex documents to use in benchmarks. The documents are shipped as
+ * resources in the folder "/corpus", listed in "/corpus/corpus.txt".
+ *
+ * @author Claudius Korzen
+ */
+public class BenchmarkCorpus {
+  /**
+   * The path to the file that lists the documents of the corpus.
+   */
+  public static final String CORPUS_INDEX_PATH = "/corpus/corpus.txt";
+
+  /**
+   * Returns the names of the documents in the corpus.
+   */
+  public static List<String> getDocumentNames() throws IOException {
+    List<String> names = new ArrayList<>();
+    try (InputStream is = getResource(CORPUS_INDEX_PATH);
+        BufferedReader reader = new BufferedReader(
+            new InputStreamReader(is, StandardCharsets.UTF_8))) {
+      String line;
+      while ((line = reader.readLine()) != null) {
+        line = line.trim();
+        // Ignore comment lines and empty lines.
+        if (!line.isEmpty() && !line.startsWith("#")) {
+          names.add(line);
+        }
+      }
+    }
+    return names;
+  }
+
+  /**
+   * Returns the content of the given document of the corpus as raw bytes.
+   */
+  public static byte[] readDocument(String name) throws IOException {
+    try (InputStream is = getResource("/corpus/" + name)) {
+      ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+      byte[] buffer = new byte[8192];
+      int n;
+      while ((n = is.read(buffer)) > 0) {
+        bytes.write(buffer, 0, n);
+      }
+      return bytes.toByteArray();
+    }
+  }
+
+  /**
+   * Returns the contents of all documents of the corpus as raw bytes.
+   */
+  public static List<byte[]> readDocuments() throws IOException {
+    List<byte[]> documents = new ArrayList<>();
+    for (String name : getDocumentNames()) {
+      documents.add(readDocument(name));
+    }
+    return documents;
+  }
+
+  /**
+   * Parses the given tex document.
+   */
+  public static Document parse(byte[] document) throws ParseException {
+    return new TeXParser(new ByteArrayInputStream(document)).parse();
+  }
+
+  /**
+   * Collects all elements of the given group, including the elements of
+   * nested groups and of the groups of commands.
+   */
+  public static List<Element> collectElements(Group group) {
+    List<Element> elements = new ArrayList<>();
+    collectElements(group, elements);
+    return elements;
+  }
+
+  /**
+   * Collects all elements of the given group, including the elements of
+   * nested groups and of the groups of commands, into the given list.
+   */
+  protected static void collectElements(Group group, List<Element> res) {
+    for (Element element : group.elements) {
+      res.add(element);
+      if (element instanceof Group) {
+        collectElements((Group) element, res);
+      } else if (element instanceof Command) {
+        for (Group g : ((Command) element).getGroups()) {
+          collectElements(g, res);
+        }
+      }
+    }
+  }
+
+  /**
+   * Returns the stream of the given resource.
+   */
+  protected static InputStream getResource(String path) throws IOException {
+    InputStream is = BenchmarkCorpus.class.getResourceAsStream(path);
+    if (is == null) {
+      throw new IOException("Resource not found: " + path);
+    }
+    return is;
+  }
+}
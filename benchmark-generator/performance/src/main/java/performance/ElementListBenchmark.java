@@ -0,0 +1,154 @@
+package performance;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import de.freiburg.iif.collection.ConstantLookupList;
+import de.freiburg.iif.collection.IdentityIndexedList;
+import model.Element;
+import model.Text;
+
+/**
+ * Compares the lists of elements of a group: the linked
+ * {@link ConstantLookupList} (the former type of Group.elements) and the
+ * array-backed {@link IdentityIndexedList}.
+ *
+ * The lists are the top level elements of the documents of the benchmark
+ * corpus, that are the largest groups on parsing paragraphs.
+ *
+ * @author Claudius Korzen
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ElementListBenchmark {
+  /**
+   * The type of the lists.
+   */
+  @Param({ "ConstantLookupList", "IdentityIndexedList" })
+  public String type;
+
+  /**
+   * The top level elements of the documents of the corpus.
+   */
+  protected List<List<Element>> groups;
+
+  /**
+   * The lists of the top level elements, of the benchmarked type.
+   */
+  protected List<List<Element>> lists;
+
+  /**
+   * Parses the corpus.
+   */
+  @Setup
+  public void setup() throws Exception {
+    this.groups = new ArrayList<>();
+    this.lists = new ArrayList<>();
+    for (byte[] document : BenchmarkCorpus.readDocuments()) {
+      List<Element> elements = BenchmarkCorpus.parse(document).elements;
+      this.groups.add(new ArrayList<>(elements));
+      this.lists.add(build(elements));
+    }
+  }
+
+  /**
+   * Builds the lists by appending the elements one by one (like on parsing).
+   */
+  @Benchmark
+  public void append(Blackhole bh) {
+    for (List<Element> group : groups) {
+      bh.consume(build(group));
+    }
+  }
+
+  /**
+   * Iterates the lists by positions (like model.Iterator).
+   */
+  @Benchmark
+  public void positionalAccess(Blackhole bh) {
+    for (List<Element> list : lists) {
+      for (int i = 0; i < list.size(); i++) {
+        bh.consume(list.get(i));
+      }
+    }
+  }
+
+  /**
+   * Looks up the index of every 16th element of the lists.
+   */
+  @Benchmark
+  public void indexOf(Blackhole bh) {
+    for (List<Element> list : lists) {
+      for (int i = 0; i < list.size(); i += 16) {
+        bh.consume(list.indexOf(list.get(i)));
+      }
+    }
+  }
+
+  /**
+   * Replaces every 16th element of the lists by two elements and looks up
+   * the index of the following element after each replacement (like
+   * replacing the markers of macros by the arguments).
+   */
+  @Benchmark
+  public void replace(Blackhole bh) {
+    for (List<Element> group : groups) {
+      List<Element> list = build(group);
+      for (int i = 0; i < group.size(); i += 16) {
+        List<Element> replacement = new ArrayList<>(2);
+        replacement.add(new Text("a", null));
+        replacement.add(group.get(i));
+        replace(list, group.get(i), replacement);
+        if (i + 1 < group.size()) {
+          bh.consume(list.indexOf(group.get(i + 1)));
+        }
+      }
+      bh.consume(list);
+    }
+  }
+
+  // ___________________________________________________________________________
+
+  /**
+   * Creates a list of the benchmarked type with the given elements, appended
+   * one by one.
+   */
+  protected List<Element> build(List<Element> elements) {
+    List<Element> list = "ConstantLookupList".equals(type)
+        ? new ConstantLookupList<>() : new IdentityIndexedList<>();
+    for (int i = 0; i < elements.size(); i++) {
+      list.add(elements.get(i));
+    }
+    return list;
+  }
+
+  /**
+   * Replaces the given element in the given list by the given elements.
+   */
+  protected static void replace(List<Element> list, Element element,
+      List<Element> elements) {
+    if (list instanceof ConstantLookupList) {
+      ((ConstantLookupList<Element>) list).replace(element, elements);
+    } else {
+      ((IdentityIndexedList<Element>) list).replace(element, elements);
+    }
+  }
+}
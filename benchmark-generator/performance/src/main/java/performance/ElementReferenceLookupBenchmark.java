@@ -0,0 +1,132 @@
+package performance;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import de.freiburg.iif.collection.PrefixTrie;
+import model.Element;
+import model.TeXElementReference;
+import model.TeXElementReferences;
+
+/**
+ * Compares the lookup of the longest element reference key that is a prefix
+ * of an element by a linear scan over all keys (the former implementation of
+ * {@link TeXElementReferences#getElementReference(Element)}) with the lookup
+ * in a prefix trie.
+ *
+ * The lookups are done for all elements of the benchmark corpus.
+ *
+ * @author Claudius Korzen
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ElementReferenceLookupBenchmark {
+  /**
+   * The element references.
+   */
+  protected TeXElementReferences refs;
+
+  /**
+   * The keys of the element references.
+   */
+  protected List<String> keys;
+
+  /**
+   * The keys of the element references, indexed in a trie.
+   */
+  protected PrefixTrie<List<TeXElementReference>> trie;
+
+  /**
+   * The elements of the corpus.
+   */
+  protected List<Element> elements;
+
+  /**
+   * The reference identifiers of the elements of the corpus.
+   */
+  protected List<String> identifiers;
+
+  /**
+   * Reads the element references and parses the corpus.
+   */
+  @Setup
+  public void setup() throws Exception {
+    this.refs = TeXElementReferences.getDefault();
+    this.keys = new ArrayList<>(refs.getElementReferences().keySet());
+    this.trie = new PrefixTrie<>();
+    for (String key : keys) {
+      if (key != null) {
+        trie.put(key, refs.getElementReferences().get(key));
+      }
+    }
+
+    this.elements = new ArrayList<>();
+    this.identifiers = new ArrayList<>();
+    for (byte[] document : BenchmarkCorpus.readDocuments()) {
+      for (Element element : BenchmarkCorpus.collectElements(
+          BenchmarkCorpus.parse(document))) {
+        String identifier = element.getElementReferenceIdentifier();
+        if (identifier != null) {
+          this.elements.add(element);
+          this.identifiers.add(identifier);
+        }
+      }
+    }
+  }
+
+  /**
+   * Finds the longest matching keys by a linear scan over all keys.
+   */
+  @Benchmark
+  public void linearScan(Blackhole bh) {
+    for (String identifier : identifiers) {
+      String matchingKey = null;
+      for (String key : keys) {
+        if (key != null && identifier.startsWith(key)) {
+          if (matchingKey == null || key.length() > matchingKey.length()) {
+            matchingKey = key;
+          }
+        }
+      }
+      bh.consume(matchingKey);
+    }
+  }
+
+  /**
+   * Finds the longest matching keys by a lookup in the prefix trie.
+   */
+  @Benchmark
+  public void prefixTrie(Blackhole bh) {
+    for (String identifier : identifiers) {
+      bh.consume(trie.getLongestPrefix(identifier));
+    }
+  }
+
+  /**
+   * Finds the element references of all elements, including the
+   * disambiguation of the candidates.
+   */
+  @Benchmark
+  public void getElementReference(Blackhole bh) {
+    for (Element element : elements) {
+      bh.consume(refs.getElementReference(element));
+    }
+  }
+}
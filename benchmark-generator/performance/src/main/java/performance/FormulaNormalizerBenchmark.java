@@ -0,0 +1,127 @@
+package performance;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import model.Characters;
+import model.Document;
+import model.TeXElementReferences;
+import parser.TeXFormulaNormalizer;
+import parser.TeXParagraphsParser;
+
+/**
+ * Compares the normalization of formulas by a regular expression per math
+ * symbol (the former implementation of
+ * TeXParagraphsParser.normalizeFormulaText()) with the
+ * {@link TeXFormulaNormalizer}.
+ *
+ * The formulas are the texts of all simple formulas of the benchmark corpus.
+ *
+ * @author Claudius Korzen
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class FormulaNormalizerBenchmark {
+  /**
+   * The texts of the formulas of the corpus.
+   */
+  protected List<String> formulas;
+
+  /**
+   * The normalizer.
+   */
+  protected TeXFormulaNormalizer normalizer;
+
+  /**
+   * Collects the formulas of the corpus and checks that both implementations
+   * produce the same output.
+   */
+  @Setup
+  public void setup() throws Exception {
+    TeXElementReferences refs = TeXElementReferences.getDefault();
+    this.formulas = new ArrayList<>();
+    for (byte[] document : BenchmarkCorpus.readDocuments()) {
+      Document parsed = TeXPipelineBenchmark.parseResolved(
+          TeXPipelineBenchmark.resolveMacros(document, refs));
+      new TeXParagraphsParser(parsed, refs) {
+        @Override
+        protected String normalizeFormulaText(String text) {
+          formulas.add(text);
+          return super.normalizeFormulaText(text);
+        }
+      }.identifyParagraphs();
+    }
+
+    this.normalizer = new TeXFormulaNormalizer();
+    for (String formula : formulas) {
+      if (!normalizeByRegex(formula).equals(normalizer.normalize(formula))) {
+        throw new IllegalStateException("Different normalizations of the "
+            + "formula '" + formula + "'.");
+      }
+    }
+  }
+
+  /**
+   * Normalizes the formulas by a regular expression per math symbol.
+   */
+  @Benchmark
+  public void regexPerSymbol(Blackhole bh) {
+    for (String formula : formulas) {
+      bh.consume(normalizeByRegex(formula));
+    }
+  }
+
+  /**
+   * Normalizes the formulas by the {@link TeXFormulaNormalizer}.
+   */
+  @Benchmark
+  public void trie(Blackhole bh) {
+    for (String formula : formulas) {
+      bh.consume(normalizer.normalize(formula));
+    }
+  }
+
+  /**
+   * The former implementation of TeXParagraphsParser.normalizeFormulaText().
+   */
+  protected static String normalizeByRegex(String text) {
+    for (String c : Characters.MATH_SYMBOLS_NO_SPACES) {
+      Matcher m = Pattern.compile("\\s*(" + Pattern.quote(c) + ")\\s*")
+          .matcher(text);
+      text = m.replaceAll(c);
+    }
+
+    for (String c : Characters.MATH_SYMBOLS_FOLLOWED_BY_SPACE) {
+      Matcher m = Pattern.compile("\\s*(" + Pattern.quote(c) + ")\\s*")
+          .matcher(text);
+      text = m.replaceAll(c + " ");
+    }
+
+    for (String c : Characters.MATH_SYMBOLS_SURROUNDED_BY_SPACES) {
+      Matcher m = Pattern.compile("\\s*(" + Pattern.quote(c) + ")\\s*")
+          .matcher(text);
+      text = m.replaceAll(" " + c + " ");
+    }
+
+    return text;
+  }
+}
@@ -0,0 +1,342 @@
+package performance;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+import de.freiburg.iif.metrics.MetricsHttpServer;
+import de.freiburg.iif.metrics.MetricsRegistry;
+import de.freiburg.iif.net.HttpServer;
+import model.TeXElementReferences;
+import service.TeXParagraphService;
+
+/**
+ * A load test of the http server on the loopback interface. A number of
+ * clients send requests as fast as possible (each waits for the response
+ * before sending the next request) for a given time, with or without
+ * keeping the connections alive. The requests per second and the latencies
+ * (p50, p90, p99, max) are reported.
+ *
+ * The targets are "metrics" (GET /metrics of a small registry, which
+ * measures mostly the handling of connections and requests) and
+ * "paragraphs" (POST /paragraphs with the documents of the benchmark
+ * corpus, which measures the paragraph service).
+ *
+ * Usage: java -cp target/benchmarks.jar performance.HttpLoadTest [target]
+ * [clients] [seconds] [keepAlive], with defaults "metrics", 16, 10 and true.
+ * The first two seconds are a warmup and not measured.
+ *
+ * @author Claudius Korzen
+ */
+public class HttpLoadTest {
+  /**
+   * The time to warm up the server, in seconds.
+   */
+  protected static final int WARMUP_SECONDS = 2;
+
+  /**
+   * The main method.
+   */
+  public static void main(String[] args) throws Exception {
+    String target = args.length > 0 ? args[0] : "metrics";
+    int numClients = args.length > 1 ? Integer.parseInt(args[1]) : 16;
+    int seconds = args.length > 2 ? Integer.parseInt(args[2]) : 10;
+    boolean keepAlive = args.length > 3 ? Boolean.parseBoolean(args[3]) : true;
+
+    HttpServer server;
+    List<byte[]> requests = new ArrayList<>();
+    switch (target) {
+      case "metrics":
+        MetricsRegistry registry = new MetricsRegistry();
+        registry.counter("requests_total", "The number of requests.").add(1);
+        server = new MetricsHttpServer(registry);
+        requests.add(createRequest("GET", "/metrics", null, keepAlive));
+        break;
+      case "paragraphs":
+        int numThreads = Runtime.getRuntime().availableProcessors();
+        server = new TeXParagraphService(TeXElementReferences.getDefault(),
+            numThreads);
+        server.setMaxThreads(Math.max(numClients, numThreads));
+        for (byte[] document : BenchmarkCorpus.readDocuments()) {
+          requests.add(createRequest("POST", "/paragraphs?format=tsv",
+              document, keepAlive));
+        }
+        break;
+      default:
+        throw new IllegalArgumentException("Unknown target: " + target);
+    }
+    server.setMaxConnections(Math.max(numClients, 1));
+    server.setBacklog(Math.max(numClients, HttpServer.DEFAULT_BACKLOG));
+    server.start(InetAddress.getLoopbackAddress(), 0);
+
+    System.out.println(String.format("target: %s, clients: %d, seconds: %d, "
+        + "keep-alive: %s", target, numClients, seconds, keepAlive));
+    try {
+      Client[] clients = new Client[numClients];
+      long start = System.nanoTime();
+      long measureStart = start + TimeUnit.SECONDS.toNanos(WARMUP_SECONDS);
+      long end = measureStart + TimeUnit.SECONDS.toNanos(seconds);
+      for (int i = 0; i < numClients; i++) {
+        clients[i] = new Client(server.getPort(), requests, i, measureStart,
+            end);
+        clients[i].start();
+      }
+
+      long[] latencies = new long[0];
+      int numRequests = 0;
+      int numErrors = 0;
+      for (Client client : clients) {
+        client.join();
+        long[] clientLatencies = Arrays.copyOf(client.latencies,
+            client.numLatencies);
+        latencies = concat(latencies, clientLatencies);
+        numRequests += client.numLatencies;
+        numErrors += client.numErrors;
+      }
+      Arrays.sort(latencies);
+
+      System.out.println(String.format(Locale.ROOT, "requests: %d, errors: "
+          + "%d, requests/s: %.1f", numRequests, numErrors,
+          numRequests / (double) seconds));
+      System.out.println(String.format(Locale.ROOT, "latency (ms): p50 %.3f, "
+          + "p90 %.3f, p99 %.3f, max %.3f", quantile(latencies, 0.5),
+          quantile(latencies, 0.9), quantile(latencies, 0.99),
+          quantile(latencies, 1)));
+    } finally {
+      server.stop();
+    }
+  }
+
+  /**
+   * Creates a http request with the given method, target and payload.
+   */
+  protected static byte[] createRequest(String method, String target,
+      byte[] payload, boolean keepAlive) throws IOException {
+    StringBuilder header = new StringBuilder();
+    header.append(method).append(" ").append(target).append(" HTTP/1.1\r\n");
+    header.append("Host: localhost\r\n");
+    if (!keepAlive) {
+      header.append("Connection: close\r\n");
+    }
+    if (payload != null) {
+      header.append("Content-Length: ").append(payload.length).append("\r\n");
+    }
+    header.append("\r\n");
+
+    ByteArrayOutputStream request = new ByteArrayOutputStream();
+    request.write(header.toString().getBytes(StandardCharsets.ISO_8859_1));
+    if (payload != null) {
+      request.write(payload);
+    }
+    return request.toByteArray();
+  }
+
+  /**
+   * Returns the given quantile of the given (sorted) latencies, in
+   * milliseconds.
+   */
+  protected static double quantile(long[] latencies, double quantile) {
+    if (latencies.length == 0) {
+      return Double.NaN;
+    }
+    int index = (int) Math.ceil(quantile * latencies.length) - 1;
+    return latencies[Math.max(0, index)] / 1e6;
+  }
+
+  /**
+   * Concatenates the given arrays.
+   */
+  protected static long[] concat(long[] a, long[] b) {
+    long[] result = Arrays.copyOf(a, a.length + b.length);
+    System.arraycopy(b, 0, result, a.length, b.length);
+    return result;
+  }
+
+  // ___________________________________________________________________________
+
+  /**
+   * A client that sends requests until the end of the test.
+   */
+  static class Client extends Thread {
+    /** The port of the server. */
+    protected final int port;
+    /** The requests to send, in turn. */
+    protected final List<byte[]> requests;
+    /** The index of the next request to send. */
+    protected int index;
+    /** The time to start measuring, in nanoseconds. */
+    protected final long measureStart;
+    /** The end of the test, in nanoseconds. */
+    protected final long end;
+    /** The measured latencies, in nanoseconds. */
+    protected long[] latencies = new long[1024];
+    /** The number of measured latencies. */
+    protected int numLatencies;
+    /** The number of failed requests. */
+    protected int numErrors;
+    /** The connection (null if there is no open connection). */
+    protected Socket socket;
+    /** The stream to read the responses from. */
+    protected InputStream in;
+    /** The stream to write the requests to. */
+    protected OutputStream out;
+
+    /**
+     * Creates a new client.
+     */
+    Client(int port, List<byte[]> requests, int index, long measureStart,
+        long end) {
+      super("http-client-" + index);
+      this.port = port;
+      this.requests = requests;
+      this.index = index;
+      this.measureStart = measureStart;
+      this.end = end;
+    }
+
+    @Override
+    public void run() {
+      byte[] body = new byte[8192];
+      long now;
+      while ((now = System.nanoTime()) < end) {
+        byte[] request = requests.get(index++ % requests.size());
+        try {
+          if (socket == null) {
+            socket = new Socket(InetAddress.getLoopbackAddress(), port);
+            socket.setTcpNoDelay(true);
+            in = new BufferedInputStream(socket.getInputStream());
+            out = new BufferedOutputStream(socket.getOutputStream());
+          }
+          out.write(request);
+          out.flush();
+          boolean keepAlive = readResponse(body);
+          if (!keepAlive) {
+            close();
+          }
+          if (now >= measureStart) {
+            record(System.nanoTime() - now);
+          }
+        } catch (IOException e) {
+          numErrors++;
+          close();
+        }
+      }
+      close();
+    }
+
+    /**
+     * Reads a response (with a Content-Length, chunked or delimited by the
+     * end of the connection) and discards its body. Returns true if the
+     * connection is kept alive.
+     */
+    protected boolean readResponse(byte[] buffer) throws IOException {
+      String statusLine = readLine();
+      if (statusLine == null || !statusLine.contains(" 200 ")) {
+        throw new IOException("Unexpected response: " + statusLine);
+      }
+      long length = -1;
+      boolean keepAlive = true;
+      boolean chunked = false;
+      String line;
+      while ((line = readLine()) != null && !line.isEmpty()) {
+        String lower = line.toLowerCase(Locale.ROOT);
+        if (lower.startsWith("content-length:")) {
+          length = Long.parseLong(line.substring(15).trim());
+        } else if (lower.startsWith("connection:")) {
+          keepAlive = !lower.contains("close");
+        } else if (lower.startsWith("transfer-encoding:")) {
+          chunked = lower.contains("chunked");
+        }
+      }
+      if (chunked) {
+        // Each chunk is preceded by its size; the last chunk is empty.
+        while ((line = readLine()) != null
+            && (length = Long.parseLong(line.split(";")[0].trim(), 16)) > 0) {
+          skip(buffer, length);
+          readLine();
+        }
+        if (line == null) {
+          throw new IOException("The response is incomplete.");
+        }
+        while ((line = readLine()) != null && !line.isEmpty()) {
+          continue;
+        }
+        return keepAlive;
+      }
+      if (length < 0) {
+        // The body is delimited by the end of the connection.
+        while (in.read(buffer) >= 0) {
+          continue;
+        }
+        return false;
+      }
+      skip(buffer, length);
+      return keepAlive;
+    }
+
+    /**
+     * Reads and discards the given number of bytes of a response.
+     */
+    protected void skip(byte[] buffer, long length) throws IOException {
+      while (length > 0) {
+        int n = in.read(buffer, 0, (int) Math.min(buffer.length, length));
+        if (n < 0) {
+          throw new IOException("The response is incomplete.");
+        }
+        length -= n;
+      }
+    }
+
+    /**
+     * Reads a line of the header of a response.
+     */
+    protected String readLine() throws IOException {
+      StringBuilder line = new StringBuilder();
+      int b;
+      while ((b = in.read()) != '\n') {
+        if (b < 0) {
+          return line.length() > 0 ? line.toString() : null;
+        }
+        if (b != '\r') {
+          line.append((char) b);
+        }
+      }
+      return line.toString();
+    }
+
+    /**
+     * Records the given latency.
+     */
+    protected void record(long nanos) {
+      if (numLatencies == latencies.length) {
+        latencies = Arrays.copyOf(latencies, 2 * latencies.length);
+      }
+      latencies[numLatencies++] = nanos;
+    }
+
+    /**
+     * Closes the connection, if there is one.
+     */
+    protected void close() {
+      if (socket != null) {
+        try {
+          socket.close();
+        } catch (IOException e) {
+          // Nothing to do.
+        }
+        socket = null;
+      }
+    }
+  }
+}
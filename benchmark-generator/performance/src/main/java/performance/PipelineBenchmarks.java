@@ -0,0 +1,36 @@
+package performance;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Runs the benchmarks of the pipeline (see {@link TeXPipelineBenchmark} and
+ * {@link TeXParagraphSerializerBenchmark}) with the GC profiler, which
+ * reports the allocation rate (gc.alloc.rate and gc.alloc.rate.norm, i.e.
+ * the allocated bytes per operation).
+ *
+ * Usage: java -cp target/benchmarks.jar performance.PipelineBenchmarks
+ * [regexp], where the optional regexp selects the benchmarks to run.
+ *
+ * @author Claudius Korzen
+ */
+public class PipelineBenchmarks {
+  /**
+   * The main method.
+   */
+  public static void main(String[] args) throws RunnerException {
+    OptionsBuilder builder = new OptionsBuilder();
+    if (args.length > 0) {
+      builder.include(args[0]);
+    } else {
+      builder.include(TeXPipelineBenchmark.class.getSimpleName());
+      builder.include(TeXParagraphSerializerBenchmark.class.getSimpleName());
+    }
+    Options options = builder.addProfiler(GCProfiler.class).build();
+
+    new Runner(options).run();
+  }
+}
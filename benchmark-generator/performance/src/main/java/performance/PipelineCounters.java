@@ -0,0 +1,45 @@
+package performance;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Secondary results of the pipeline benchmarks: the processed megabytes of
+ * tex source and the processed documents. JMH reports them as rates, i.e.
+ * in MB/s and documents/s (for throughput mode).
+ *
+ * @author Claudius Korzen
+ */
+@State(Scope.Thread)
+@AuxCounters(AuxCounters.Type.OPERATIONS)
+public class PipelineCounters {
+  /**
+   * The processed megabytes of tex source.
+   */
+  public double megabytes;
+
+  /**
+   * The processed documents.
+   */
+  public long documents;
+
+  /**
+   * Resets the counters before each iteration.
+   */
+  @Setup(Level.Iteration)
+  public void reset() {
+    megabytes = 0;
+    documents = 0;
+  }
+
+  /**
+   * Counts a processed document with the given size of its tex source.
+   */
+  public void count(int numBytes) {
+    megabytes += numBytes / (1024.0 * 1024.0);
+    documents++;
+  }
+}
@@ -0,0 +1,156 @@
+package performance;
+
+import java.io.ByteArrayInputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import model.TeXElementReferences;
+import model.TeXFile;
+import parser.TeXParagraphsParser;
+import preprocess.TeXMacroResolver;
+import serializer.TeXParagraphBinarySerializer;
+import serializer.TeXParagraphExtendedTxtSerializer;
+import serializer.TeXParagraphSerializer;
+import serializer.TeXParagraphTsvSerializer;
+import serializer.TeXParagraphTxtSerializer;
+
+/**
+ * Benchmarks the serializers of paragraphs. Each operation serializes the
+ * paragraphs of all documents of the benchmark corpus (to a stream that
+ * discards the output).
+ *
+ * Besides the operations per second, the megabytes of tex source per second
+ * and the documents per second are reported (see {@link PipelineCounters}).
+ *
+ * @author Claudius Korzen
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TeXParagraphSerializerBenchmark {
+  /**
+   * The output format.
+   */
+  @Param({ "txt", "txt2", "tsv", "bin" })
+  public String format;
+
+  /**
+   * The directory of the tex files.
+   */
+  protected Path corpusDir;
+
+  /**
+   * The tex files of the corpus, with identified paragraphs.
+   */
+  protected List<TeXFile> texFiles;
+
+  /**
+   * The sizes of the tex files of the corpus.
+   */
+  protected List<Integer> sizes;
+
+  /**
+   * Reads the corpus and identifies the paragraphs of its documents.
+   */
+  @Setup
+  public void setup() throws Exception {
+    TeXElementReferences refs = TeXElementReferences.getDefault();
+    // A tex file must exist on disk.
+    this.corpusDir = Files.createTempDirectory("corpus");
+
+    this.texFiles = new ArrayList<>();
+    this.sizes = new ArrayList<>();
+    for (String name : BenchmarkCorpus.getDocumentNames()) {
+      byte[] document = BenchmarkCorpus.readDocument(name);
+      String resolved = new TeXMacroResolver(
+          new ByteArrayInputStream(document), refs).resolveMacros();
+
+      Path path = corpusDir.resolve(name);
+      Files.write(path, document);
+
+      TeXFile texFile = new TeXFile(path);
+      texFile.setBaseDirectory(corpusDir);
+      texFile.setTeXParagraphs(new TeXParagraphsParser(
+          TeXPipelineBenchmark.parseResolved(resolved), refs)
+          .identifyParagraphs());
+      texFiles.add(texFile);
+      sizes.add(document.length);
+    }
+  }
+
+  /**
+   * Deletes the tex files.
+   */
+  @TearDown
+  public void tearDown() throws Exception {
+    for (TeXFile texFile : texFiles) {
+      Files.deleteIfExists(texFile.getPath());
+    }
+    Files.deleteIfExists(corpusDir);
+  }
+
+  /**
+   * Serializes the paragraphs of all tex files.
+   */
+  @Benchmark
+  public void serialize(PipelineCounters counters) throws Exception {
+    for (int i = 0; i < texFiles.size(); i++) {
+      createSerializer(texFiles.get(i))
+          .serializeTeXParagraphs(new DiscardingOutputStream(), null);
+      counters.count(sizes.get(i));
+    }
+  }
+
+  /**
+   * Creates the serializer for the current format.
+   */
+  protected TeXParagraphSerializer createSerializer(TeXFile texFile) {
+    switch (format) {
+      case "txt2":
+        return new TeXParagraphExtendedTxtSerializer(texFile);
+      case "tsv":
+        return new TeXParagraphTsvSerializer(texFile);
+      case "bin":
+        return new TeXParagraphBinarySerializer(texFile);
+      default:
+        return new TeXParagraphTxtSerializer(texFile);
+    }
+  }
+
+  // ___________________________________________________________________________
+
+  /**
+   * An output stream that discards all bytes written to it.
+   */
+  static class DiscardingOutputStream extends OutputStream {
+    @Override
+    public void write(int b) {
+
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) {
+
+    }
+  }
+}
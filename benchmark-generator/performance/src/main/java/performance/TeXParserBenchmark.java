@@ -0,0 +1,106 @@
+package performance;
+
+import java.io.ByteArrayInputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import model.TeXElementReferences;
+import parse.TeXParserType;
+import parse.TeXSource;
+
+/**
+ * Compares the parsers of tex documents: the JavaCC generated TeXParser and
+ * the hand-written FastTeXParser. Each operation parses all documents of the
+ * benchmark corpus.
+ *
+ * Besides the operations per second, the megabytes of tex source per second
+ * and the documents per second are reported (see {@link PipelineCounters}).
+ *
+ * @author Claudius Korzen
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TeXParserBenchmark {
+  /**
+   * The parser.
+   */
+  @Param({ "JAVACC", "FAST" })
+  public TeXParserType parser;
+
+  /**
+   * The raw documents of the corpus.
+   */
+  protected List<byte[]> documents;
+
+  /**
+   * The documents of the corpus, with resolved macros.
+   */
+  protected List<String> resolvedDocuments;
+
+  /**
+   * Reads the corpus and resolves the macros of its documents.
+   */
+  @Setup
+  public void setup() throws Exception {
+    TeXElementReferences refs = TeXElementReferences.getDefault();
+    this.documents = BenchmarkCorpus.readDocuments();
+    this.resolvedDocuments = new ArrayList<>();
+    for (byte[] document : documents) {
+      resolvedDocuments.add(TeXPipelineBenchmark.resolveMacros(document, refs));
+    }
+  }
+
+  /**
+   * Parses the raw documents (decoded from bytes).
+   */
+  @Benchmark
+  public void parse(PipelineCounters counters, Blackhole bh) throws Exception {
+    for (byte[] document : documents) {
+      bh.consume(parser.parse(new ByteArrayInputStream(document)));
+      counters.count(document.length);
+    }
+  }
+
+  /**
+   * Parses the raw documents, decoded into sources (like the mapped files).
+   */
+  @Benchmark
+  public void parseSource(PipelineCounters counters, Blackhole bh)
+      throws Exception {
+    for (byte[] document : documents) {
+      bh.consume(parser.parse(TeXSource.decode(ByteBuffer.wrap(document))));
+      counters.count(document.length);
+    }
+  }
+
+  /**
+   * Parses the resolved documents (like the identification of paragraphs).
+   */
+  @Benchmark
+  public void parseResolved(PipelineCounters counters, Blackhole bh)
+      throws Exception {
+    for (int i = 0; i < resolvedDocuments.size(); i++) {
+      bh.consume(parser.parse(resolvedDocuments.get(i)));
+      counters.count(documents.get(i).length);
+    }
+  }
+}
@@ -0,0 +1,168 @@
+package performance;
+
+import java.io.ByteArrayInputStream;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import model.Document;
+import model.TeXElementReferences;
+import parse.TeXParser;
+import parser.TeXParagraphsParser;
+import preprocess.TeXMacroResolver;
+
+/**
+ * Benchmarks the stages of the pipeline from a tex file to its paragraphs:
+ * the parsing of a tex file, the resolving of its macros and the
+ * identification of its paragraphs. Each operation processes all documents
+ * of the benchmark corpus.
+ *
+ * Besides the operations per second, the megabytes of tex source per second
+ * and the documents per second are reported (see {@link PipelineCounters}).
+ *
+ * @author Claudius Korzen
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TeXPipelineBenchmark {
+  /**
+   * The element references.
+   */
+  protected TeXElementReferences refs;
+
+  /**
+   * The raw documents of the corpus.
+   */
+  protected List<byte[]> documents;
+
+  /**
+   * The documents of the corpus, with resolved macros.
+   */
+  protected List<String> resolvedDocuments;
+
+  /**
+   * Reads the corpus and resolves the macros of its documents.
+   */
+  @Setup
+  public void setup() throws Exception {
+    this.refs = TeXElementReferences.getDefault();
+    this.documents = BenchmarkCorpus.readDocuments();
+    this.resolvedDocuments = new ArrayList<>();
+    for (byte[] document : documents) {
+      resolvedDocuments.add(resolveMacros(document, refs));
+    }
+  }
+
+  /**
+   * Parses the raw documents.
+   */
+  @Benchmark
+  public void parse(PipelineCounters counters, Blackhole bh) throws Exception {
+    for (byte[] document : documents) {
+      bh.consume(new TeXParser(new ByteArrayInputStream(document)).parse());
+      counters.count(document.length);
+    }
+  }
+
+  /**
+   * Resolves the macros of the raw documents (which includes parsing them).
+   */
+  @Benchmark
+  public void resolveMacros(PipelineCounters counters, Blackhole bh)
+      throws Exception {
+    for (byte[] document : documents) {
+      bh.consume(resolveMacros(document, refs));
+      counters.count(document.length);
+    }
+  }
+
+  /**
+   * Identifies the paragraphs of the parsed, resolved documents.
+   */
+  @Benchmark
+  public void identifyParagraphs(ParsedDocuments parsed,
+      PipelineCounters counters, Blackhole bh) {
+    for (int i = 0; i < parsed.documents.size(); i++) {
+      bh.consume(new TeXParagraphsParser(parsed.documents.get(i), refs)
+          .identifyParagraphs());
+      counters.count(documents.get(i).length);
+    }
+  }
+
+  /**
+   * Runs all stages on the raw documents.
+   */
+  @Benchmark
+  public void pipeline(PipelineCounters counters, Blackhole bh)
+      throws Exception {
+    for (byte[] document : documents) {
+      Document parsed = parseResolved(resolveMacros(document, refs));
+      bh.consume(new TeXParagraphsParser(parsed, refs).identifyParagraphs());
+      counters.count(document.length);
+    }
+  }
+
+  // ---------------------------------------------------------------------------
+
+  /**
+   * Resolves the macros of the given raw document.
+   */
+  protected static String resolveMacros(byte[] document,
+      TeXElementReferences refs) throws Exception {
+    return new TeXMacroResolver(new ByteArrayInputStream(document), refs)
+        .resolveMacros();
+  }
+
+  /**
+   * Parses the given resolved document.
+   */
+  protected static Document parseResolved(String resolved) throws Exception {
+    return new TeXParser(new StringReader(resolved)).parse();
+  }
+
+  // ___________________________________________________________________________
+
+  /**
+   * The parsed, resolved documents of the corpus. They are parsed anew for
+   * each invocation, because the identification of paragraphs modifies the
+   * documents. An invocation takes milliseconds, so the overhead of the
+   * per-invocation setup doesn't distort the timing. Note that the GC
+   * profiler does count the allocations of the setup, though.
+   */
+  @State(Scope.Thread)
+  public static class ParsedDocuments {
+    /**
+     * The parsed documents.
+     */
+    protected List<Document> documents;
+
+    /**
+     * Parses the resolved documents.
+     */
+    @Setup(Level.Invocation)
+    public void setup(TeXPipelineBenchmark benchmark) throws Exception {
+      this.documents = new ArrayList<>();
+      for (String resolved : benchmark.resolvedDocuments) {
+        documents.add(parseResolved(resolved));
+      }
+    }
+  }
+}
@@ -2,9 +2,10 @@
 import static de.freiburg.iif.affirm.Affirm.affirm;
 import static model.TeXParagraphParserSettings.TEX_EXTENSIONS;
 import static model.TeXParagraphParserSettings.TMP_TEX_EXTENSIONS;
-import static model.TeXParagraphParserSettings.getRoleProfiles;
 
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.net.InetAddress;
 import java.nio.file.DirectoryStream;
 import java.nio.file.Files;
 import java.nio.file.Path;
@@ -13,13 +14,10 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Iterator;
 import java.util.List;
-import java.util.Map;
-import java.util.concurrent.ExecutionException;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
-import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
 import java.util.concurrent.TimeUnit;
-import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
 
 import org.apache.commons.cli.CommandLine;
 import org.apache.commons.cli.DefaultParser;
@@ -29,12 +27,26 @@ import org.apache.commons.cli.Option.Builder;
 import org.apache.commons.cli.Options;
 import org.apache.commons.cli.ParseException;
 
+import de.freiburg.iif.metrics.MetricsHttpServer;
 import de.freiburg.iif.text.StringUtils;
 import identifier.TeXParagraphsIdentifier;
+import manifest.TeXFileManifest;
+import manifest.TeXFileManifest.FileState;
+import manifest.TeXFileManifest.Status;
+import metrics.TeXPipelineMetrics;
+import model.TeXElementReferences;
 import model.TeXFile;
-import serializer.TeXParagraphExtendedTxtSerializer;
-import serializer.TeXParagraphTsvSerializer;
+import model.TeXParagraph;
+import model.TeXParagraphParserSettings;
+import parse.TeXParserType;
+import parse.TeXWorkBudget;
+import parse.TeXWorkBudgetExceededException;
+import parse.TokenMgrError;
+import scheduler.TeXFileScheduler;
+import scheduler.ThreadPoolTeXFileScheduler;
+import serializer.TeXParagraphSerializer;
 import serializer.TeXParagraphTxtSerializer;
+import shard.TeXShardWriter;
 
 /**
  * Class to identify paragraphs in tex files. It identifies the textual content
@@ -47,6 +59,24 @@ import serializer.TeXParagraphTxtSerializer;
  * @author Claudius Korzen
  */
 public class TeXParagraphParserMain {
+  /**
+   * The name of the scheduler that processes each file on a virtual thread.
+   * It is only available if the project was built with the profile "jdk21".
+   */
+  protected static final String VIRTUAL_THREAD_SCHEDULER_CLASS =
+      "scheduler.VirtualThreadTeXFileScheduler";
+
+  /**
+   * The number of processed files after which the manifest is written.
+   */
+  protected static final int MANIFEST_WRITE_INTERVAL = 1000;
+
+  /**
+   * The factor by which the limits of the work budget are scaled on each retry of a file that
+   * exceeded its budget.
+   */
+  protected static final double BUDGET_RETRY_FACTOR = 2;
+
   /**
    * The input as defined by the user, as string. May be a path to a tex file or a
    * path to a directory containing tex files.
@@ -113,7 +143,17 @@ public class TeXParagraphParserMain {
   protected Path tmpDir;
 
   /**
-   * The format of output files. One of: txt, txt2, tsv,
+   * The flag to indicate whether the macros should be resolved in memory.
+   */
+  protected boolean inMemory;
+
+  /**
+   * The parser to parse the tex files with.
+   */
+  protected TeXParserType parserType;
+
+  /**
+   * The format of output files. One of: txt, txt2, tsv, bin.
    */
   protected String outputFormat;
 
@@ -122,7 +162,112 @@ public class TeXParagraphParserMain {
    */
   protected List<String> roles;
 
-  protected int numProcessedFiles;
+  /**
+   * The path to the binary snapshot of the tex element references, as string.
+   */
+  protected String referencesSnapshotPath;
+
+  /**
+   * The tex element references, shared by all workers.
+   */
+  protected TeXElementReferences elementRefs;
+
+  /**
+   * The number of files to process in parallel.
+   */
+  protected int numThreads;
+
+  /**
+   * The maximal time to spend on a single file, in seconds.
+   */
+  protected long timeout;
+
+  /**
+   * The budget of the work to spend on a single file (on its first attempt).
+   */
+  protected TeXWorkBudget workBudget;
+
+  /**
+   * The number of retries of a file that exceeded its work budget.
+   */
+  protected int budgetRetries;
+
+  /**
+   * The flag to indicate whether each file should be processed on a virtual
+   * thread.
+   */
+  protected boolean virtualThreads;
+
+  /**
+   * The permits that limit the number of files that are parsed at the same
+   * time (may be null).
+   */
+  protected Semaphore parsePermits;
+
+  /**
+   * The number of processed files.
+   */
+  protected final AtomicInteger numProcessedFiles = new AtomicInteger();
+
+  /**
+   * The path to the manifest of processed files, as string.
+   */
+  protected String manifestPath;
+
+  /**
+   * The manifest of processed files (may be null).
+   */
+  protected TeXFileManifest manifest;
+
+  /**
+   * The hash of the configuration to process the files with.
+   */
+  protected String configHash;
+
+  /**
+   * The number of files that were skipped because they are up to date.
+   */
+  protected final AtomicInteger numSkippedFiles = new AtomicInteger();
+
+  /**
+   * The number of files recorded in the manifest since it was last written.
+   */
+  protected final AtomicInteger numUnwrittenManifestEntries = new AtomicInteger();
+
+  /**
+   * The maximal size of a shard in MB, or 0 if one output file should be
+   * written per tex file.
+   */
+  protected long maxShardSize;
+
+  /**
+   * The writer of the shards (null if one output file is written per tex 
+   * file).
+   */
+  protected TeXShardWriter shardWriter;
+
+  /**
+   * The metrics of the run.
+   */
+  protected TeXPipelineMetrics metrics;
+
+  /**
+   * The port of the http server to expose the metrics at (on the loopback
+   * interface), or -1 if the metrics shouldn't be exposed.
+   */
+  protected int metricsPort;
+
+  /**
+   * The http server that exposes the metrics (null if there is no port 
+   * given).
+   */
+  protected MetricsHttpServer metricsServer;
+
+  /**
+   * The path to the JSON summary of the metrics to write at the end of the
+   * run, as string (may be null).
+   */
+  protected String metricsSummaryPath;
 
   /**
    * The main method to start the paragraphs parser.
@@ -163,11 +308,29 @@ public class TeXParagraphParserMain {
     input = getOptionValue(cmd, TeXParserOptions.INPUT, null);
     serialization = getOptionValue(cmd, TeXParserOptions.OUTPUT, null);
     tmpDirPath = getOptionValue(cmd, TeXParserOptions.TMP_DIR, null);
+    inMemory = hasOption(cmd, TeXParserOptions.IN_MEMORY);
+    parserType = TeXParserType.fromName(getOptionValue(cmd, TeXParserOptions.PARSER, "javacc"));
     inputFilePrefixFilters = getOptionValues(cmd, TeXParserOptions.PREFIX, null);
     inputDirectoryPrefixFilters = getOptionValues(cmd, TeXParserOptions.DIRS, null);
     outputFormat = getOptionValue(cmd, TeXParserOptions.OUTPUT_FORMAT, "txt");
     roles = resolveRoles(getOptionValues(cmd, TeXParserOptions.ROLE, null));
     serialFileSuffix = getOptionValue(cmd, TeXParserOptions.SUFFIX, ".txt");
+    referencesSnapshotPath = getOptionValue(cmd, TeXParserOptions.REFERENCES_SNAPSHOT, null);
+    numThreads = Integer.parseInt(getOptionValue(cmd, TeXParserOptions.THREADS,
+        String.valueOf(Runtime.getRuntime().availableProcessors())));
+    timeout = Long.parseLong(getOptionValue(cmd, TeXParserOptions.TIMEOUT, "60"));
+    // The time is limited by the timeout, whose interruption is checked on tracking the work.
+    workBudget = new TeXWorkBudget(
+        Long.parseLong(getOptionValue(cmd, TeXParserOptions.MAX_ELEMENTS, "20000000")),
+        Long.parseLong(getOptionValue(cmd, TeXParserOptions.MAX_EXPANSIONS, "1000000")),
+        Long.parseLong(getOptionValue(cmd, TeXParserOptions.MAX_EXPANSION_DEPTH, "250")));
+    budgetRetries = Integer.parseInt(getOptionValue(cmd, TeXParserOptions.BUDGET_RETRIES, "1"));
+    virtualThreads = hasOption(cmd, TeXParserOptions.VIRTUAL_THREADS);
+    manifestPath = getOptionValue(cmd, TeXParserOptions.MANIFEST, null);
+    maxShardSize = Long.parseLong(getOptionValue(cmd, TeXParserOptions.SHARDS, "0"));
+    metricsPort = Integer.parseInt(getOptionValue(cmd, TeXParserOptions.METRICS_PORT, "-1"));
+    metricsSummaryPath = getOptionValue(cmd, TeXParserOptions.METRICS_SUMMARY, null);
+    metrics = new TeXPipelineMetrics();
   }
 
   /**
@@ -177,11 +340,25 @@ public class TeXParagraphParserMain {
     // Initialize the paragraph parser.
     initialize();
 
+    // Load the element references once, for all files to process.
+    initializeElementReferences();
+
+    // Read the manifest of files processed in previous runs.
+    initializeManifest();
+
+    // Open the shards to write the output to (if any).
+    initializeShards();
+
+    // Expose the metrics (if a port is given).
+    initializeMetricsServer();
+
     // Process the tex files.
     try {
       processTexFiles();
     } catch (Exception e) {
       throw new IOException(e);
+    } finally {
+      closeMetrics();
     }
   }
 
@@ -242,49 +419,223 @@ public class TeXParagraphParserMain {
       }
     }
 
-    this.tmpDir = Paths.get(tmpDirPath);
-    if (!Files.isDirectory(tmpDir)) {
+    // The shards are written into a directory, even if the input is a file.
+    if (maxShardSize > 0 && this.serializationFile != null) {
+      this.serializationDirectory = this.serializationFile;
+      this.serializationFile = null;
+    }
+
+    // The tmp directory is optional. Without it, the macros are resolved in memory.
+    if (tmpDirPath != null) {
+      this.tmpDir = Paths.get(tmpDirPath);
+      if (!Files.isDirectory(tmpDir)) {
+        try {
+          Files.createDirectories(this.tmpDir);
+        } catch (IOException e) {
+          System.err.println("Cannot create tmp directory: " + e);
+        }
+      }
+    }
+  }
+
+  /**
+   * Loads the tex element references and installs them as the process-wide
+   * default. If a snapshot path is given, the references are read from the
+   * snapshot if it is up to date, otherwise the snapshot is (re-)created.
+   */
+  protected void initializeElementReferences() throws IOException {
+    if (referencesSnapshotPath != null) {
+      this.elementRefs = TeXElementReferences.loadSnapshot(
+          Paths.get(referencesSnapshotPath));
+    } else {
+      this.elementRefs = TeXElementReferences.getDefault();
+    }
+    TeXElementReferences.setDefault(this.elementRefs);
+
+    System.out.println("Loaded " + this.elementRefs.getNumElementReferences()
+        + " element references in " + this.elementRefs.getLoadTime() + "ms (~"
+        + this.elementRefs.estimateMemoryFootprint() / 1024 + "KB).");
+  }
+
+  /**
+   * Reads the manifest of processed files, if a path is given, and computes
+   * the hash of the current configuration.
+   */
+  protected void initializeManifest() throws IOException {
+    if (manifestPath == null) {
+      return;
+    }
+
+    this.manifest = new TeXFileManifest(Paths.get(manifestPath));
+    // The header of txt2 files contains the path to the intermediate files.
+    String tmp = "txt2".equals(outputFormat) ? String.valueOf(tmpDir) : null;
+    // Files that exceeded their work budget are processed again if the budget changed.
+    String budget = workBudget + ", retries: " + budgetRetries;
+    if (maxShardSize > 0) {
+      this.configHash = TeXFileManifest.hash(elementRefs.getFingerprint(), String.valueOf(roles),
+          outputFormat, serialFileSuffix, tmp, budget, "shards");
+    } else {
+      this.configHash = TeXFileManifest.hash(elementRefs.getFingerprint(), String.valueOf(roles),
+          outputFormat, serialFileSuffix, tmp, budget);
+    }
+
+    System.out.println("Read manifest with " + this.manifest.size() + " entries.");
+  }
+
+  /**
+   * Opens the writer of the shards, if the output should be written to 
+   * shards.
+   */
+  protected void initializeShards() throws IOException {
+    if (maxShardSize <= 0) {
+      return;
+    }
+    affirm(serializationDirectory != null, "No output directory for the shards given.");
+
+    this.shardWriter = new TeXShardWriter(serializationDirectory, maxShardSize * 1024 * 1024);
+  }
+
+  /**
+   * Closes the writer of the shards (if any).
+   */
+  protected void closeShards() {
+    if (shardWriter == null) {
+      return;
+    }
+
+    try {
+      shardWriter.close();
+    } catch (IOException e) {
+      System.err.println("Cannot close shards: " + e);
+    }
+  }
+
+  /**
+   * Starts the http server that exposes the metrics, if a port is given.
+   */
+  protected void initializeMetricsServer() throws IOException {
+    if (metricsPort < 0) {
+      return;
+    }
+
+    // The metrics are only exposed locally.
+    InetAddress address = InetAddress.getLoopbackAddress();
+    this.metricsServer = new MetricsHttpServer(metrics.getRegistry());
+    this.metricsServer.start(address, metricsPort);
+    System.out.println("Exposing metrics at http://" + address.getHostAddress() + ":"
+        + this.metricsServer.getPort() + MetricsHttpServer.TEXT_PATH);
+  }
+
+  /**
+   * Writes the JSON summary of the metrics (if a path is given) and stops the
+   * http server that exposes the metrics (if any).
+   */
+  protected void closeMetrics() {
+    metrics.stop();
+
+    if (metricsSummaryPath != null) {
       try {
-        Files.createDirectories(this.tmpDir);
+        metrics.writeSummary(Paths.get(metricsSummaryPath));
       } catch (IOException e) {
-        System.err.println("Cannot create tmp directory: " + e);
+        System.err.println("Cannot write metrics summary: " + e);
       }
     }
+
+    if (metricsServer != null) {
+      metricsServer.stop();
+    }
   }
 
   /**
-   * Processes the tex files found from users input.
-   * 
-   * @throws Exception if something went wrong.
+   * Records the given result in the manifest (if any). Writes the manifest
+   * periodically.
    */
-  protected void processTexFiles() throws Exception {
-    ExecutorService executor = Executors.newFixedThreadPool(4);
-
-    long start = System.currentTimeMillis();
+  protected void recordInManifest(String key, FileState state, Path output, Status status) {
+    if (manifest == null) {
+      return;
+    }
 
-    List<Future<?>> futures = new ArrayList<Future<?>>();
+    manifest.record(key, state, configHash, output, status);
+    if (numUnwrittenManifestEntries.incrementAndGet() >= MANIFEST_WRITE_INTERVAL) {
+      numUnwrittenManifestEntries.set(0);
+      writeManifest();
+    }
+  }
 
-    for (Path file : this.inputFiles) {
-      Runnable worker = new CancelableTexFileWorker(file, 1, TimeUnit.MINUTES);
-      // executor.execute(worker);
-      // Future<Void> future = executor.submit(worker, null);
-      // future.get(5, TimeUnit.MINUTES);
-      futures.add(executor.submit(worker));
+  /**
+   * Writes the manifest (if any). Flushes the shards (if any) first, such
+   * that the manifest doesn't mark files as processed whose records aren't
+   * indexed yet.
+   */
+  protected void writeManifest() {
+    if (manifest == null) {
+      return;
     }
 
-    for (Future<?> f : futures) {
-      f.get(1, TimeUnit.MINUTES);
+    try {
+      if (shardWriter != null) {
+        shardWriter.flush();
+      }
+      manifest.write();
+    } catch (IOException e) {
+      System.err.println("Cannot write manifest: " + e);
     }
+  }
 
-    executor.shutdown();
-    while (!executor.isTerminated()) {
+  /**
+   * Processes the tex files found from users input.
+   * 
+   * @throws Exception if something went wrong.
+   */
+  protected void processTexFiles() throws Exception {
+    long start = System.currentTimeMillis();
 
+    TeXFileScheduler scheduler = createScheduler();
+    this.parsePermits = scheduler.getParsePermits();
+    this.metrics.setScheduler(scheduler);
+    try {
+      scheduler.process(this.inputFiles, file -> new TexFileWorker(file).run());
+    } finally {
+      // Close the shards first, such that the manifest doesn't refer to
+      // unwritten records.
+      closeShards();
     }
+    writeManifest();
+
     long end = System.currentTimeMillis();
 
+    if (numSkippedFiles.get() > 0) {
+      System.out.println(numSkippedFiles.get() + " file(s) skipped (up to date).");
+    }
+    if (scheduler.getNumTimeouts() > 0) {
+      System.out.println(scheduler.getNumTimeouts() + " file(s) timed out.");
+    }
+    if (scheduler.getNumExceededBudgets() > 0) {
+      System.out.println(scheduler.getNumExceededBudgets()
+          + " file(s) exceeded their work budget.");
+    }
     System.out.println("Finished in " + (end - start) + "ms.");
   }
 
+  /**
+   * Creates the scheduler to process the tex files with.
+   */
+  protected TeXFileScheduler createScheduler() {
+    if (virtualThreads) {
+      // The scheduler is loaded reflectively, because it is only compiled 
+      // with the profile "jdk21".
+      try {
+        Class<?> clazz = Class.forName(VIRTUAL_THREAD_SCHEDULER_CLASS);
+        return (TeXFileScheduler) clazz.getConstructor(int.class, long.class, TimeUnit.class)
+            .newInstance(numThreads, timeout, TimeUnit.SECONDS);
+      } catch (ReflectiveOperationException | LinkageError e) {
+        throw new IllegalStateException("Virtual threads require Java 21 and a build with the "
+            + "profile 'jdk21'.", e);
+      }
+    }
+    return new ThreadPoolTeXFileScheduler(numThreads, timeout, TimeUnit.SECONDS);
+  }
+
   // ---------------------------------------------------------------------------
 
   /**
@@ -377,21 +728,7 @@ public class TeXParagraphParserMain {
    * "headings".
    */
   protected List<String> resolveRoles(List<String> roles) {
-    if (roles != null) {
-      Map<String, List<String>> roleProfiles = getRoleProfiles();
-      List<String> resolvedRoles = new ArrayList<>();
-
-      for (String role : roles) {
-        if (roleProfiles.containsKey(role)) {
-          resolvedRoles.addAll(roleProfiles.get(role));
-        } else {
-          resolvedRoles.add(role);
-        }
-      }
-
-      return resolvedRoles;
-    }
-    return null;
+    return TeXParagraphParserSettings.resolveRoles(roles);
   }
 
   // ===========================================================================
@@ -483,7 +820,20 @@ public class TeXParagraphParserMain {
     /**
      * Create option to define the path to the target directory for temp files.
      */
-    TMP_DIR("t", "tmpDir", "The target dir for intermediate files.", true, true),
+    TMP_DIR("t", "tmpDir", "The target dir for intermediate files. If not given, implies --inMemory.",
+        false, true),
+
+    /**
+     * Create option to resolve the macros in memory, without parsing intermediate files.
+     */
+    IN_MEMORY("m", "inMemory", "Resolves the macros in memory. Intermediate files are only written "
+        + "if a tmp dir is given.", false),
+
+    /**
+     * Create option to define the parser to parse the tex files with.
+     */
+    PARSER("P", "parser", "The parser of tex files: javacc (default) or fast (the hand-written "
+        + "parser, which produces the same output).", false, true, 1),
 
     /**
      * Create option to define the prefix(es) to consider on parsing the input
@@ -513,7 +863,85 @@ public class TeXParagraphParserMain {
     /**
      * Create option to serialize only the text of paragraphs into txt file.
      */
-    OUTPUT_FORMAT("f", "format", "The format of output files.", false, true, 1),
+    OUTPUT_FORMAT("f", "format", "The format of output files: txt (default), txt2, tsv or bin.", false, true, 1),
+
+    /**
+     * Create option to define the number of files to process in parallel.
+     */
+    THREADS("j", "threads", "The number of files to process in parallel. Default: number of cores.",
+        false, true),
+
+    /**
+     * Create option to define the maximal time to spend on a single file.
+     */
+    TIMEOUT("T", "timeout", "The maximal time to spend on a single file in seconds. Default: 60.",
+        false, true),
+
+    /**
+     * Create option to define the maximal number of elements to process per file.
+     */
+    MAX_ELEMENTS("E", "maxElements", "The maximal number of elements to parse, resolve and process "
+        + "per file (part of the work budget). Default: 20000000. 0 disables the limit.", false,
+        true),
+
+    /**
+     * Create option to define the maximal number of macro expansions per file.
+     */
+    MAX_EXPANSIONS("X", "maxExpansions", "The maximal number of macro expansions per file (part of "
+        + "the work budget). Default: 1000000. 0 disables the limit.", false, true),
+
+    /**
+     * Create option to define the maximal nesting depth of macro expansions.
+     */
+    MAX_EXPANSION_DEPTH("D", "maxExpansionDepth", "The maximal nesting depth of macro expansions "
+        + "(part of the work budget). Default: 250. 0 disables the limit.", false, true),
+
+    /**
+     * Create option to define the number of retries of files that exceeded their work budget.
+     */
+    BUDGET_RETRIES("B", "budgetRetries", "The number of retries of a file that exceeded its work "
+        + "budget, each with twice the limits of the previous attempt. Default: 1.", false, true),
+
+    /**
+     * Create option to process each file on a virtual thread.
+     */
+    VIRTUAL_THREADS("V", "virtualThreads", "Processes each file on a virtual thread, where at most "
+        + "--threads files are parsed at the same time. Requires Java 21. Start the JVM with "
+        + "-Djdk.virtualThreadScheduler.parallelism=<threads + 1> to keep reading files while "
+        + "--threads files are parsed.", false),
+
+    /**
+     * Create option to define the path to the manifest of processed files.
+     */
+    MANIFEST("M", "manifest", "The manifest of processed files. Files whose content and "
+        + "configuration didn't change since the last run are skipped.", false, true),
+
+    /**
+     * Create option to define the path to a binary snapshot of the element
+     * references. The snapshot is created if it doesn't exist yet.
+     */
+    REFERENCES_SNAPSHOT("R", "referencesSnapshot",
+        "The binary snapshot of element references to read (or create).", false, true),
+
+    /**
+     * Create option to write the output of all files into rolling shards.
+     */
+    SHARDS("S", "shards", "Appends the output of all files to rolling shard files of at most the "
+        + "given size in MB (each with an index) in the output directory, instead of writing one "
+        + "output file per tex file.", false, true),
+
+    /**
+     * Create option to expose the metrics of the run via http.
+     */
+    METRICS_PORT("H", "metricsPort", "Exposes the metrics of the run (in the text format of "
+        + "Prometheus) at http://127.0.0.1:<port>/metrics and as JSON at /metrics.json.", false,
+        true),
+
+    /**
+     * Create option to define the path to the JSON summary of the metrics.
+     */
+    METRICS_SUMMARY("J", "metricsSummary", "Writes a JSON summary of the metrics of the run (e.g., "
+        + "latencies per stage, throughput, utilization) to the given file.", false, true),
 
     /**
      * Create option to enable the identification of paragraphs bounding boxes.
@@ -572,46 +1000,12 @@ public class TeXParagraphParserMain {
     }
   }
 
-  /**
-   * 
-   * A worker.
-   * 
-   * @author korzen
-   */
-  class CancelableTexFileWorker implements Runnable {
-    protected Path file;
-    protected long timeout;
-    protected TimeUnit unit;
-
-    public CancelableTexFileWorker(Path file, long timeout, TimeUnit unit) {
-      this.file = file;
-      this.timeout = timeout;
-      this.unit = unit;
-    }
-
-    @Override
-    public void run() {
-      ExecutorService executor = Executors.newFixedThreadPool(1);
-      TexFileWorker worker = new TexFileWorker(file);
-      Future<Void> future = executor.submit(worker, null);
-
-      try {
-        future.get(timeout, unit);
-      } catch (TimeoutException | InterruptedException | ExecutionException e) {
-        worker.interrupt();
-        future.cancel(true);
-      }
-
-      executor.shutdownNow();
-    }
-  }
-
   /**
    * A worker.
    * 
    * @author korzen
    */
-  class TexFileWorker extends Thread {
+  class TexFileWorker implements Runnable {
 
     public Path file;
 
@@ -627,14 +1021,28 @@ public class TeXParagraphParserMain {
     public void run() {
       try {
         processTeXFile(this.file);
+      } catch (TeXWorkBudgetExceededException e) {
+        if (e.isInterruption()) {
+          // The processing was cancelled (e.g., on timeout).
+          return;
+        }
+        // Not a fatal error. Let the scheduler record the exceeded budget.
+        throw e;
       } catch (InterruptedException e) {
         System.err.println("Error on processing: " + this.file + ": ");
         e.printStackTrace();
 
         Thread.currentThread().interrupt();
       } catch (Exception e) {
+        if (Thread.currentThread().isInterrupted()) {
+          // The processing was cancelled (e.g., on timeout), which may
+          // result in an arbitrary exception (e.g., ClosedByInterruptException).
+          return;
+        }
         System.err.println("Error on processing: " + this.file + ": ");
         e.printStackTrace();
+        closeShards();
+        writeManifest();
         System.exit(1);
       }
     }
@@ -648,47 +1056,157 @@ public class TeXParagraphParserMain {
       Path serializationTargetFile = defineSerializationTargetFile(texFile);
 
       Path in = TeXParagraphParserMain.this.inputDirectory.relativize(file);
-      Path out = TeXParagraphParserMain.this.serializationDirectory.relativize(serializationTargetFile);
-      System.out.println(++numProcessedFiles + "/" + inputFiles.size() + " " + in + " -> " + out);
+      Object out = shardWriter != null ? "shards"
+          : TeXParagraphParserMain.this.serializationDirectory.relativize(serializationTargetFile);
+
+      // Skip the file if it didn't change since it was processed in a previous run.
+      String key = in.toString();
+      FileState state = null;
+      if (manifest != null) {
+        state = manifest.computeState(key, file);
+        if (manifest.isUpToDate(key, state, configHash, defineRecordedOutput(key, 
+            serializationTargetFile))) {
+          numSkippedFiles.incrementAndGet();
+          metrics.recordSkippedFile();
+          System.out.println(numProcessedFiles.incrementAndGet() + "/" + inputFiles.size() + " " + in
+              + " -> " + out + " (up to date)");
+          return;
+        }
+      }
+
+      System.out.println(numProcessedFiles.incrementAndGet() + "/" + inputFiles.size() + " " + in + " -> " + out);
 
       if (serializationTargetFile == null) {
         return;
       }
 
-      // Identify the paragraphs in the given tex file.
-      identifyTexParagraphs(texFile);
-
-      // Serialize.
-      if (serializationTargetFile != null) {
-        serialize(texFile, roles, serializationTargetFile);
+      long start = System.nanoTime();
+      Path output;
+      try {
+        output = processTeXFileWithinBudget(texFile, key, serializationTargetFile);
+      } catch (TeXWorkBudgetExceededException e) {
+        if (!e.isInterruption()) {
+          recordInManifest(key, state, serializationTargetFile, Status.BUDGET_EXCEEDED);
+          metrics.recordExceededBudget();
+        }
+        throw e;
+      } catch (Exception | StackOverflowError | TokenMgrError e) {
+        // Don't record files whose processing was cancelled (e.g., on timeout).
+        if (!Thread.currentThread().isInterrupted()) {
+          // Files that failed on parsing are skipped in the next run, others are retried.
+          recordInManifest(key, state, serializationTargetFile, Status.of(e));
+          metrics.recordFailedFile();
+        }
+        throw e;
       }
+      recordInManifest(key, state, output, Status.OK);
+      metrics.recordProcessedFile(System.nanoTime() - start, Files.size(file));
     }
 
-    // -------------------------------------------------------------------------
+    /**
+     * Processes the given tex file within the work budget. If the budget is exceeded, the output
+     * of the attempt is discarded and the file is processed again with scaled limits, up to the
+     * given number of retries. Returns the path to the output.
+     */
+    protected Path processTeXFileWithinBudget(TeXFile texFile, String key, Path target)
+      throws IOException {
+      TeXWorkBudget budget = workBudget;
+      for (int attempt = 0;; attempt++) {
+        try {
+          if (shardWriter != null) {
+            return processTeXFileToShard(texFile, key, budget);
+          }
+          return processTeXFileToFile(texFile, target, budget);
+        } catch (TeXWorkBudgetExceededException e) {
+          if (e.isInterruption() || attempt >= budgetRetries) {
+            throw e;
+          }
+          budget = budget.scale(BUDGET_RETRY_FACTOR);
+          System.err.println(e.getMessage() + " Retrying " + file + " with the budget: "
+              + budget + ".");
+        }
+      }
+    }
 
     /**
-     * Identifies the paragraphs from given tex file.
+     * Identifies the paragraphs of the given tex file and serializes them to
+     * the given target file. Returns the path to the target file.
      */
-    protected void identifyTexParagraphs(TeXFile texFile) throws IOException {
-      new TeXParagraphsIdentifier(texFile, TeXParagraphParserMain.this.tmpDir).identify();
+    protected Path processTeXFileToFile(TeXFile texFile, Path target, TeXWorkBudget budget)
+      throws IOException {
+      // Serialize each paragraph as soon as it was identified. The output is
+      // written to a temporary file that is moved to the target on success.
+      try (TeXParagraphSerializer.Sink sink = createSerializer(texFile).open(target, roles)) {
+        // Identify the paragraphs in the given tex file.
+        TeXParagraphsIdentifier identifier = identifyTexParagraphs(texFile, sink, budget);
+        long start = System.nanoTime();
+        sink.commit();
+        // The paragraphs were serialized by the sink on identifying them.
+        metrics.recordSerialization(identifier.getConsumeParagraphsNanos()
+            + System.nanoTime() - start);
+      }
+      return target;
     }
 
     /**
-     * Serializes the selected features to file.
+     * Identifies the paragraphs of the given tex file and appends their 
+     * serialization to the shards. Returns the path to the shard.
      */
-    protected void serialize(TeXFile file, List<String> roles, Path target) throws IOException {
+    protected Path processTeXFileToShard(TeXFile texFile, String key, TeXWorkBudget budget)
+      throws IOException {
+      // The output of a tex file is appended to the shard as a whole, so 
+      // buffer it first.
+      ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+      TeXParagraphsIdentifier identifier;
+      long start;
+      try (TeXParagraphSerializer.Sink sink = createSerializer(texFile).open(buffer, roles)) {
+        identifier = identifyTexParagraphs(texFile, sink, budget);
+        start = System.nanoTime();
+        sink.commit();
+      }
+      Path shard = shardWriter.append(key, buffer.toByteArray());
+      metrics.recordSerialization(identifier.getConsumeParagraphsNanos()
+          + System.nanoTime() - start);
+      return shard;
+    }
 
-      switch (outputFormat) {
-        case "txt2":
-          new TeXParagraphExtendedTxtSerializer(file).serialize(target, roles);
-          break;
-        case "tsv":
-          new TeXParagraphTsvSerializer(file).serialize(target, roles);
-          break;
-        default:
-          new TeXParagraphTxtSerializer(file).serialize(target, roles);
-          break;
+    /**
+     * Returns the output file to check on deciding whether the given tex file
+     * is up to date. That is the given target file, or the shard recorded in 
+     * the manifest if the output is written to shards.
+     */
+    protected Path defineRecordedOutput(String key, Path serializationTargetFile) {
+      if (shardWriter == null) {
+        return serializationTargetFile;
       }
+      TeXFileManifest.Entry entry = manifest.getEntry(key);
+      return entry != null && !entry.output.isEmpty() ? Paths.get(entry.output) : null;
+    }
+
+    // -------------------------------------------------------------------------
+
+    /**
+     * Identifies the paragraphs from given tex file within the given work budget and passes them
+     * to the given consumer. Records the stages in the metrics and returns the identifier.
+     */
+    protected TeXParagraphsIdentifier identifyTexParagraphs(TeXFile texFile, 
+        Consumer<TeXParagraph> consumer, TeXWorkBudget budget) throws IOException {
+      TeXParagraphsIdentifier identifier = new TeXParagraphsIdentifier(texFile,
+          TeXParagraphParserMain.this.tmpDir, elementRefs)
+          .setInMemory(inMemory).setParsePermits(parsePermits).setParserType(parserType)
+          .setWorkBudget(budget).setParagraphConsumer(consumer);
+      identifier.identify();
+      metrics.recordIdentification(identifier);
+      return identifier;
+    }
+
+    /**
+     * Creates the serializer for the selected output format.
+     */
+    protected TeXParagraphSerializer createSerializer(TeXFile file) {
+      TeXParagraphSerializer serializer = TeXParagraphSerializer.forFormat(outputFormat, file);
+      // Fall back to txt on unknown formats.
+      return serializer != null ? serializer : new TeXParagraphTxtSerializer(file);
     }
 
     // -------------------------------------------------------------------------
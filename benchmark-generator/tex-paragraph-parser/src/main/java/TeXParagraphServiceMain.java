@@ -0,0 +1,376 @@
+import java.io.IOException;
+import java.net.InetAddress;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.cli.CommandLine;
+import org.apache.commons.cli.DefaultParser;
+import org.apache.commons.cli.HelpFormatter;
+import org.apache.commons.cli.Option;
+import org.apache.commons.cli.Option.Builder;
+import org.apache.commons.cli.Options;
+import org.apache.commons.cli.ParseException;
+
+import de.freiburg.iif.net.HttpServer;
+import model.TeXElementReferences;
+import parse.TeXParserType;
+import parse.TeXWorkBudget;
+import service.TeXParagraphService;
+
+/**
+ * Class to run the paragraphs parser as a resident http service (see
+ * {@link TeXParagraphService}), such that many tex files can be processed
+ * without paying the startup of the JVM and the loading of the element
+ * references per file.
+ *
+ * Usage: java -cp tex-paragraph-parser.jar TeXParagraphServiceMain --port 8080
+ *
+ * @author Claudius Korzen
+ */
+public class TeXParagraphServiceMain {
+  /**
+   * The address to bind the service to.
+   */
+  protected String address;
+
+  /**
+   * The port to bind the service to.
+   */
+  protected int port;
+
+  /**
+   * The maximal number of requests to process at the same time.
+   */
+  protected int numThreads;
+
+  /**
+   * The maximal number of open connections.
+   */
+  protected int maxConnections;
+
+  /**
+   * The maximal number of pending connections.
+   */
+  protected int backlog;
+
+  /**
+   * The time to keep an idle connection alive in seconds.
+   */
+  protected int keepAliveTimeout;
+
+  /**
+   * The maximal time to spend on a single request in seconds.
+   */
+  protected long timeout;
+
+  /**
+   * The budget of the work to spend on a single request.
+   */
+  protected TeXWorkBudget workBudget;
+
+  /**
+   * The parser to parse the tex files with.
+   */
+  protected TeXParserType parserType;
+
+  /**
+   * The path to the binary snapshot of the element references (may be null).
+   */
+  protected String referencesSnapshotPath;
+
+  /**
+   * The path to the directory of the tex files that may be requested by path
+   * (may be null).
+   */
+  protected String rootDirectoryPath;
+
+  /**
+   * The maximal size of a posted tex file, in MB (0 for no limit).
+   */
+  protected long maxPayloadSize;
+
+  /**
+   * The main method to start the service.
+   */
+  public static void main(String[] args) {
+    // Create command line options.
+    Options options = buildOptions();
+
+    // Try to parse the given command line arguments.
+    CommandLine cmd = null;
+    try {
+      cmd = parseCommandLine(args, options);
+    } catch (ParseException e) {
+      printUsage(options);
+      System.exit(1);
+    }
+
+    // Print usage if 'cmd' contains the help option.
+    if (hasOption(cmd, TeXServiceOptions.HELP)) {
+      printUsage(options);
+      System.exit(0);
+    }
+
+    // Run the service.
+    try {
+      new TeXParagraphServiceMain(cmd).run();
+    } catch (IOException e) {
+      e.printStackTrace();
+      System.exit(1);
+    }
+  }
+
+  /**
+   * Creates a new service based on the given command line object.
+   */
+  public TeXParagraphServiceMain(CommandLine cmd) {
+    address = getOptionValue(cmd, TeXServiceOptions.ADDRESS, null);
+    port = Integer.parseInt(getOptionValue(cmd, TeXServiceOptions.PORT, "8080"));
+    numThreads = Integer.parseInt(getOptionValue(cmd, TeXServiceOptions.THREADS,
+        String.valueOf(Runtime.getRuntime().availableProcessors())));
+    timeout = Long.parseLong(getOptionValue(cmd, TeXServiceOptions.TIMEOUT, "60"));
+    maxConnections = Integer.parseInt(getOptionValue(cmd, TeXServiceOptions.MAX_CONNECTIONS,
+        String.valueOf(HttpServer.DEFAULT_MAX_CONNECTIONS)));
+    backlog = Integer.parseInt(getOptionValue(cmd, TeXServiceOptions.BACKLOG,
+        String.valueOf(HttpServer.DEFAULT_BACKLOG)));
+    keepAliveTimeout = Integer.parseInt(getOptionValue(cmd, TeXServiceOptions.KEEP_ALIVE_TIMEOUT,
+        String.valueOf(HttpServer.DEFAULT_KEEP_ALIVE_TIMEOUT / 1000)));
+    // Unlike in batch mode, the timeout is part of the budget, since there is no scheduler.
+    workBudget = new TeXWorkBudget(
+        Long.parseLong(getOptionValue(cmd, TeXServiceOptions.MAX_ELEMENTS, "20000000")),
+        Long.parseLong(getOptionValue(cmd, TeXServiceOptions.MAX_EXPANSIONS, "1000000")),
+        Long.parseLong(getOptionValue(cmd, TeXServiceOptions.MAX_EXPANSION_DEPTH, "250")),
+        timeout, TimeUnit.SECONDS);
+    parserType = TeXParserType.fromName(getOptionValue(cmd, TeXServiceOptions.PARSER, "javacc"));
+    referencesSnapshotPath = getOptionValue(cmd, TeXServiceOptions.REFERENCES_SNAPSHOT, null);
+    rootDirectoryPath = getOptionValue(cmd, TeXServiceOptions.ROOT, null);
+    maxPayloadSize = Long.parseLong(getOptionValue(cmd, TeXServiceOptions.MAX_PAYLOAD_SIZE,
+        String.valueOf(TeXParagraphService.DEFAULT_MAX_PAYLOAD_SIZE / 1024 / 1024)));
+  }
+
+  /**
+   * Starts the service. It runs until the process is terminated.
+   */
+  public void run() throws IOException {
+    TeXElementReferences refs = loadElementReferences();
+
+    Path rootDirectory = null;
+    if (rootDirectoryPath != null) {
+      rootDirectory = Paths.get(rootDirectoryPath);
+      if (!Files.isDirectory(rootDirectory)) {
+        throw new IOException("The root directory doesn't exist: " + rootDirectory);
+      }
+    }
+
+    TeXParagraphService service = new TeXParagraphService(refs, numThreads)
+        .setParserType(parserType)
+        .setWorkBudget(workBudget)
+        .setRootDirectory(rootDirectory)
+        .setMaxPayloadSize(maxPayloadSize * 1024 * 1024);
+    service.setMaxConnections(maxConnections);
+    service.setBacklog(backlog);
+    service.setKeepAliveTimeout(keepAliveTimeout * 1000);
+    // Requests waiting for a free slot occupy a handler thread, as well as the requests of the
+    // health and the metrics.
+    service.setMaxThreads(Math.max(HttpServer.DEFAULT_MAX_THREADS, 2 * numThreads));
+
+    // Bind to the loopback interface unless another address is given explicitly.
+    InetAddress inetAddress = address != null ? InetAddress.getByName(address)
+        : InetAddress.getLoopbackAddress();
+    service.start(inetAddress, port);
+    Runtime.getRuntime().addShutdownHook(new Thread(service::stop));
+
+    System.out.println("Serving paragraphs at http://" + inetAddress.getHostAddress() + ":"
+        + service.getPort() + TeXParagraphService.PARAGRAPHS_PATH + " (" + numThreads
+        + " requests at the same time, budget: " + workBudget + ").");
+  }
+
+  /**
+   * Loads the tex element references and installs them as the process-wide
+   * default. If a snapshot path is given, the references are read from the
+   * snapshot if it is up to date, otherwise the snapshot is (re-)created.
+   */
+  protected TeXElementReferences loadElementReferences() throws IOException {
+    TeXElementReferences refs;
+    if (referencesSnapshotPath != null) {
+      refs = TeXElementReferences.loadSnapshot(Paths.get(referencesSnapshotPath));
+    } else {
+      refs = TeXElementReferences.getDefault();
+    }
+    TeXElementReferences.setDefault(refs);
+
+    System.out.println("Loaded " + refs.getNumElementReferences() + " element references in "
+        + refs.getLoadTime() + "ms.");
+    return refs;
+  }
+
+  // ===========================================================================
+  // Methods and class related to options.
+
+  /**
+   * Builds and returns the command line options.
+   */
+  protected static Options buildOptions() {
+    Options options = new Options();
+
+    for (TeXServiceOptions opt : TeXServiceOptions.values()) {
+      Builder builder = Option.builder(opt.shortOpt);
+      builder.longOpt(opt.longOpt);
+      builder.desc(opt.description);
+      builder.hasArg(opt.hasArg);
+
+      options.addOption(builder.build());
+    }
+
+    return options;
+  }
+
+  /**
+   * Parses the command line options.
+   */
+  protected static CommandLine parseCommandLine(String[] args, Options opts) throws ParseException {
+    return new DefaultParser().parse(opts, args);
+  }
+
+  /**
+   * Prints the usage.
+   */
+  protected static void printUsage(Options options) {
+    HelpFormatter formatter = new HelpFormatter();
+    formatter.printHelp("java -cp tex-paragraph-parser.jar TeXParagraphServiceMain", options);
+  }
+
+  /**
+   * Returns true, if the given command line contains the given option.
+   */
+  protected static boolean hasOption(CommandLine cmd, TeXServiceOptions option) {
+    return cmd != null && cmd.hasOption(option.shortOpt);
+  }
+
+  /**
+   * Returns the value associated with given option as string. Returns the given
+   * default value if the given command line doesn't contain the option.
+   */
+  protected static String getOptionValue(CommandLine cmd, TeXServiceOptions option,
+      String defaultValue) {
+    if (cmd != null) {
+      return cmd.getOptionValue(option.shortOpt, defaultValue);
+    }
+    return defaultValue;
+  }
+
+  /**
+   * Enumeration of all command line options.
+   */
+  public enum TeXServiceOptions {
+    /**
+     * Create option to define the address to bind to.
+     */
+    ADDRESS("a", "address", "The address to bind to. Default: the loopback address.", true),
+
+    /**
+     * Create option to define the port to bind to.
+     */
+    PORT("p", "port", "The port to bind to (0 for any free port). Default: 8080.", true),
+
+    /**
+     * Create option to define the number of requests to process at the same time.
+     */
+    THREADS("j", "threads", "The number of requests to process at the same time. Further "
+        + "requests wait for a free slot. Default: number of cores.", true),
+
+    /**
+     * Create option to define the maximal time to spend on a single request.
+     */
+    TIMEOUT("T", "timeout", "The maximal time to spend on a single request (and to wait for a "
+        + "free slot) in seconds. Default: 60. 0 disables the limit.", true),
+
+    /**
+     * Create option to define the maximal number of open connections.
+     */
+    MAX_CONNECTIONS("c", "maxConnections", "The maximal number of open connections. Further "
+        + "connections wait in the backlog. Default: 1024.", true),
+
+    /**
+     * Create option to define the maximal number of pending connections.
+     */
+    BACKLOG("b", "backlog", "The maximal number of pending connections. Default: 50.", true),
+
+    /**
+     * Create option to define the time to keep idle connections alive.
+     */
+    KEEP_ALIVE_TIMEOUT("k", "keepAliveTimeout", "The time to keep an idle connection alive in "
+        + "seconds. Default: 15. 0 closes the connections after each response.", true),
+
+    /**
+     * Create option to define the maximal number of elements to process per request.
+     */
+    MAX_ELEMENTS("E", "maxElements", "The maximal number of elements to parse, resolve and process "
+        + "per request. Default: 20000000. 0 disables the limit.", true),
+
+    /**
+     * Create option to define the maximal number of macro expansions per request.
+     */
+    MAX_EXPANSIONS("X", "maxExpansions", "The maximal number of macro expansions per request. "
+        + "Default: 1000000. 0 disables the limit.", true),
+
+    /**
+     * Create option to define the maximal nesting depth of macro expansions.
+     */
+    MAX_EXPANSION_DEPTH("D", "maxExpansionDepth", "The maximal nesting depth of macro expansions. "
+        + "Default: 250. 0 disables the limit.", true),
+
+    /**
+     * Create option to define the parser to parse the tex files with.
+     */
+    PARSER("P", "parser", "The parser of tex files: javacc (default) or fast.", true),
+
+    /**
+     * Create option to define the path to a binary snapshot of the element
+     * references. The snapshot is created if it doesn't exist yet.
+     */
+    REFERENCES_SNAPSHOT("R", "referencesSnapshot",
+        "The binary snapshot of element references to read (or create).", true),
+
+    /**
+     * Create option to define the directory of tex files that may be requested by path.
+     */
+    ROOT("d", "root", "The directory of the tex files that may be requested by path (GET "
+        + "/paragraphs?path=...). If not given, only posted tex files are processed.", true),
+
+    /**
+     * Create option to define the maximal size of a posted tex file.
+     */
+    MAX_PAYLOAD_SIZE("L", "maxPayloadSize", "The maximal size of a posted tex file in MB. Larger "
+        + "files are rejected with 413. Default: 64. 0 disables the limit.", true),
+
+    /**
+     * Create option to print the help.
+     */
+    HELP("h", "help", "Prints the help.", false);
+
+    /** The short identifier for this option. */
+    public String shortOpt;
+
+    /** The long identifier for this option. */
+    public String longOpt;
+
+    /** The description for this option. */
+    public String description;
+
+    /** The flag to indicate whether this option has an argument. */
+    public boolean hasArg;
+
+    /**
+     * Creates a new option with given arguments.
+     */
+    TeXServiceOptions(String opt, String longOpt, String description, boolean hasArg) {
+      this.shortOpt = opt;
+      this.longOpt = longOpt;
+      this.description = description;
+      this.hasArg = hasArg;
+    }
+  }
+}
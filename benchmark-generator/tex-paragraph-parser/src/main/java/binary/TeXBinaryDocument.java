@@ -0,0 +1,153 @@
+package binary;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A read-only view of a document in the binary format (see
+ * {@link TeXBinaryFormat}). The paragraphs are views of the underlying
+ * buffer as well: their texts are exposed as slices of the buffer, without
+ * copying or decoding them.
+ *
+ * The document is scanned once on construction to locate the paragraphs.
+ *
+ * @author Claudius Korzen
+ */
+public class TeXBinaryDocument {
+  /**
+   * The buffer of this document.
+   */
+  protected final ByteBuffer buffer;
+
+  /**
+   * The roles of the dictionary of this document.
+   */
+  protected final List<String> roles = new ArrayList<>();
+
+  /**
+   * The paragraphs of this document.
+   */
+  protected final List<TeXBinaryParagraph> paragraphs = new ArrayList<>();
+
+  /**
+   * Creates a view of the document in the given buffer (from its position to
+   * its limit). The position of the given buffer isn't changed.
+   */
+  public TeXBinaryDocument(ByteBuffer buffer) throws IOException {
+    this.buffer = buffer.slice().asReadOnlyBuffer();
+    scan();
+  }
+
+  /**
+   * Maps the given file into memory and returns a view of the document in it.
+   */
+  public static TeXBinaryDocument map(Path file) throws IOException {
+    try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+      // The mapping stays valid after closing the channel.
+      return new TeXBinaryDocument(
+          channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+    }
+  }
+
+  /**
+   * Locates the paragraphs of this document.
+   */
+  protected void scan() throws IOException {
+    ByteBuffer in = buffer.duplicate();
+    if (!TeXBinaryFormat.startsWithMagic(in)) {
+      throw new IOException("Not a document in the binary paragraph format.");
+    }
+    in.position(TeXBinaryFormat.MAGIC.length);
+
+    while (in.hasRemaining()) {
+      // The role.
+      int roleRef = TeXBinaryFormat.readVarint(in);
+      if (roleRef == roles.size() + 1) {
+        roles.add(readString(in));
+      } else if (roleRef < 0 || roleRef > roles.size()) {
+        throw new IOException("Invalid role reference: " + roleRef);
+      }
+      String role = roleRef != TeXBinaryFormat.NO_ROLE
+          ? roles.get(roleRef - 1) : null;
+
+      // The line numbers (decoded on demand).
+      int numLines = TeXBinaryFormat.readVarint(in);
+      if (numLines < 0 || numLines > in.remaining()) {
+        throw new IOException("Truncated document.");
+      }
+      int linesPosition = in.position();
+      for (int i = 0; i < numLines; i++) {
+        TeXBinaryFormat.readVarint(in);
+      }
+
+      // The text.
+      int textLength = TeXBinaryFormat.readVarint(in);
+      if (textLength < 0 || textLength > in.remaining()) {
+        throw new IOException("Truncated document.");
+      }
+      int textPosition = in.position();
+      in.position(textPosition + textLength);
+
+      paragraphs.add(new TeXBinaryParagraph(this, role, numLines,
+          linesPosition, textPosition, textLength));
+    }
+  }
+
+  /**
+   * Reads a length-prefixed UTF-8 string from the given buffer.
+   */
+  protected static String readString(ByteBuffer in) throws IOException {
+    int length = TeXBinaryFormat.readVarint(in);
+    if (length < 0 || length > in.remaining()) {
+      throw new IOException("Truncated document.");
+    }
+    byte[] bytes = new byte[length];
+    in.get(bytes);
+    return new String(bytes, StandardCharsets.UTF_8);
+  }
+
+  // ---------------------------------------------------------------------------
+
+  /**
+   * Returns all paragraphs of this document.
+   */
+  public List<TeXBinaryParagraph> getParagraphs() {
+    return Collections.unmodifiableList(paragraphs);
+  }
+
+  /**
+   * Returns the paragraphs of this document with the given role.
+   */
+  public List<TeXBinaryParagraph> getParagraphs(String role) {
+    List<TeXBinaryParagraph> result = new ArrayList<>();
+    for (TeXBinaryParagraph paragraph : paragraphs) {
+      if (role == null ? paragraph.getRole() == null
+          : role.equals(paragraph.getRole())) {
+        result.add(paragraph);
+      }
+    }
+    return result;
+  }
+
+  /**
+   * Returns the roles of the paragraphs of this document, in order of their
+   * first occurrence.
+   */
+  public List<String> getRoles() {
+    return Collections.unmodifiableList(roles);
+  }
+
+  /**
+   * Returns the buffer of this document.
+   */
+  public ByteBuffer getBuffer() {
+    return buffer.duplicate();
+  }
+}
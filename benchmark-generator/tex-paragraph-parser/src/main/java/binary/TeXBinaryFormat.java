@@ -0,0 +1,102 @@
+package binary;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * The binary format of the paragraphs of a tex file, as written by
+ * {@link serializer.TeXParagraphBinarySerializer}.
+ *
+ * A document starts with the 4 bytes "TPB" + version, followed by one record
+ * per paragraph until the end of the document:
+ *
+ * <pre>
+ * role      varint: 0 for no role, 1..n for the n-th role of the dictionary,
+ *           n+1 to define a new role, followed by its length (varint) and
+ *           its UTF-8 bytes.
+ * lines     varint: the number of line numbers, followed by the first line
+ *           number (zigzag varint) and the deltas to the following ones
+ *           (varints).
+ * text      varint: the length of the text, followed by its UTF-8 bytes.
+ * </pre>
+ *
+ * The role dictionary is built up per document, such that a document can be
+ * written (and read) in a single pass.
+ *
+ * @author Claudius Korzen
+ */
+public class TeXBinaryFormat {
+  /**
+   * The magic bytes at the start of each document.
+   */
+  public static final byte[] MAGIC = { 'T', 'P', 'B', 1 };
+
+  /**
+   * The role reference of paragraphs without a role.
+   */
+  public static final int NO_ROLE = 0;
+
+  // ---------------------------------------------------------------------------
+
+  /**
+   * Writes the given (non-negative) value as varint to the given stream.
+   */
+  public static void writeVarint(ByteArrayOutputStream out, int value) {
+    while ((value & ~0x7F) != 0) {
+      out.write((value & 0x7F) | 0x80);
+      value >>>= 7;
+    }
+    out.write(value);
+  }
+
+  /**
+   * Writes the given (possibly negative) value as zigzag varint to the given
+   * stream.
+   */
+  public static void writeZigzagVarint(ByteArrayOutputStream out, int value) {
+    writeVarint(out, (value << 1) ^ (value >> 31));
+  }
+
+  /**
+   * Reads a varint from the current position of the given buffer.
+   */
+  public static int readVarint(ByteBuffer in) throws IOException {
+    int value = 0;
+    for (int shift = 0; shift < 32; shift += 7) {
+      if (!in.hasRemaining()) {
+        throw new IOException("Truncated varint.");
+      }
+      byte b = in.get();
+      value |= (b & 0x7F) << shift;
+      if ((b & 0x80) == 0) {
+        return value;
+      }
+    }
+    throw new IOException("Malformed varint.");
+  }
+
+  /**
+   * Reads a zigzag varint from the current position of the given buffer.
+   */
+  public static int readZigzagVarint(ByteBuffer in) throws IOException {
+    int value = readVarint(in);
+    return (value >>> 1) ^ -(value & 1);
+  }
+
+  /**
+   * Returns true, if the given buffer starts with the magic bytes at its
+   * current position.
+   */
+  public static boolean startsWithMagic(ByteBuffer in) {
+    if (in.remaining() < MAGIC.length) {
+      return false;
+    }
+    for (int i = 0; i < MAGIC.length; i++) {
+      if (in.get(in.position() + i) != MAGIC[i]) {
+        return false;
+      }
+    }
+    return true;
+  }
+}
@@ -0,0 +1,152 @@
+package binary;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * A read-only view of a paragraph in a {@link TeXBinaryDocument}. The line
+ * numbers and the text are read from the buffer of the document on demand.
+ *
+ * @author Claudius Korzen
+ */
+public class TeXBinaryParagraph {
+  /**
+   * The document of this paragraph.
+   */
+  protected final TeXBinaryDocument document;
+
+  /**
+   * The role of this paragraph.
+   */
+  protected final String role;
+
+  /**
+   * The number of line numbers of this paragraph.
+   */
+  protected final int numLineNumbers;
+
+  /**
+   * The position of the encoded line numbers in the buffer of the document.
+   */
+  protected final int linesPosition;
+
+  /**
+   * The position of the text in the buffer of the document.
+   */
+  protected final int textPosition;
+
+  /**
+   * The length of the text in bytes.
+   */
+  protected final int textLength;
+
+  /**
+   * Creates a new paragraph view.
+   */
+  protected TeXBinaryParagraph(TeXBinaryDocument document, String role,
+      int numLineNumbers, int linesPosition, int textPosition,
+      int textLength) {
+    this.document = document;
+    this.role = role;
+    this.numLineNumbers = numLineNumbers;
+    this.linesPosition = linesPosition;
+    this.textPosition = textPosition;
+    this.textLength = textLength;
+  }
+
+  // ---------------------------------------------------------------------------
+
+  /**
+   * Returns the role of this paragraph (may be null).
+   */
+  public String getRole() {
+    return role;
+  }
+
+  /**
+   * Returns the number of line numbers of this paragraph.
+   */
+  public int getNumLineNumbers() {
+    return numLineNumbers;
+  }
+
+  /**
+   * Returns the line numbers of this paragraph, in ascending order.
+   */
+  public int[] getLineNumbers() {
+    int[] lines = new int[numLineNumbers];
+    ByteBuffer in = document.buffer.duplicate();
+    in.position(linesPosition);
+    try {
+      int line = 0;
+      for (int i = 0; i < numLineNumbers; i++) {
+        line = i == 0 ? TeXBinaryFormat.readZigzagVarint(in)
+            : line + TeXBinaryFormat.readVarint(in);
+        lines[i] = line;
+      }
+    } catch (IOException e) {
+      // The line numbers were already validated on scanning the document.
+      throw new UncheckedIOException(e);
+    }
+    return lines;
+  }
+
+  /**
+   * Returns the first line number of this paragraph or -1 if there is none.
+   */
+  public int getStartLine() {
+    if (numLineNumbers == 0) {
+      return -1;
+    }
+    ByteBuffer in = document.buffer.duplicate();
+    in.position(linesPosition);
+    try {
+      return TeXBinaryFormat.readZigzagVarint(in);
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  /**
+   * Returns the last line number of this paragraph or -1 if there is none.
+   */
+  public int getEndLine() {
+    if (numLineNumbers == 0) {
+      return -1;
+    }
+    int[] lines = getLineNumbers();
+    return lines[lines.length - 1];
+  }
+
+  /**
+   * Returns the UTF-8 bytes of the text of this paragraph as a read-only
+   * slice of the buffer of the document (without copying).
+   */
+  public ByteBuffer getText() {
+    ByteBuffer text = document.buffer.duplicate();
+    text.position(textPosition);
+    text.limit(textPosition + textLength);
+    return text.slice();
+  }
+
+  /**
+   * Returns the length of the text of this paragraph in bytes.
+   */
+  public int getTextLength() {
+    return textLength;
+  }
+
+  /**
+   * Decodes the text of this paragraph.
+   */
+  public String getTextAsString() {
+    return StandardCharsets.UTF_8.decode(getText()).toString();
+  }
+
+  @Override
+  public String toString() {
+    return role + " [" + getStartLine() + "-" + getEndLine() + "]";
+  }
+}
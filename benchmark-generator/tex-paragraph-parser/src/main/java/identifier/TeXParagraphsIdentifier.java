@@ -4,17 +4,25 @@ import static de.freiburg.iif.affirm.Affirm.affirm;
 import static model.TeXParagraphParserSettings.TMP_TEX_EXTENSIONS;
 
 import java.io.IOException;
-import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.List;
+import java.util.concurrent.Semaphore;
+import java.util.function.Consumer;
 
 import de.freiburg.iif.path.PathUtils;
 import model.Document;
+import model.TeXElementReferences;
 import model.TeXFile;
 import model.TeXParagraph;
 import parse.ParseException;
-import parse.TeXParser;
+import parse.TeXParserType;
+import parse.TeXSource;
+import parse.TeXWorkBudget;
+import parse.TeXWorkTracker;
 import parser.TeXParagraphsParser;
 import preprocess.TeXMacroResolver;
 
@@ -36,23 +44,273 @@ public class TeXParagraphsIdentifier {
    */
   protected Path tmpDir;
 
+  /**
+   * The tex element references.
+   */
+  protected TeXElementReferences refs;
+
+  /**
+   * The flag to indicate whether the macros should be resolved in memory, i.e.
+   * without parsing an intermediate file.
+   */
+  protected boolean inMemory;
+
+  /**
+   * The permits that limit the number of files that are parsed at the same
+   * time (may be null).
+   */
+  protected Semaphore parsePermits;
+
+  /**
+   * The parser to parse the tex files with.
+   */
+  protected TeXParserType parserType = TeXParserType.JAVACC;
+
+  /**
+   * The consumer to pass each identified paragraph to (may be null).
+   */
+  protected Consumer<TeXParagraph> paragraphConsumer;
+
+  /**
+   * The identified paragraphs to pass to the consumer once the parse permit
+   * was released (null if there are none).
+   */
+  protected List<TeXParagraph> deferredParagraphs;
+
+  /**
+   * The budget of the work to spend on the tex file.
+   */
+  protected TeXWorkBudget workBudget = TeXWorkBudget.NONE;
+
+  /**
+   * The tracker of the work spent on the tex file (null until the
+   * identification started).
+   */
+  protected TeXWorkTracker workTracker;
+
+  /**
+   * The time spent on resolving the macros, in nanoseconds.
+   */
+  protected long resolveMacrosNanos;
+
+  /**
+   * The time spent on parsing the resolved tex file, in nanoseconds.
+   */
+  protected long parseNanos;
+
+  /**
+   * The time spent on identifying the paragraphs in the parsed document
+   * (without the time spent by the paragraph consumer), in nanoseconds.
+   */
+  protected long identifyParagraphsNanos;
+
+  /**
+   * The time spent by the paragraph consumer, in nanoseconds.
+   */
+  protected long consumeParagraphsNanos;
+
+  /**
+   * The number of identified paragraphs.
+   */
+  protected int numParagraphs;
+
+  /**
+   * The number of commands without an element reference.
+   */
+  protected int numUnresolvedCommands;
+
   /**
    * Creates a new paragraphs identifier for the given tex file. The tmp dir is used for storing 
    * intermediate files.
    */
-  public TeXParagraphsIdentifier(TeXFile file, Path tmpDir) {    
+  public TeXParagraphsIdentifier(TeXFile file, Path tmpDir) throws IOException {
+    this(file, tmpDir, TeXElementReferences.getDefault());
+  }
+
+  /**
+   * Creates a new paragraphs identifier for the given tex file that uses the 
+   * given element references. The tmp dir is used for storing intermediate 
+   * files.
+   */
+  public TeXParagraphsIdentifier(TeXFile file, Path tmpDir, 
+      TeXElementReferences refs) {    
     this.texFile = file;
     this.tmpDir = tmpDir;
+    this.refs = refs;
+  }
+
+  /**
+   * Sets the flag to indicate whether the macros should be resolved in memory. 
+   * If so, the resolved tex file is parsed directly from memory. The 
+   * intermediate file is only written (as a debug artifact) if there is a tmp 
+   * dir given.
+   */
+  public TeXParagraphsIdentifier setInMemory(boolean inMemory) {
+    this.inMemory = inMemory;
+    return this;
+  }
+
+  /**
+   * Sets the permits that limit the number of files that are parsed at the
+   * same time. A permit is held while the file is parsed, but neither while
+   * it is read (in memory mode) nor while the paragraphs are passed to the
+   * paragraph consumer (which is called after parsing then).
+   */
+  public TeXParagraphsIdentifier setParsePermits(Semaphore parsePermits) {
+    this.parsePermits = parsePermits;
+    return this;
+  }
+
+  /**
+   * Sets the parser to parse the tex files with (the JavaCC generated parser
+   * by default).
+   */
+  public TeXParagraphsIdentifier setParserType(TeXParserType parserType) {
+    this.parserType = parserType;
+    return this;
+  }
+
+  /**
+   * Sets the consumer to pass each paragraph to as soon as it was identified
+   * (or after parsing, if there are parse permits given). If there is a 
+   * consumer given, the paragraphs are not collected in the tex file. An 
+   * UncheckedIOException thrown by the consumer is rethrown as IOException
+   * by {@link #identify()}.
+   */
+  public TeXParagraphsIdentifier setParagraphConsumer(
+      Consumer<TeXParagraph> consumer) {
+    this.paragraphConsumer = consumer;
+    return this;
+  }
+
+  /**
+   * Sets the budget of the work to spend on the tex file (no limits by 
+   * default). If the budget is exceeded, {@link #identify()} is aborted by a
+   * TeXWorkBudgetExceededException. The interruption of the current thread is
+   * checked in any case.
+   */
+  public TeXParagraphsIdentifier setWorkBudget(TeXWorkBudget budget) {
+    this.workBudget = budget;
+    return this;
+  }
+
+  /**
+   * Returns the tracker of the work spent on the tex file (null if the
+   * identification wasn't started yet).
+   */
+  public TeXWorkTracker getWorkTracker() {
+    return this.workTracker;
+  }
+
+  /**
+   * Returns the time spent on resolving the macros, in nanoseconds.
+   */
+  public long getResolveMacrosNanos() {
+    return this.resolveMacrosNanos;
+  }
+
+  /**
+   * Returns the time spent on parsing the resolved tex file, in nanoseconds.
+   */
+  public long getParseNanos() {
+    return this.parseNanos;
+  }
+
+  /**
+   * Returns the time spent on identifying the paragraphs in the parsed 
+   * document, in nanoseconds. The time spent by the paragraph consumer (e.g.,
+   * on serializing the paragraphs) isn't included.
+   */
+  public long getIdentifyParagraphsNanos() {
+    return this.identifyParagraphsNanos;
+  }
+
+  /**
+   * Returns the time spent by the paragraph consumer, in nanoseconds.
+   */
+  public long getConsumeParagraphsNanos() {
+    return this.consumeParagraphsNanos;
+  }
+
+  /**
+   * Returns the number of identified paragraphs.
+   */
+  public int getNumParagraphs() {
+    return this.numParagraphs;
+  }
+
+  /**
+   * Returns the number of commands without an element reference, which were
+   * skipped on identifying the paragraphs.
+   */
+  public int getNumUnresolvedCommands() {
+    return this.numUnresolvedCommands;
   }
 
   /**
    * Starts the identification of tex paragraphs: (1) Resolves the macros 
    * in the given tex file and (2) identifies the paragraphs within the 
-   * resolved file.
+   * resolved file. A tex file whose content is given in memory is always
+   * processed in memory.
    */
   public void identify() throws IOException {
-    resolveMacros(this.texFile); // Sets texFile.tmpPath
-    identifyTeXParagraphs(this.texFile); // Reads texFile.tmpPath
+    TeXSource content = this.texFile.getContent();
+    if (this.inMemory || this.tmpDir == null || content != null) {
+      if (content == null) {
+        affirm(Files.isRegularFile(this.texFile.getPath()), 
+            "The given tex file doesn't exist.");
+        content = TeXSource.map(this.texFile.getPath());
+      }
+
+      acquireParsePermit();
+      try {
+        // The time spent on waiting for a permit isn't part of the budget.
+        this.workTracker = this.workBudget.start();
+        long start = System.nanoTime();
+        String resolved = resolveMacrosInMemory(this.texFile, content);
+        this.resolveMacrosNanos = System.nanoTime() - start;
+        identifyTeXParagraphs(this.texFile, resolved);
+      } finally {
+        releaseParsePermit();
+      }
+      consumeDeferredParagraphs();
+    } else {
+      acquireParsePermit();
+      try {
+        // The time spent on waiting for a permit isn't part of the budget.
+        this.workTracker = this.workBudget.start();
+        long start = System.nanoTime();
+        resolveMacros(this.texFile); // Sets texFile.tmpPath
+        this.resolveMacrosNanos = System.nanoTime() - start;
+        identifyTeXParagraphs(this.texFile); // Reads texFile.tmpPath
+      } finally {
+        releaseParsePermit();
+      }
+      consumeDeferredParagraphs();
+    }
+  }
+
+  /**
+   * Acquires a parse permit, if there are any permits given.
+   */
+  protected void acquireParsePermit() throws IOException {
+    if (this.parsePermits != null) {
+      try {
+        this.parsePermits.acquire();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new InterruptedIOException("Interrupted on waiting for a permit.");
+      }
+    }
+  }
+
+  /**
+   * Releases a parse permit, if there are any permits given.
+   */
+  protected void releaseParsePermit() {
+    if (this.parsePermits != null) {
+      this.parsePermits.release();
+    }
   }
 
   // ===========================================================================
@@ -80,15 +338,71 @@ public class TeXParagraphsIdentifier {
     affirm(Files.isRegularFile(file), "The given tex file doesn't exist.");
     affirm(targetPath != null, "No target path given");
     
-    try (InputStream stream = Files.newInputStream(file)) {
-      new TeXMacroResolver(stream).resolveMacros(targetPath);
+    try {
+      new TeXMacroResolver(TeXSource.map(file), this.refs)
+          .setParserType(this.parserType).setWorkTracker(this.workTracker)
+          .resolveMacros(targetPath);
     } catch (ParseException e) {
       throw new IOException(e);
     }
   }
 
+  /**
+   * Resolves the macros for the given tex file with the given content and 
+   * returns the resolved tex file as string. Writes the resolved file to the 
+   * tmp dir, if there is one.
+   */
+  protected String resolveMacrosInMemory(TeXFile texFile, TeXSource content)
+    throws IOException {
+    affirm(texFile != null, "No tex file given");
+    
+    Path texPath = texFile.getPath();
+
+    String resolved;
+    try {
+      resolved = new TeXMacroResolver(content, this.refs)
+          .setParserType(this.parserType).setWorkTracker(this.workTracker)
+          .resolveMacros();
+    } catch (ParseException e) {
+      throw new IOException(e);
+    }
+
+    // Write the intermediate file for debugging purposes.
+    Path tmpPath = defineResolveMacrosTargetFile(texPath);
+    if (tmpPath != null) {
+      Files.createDirectories(tmpPath.getParent());
+      Files.write(tmpPath, resolved.getBytes(StandardCharsets.UTF_8));
+      texFile.setTmpPath(tmpPath);
+    }
+    
+    return resolved;
+  }
+
   // ---------------------------------------------------------------------------
 
+  /**
+   * Identifies the text paragraphs in the given resolved tex content.
+   */
+  protected void identifyTeXParagraphs(TeXFile texFile, String resolved)
+    throws IOException {
+    affirm(texFile != null, "No tex file given.");
+    
+    // Parse the resolved tex content.
+    Document document;
+        
+    try {
+      long start = System.nanoTime();
+      document = this.parserType.parse(resolved, this.workTracker);
+      this.parseNanos = System.nanoTime() - start;
+      texFile.setDocument(document);
+    } catch (ParseException e) {
+      throw new IOException(e);
+    }
+    
+    // Identify the paragraphs in parsed document.
+    identifyTeXParagraphs(texFile, document);
+  }
+
   /**
    * Identifies the text paragraphs in the given tex file.
    */
@@ -99,14 +413,79 @@ public class TeXParagraphsIdentifier {
     Document document;
         
     try {
+      long start = System.nanoTime();
       document = parseTexFile(texFile);
+      this.parseNanos = System.nanoTime() - start;
       texFile.setDocument(document);
     } catch (ParseException e) {
       throw new IOException(e);
     }
     
     // Identify the paragraphs in parsed document.
-    texFile.setTeXParagraphs(identifyTeXParagraphs(document));
+    identifyTeXParagraphs(texFile, document);
+  }
+
+  /**
+   * Identifies the paragraphs in the given document of the given tex file and
+   * either passes them to the paragraph consumer or stores them in the tex 
+   * file.
+   */
+  protected void identifyTeXParagraphs(TeXFile texFile, Document document)
+    throws IOException {
+    long start = System.nanoTime();
+    TeXParagraphsParser parser = new TeXParagraphsParser(document, this.refs)
+        .setWorkTracker(this.workTracker);
+    try {
+      if (this.paragraphConsumer == null) {
+        List<TeXParagraph> paragraphs = parser.identifyParagraphs();
+        this.numParagraphs = paragraphs.size();
+        texFile.setTeXParagraphs(paragraphs);
+      } else if (this.parsePermits != null) {
+        // Don't hold the parse permit while the consumer serializes the 
+        // paragraphs (which may block on I/O).
+        this.deferredParagraphs = parser.identifyParagraphs();
+      } else {
+        parser.identifyParagraphs(this::consumeParagraph);
+      }
+    } catch (UncheckedIOException e) {
+      throw e.getCause();
+    } finally {
+      this.numUnresolvedCommands = parser.getNumUnresolvedCommands();
+      this.identifyParagraphsNanos = System.nanoTime() - start
+          - this.consumeParagraphsNanos;
+    }
+  }
+
+  /**
+   * Passes the deferred paragraphs (if any) to the paragraph consumer.
+   */
+  protected void consumeDeferredParagraphs() throws IOException {
+    List<TeXParagraph> paragraphs = this.deferredParagraphs;
+    this.deferredParagraphs = null;
+    if (paragraphs == null) {
+      return;
+    }
+    try {
+      for (TeXParagraph paragraph : paragraphs) {
+        consumeParagraph(paragraph);
+      }
+    } catch (UncheckedIOException e) {
+      throw e.getCause();
+    }
+  }
+
+  /**
+   * Passes the given paragraph to the paragraph consumer and measures the
+   * time spent by the consumer.
+   */
+  protected void consumeParagraph(TeXParagraph paragraph) {
+    long start = System.nanoTime();
+    try {
+      this.paragraphConsumer.accept(paragraph);
+    } finally {
+      this.consumeParagraphsNanos += System.nanoTime() - start;
+      this.numParagraphs++;
+    }
   }
 
   /**
@@ -114,7 +493,8 @@ public class TeXParagraphsIdentifier {
    */
   protected List<TeXParagraph> identifyTeXParagraphs(Document document)
     throws IOException {
-    return new TeXParagraphsParser(document).identifyParagraphs();
+    return new TeXParagraphsParser(document, this.refs)
+        .setWorkTracker(this.workTracker).identifyParagraphs();
   }
 
   // ---------------------------------------------------------------------------
@@ -138,16 +518,7 @@ public class TeXParagraphsIdentifier {
     throws IOException, ParseException {
     affirm(Files.isRegularFile(texPath), "The given tex file doesn't exist.");
     
-    try (InputStream input = Files.newInputStream(texPath)) {
-      Document document;
-      try {
-        TeXParser parser = new TeXParser(input);
-        document = parser.parse();
-      } catch (Exception e) {
-        throw e;
-      }
-      return document;
-    }
+    return this.parserType.parse(TeXSource.map(texPath), this.workTracker);
   }
 
   // ===========================================================================
@@ -157,6 +528,9 @@ public class TeXParagraphsIdentifier {
    * Obtains the path to the target file for the preprocessing step.
    */
   protected Path defineResolveMacrosTargetFile(Path texFile) {
+    if (this.tmpDir == null) {
+      return null;
+    }
     // Obtain the basename of the file.
     String basename = PathUtils.getBasename(texFile);
     // Obtain the filename for the target file.
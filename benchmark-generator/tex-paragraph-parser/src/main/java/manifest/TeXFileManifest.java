@@ -0,0 +1,396 @@
+package manifest;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import parse.ParseException;
+import parse.TeXWorkBudgetExceededException;
+import parse.TokenMgrError;
+
+/**
+ * A persistent manifest of processed tex files, which allows to reprocess
+ * only those tex files whose content or whose configuration (element
+ * references, roles, output format, ...) has changed since the last run.
+ * 
+ * The manifest is keyed by the path of the tex file relative to the input
+ * directory and records for each file the SHA-256 hash of its content, the
+ * hash of the configuration it was processed with, the output path and the
+ * status of the processing. To avoid hashing unchanged files, the size and
+ * modification time of each file are recorded as well; the content hash is
+ * only recomputed if one of them has changed.
+ * 
+ * The manifest is thread-safe. It is stored as a tab-separated text file and
+ * is written atomically.
+ *
+ * @author Claudius Korzen
+ */
+public class TeXFileManifest {
+  /**
+   * The header line of a manifest file.
+   */
+  static final String HEADER = "#tex-file-manifest\t1";
+
+  /**
+   * The field separator in manifest files.
+   */
+  static final String SEPARATOR = "\t";
+
+  /**
+   * The path to the manifest file.
+   */
+  protected final Path path;
+
+  /**
+   * The entries of this manifest, per relative path of the tex file.
+   */
+  protected final Map<String, Entry> entries = new ConcurrentHashMap<>();
+
+  /**
+   * Creates a new manifest that is stored at the given path. Reads the
+   * entries from the given path if it exists.
+   */
+  public TeXFileManifest(Path path) throws IOException {
+    this.path = path;
+    if (Files.isRegularFile(path)) {
+      read();
+    }
+  }
+
+  // ---------------------------------------------------------------------------
+
+  /**
+   * Returns the entry for the given relative path of a tex file or null if
+   * there is no such entry.
+   */
+  public Entry getEntry(String relativePath) {
+    return this.entries.get(relativePath);
+  }
+
+  /**
+   * Returns the number of entries in this manifest.
+   */
+  public int size() {
+    return this.entries.size();
+  }
+
+  /**
+   * Computes the content hash of the given tex file. Reuses the hash recorded
+   * for the given relative path if the size and modification time of the file
+   * didn't change.
+   */
+  public FileState computeState(String relativePath, Path file)
+    throws IOException {
+    long size = Files.size(file);
+    long lastModified = Files.getLastModifiedTime(file).toMillis();
+
+    Entry entry = getEntry(relativePath);
+    if (entry != null && entry.size == size
+        && entry.lastModified == lastModified) {
+      return new FileState(entry.contentHash, size, lastModified);
+    }
+    return new FileState(hash(file), size, lastModified);
+  }
+
+  /**
+   * Returns true, if the given tex file was already processed with the given
+   * content and configuration, and either succeeded and its output file 
+   * still exists or failed in a way that would repeat (see 
+   * {@link Status#isFinal()}).
+   */
+  public boolean isUpToDate(String relativePath, FileState state,
+      String configHash, Path output) {
+    Entry entry = getEntry(relativePath);
+    if (entry == null || state == null) {
+      return false;
+    }
+    if (!entry.contentHash.equals(state.contentHash)) {
+      return false;
+    }
+    if (!entry.configHash.equals(configHash)) {
+      return false;
+    }
+    if (entry.status == Status.OK) {
+      return output != null && Files.isRegularFile(output);
+    }
+    return entry.status.isFinal();
+  }
+
+  /**
+   * Records the result of processing the given tex file.
+   */
+  public void record(String relativePath, FileState state, String configHash,
+      Path output, Status status) {
+    if (relativePath == null || state == null) {
+      return;
+    }
+    // Such paths can't be stored in the manifest (they will be reprocessed).
+    if (relativePath.contains(SEPARATOR) || relativePath.contains("\n")
+        || relativePath.contains("\r")) {
+      return;
+    }
+    this.entries.put(relativePath, new Entry(relativePath, state.contentHash,
+        state.size, state.lastModified, configHash,
+        output != null ? output.toString() : "", status));
+  }
+
+  // ---------------------------------------------------------------------------
+
+  /**
+   * Reads the manifest from its path.
+   */
+  protected void read() throws IOException {
+    try (BufferedReader reader =
+        Files.newBufferedReader(this.path, StandardCharsets.UTF_8)) {
+      String line = reader.readLine();
+      if (line == null) {
+        return;
+      }
+      if (!HEADER.equals(line)) {
+        throw new IOException("Not a manifest of tex files: " + this.path);
+      }
+
+      while ((line = reader.readLine()) != null) {
+        Entry entry = Entry.parse(line);
+        if (entry != null) {
+          this.entries.put(entry.relativePath, entry);
+        }
+      }
+    }
+  }
+
+  /**
+   * Writes this manifest to its path. The manifest is written to a temporary
+   * file first and moved to the target path afterwards, such that the 
+   * manifest is never left in a partial state.
+   */
+  public synchronized void write() throws IOException {
+    Path parent = this.path.toAbsolutePath().getParent();
+    if (parent != null) {
+      Files.createDirectories(parent);
+    }
+
+    List<String> keys = new ArrayList<>(this.entries.keySet());
+    Collections.sort(keys);
+
+    Path tmp = Files.createTempFile(parent, "manifest", ".tmp");
+    try {
+      try (BufferedWriter writer =
+          Files.newBufferedWriter(tmp, StandardCharsets.UTF_8)) {
+        writer.write(HEADER);
+        writer.newLine();
+        for (String key : keys) {
+          Entry entry = this.entries.get(key);
+          if (entry != null) {
+            writer.write(entry.toString());
+            writer.newLine();
+          }
+        }
+      }
+      Files.move(tmp, this.path, StandardCopyOption.REPLACE_EXISTING,
+          StandardCopyOption.ATOMIC_MOVE);
+    } finally {
+      Files.deleteIfExists(tmp);
+    }
+  }
+
+  // ---------------------------------------------------------------------------
+  // Some util methods.
+
+  /**
+   * Computes the SHA-256 hash of the content of the given file.
+   */
+  public static String hash(Path file) throws IOException {
+    MessageDigest digest = newDigest();
+    byte[] buffer = new byte[8192];
+    try (InputStream is = Files.newInputStream(file)) {
+      int n;
+      while ((n = is.read(buffer)) > 0) {
+        digest.update(buffer, 0, n);
+      }
+    }
+    return toHex(digest.digest());
+  }
+
+  /**
+   * Computes the SHA-256 hash of the given strings (which may be null).
+   */
+  public static String hash(String... strings) {
+    MessageDigest digest = newDigest();
+    for (String string : strings) {
+      if (string != null) {
+        digest.update(string.getBytes(StandardCharsets.UTF_8));
+      }
+      // Separate the strings, such that ("ab", "c") != ("a", "bc").
+      digest.update((byte) 0);
+    }
+    return toHex(digest.digest());
+  }
+
+  /**
+   * Returns a new SHA-256 message digest.
+   */
+  public static MessageDigest newDigest() {
+    try {
+      return MessageDigest.getInstance("SHA-256");
+    } catch (NoSuchAlgorithmException e) {
+      // Every Java platform is required to support SHA-256.
+      throw new IllegalStateException(e);
+    }
+  }
+
+  /**
+   * Returns the given bytes as a hex string.
+   */
+  public static String toHex(byte[] bytes) {
+    StringBuilder sb = new StringBuilder(bytes.length * 2);
+    for (byte b : bytes) {
+      sb.append(Character.forDigit((b >> 4) & 0xF, 16));
+      sb.append(Character.forDigit(b & 0xF, 16));
+    }
+    return sb.toString();
+  }
+
+  // ___________________________________________________________________________
+
+  /**
+   * The status of the processing of a tex file.
+   */
+  public enum Status {
+    /** The tex file was processed successfully. */
+    OK,
+    /** 
+     * The processing of the tex file failed for another reason (e.g., an I/O
+     * error), which may not repeat. 
+     */
+    FAILED,
+    /** The processing of the tex file exceeded its work budget. */
+    BUDGET_EXCEEDED,
+    /** The tex file couldn't be parsed. */
+    PARSE_ERROR;
+
+    /**
+     * Returns true, if the processing with the same input and configuration
+     * would end with this status again, such that the tex file doesn't need 
+     * to be reprocessed.
+     */
+    public boolean isFinal() {
+      return this != FAILED;
+    }
+
+    /**
+     * Returns the status of a processing that failed with the given error.
+     */
+    public static Status of(Throwable error) {
+      for (Throwable t = error; t != null; t = t.getCause()) {
+        if (t instanceof ParseException || t instanceof TokenMgrError) {
+          return PARSE_ERROR;
+        }
+        if (t instanceof TeXWorkBudgetExceededException) {
+          return BUDGET_EXCEEDED;
+        }
+      }
+      return FAILED;
+    }
+  }
+
+  /**
+   * The state of a tex file: its content hash, size and modification time.
+   */
+  public static class FileState {
+    /** The SHA-256 hash of the content. */
+    public final String contentHash;
+
+    /** The size of the file. */
+    public final long size;
+
+    /** The modification time of the file, in milliseconds. */
+    public final long lastModified;
+
+    /**
+     * Creates a new file state.
+     */
+    public FileState(String contentHash, long size, long lastModified) {
+      this.contentHash = contentHash;
+      this.size = size;
+      this.lastModified = lastModified;
+    }
+  }
+
+  /**
+   * An entry of the manifest.
+   */
+  public static class Entry {
+    /** The path of the tex file, relative to the input directory. */
+    public final String relativePath;
+
+    /** The SHA-256 hash of the content of the tex file. */
+    public final String contentHash;
+
+    /** The size of the tex file. */
+    public final long size;
+
+    /** The modification time of the tex file, in milliseconds. */
+    public final long lastModified;
+
+    /** The hash of the configuration the tex file was processed with. */
+    public final String configHash;
+
+    /** The path to the output file. */
+    public final String output;
+
+    /** The status of the processing. */
+    public final Status status;
+
+    /**
+     * Creates a new entry.
+     */
+    public Entry(String relativePath, String contentHash, long size,
+        long lastModified, String configHash, String output, Status status) {
+      this.relativePath = relativePath;
+      this.contentHash = contentHash;
+      this.size = size;
+      this.lastModified = lastModified;
+      this.configHash = configHash;
+      this.output = output;
+      this.status = status;
+    }
+
+    /**
+     * Parses an entry from the given line of a manifest file. Returns null if
+     * the line isn't a valid entry.
+     */
+    static Entry parse(String line) {
+      String[] fields = line.split(SEPARATOR, -1);
+      if (fields.length != 7) {
+        return null;
+      }
+      try {
+        return new Entry(fields[0], fields[1], Long.parseLong(fields[2]),
+            Long.parseLong(fields[3]), fields[4], fields[5],
+            Status.valueOf(fields[6]));
+      } catch (IllegalArgumentException e) {
+        return null;
+      }
+    }
+
+    @Override
+    public String toString() {
+      return relativePath + SEPARATOR + contentHash + SEPARATOR + size
+          + SEPARATOR + lastModified + SEPARATOR + configHash + SEPARATOR
+          + output + SEPARATOR + status;
+    }
+  }
+}
@@ -0,0 +1,310 @@
+package metrics;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import de.freiburg.iif.metrics.Counter;
+import de.freiburg.iif.metrics.Histogram;
+import de.freiburg.iif.metrics.MetricsRegistry;
+import identifier.TeXParagraphsIdentifier;
+import parse.TeXWorkTracker;
+import scheduler.TeXFileScheduler;
+
+/**
+ * The metrics of a run of the paragraphs parser: the latencies of the stages
+ * of the pipeline (resolving the macros, parsing, identifying the paragraphs
+ * and serializing them) and of whole files, counters of processed files (per
+ * status), bytes, paragraphs, macro expansions and unresolved commands, and
+ * gauges of the throughput, the queue depth and the utilization of the
+ * worker threads.
+ *
+ * The metrics are collected in a {@link MetricsRegistry}, which can be
+ * scraped while the run is in progress (see MetricsHttpServer) and written
+ * as JSON summary at the end of the run. All methods may be called by
+ * multiple threads at the same time.
+ *
+ * @author Claudius Korzen
+ */
+public class TeXPipelineMetrics {
+  /**
+   * The prefix of the names of all metrics.
+   */
+  public static final String PREFIX = "texparagraphs_";
+
+  /**
+   * The upper bounds of the buckets of the latency histograms, in seconds
+   * (from 0.5ms to ~65s).
+   */
+  protected static final double[] LATENCY_BOUNDS =
+      Histogram.exponentialBounds(0.0005, 2, 18);
+
+  /**
+   * The registry of the metrics.
+   */
+  protected final MetricsRegistry registry = new MetricsRegistry();
+
+  /**
+   * The time when the run started, in nanoseconds.
+   */
+  protected final long startTime = System.nanoTime();
+
+  /**
+   * The time when the run ended, in nanoseconds (-1 while it is in progress).
+   */
+  protected volatile long endTime = -1;
+
+  /**
+   * The scheduler that processes the files (null until the files are
+   * processed).
+   */
+  protected volatile TeXFileScheduler scheduler;
+
+  /** The latency of resolving the macros. */
+  protected final Histogram resolveMacrosLatency;
+  /** The latency of parsing the resolved tex file. */
+  protected final Histogram parseLatency;
+  /** The latency of identifying the paragraphs. */
+  protected final Histogram identifyParagraphsLatency;
+  /** The latency of serializing the paragraphs. */
+  protected final Histogram serializeLatency;
+  /** The latency of processing whole files. */
+  protected final Histogram fileLatency;
+
+  /** The number of successfully processed files. */
+  protected final Counter numProcessedFiles;
+  /** The number of failed files. */
+  protected final Counter numFailedFiles;
+  /** The number of files that exceeded their work budget. */
+  protected final Counter numExceededBudgets;
+  /**
+   * The number of files that timed out, as recorded by 
+   * {@link #recordTimeout()} (the timeouts of the scheduler are counted by
+   * the scheduler).
+   */
+  protected final Counter numTimeouts = new Counter();
+  /** The number of files skipped because they are up to date. */
+  protected final Counter numSkippedFiles;
+  /** The number of bytes of the successfully processed files. */
+  protected final Counter numBytes;
+  /** The number of identified paragraphs. */
+  protected final Counter numParagraphs;
+  /** The number of visited elements. */
+  protected final Counter numElements;
+  /** The number of macro expansions. */
+  protected final Counter numExpansions;
+  /** The number of commands without an element reference. */
+  protected final Counter numUnresolvedCommands;
+
+  /**
+   * Creates and registers the metrics of a new run.
+   */
+  public TeXPipelineMetrics() {
+    String stageHelp = "The time spent on a stage of the pipeline per file.";
+    String stage = PREFIX + "stage_duration_seconds";
+    resolveMacrosLatency = registry.histogram(stage, stageHelp,
+        LATENCY_BOUNDS, "stage", "resolve_macros");
+    parseLatency = registry.histogram(stage, stageHelp, LATENCY_BOUNDS,
+        "stage", "parse");
+    identifyParagraphsLatency = registry.histogram(stage, stageHelp,
+        LATENCY_BOUNDS, "stage", "identify_paragraphs");
+    serializeLatency = registry.histogram(stage, stageHelp, LATENCY_BOUNDS,
+        "stage", "serialize");
+    fileLatency = registry.histogram(PREFIX + "file_duration_seconds",
+        "The time spent on processing a file (including retries).",
+        LATENCY_BOUNDS);
+
+    String filesHelp = "The number of files, per status.";
+    String files = PREFIX + "files_total";
+    numProcessedFiles = registry.counter(files, filesHelp, "status", "ok");
+    numFailedFiles = registry.counter(files, filesHelp, "status", "failed");
+    numExceededBudgets = registry.counter(files, filesHelp,
+        "status", "budget_exceeded");
+    registry.counter(files, filesHelp, () -> numTimeouts.get()
+        + (getScheduler() != null ? getScheduler().getNumTimeouts() : 0),
+        "status", "timeout");
+    numSkippedFiles = registry.counter(files, filesHelp, "status", "skipped");
+
+    numBytes = registry.counter(PREFIX + "input_bytes_total",
+        "The number of bytes of the successfully processed files.");
+    numParagraphs = registry.counter(PREFIX + "paragraphs_total",
+        "The number of identified paragraphs.");
+    numElements = registry.counter(PREFIX + "elements_total",
+        "The number of elements parsed, resolved and processed.");
+    numExpansions = registry.counter(PREFIX + "macro_expansions_total",
+        "The number of macro expansions.");
+    numUnresolvedCommands = registry.counter(
+        PREFIX + "unresolved_commands_total",
+        "The number of commands without an element reference.");
+
+    registry.gauge(PREFIX + "files_per_second",
+        "The number of successfully processed files per second of the run.",
+        () -> numProcessedFiles.get() / getElapsedSeconds());
+    registry.gauge(PREFIX + "bytes_per_second",
+        "The number of bytes processed successfully per second of the run.",
+        () -> numBytes.get() / getElapsedSeconds());
+    registry.gauge(PREFIX + "queued_files",
+        "The number of files whose processing didn't start yet.",
+        () -> getScheduler() != null ? getScheduler().getNumQueuedFiles() : 0);
+    registry.gauge(PREFIX + "active_files", "The number of files in process.",
+        () -> getScheduler() != null ? getScheduler().getNumActiveFiles() : 0);
+    registry.gauge(PREFIX + "worker_threads",
+        "The number of files processed in parallel.",
+        () -> getScheduler() != null ? getScheduler().getParallelism() : 0);
+    registry.counter(PREFIX + "worker_busy_seconds_total",
+        "The time spent on processing files, summed over all workers.",
+        () -> getBusySeconds());
+    registry.gauge(PREFIX + "worker_utilization",
+        "The fraction of the run the workers were busy, on average.",
+        () -> getUtilization());
+    registry.gauge(PREFIX + "elapsed_seconds",
+        "The time since the start of the run.", () -> getElapsedSeconds());
+  }
+
+  // ___________________________________________________________________________
+  // Recording.
+
+  /**
+   * Sets the scheduler that processes the files, whose queue depth and
+   * utilization is exposed.
+   */
+  public void setScheduler(TeXFileScheduler scheduler) {
+    this.scheduler = scheduler;
+  }
+
+  /**
+   * Records the stages of the given (finished) identification, i.e. the
+   * latencies of resolving the macros, parsing and identifying the paragraphs
+   * and the work it spent.
+   */
+  public void recordIdentification(TeXParagraphsIdentifier identifier) {
+    resolveMacrosLatency.observeNanos(identifier.getResolveMacrosNanos());
+    parseLatency.observeNanos(identifier.getParseNanos());
+    identifyParagraphsLatency.observeNanos(
+        identifier.getIdentifyParagraphsNanos());
+    numParagraphs.add(identifier.getNumParagraphs());
+    numUnresolvedCommands.add(identifier.getNumUnresolvedCommands());
+
+    TeXWorkTracker tracker = identifier.getWorkTracker();
+    if (tracker != null) {
+      numElements.add(tracker.getNumElements());
+      numExpansions.add(tracker.getNumExpansions());
+    }
+  }
+
+  /**
+   * Records the time spent on serializing the paragraphs of a file.
+   */
+  public void recordSerialization(long nanos) {
+    serializeLatency.observeNanos(nanos);
+  }
+
+  /**
+   * Records a successfully processed file of the given size.
+   */
+  public void recordProcessedFile(long nanos, long numBytes) {
+    this.fileLatency.observeNanos(nanos);
+    this.numProcessedFiles.inc();
+    this.numBytes.add(numBytes);
+  }
+
+  /**
+   * Records a file whose processing failed.
+   */
+  public void recordFailedFile() {
+    this.numFailedFiles.inc();
+  }
+
+  /**
+   * Records a file that exceeded its work budget (on all attempts).
+   */
+  public void recordExceededBudget() {
+    this.numExceededBudgets.inc();
+  }
+
+  /**
+   * Records a file whose processing timed out (if the timeout isn't enforced
+   * by the scheduler).
+   */
+  public void recordTimeout() {
+    this.numTimeouts.inc();
+  }
+
+  /**
+   * Records a file that was skipped because it is up to date.
+   */
+  public void recordSkippedFile() {
+    this.numSkippedFiles.inc();
+  }
+
+  /**
+   * Marks the end of the run, such that the rates and the utilization refer
+   * to the duration of the run.
+   */
+  public void stop() {
+    if (this.endTime < 0) {
+      this.endTime = System.nanoTime();
+    }
+  }
+
+  // ___________________________________________________________________________
+
+  /**
+   * Writes the metrics as JSON summary to the given file.
+   */
+  public void writeSummary(Path file) throws IOException {
+    Path parent = file.toAbsolutePath().getParent();
+    if (parent != null) {
+      Files.createDirectories(parent);
+    }
+    try (Writer writer = Files.newBufferedWriter(file,
+        StandardCharsets.UTF_8)) {
+      this.registry.writeJson(writer);
+    }
+  }
+
+  /**
+   * Returns the registry of the metrics.
+   */
+  public MetricsRegistry getRegistry() {
+    return this.registry;
+  }
+
+  /**
+   * Returns the scheduler that processes the files (may be null).
+   */
+  public TeXFileScheduler getScheduler() {
+    return this.scheduler;
+  }
+
+  /**
+   * Returns the duration of the run (so far), in seconds.
+   */
+  public double getElapsedSeconds() {
+    long end = this.endTime >= 0 ? this.endTime : System.nanoTime();
+    return (end - this.startTime) / 1e9;
+  }
+
+  /**
+   * Returns the time spent on processing files, summed over all workers, in
+   * seconds.
+   */
+  public double getBusySeconds() {
+    TeXFileScheduler scheduler = getScheduler();
+    return scheduler != null ? scheduler.getBusyNanos() / 1e9 : 0;
+  }
+
+  /**
+   * Returns the fraction of the run the workers were busy, on average.
+   */
+  public double getUtilization() {
+    TeXFileScheduler scheduler = getScheduler();
+    if (scheduler == null) {
+      return 0;
+    }
+    return getBusySeconds() / (scheduler.getParallelism()
+        * getElapsedSeconds());
+  }
+}
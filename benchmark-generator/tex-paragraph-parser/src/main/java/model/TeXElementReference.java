@@ -17,7 +17,7 @@ public class TeXElementReference {
   /**
    * The underlying array containing the various metadata fields.
    */
-  protected String[] fields;
+  protected final String[] fields;
 
   /**
    * Creates a new reference based on the given metadata array.
@@ -33,6 +33,21 @@ public class TeXElementReference {
     return getString(0);
   }
 
+  /**
+   * Returns the number of metadata fields of this reference.
+   */
+  public int getNumFields() {
+    return fields.length;
+  }
+
+  /**
+   * Returns the raw value of the i-th metadata field (as read from the
+   * references file, without any further unescaping).
+   */
+  public String getField(int index) {
+    return fields[index];
+  }
+
   // ___________________________________________________________________________
 
   /**
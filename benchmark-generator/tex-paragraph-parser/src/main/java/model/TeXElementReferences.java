@@ -1,19 +1,39 @@
 package model;
 
+import static model.TeXParagraphParserSettings.TEX_ELEMENT_REFERENCES_PATH;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
 import java.io.BufferedReader;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.io.OutputStream;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 
 import org.apache.commons.lang3.StringEscapeUtils;
 
+import de.freiburg.iif.collection.PrefixTrie;
+
 /**
  * The available references for tex elements.
+ * 
+ * Instances are immutable once created and hence can be shared between
+ * threads. Use {@link #getDefault()} to get the process-wide instance that is
+ * loaded only once per JVM.
  *
  * @author Claudius Korzen
  */
@@ -23,17 +43,228 @@ public class TeXElementReferences {
    */
   static final String ELEMENT_REFERENCES_SEPARATOR = ",";
 
+  /**
+   * The magic number that introduces a binary snapshot of element references.
+   */
+  static final int SNAPSHOT_MAGIC = 0x54455852; // "TEXR"
+
+  /**
+   * The version of the binary snapshot format.
+   */
+  static final int SNAPSHOT_VERSION = 2;
+
+  /**
+   * The process-wide default instance.
+   */
+  protected static volatile TeXElementReferences defaultInstance;
+
   /**
    * The element references.
    */
-  protected Map<String, List<TeXElementReference>> references;
+  protected final Map<String, List<TeXElementReference>> references;
+
+  /**
+   * The element references, indexed by their keys to allow a fast lookup of
+   * the longest key that is a prefix of a given element.
+   */
+  protected final PrefixTrie<List<TeXElementReference>> referencesIndex;
+
+  /**
+   * The number of element references.
+   */
+  protected final int numReferences;
+
+  /**
+   * The time needed to load the references, in milliseconds.
+   */
+  protected final long loadTime;
+
+  /**
+   * The fingerprint of the references (a hash over all their fields).
+   */
+  protected final String fingerprint;
+
+  /**
+   * The hash of the references file the references were read from.
+   */
+  protected final String sourceHash;
 
   /**
    * Creates a new element references object based on the given path to the file
    * where the metadata are stored.
    */
   public TeXElementReferences(String path) throws IOException {
-    this.references = readReferences(path);
+    long start = System.nanoTime();
+    this.references = freeze(readReferences(path));
+    this.referencesIndex = index(this.references);
+    this.numReferences = countReferences(this.references);
+    this.fingerprint = computeFingerprint(this.references);
+    this.sourceHash = computeSourceHash(path);
+    this.loadTime = (System.nanoTime() - start) / 1000000;
+  }
+
+  /**
+   * Creates a new element references object from the given (already read)
+   * references, read from a references file with the given hash.
+   */
+  protected TeXElementReferences(Map<String, List<TeXElementReference>> refs,
+      String sourceHash, long loadTime) {
+    this.references = freeze(refs);
+    this.referencesIndex = index(this.references);
+    this.numReferences = countReferences(this.references);
+    this.fingerprint = computeFingerprint(this.references);
+    this.sourceHash = sourceHash;
+    this.loadTime = loadTime;
+  }
+
+  // ---------------------------------------------------------------------------
+
+  /**
+   * Returns the process-wide element references. They are read from
+   * {@link TeXParagraphParserSettings#TEX_ELEMENT_REFERENCES_PATH} on first
+   * access, unless another instance was installed via
+   * {@link #setDefault(TeXElementReferences)} before.
+   */
+  public static TeXElementReferences getDefault() throws IOException {
+    TeXElementReferences refs = defaultInstance;
+    if (refs == null) {
+      synchronized (TeXElementReferences.class) {
+        refs = defaultInstance;
+        if (refs == null) {
+          refs = new TeXElementReferences(TEX_ELEMENT_REFERENCES_PATH);
+          defaultInstance = refs;
+        }
+      }
+    }
+    return refs;
+  }
+
+  /**
+   * Installs the given element references as the process-wide instance.
+   */
+  public static void setDefault(TeXElementReferences refs) {
+    synchronized (TeXElementReferences.class) {
+      defaultInstance = refs;
+    }
+  }
+
+  // ---------------------------------------------------------------------------
+
+  /**
+   * Returns the element references from the binary snapshot at the given 
+   * path, if the snapshot was created from the current references file 
+   * ({@link TeXParagraphParserSettings#TEX_ELEMENT_REFERENCES_PATH}). 
+   * Otherwise, the references are read from the references file and the 
+   * snapshot is (re-)created.
+   */
+  public static TeXElementReferences loadSnapshot(Path path)
+    throws IOException {
+    if (Files.isRegularFile(path)) {
+      String sourceHash = computeSourceHash(TEX_ELEMENT_REFERENCES_PATH);
+      if (sourceHash.equals(readSnapshotSourceHash(path))) {
+        return readSnapshot(path);
+      }
+    }
+    TeXElementReferences refs = getDefault();
+    refs.writeSnapshot(path);
+    return refs;
+  }
+
+  /**
+   * Returns the hash of the references file the snapshot at the given path 
+   * was created from, or null if the file isn't a snapshot of the current 
+   * version.
+   */
+  public static String readSnapshotSourceHash(Path path) throws IOException {
+    try (InputStream is = Files.newInputStream(path);
+        DataInputStream in =
+            new DataInputStream(new BufferedInputStream(is))) {
+      if (in.readInt() != SNAPSHOT_MAGIC || in.readInt() != SNAPSHOT_VERSION) {
+        return null;
+      }
+      return in.readUTF();
+    } catch (EOFException e) {
+      return null;
+    }
+  }
+
+  /**
+   * Reads element references from the binary snapshot at the given path, as
+   * written by {@link #writeSnapshot(Path)}.
+   */
+  public static TeXElementReferences readSnapshot(Path path)
+    throws IOException {
+    long start = System.nanoTime();
+    Map<String, List<TeXElementReference>> refs = new LinkedHashMap<>();
+    String sourceHash;
+    try (InputStream is = Files.newInputStream(path);
+        DataInputStream in =
+            new DataInputStream(new BufferedInputStream(is))) {
+      if (in.readInt() != SNAPSHOT_MAGIC) {
+        throw new IOException("Not a snapshot of element references: " + path);
+      }
+      int version = in.readInt();
+      if (version != SNAPSHOT_VERSION) {
+        throw new IOException("Unsupported snapshot version: " + version);
+      }
+      sourceHash = in.readUTF();
+
+      int numKeys = in.readInt();
+      for (int i = 0; i < numKeys; i++) {
+        String key = readNullableString(in);
+        int numRefs = in.readInt();
+        List<TeXElementReference> list = new ArrayList<>(numRefs);
+        for (int j = 0; j < numRefs; j++) {
+          String[] fields = new String[in.readInt()];
+          for (int k = 0; k < fields.length; k++) {
+            fields[k] = readNullableString(in);
+          }
+          list.add(new TeXElementReference(fields));
+        }
+        refs.put(key, list);
+      }
+    }
+    return new TeXElementReferences(refs, sourceHash,
+        (System.nanoTime() - start) / 1000000);
+  }
+
+  /**
+   * Writes these element references as a binary snapshot to the given path,
+   * together with the hash of the references file they were read from. The
+   * snapshot is written to a temporary file first and moved to the target
+   * path afterwards, such that concurrent readers never see a partial file.
+   */
+  public void writeSnapshot(Path path) throws IOException {
+    Path parent = path.toAbsolutePath().getParent();
+    if (parent != null) {
+      Files.createDirectories(parent);
+    }
+    Path tmp = Files.createTempFile(parent, "element-references", ".tmp");
+    try {
+      try (OutputStream os = Files.newOutputStream(tmp);
+          DataOutputStream out =
+              new DataOutputStream(new BufferedOutputStream(os))) {
+        out.writeInt(SNAPSHOT_MAGIC);
+        out.writeInt(SNAPSHOT_VERSION);
+        out.writeUTF(this.sourceHash);
+        out.writeInt(this.references.size());
+        for (Map.Entry<String, List<TeXElementReference>> entry
+            : this.references.entrySet()) {
+          writeNullableString(out, entry.getKey());
+          out.writeInt(entry.getValue().size());
+          for (TeXElementReference ref : entry.getValue()) {
+            out.writeInt(ref.getNumFields());
+            for (int k = 0; k < ref.getNumFields(); k++) {
+              writeNullableString(out, ref.getField(k));
+            }
+          }
+        }
+      }
+      Files.move(tmp, path, StandardCopyOption.REPLACE_EXISTING,
+          StandardCopyOption.ATOMIC_MOVE);
+    } finally {
+      Files.deleteIfExists(tmp);
+    }
   }
 
   // ---------------------------------------------------------------------------
@@ -45,6 +276,60 @@ public class TeXElementReferences {
     return this.references;
   }
 
+  /**
+   * Returns the number of element references.
+   */
+  public int getNumElementReferences() {
+    return this.numReferences;
+  }
+
+  /**
+   * Returns the time needed to load the element references, in milliseconds.
+   */
+  public long getLoadTime() {
+    return this.loadTime;
+  }
+
+  /**
+   * Returns the fingerprint of the element references, i.e. a SHA-256 hash 
+   * over all fields of all references (in hex). Changes whenever a reference
+   * changes.
+   */
+  public String getFingerprint() {
+    return this.fingerprint;
+  }
+
+  /**
+   * Returns the SHA-256 hash (in hex) of the references file the references
+   * were read from.
+   */
+  public String getSourceHash() {
+    return this.sourceHash;
+  }
+
+  /**
+   * Returns a rough estimation of the heap memory occupied by the element
+   * references, in bytes (assuming a 64-bit JVM with compressed oops).
+   */
+  public long estimateMemoryFootprint() {
+    // The map itself: header + table + one node per entry.
+    long bytes = 48 + 4 * Integer.highestOneBit(this.references.size() * 2);
+    for (Map.Entry<String, List<TeXElementReference>> e
+        : this.references.entrySet()) {
+      bytes += 40 + estimateMemoryFootprint(e.getKey());
+      // The (unmodifiable) list: wrapper + array list + backing array.
+      bytes += 16 + 24 + 16 + 4 * e.getValue().size();
+      for (TeXElementReference ref : e.getValue()) {
+        // The reference object + its fields array.
+        bytes += 16 + 16 + 4 * ref.getNumFields();
+        for (int i = 0; i < ref.getNumFields(); i++) {
+          bytes += estimateMemoryFootprint(ref.getField(i));
+        }
+      }
+    }
+    return bytes;
+  }
+
   /**
    * Returns true, if the given element has a reference.
    */
@@ -77,21 +362,15 @@ public class TeXElementReferences {
     // The references file mostly contains *prefixes* to describe a command,
     // for example: "\title" for a command "\title{foo bar}".
     // So, to identify the correct reference for the given element we have to
-    // check for prefixes.
-    // TODO: Avoid the iteration through the whole map and disambiguate.
-    String matchingKey = null;
-    for (String key : this.references.keySet()) {
-      if (key != null && elementString.startsWith(key)) {
-        // Find the *longest* common prefix.
-        if (matchingKey == null || key.length() > matchingKey.length()) {
-          matchingKey = key;
-        }
-      }
-    }
+    // find the *longest* key that is a prefix of the element.
+    Map.Entry<String, List<TeXElementReference>> match =
+        this.referencesIndex.getLongestPrefixEntry(elementString);
 
     List<TeXElementReference> candidates = null;
 
-    if (matchingKey != null) {
+    if (match != null) {
+      String matchingKey = match.getKey();
+
       if (element instanceof Command) {
         Command cmd = (Command) element;
 
@@ -99,10 +378,10 @@ public class TeXElementReferences {
         // contain the whole command name, i.e. it is not allowed to match the
         // command \title{foo bar}" to a reference "\t".
         if (matchingKey.contains(cmd.getName())) {
-          candidates = this.references.get(matchingKey);
+          candidates = match.getValue();
         }
       } else {
-        candidates = this.references.get(matchingKey);
+        candidates = match.getValue();
       }
     }
 
@@ -154,7 +433,7 @@ public class TeXElementReferences {
    */
   protected Map<String, List<TeXElementReference>> readReferences(String path)
     throws IOException {
-    Map<String, List<TeXElementReference>> references = new HashMap<>();
+    Map<String, List<TeXElementReference>> references = new LinkedHashMap<>();
     try (InputStream is = getClass().getResourceAsStream(path);
         InputStreamReader isr =
             new InputStreamReader(is, StandardCharsets.UTF_8);
@@ -193,4 +472,140 @@ public class TeXElementReferences {
 
     return references;
   }
-}
\ No newline at end of file
+
+  // ---------------------------------------------------------------------------
+  // Some util methods.
+
+  /**
+   * Returns an unmodifiable view of the given references, where also the lists
+   * of references are unmodifiable.
+   */
+  protected static Map<String, List<TeXElementReference>> freeze(
+      Map<String, List<TeXElementReference>> refs) {
+    Map<String, List<TeXElementReference>> frozen = new LinkedHashMap<>();
+    for (Map.Entry<String, List<TeXElementReference>> e : refs.entrySet()) {
+      frozen.put(e.getKey(), Collections.unmodifiableList(
+          new ArrayList<TeXElementReference>(e.getValue())));
+    }
+    return Collections.unmodifiableMap(frozen);
+  }
+
+  /**
+   * Builds a prefix trie over the keys of the given references.
+   */
+  protected static PrefixTrie<List<TeXElementReference>> index(
+      Map<String, List<TeXElementReference>> refs) {
+    PrefixTrie<List<TeXElementReference>> trie = new PrefixTrie<>();
+    for (Map.Entry<String, List<TeXElementReference>> e : refs.entrySet()) {
+      // Keys are never null in practice, but the former linear scan skipped
+      // null keys, too.
+      if (e.getKey() != null) {
+        trie.put(e.getKey(), e.getValue());
+      }
+    }
+    return trie;
+  }
+
+  /**
+   * Computes the fingerprint of the given references.
+   */
+  protected static String computeFingerprint(
+      Map<String, List<TeXElementReference>> refs) {
+    MessageDigest digest = newDigest();
+
+    for (List<TeXElementReference> list : refs.values()) {
+      for (TeXElementReference ref : list) {
+        for (int i = 0; i < ref.getNumFields(); i++) {
+          String field = ref.getField(i);
+          if (field != null) {
+            digest.update(field.getBytes(StandardCharsets.UTF_8));
+          }
+          digest.update((byte) 0);
+        }
+        digest.update((byte) '\n');
+      }
+    }
+    return toHex(digest.digest());
+  }
+
+  /**
+   * Computes the hash of the references file (a resource) at the given path.
+   */
+  protected static String computeSourceHash(String path) throws IOException {
+    MessageDigest digest = newDigest();
+    try (InputStream is =
+        TeXElementReferences.class.getResourceAsStream(path)) {
+      if (is == null) {
+        throw new IOException("No element references found at: " + path);
+      }
+      byte[] buffer = new byte[8192];
+      int n;
+      while ((n = is.read(buffer)) > 0) {
+        digest.update(buffer, 0, n);
+      }
+    }
+    return toHex(digest.digest());
+  }
+
+  /**
+   * Returns a new SHA-256 message digest.
+   */
+  protected static MessageDigest newDigest() {
+    try {
+      return MessageDigest.getInstance("SHA-256");
+    } catch (NoSuchAlgorithmException e) {
+      // Every Java platform is required to support SHA-256.
+      throw new IllegalStateException(e);
+    }
+  }
+
+  /**
+   * Returns the given bytes in hex.
+   */
+  protected static String toHex(byte[] bytes) {
+    StringBuilder sb = new StringBuilder();
+    for (byte b : bytes) {
+      sb.append(String.format("%02x", b));
+    }
+    return sb.toString();
+  }
+
+  /**
+   * Counts the references in the given map.
+   */
+  protected static int countReferences(
+      Map<String, List<TeXElementReference>> refs) {
+    int num = 0;
+    for (List<TeXElementReference> list : refs.values()) {
+      num += list.size();
+    }
+    return num;
+  }
+
+  /**
+   * Returns a rough estimation of the heap memory occupied by the given string.
+   */
+  protected static long estimateMemoryFootprint(String string) {
+    return string != null ? 24 + 16 + 2 * string.length() : 0;
+  }
+
+  /**
+   * Writes the given string, which may be null, to the given output.
+   */
+  protected static void writeNullableString(DataOutputStream out, String str)
+    throws IOException {
+    out.writeBoolean(str != null);
+    if (str != null) {
+      out.writeUTF(str);
+    }
+  }
+
+  /**
+   * Reads a string written by
+   * {@link #writeNullableString(DataOutputStream, String)}.
+   */
+  protected static String readNullableString(DataInputStream in)
+    throws IOException {
+    return in.readBoolean() ? in.readUTF() : null;
+  }
+}
@@ -7,6 +7,8 @@ import java.nio.file.Path;
 import java.util.ArrayList;
 import java.util.List;
 
+import parse.TeXSource;
+
 /**
  * A class representing a TeX file.
  * 
@@ -52,6 +54,12 @@ public class TeXFile {
    * The parsed document.
    */
   protected Document document;
+
+  /**
+   * The content of this tex file, if it is given in memory (null if the 
+   * content is read from the path).
+   */
+  protected final TeXSource content;
   
   /**
    * Creates a new instance of TeXFile.
@@ -62,6 +70,21 @@ public class TeXFile {
     
     this.texFile = texFile;
     this.texParagraphs = new ArrayList<>();
+    this.content = null;
+  }
+
+  /**
+   * Creates a new instance of TeXFile with the given content (e.g., uploaded
+   * to a service). The given path only names the file, it doesn't need to
+   * exist.
+   */
+  public TeXFile(Path texFile, TeXSource content) {
+    affirm(texFile != null);
+    affirm(content != null, "No content given.");
+
+    this.texFile = texFile;
+    this.texParagraphs = new ArrayList<>();
+    this.content = content;
   }
 
   // ---------------------------------------------------------------------------
@@ -73,6 +96,24 @@ public class TeXFile {
     return texFile;
   }
   
+  /**
+   * Returns the content of this tex file, if it is given in memory (null if
+   * the content must be read from the path).
+   */
+  public TeXSource getContent() {
+    return content;
+  }
+
+  /**
+   * Returns the path to this tex file, relative to the base directory.
+   */
+  public Path getRelativePath() {
+    if (baseDirectory != null) {
+      return baseDirectory.relativize(texFile);
+    }
+    return null;
+  }
+
   /**
    * Returns the path to the temporary tex file.
    */
@@ -84,7 +125,7 @@ public class TeXFile {
    * Returns the relative path to the temporary tex file.
    */
   public Path getRelativeTmpPath() {
-    if (baseDirectory != null) {
+    if (baseDirectory != null && tmpTexFile != null) {
       return baseDirectory.relativize(tmpTexFile);  
     }
     return null;
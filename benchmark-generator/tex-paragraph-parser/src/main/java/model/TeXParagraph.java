@@ -1,11 +1,9 @@
 package model;
 
 import java.util.ArrayList;
-import java.util.Collections;
-import java.util.HashSet;
 import java.util.List;
 
-import de.freiburg.iif.collection.CollectionUtils;
+import de.freiburg.iif.collection.IntRangeSet;
 
 /**
  * A paragraph in a tex file.
@@ -28,7 +26,7 @@ public class TeXParagraph {
   /**
    * The words of this paragraph.
    */
-  protected List<TeXWord> texWords;
+  protected TeXWordBuffer texWords;
   
   /**
    * The TeX elements.
@@ -41,19 +39,9 @@ public class TeXParagraph {
   protected boolean introduceWhitespace;
 
   /**
-   * The line numbers of this paragraphs in a set (to avoid duplicates).
+   * The line numbers of this paragraph, as ranges of consecutive lines.
    */
-  protected HashSet<Integer> texLineNumsSet;
-
-  /**
-   * The line numbers in a list (without duplicates).
-   */
-  protected List<Integer> texLineNums;
-
-  /**
-   * Flag to indicate whether the list of page numbers must be recomputed.
-   */
-  protected boolean needTexLineNumbersUpdate;
+  protected IntRangeSet texLineNums;
 
   /**
    * The first element in this paragraph which is not a whitespace.
@@ -78,10 +66,9 @@ public class TeXParagraph {
   public TeXParagraph(String role) {
     this.role = role;
     this.textBuilder = new StringBuilder();
-    this.texLineNumsSet = new HashSet<>();
-    this.texLineNums = new ArrayList<>();
+    this.texLineNums = new IntRangeSet();
     this.texElements = new ArrayList<>();
-    this.texWords = new ArrayList<>();
+    this.texWords = new TeXWordBuffer();
   }
 
   // ---------------------------------------------------------------------------
@@ -122,15 +109,13 @@ public class TeXParagraph {
 //    }
 //    textBuilder.append(text);
         
-    if (introduceWhitespace || texWords.isEmpty()) {
+    if (introduceWhitespace || texWords.getNumWords() == 0) {
       int lineNumber = element.getBeginLineNumber();
       int columnNumber = element.getEndColumnNumber();
-      TeXWord word = new TeXWord(text, lineNumber, columnNumber);
-      texWords.add(word);
+      texWords.startWord(text, lineNumber, columnNumber);
       introduceWhitespace = false;
     } else {
-      TeXWord word = texWords.get(texWords.size() - 1);
-      word.text += text;
+      texWords.appendToWord(text);
     }
   }
 
@@ -142,10 +127,28 @@ public class TeXParagraph {
 //  }
   
   public String getText() {
-    return CollectionUtils.join(texWords, " ");
+    return texWords.toString();
   }
-  
+
+  /**
+   * Returns true, if the text of this paragraph is not empty.
+   */
+  public boolean hasText() {
+    return texWords.length() > 0;
+  }
+
+  /**
+   * Returns the words of this paragraph in a (new) list.
+   */
   public List<TeXWord> getWords() {
+    return texWords.getWords();
+  }
+
+  /**
+   * Returns the buffer that holds the words of this paragraph. The text can
+   * be written from it without creating strings.
+   */
+  public TeXWordBuffer getWordBuffer() {
     return texWords;
   }
 
@@ -179,17 +182,8 @@ public class TeXParagraph {
     }
     lastNonWhitespaceElement = element;
     
-    int beginLine = element.getBeginLineNumber();
-    int endLine = element.getEndLineNumber();
-
-    if (!texLineNumsSet.contains(beginLine)) {
-      texLineNumsSet.add(beginLine);
-      needTexLineNumbersUpdate = true;
-    }
-    if (!texLineNumsSet.contains(endLine)) {
-      texLineNumsSet.add(endLine);
-      needTexLineNumbersUpdate = true;
-    }
+    texLineNums.add(element.getBeginLineNumber());
+    texLineNums.add(element.getEndLineNumber());
   }
 
   /**
@@ -214,28 +208,28 @@ public class TeXParagraph {
   }
 
   /**
-   * Returns the tex line numbers of this paragraph in a list. This list is
-   * sorted in ascending order and contains *no* duplicates.
+   * Returns the tex line numbers of this paragraph. The ranges of the set can
+   * be iterated without allocations (see {@link IntRangeSet#getNumRanges()}).
+   * The set is owned by this paragraph and must not be modified.
    */
-  public List<Integer> getTexLineNumbers() {
-    // The list is derived from the set of line numbers. Check if we have to
-    // recompute this list (because the set of line numbers changed).
-    if (this.needTexLineNumbersUpdate) {
-      this.texLineNums = computeTexLineNumbers();
-      this.needTexLineNumbersUpdate = false;
-    }
+  public IntRangeSet getTexLineNumberSet() {
     return this.texLineNums;
   }
 
+  /**
+   * Returns the tex line numbers of this paragraph in a (new) list. This list
+   * is sorted in ascending order and contains *no* duplicates.
+   */
+  public List<Integer> getTexLineNumbers() {
+    return this.texLineNums.toList();
+  }
+
   /**
    * Computes the sorted list of line numbers (with no duplicates) from the set
    * of line numbers.
    */
   public List<Integer> computeTexLineNumbers() {
-    List<Integer> texLineNums = new ArrayList<>(texLineNumsSet);
-    // Sort the line numbers in ascending order.
-    Collections.sort(texLineNums);
-    return texLineNums;
+    return this.texLineNums.toList();
   }
 
   // ---------------------------------------------------------------------------
@@ -244,29 +238,21 @@ public class TeXParagraph {
    * Returns true, if the text in this paragraph is empty, false otherwise.
    */
   public boolean isEmpty() {
-    return getTexLineNumbers().isEmpty();
+    return texLineNums.isEmpty();
   }
 
   /**
    * Returns the start line of this paragraph in tex file.
    */
   public int getTexStartLine() {
-    List<Integer> lineNums = getTexLineNumbers();
-    if (!lineNums.isEmpty()) {
-      return lineNums.get(0);
-    }
-    return -1;
+    return texLineNums.isEmpty() ? -1 : texLineNums.first();
   }
 
   /**
    * Returns the end line of this paragraph in tex file.
    */
   public int getTexEndLine() {
-    List<Integer> lineNums = getTexLineNumbers();
-    if (!lineNums.isEmpty()) {
-      return lineNums.get(lineNums.size() - 1);
-    }
-    return -1;
+    return texLineNums.isEmpty() ? -1 : texLineNums.last();
   }
   
   public int getOutlineLevel() {
@@ -279,6 +265,6 @@ public class TeXParagraph {
 
   @Override
   public String toString() {
-    return role + " " + getTexLineNumbers().toString();
+    return role + " " + texLineNums.toString();
   }
 }
@@ -2,6 +2,7 @@ package model;
 
 import static de.freiburg.iif.collection.CollectionUtils.toList;
 
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
@@ -49,4 +50,25 @@ public class TeXParagraphParserSettings {
     
     return profiles;
   }
+
+  /**
+   * Resolves the given roles, where the names of role profiles are replaced
+   * by the roles of the profiles. Returns null if the given roles are null.
+   */
+  public static List<String> resolveRoles(List<String> roles) {
+    if (roles == null) {
+      return null;
+    }
+
+    Map<String, List<String>> roleProfiles = getRoleProfiles();
+    List<String> resolvedRoles = new ArrayList<>();
+    for (String role : roles) {
+      if (roleProfiles.containsKey(role)) {
+        resolvedRoles.addAll(roleProfiles.get(role));
+      } else {
+        resolvedRoles.add(role);
+      }
+    }
+    return resolvedRoles;
+  }
 }
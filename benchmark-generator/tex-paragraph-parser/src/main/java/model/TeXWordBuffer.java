@@ -0,0 +1,258 @@
+package model;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.CharBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * The words of a paragraph, in a single growable char buffer. The words are
+ * separated by a single whitespace, so the buffer holds the text of the
+ * paragraph as it is (no need to join the words). Each word is given by its
+ * offset in the buffer and by its line number and column number in the tex
+ * file.
+ *
+ * Text is only appended to the last word, such that a word can grow without
+ * creating a new string per fragment. Strings are only created on demand;
+ * serializers can write (parts of) the buffer directly to a writer.
+ *
+ * @author Claudius Korzen
+ */
+public class TeXWordBuffer implements CharSequence {
+  /**
+   * The characters of the words.
+   */
+  protected char[] chars;
+
+  /**
+   * The number of characters in the buffer.
+   */
+  protected int length;
+
+  /**
+   * The offsets of the words in the buffer.
+   */
+  protected int[] wordStarts;
+
+  /**
+   * The line numbers of the words.
+   */
+  protected int[] lineNumbers;
+
+  /**
+   * The column numbers of the words.
+   */
+  protected int[] columnNumbers;
+
+  /**
+   * The number of words.
+   */
+  protected int numWords;
+
+  /**
+   * Creates a new empty buffer.
+   */
+  public TeXWordBuffer() {
+    this.chars = new char[64];
+    this.wordStarts = new int[8];
+    this.lineNumbers = new int[8];
+    this.columnNumbers = new int[8];
+  }
+
+  // ---------------------------------------------------------------------------
+
+  /**
+   * Starts a new word with the given text at the given position in the tex
+   * file.
+   */
+  public void startWord(CharSequence text, int lineNumber, int columnNumber) {
+    if (numWords == wordStarts.length) {
+      int capacity = 2 * numWords;
+      wordStarts = Arrays.copyOf(wordStarts, capacity);
+      lineNumbers = Arrays.copyOf(lineNumbers, capacity);
+      columnNumbers = Arrays.copyOf(columnNumbers, capacity);
+    }
+    if (numWords > 0) {
+      append(" ");
+    }
+    wordStarts[numWords] = length;
+    lineNumbers[numWords] = lineNumber;
+    columnNumbers[numWords] = columnNumber;
+    numWords++;
+    append(text);
+  }
+
+  /**
+   * Appends the given text to the last word.
+   */
+  public void appendToWord(CharSequence text) {
+    if (numWords == 0) {
+      throw new IllegalStateException("There is no word to append to.");
+    }
+    append(text);
+  }
+
+  /**
+   * Appends the given text to the buffer.
+   */
+  protected void append(CharSequence text) {
+    int textLength = text.length();
+    if (length + textLength > chars.length) {
+      chars = Arrays.copyOf(chars, Math.max(2 * chars.length,
+          length + textLength));
+    }
+    if (text instanceof String) {
+      ((String) text).getChars(0, textLength, chars, length);
+    } else {
+      for (int i = 0; i < textLength; i++) {
+        chars[length + i] = text.charAt(i);
+      }
+    }
+    length += textLength;
+  }
+
+  // ---------------------------------------------------------------------------
+
+  /**
+   * Returns the number of words.
+   */
+  public int getNumWords() {
+    return numWords;
+  }
+
+  /**
+   * Returns the offset of the i-th word in the buffer.
+   */
+  public int getWordStart(int i) {
+    checkWordIndex(i);
+    return wordStarts[i];
+  }
+
+  /**
+   * Returns the offset after the last character of the i-th word.
+   */
+  public int getWordEnd(int i) {
+    checkWordIndex(i);
+    // The next word starts after the separating whitespace.
+    return i + 1 < numWords ? wordStarts[i + 1] - 1 : length;
+  }
+
+  /**
+   * Returns the line number of the i-th word in the tex file.
+   */
+  public int getWordLineNumber(int i) {
+    checkWordIndex(i);
+    return lineNumbers[i];
+  }
+
+  /**
+   * Returns the column number of the i-th word in the tex file.
+   */
+  public int getWordColumnNumber(int i) {
+    checkWordIndex(i);
+    return columnNumbers[i];
+  }
+
+  /**
+   * Returns the text of the i-th word.
+   */
+  public String getWordText(int i) {
+    int start = getWordStart(i);
+    return new String(chars, start, getWordEnd(i) - start);
+  }
+
+  /**
+   * Checks if there is a word with the given index.
+   */
+  protected void checkWordIndex(int i) {
+    if (i < 0 || i >= numWords) {
+      throw new IndexOutOfBoundsException("Word: " + i);
+    }
+  }
+
+  /**
+   * Returns the words in a (new) list of TeXWords.
+   */
+  public List<TeXWord> getWords() {
+    List<TeXWord> words = new ArrayList<>(numWords);
+    for (int i = 0; i < numWords; i++) {
+      words.add(new TeXWord(getWordText(i), lineNumbers[i],
+          columnNumbers[i]));
+    }
+    return words;
+  }
+
+  // ---------------------------------------------------------------------------
+
+  /**
+   * Returns the offset of the first character in [start, end) that isn't a
+   * whitespace or control character (like String.trim()), or end if there is
+   * no such character.
+   */
+  public int trimStart(int start, int end) {
+    while (start < end && chars[start] <= ' ') {
+      start++;
+    }
+    return start;
+  }
+
+  /**
+   * Returns the offset after the last character in [start, end) that isn't a
+   * whitespace or control character (like String.trim()), or start if there
+   * is no such character.
+   */
+  public int trimEnd(int start, int end) {
+    while (end > start && chars[end - 1] <= ' ') {
+      end--;
+    }
+    return end;
+  }
+
+  /**
+   * Writes the characters in [start, end) to the given writer.
+   */
+  public void write(Writer writer, int start, int end) throws IOException {
+    writer.write(chars, start, end - start);
+  }
+
+  /**
+   * Returns the characters in [start, end) as a char buffer that is backed by
+   * this buffer (until the next text is appended).
+   */
+  public CharBuffer toCharBuffer(int start, int end) {
+    return CharBuffer.wrap(chars, start, end - start);
+  }
+
+  // ---------------------------------------------------------------------------
+
+  @Override
+  public int length() {
+    return length;
+  }
+
+  @Override
+  public char charAt(int index) {
+    if (index < 0 || index >= length) {
+      throw new IndexOutOfBoundsException("Index: " + index);
+    }
+    return chars[index];
+  }
+
+  @Override
+  public CharSequence subSequence(int start, int end) {
+    if (start < 0 || start > end || end > length) {
+      throw new IndexOutOfBoundsException("Range: " + start + "-" + end);
+    }
+    return new String(chars, start, end - start);
+  }
+
+  /**
+   * Returns the text of the words, separated by a single whitespace.
+   */
+  @Override
+  public String toString() {
+    return new String(chars, 0, length);
+  }
+}
@@ -0,0 +1,336 @@
+package parser;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+import model.Characters;
+
+/**
+ * Normalizes the whitespaces in the text of a formula, according to the math
+ * symbols in {@link Characters}:
+ *
+ * <p>1. Remove the whitespaces around the symbols in MATH_SYMBOLS_NO_SPACES.
+ * 2. Add a whitespace after (and remove the whitespaces before) the symbols in
+ * MATH_SYMBOLS_FOLLOWED_BY_SPACE. 3. Add a whitespace before and after the
+ * symbols in MATH_SYMBOLS_SURROUNDED_BY_SPACES.
+ *
+ * <p>The result is the same as on applying replaceAll("\\s*symbol\\s*", ...)
+ * for each symbol in turn (in order of the rules and of the iteration of the
+ * sets), but the formula is scanned only once with a trie of all symbols to
+ * find the symbols it contains. If these are single characters (the common
+ * case), the whitespaces are normalized in a second single pass. Otherwise,
+ * the rules are applied only for the contained symbols, in turn, because
+ * removing whitespaces may join letters to words like "arcsin".
+ *
+ * <p>A normalizer reuses its buffers and must not be used by concurrent
+ * threads.
+ *
+ * @author Claudius Korzen
+ */
+public class TeXFormulaNormalizer {
+  /**
+   * The symbols, in the order in which their rules are applied.
+   */
+  protected static final List<Symbol> SYMBOLS = new ArrayList<>();
+
+  /**
+   * The trie of all symbols.
+   */
+  protected static final Node TRIE;
+
+  static {
+    addSymbols(Characters.MATH_SYMBOLS_NO_SPACES, "", "");
+    addSymbols(Characters.MATH_SYMBOLS_FOLLOWED_BY_SPACE, "", " ");
+    addSymbols(Characters.MATH_SYMBOLS_SURROUNDED_BY_SPACES, " ", " ");
+
+    NodeBuilder trie = new NodeBuilder();
+    for (Symbol symbol : SYMBOLS) {
+      NodeBuilder node = trie;
+      for (int i = 0; i < symbol.string.length(); i++) {
+        node = node.children.computeIfAbsent(symbol.string.charAt(i),
+            c -> new NodeBuilder());
+      }
+      node.symbols.add(symbol.index);
+    }
+    TRIE = trie.build();
+  }
+
+  /**
+   * Adds the given symbols with the given whitespaces to insert before and
+   * after them.
+   */
+  protected static void addSymbols(Set<String> symbols, String before,
+      String after) {
+    for (String symbol : symbols) {
+      SYMBOLS.add(new Symbol(symbol, SYMBOLS.size(), before, after));
+    }
+  }
+
+  /**
+   * The indexes of the symbols contained in the current formula.
+   */
+  protected final BitSet candidates = new BitSet(SYMBOLS.size());
+
+  /**
+   * The buffer to write the normalized formula to.
+   */
+  protected StringBuilder buffer = new StringBuilder();
+
+  /**
+   * The buffer to read from on applying the rules in turn.
+   */
+  protected StringBuilder buffer2 = new StringBuilder();
+
+  // ---------------------------------------------------------------------------
+
+  /**
+   * Normalizes the whitespaces in the given text of a formula.
+   */
+  public String normalize(String text) {
+    if (text == null) {
+      return null;
+    }
+
+    boolean singleCharacters = findCandidates(text);
+    if (candidates.isEmpty()) {
+      return text;
+    }
+
+    buffer.setLength(0);
+    if (singleCharacters) {
+      normalizeSingleCharacters(text);
+    } else {
+      buffer.append(text);
+      for (int i = candidates.nextSetBit(0); i >= 0;
+          i = candidates.nextSetBit(i + 1)) {
+        StringBuilder input = buffer;
+        buffer = buffer2;
+        buffer2 = input;
+        buffer.setLength(0);
+        apply(SYMBOLS.get(i), input, buffer);
+      }
+    }
+    return buffer.toString();
+  }
+
+  /**
+   * Collects the symbols contained in the given text into the candidates.
+   * Whitespaces are ignored, because they may be removed by the rules. Returns
+   * true, if all candidates are single characters with a single rule.
+   */
+  protected boolean findCandidates(String text) {
+    candidates.clear();
+    boolean singleCharacters = true;
+    int length = text.length();
+    for (int i = 0; i < length; i++) {
+      if (isWhitespace(text.charAt(i))) {
+        continue;
+      }
+      Node node = TRIE;
+      int depth = 0;
+      for (int j = i; j < length; j++) {
+        char c = text.charAt(j);
+        if (isWhitespace(c)) {
+          continue;
+        }
+        node = node.getChild(c);
+        if (node == null) {
+          break;
+        }
+        depth++;
+        for (int symbol : node.symbols) {
+          candidates.set(symbol);
+        }
+        if (node.symbols.length > (depth > 1 ? 0 : 1)) {
+          // A symbol of multiple characters or with multiple rules.
+          singleCharacters = false;
+        }
+      }
+    }
+    return singleCharacters;
+  }
+
+  /**
+   * Normalizes the given text in a single pass, provided that all contained
+   * symbols are single characters with a single rule. In this case, each run
+   * of whitespaces (possibly empty) is only affected by the rules of the
+   * symbols next to it: The rule applied last wins; if both symbols are the
+   * same, the whitespace after the first is followed by the whitespace before
+   * the second one.
+   */
+  protected void normalizeSingleCharacters(String text) {
+    int length = text.length();
+    Symbol prev = null;
+    int i = 0;
+    while (true) {
+      int j = i;
+      while (j < length && isWhitespace(text.charAt(j))) {
+        j++;
+      }
+      Symbol next = j < length
+          ? getSingleCharacterSymbol(text.charAt(j)) : null;
+
+      if (prev == null && next == null) {
+        buffer.append(text, i, j);
+      } else if (prev != null && next == prev) {
+        buffer.append(prev.after).append(next.before);
+      } else if (next == null || (prev != null && prev.index > next.index)) {
+        buffer.append(prev.after);
+      } else {
+        buffer.append(next.before);
+      }
+
+      if (j == length) {
+        break;
+      }
+      buffer.append(text.charAt(j));
+      prev = next;
+      i = j + 1;
+    }
+  }
+
+  /**
+   * Replaces each match of "\\s*symbol\\s*" in the given text by the symbol
+   * with its whitespaces, like replaceAll().
+   */
+  protected static void apply(Symbol symbol, StringBuilder text,
+      StringBuilder result) {
+    int length = text.length();
+    int from = 0;
+    int index;
+    while ((index = text.indexOf(symbol.string, from)) >= 0) {
+      int start = index;
+      while (start > from && isWhitespace(text.charAt(start - 1))) {
+        start--;
+      }
+      result.append(text, from, start).append(symbol.replacement);
+
+      from = index + symbol.string.length();
+      while (from < length && isWhitespace(text.charAt(from))) {
+        from++;
+      }
+    }
+    result.append(text, from, length);
+  }
+
+  /**
+   * Returns the symbol consisting of the given character or null if there is
+   * no such symbol.
+   */
+  protected static Symbol getSingleCharacterSymbol(char c) {
+    Node node = TRIE.getChild(c);
+    if (node == null || node.symbols.length == 0) {
+      return null;
+    }
+    return SYMBOLS.get(node.symbols[0]);
+  }
+
+  /**
+   * Returns true, if the given character is a whitespace in the sense of
+   * "\\s" in regular expressions.
+   */
+  protected static boolean isWhitespace(char c) {
+    return c == ' ' || c == '\t' || c == '\n' || c == '\013' || c == '\f'
+        || c == '\r';
+  }
+
+  // ___________________________________________________________________________
+
+  /**
+   * A math symbol with the whitespaces to insert before and after it.
+   */
+  protected static class Symbol {
+    /** The symbol. */
+    protected final String string;
+
+    /** The position of the symbol in the order of the rules. */
+    protected final int index;
+
+    /** The whitespace to insert before the symbol. */
+    protected final String before;
+
+    /** The whitespace to insert after the symbol. */
+    protected final String after;
+
+    /** The symbol with its whitespaces. */
+    protected final String replacement;
+
+    /**
+     * Creates a new symbol.
+     */
+    protected Symbol(String string, int index, String before, String after) {
+      this.string = string;
+      this.index = index;
+      this.before = before;
+      this.after = after;
+      this.replacement = before + string + after;
+    }
+  }
+
+  /**
+   * A node of the trie, with its children sorted by their characters.
+   */
+  protected static class Node {
+    /** The characters of the children. */
+    protected final char[] characters;
+
+    /** The children. */
+    protected final Node[] children;
+
+    /** The indexes of the symbols that end at this node. */
+    protected final int[] symbols;
+
+    /**
+     * Creates a new node.
+     */
+    protected Node(char[] characters, Node[] children, int[] symbols) {
+      this.characters = characters;
+      this.children = children;
+      this.symbols = symbols;
+    }
+
+    /**
+     * Returns the child for the given character or null if there is no such
+     * child.
+     */
+    protected Node getChild(char c) {
+      int index = Arrays.binarySearch(characters, c);
+      return index >= 0 ? children[index] : null;
+    }
+  }
+
+  /**
+   * A mutable node of the trie, used on building the trie.
+   */
+  protected static class NodeBuilder {
+    /** The children, sorted by their characters. */
+    protected final Map<Character, NodeBuilder> children = new TreeMap<>();
+
+    /** The indexes of the symbols that end at this node. */
+    protected final List<Integer> symbols = new ArrayList<>();
+
+    /**
+     * Builds the (immutable) node.
+     */
+    protected Node build() {
+      char[] characters = new char[children.size()];
+      Node[] nodes = new Node[children.size()];
+      int i = 0;
+      for (Map.Entry<Character, NodeBuilder> child : children.entrySet()) {
+        characters[i] = child.getKey();
+        nodes[i] = child.getValue().build();
+        i++;
+      }
+      int[] indexes = new int[symbols.size()];
+      for (int j = 0; j < indexes.length; j++) {
+        indexes[j] = symbols.get(j);
+      }
+      return new Node(characters, nodes, indexes);
+    }
+  }
+}
@@ -1,17 +1,16 @@
 package parser;
 
 import static model.TeXParagraphParserSettings.DEFAULT_PARAGRAPH_ROLE;
-import static model.TeXParagraphParserSettings.TEX_ELEMENT_REFERENCES_PATH;
 
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
+import java.util.function.Consumer;
 
 import de.freiburg.iif.text.StringUtils;
 import model.Characters;
 import model.Command;
+import model.CommandNames;
 import model.Document;
 import model.Element;
 import model.Group;
@@ -24,6 +23,7 @@ import model.TeXElementReferences;
 import model.TeXParagraph;
 import model.Text;
 import model.Whitespace;
+import parse.TeXWorkTracker;
 
 /**
  * Class to parse Document objects for text paragraphs.
@@ -43,20 +43,73 @@ public class TeXParagraphsParser {
 
   protected String documentStyle;
 
+  /**
+   * The normalizer for the texts of formulas.
+   */
+  protected TeXFormulaNormalizer formulaNormalizer = new TeXFormulaNormalizer();
+
+  /**
+   * The tracker of the work spent on the document (may be null).
+   */
+  protected TeXWorkTracker tracker;
+
+  /**
+   * The number of commands without an element reference.
+   */
+  protected int numUnresolvedCommands;
+
   /**
    * Creates a new paragraph parser for the given document.
    */
   public TeXParagraphsParser(Document document) throws IOException {
-    this.texElementRefs = new TeXElementReferences(TEX_ELEMENT_REFERENCES_PATH);
+    this(document, TeXElementReferences.getDefault());
+  }
+
+  /**
+   * Creates a new paragraph parser for the given document that uses the given
+   * element references.
+   */
+  public TeXParagraphsParser(Document document, TeXElementReferences refs) {
+    this.texElementRefs = refs;
     this.document = document;
   }
 
+  /**
+   * Sets the tracker of the work spent on the document. Each processed element is counted, so the
+   * identification is aborted by a TeXWorkBudgetExceededException if the budget of the tracker is
+   * exceeded.
+   */
+  public TeXParagraphsParser setWorkTracker(TeXWorkTracker tracker) {
+    this.tracker = tracker;
+    return this;
+  }
+
+  /**
+   * Returns the number of commands without an element reference, which were
+   * skipped on identifying the paragraphs.
+   */
+  public int getNumUnresolvedCommands() {
+    return numUnresolvedCommands;
+  }
+
   /**
    * Identifies the paragraphs in the given document.
    */
   public List<TeXParagraph> identifyParagraphs() {
+    List<TeXParagraph> paragraphs = new ArrayList<>();
+    identifyParagraphs(paragraphs::add);
+    return paragraphs;
+  }
+
+  /**
+   * Identifies the paragraphs in the given document and passes each paragraph
+   * to the given consumer as soon as it is complete. The consumer is called
+   * on the parsing thread, so the parsing doesn't proceed until the consumer
+   * returns.
+   */
+  public void identifyParagraphs(Consumer<TeXParagraph> paragraphs) {
     List<OutlineElement> outline = identifyOutline(document);
-    return processOutline(outline);
+    processOutline(outline, paragraphs);
   }
 
   /**
@@ -64,12 +117,22 @@ public class TeXParagraphsParser {
    */
   public List<TeXParagraph> processOutline(List<OutlineElement> outline) {
     List<TeXParagraph> paragraphs = new ArrayList<>();
+    processOutline(outline, paragraphs::add);
+    return paragraphs;
+  }
+
+  /**
+   * Identifies the paragraphs in the given outline and passes each paragraph
+   * to the given consumer as soon as it is complete.
+   */
+  public void processOutline(List<OutlineElement> outline,
+      Consumer<TeXParagraph> paragraphs) {
     TeXParagraph para = new TeXParagraph();
 
     for (OutlineElement element : outline) {
       // Introduce new paragraph for every new outline element.
-      if (!para.getText().isEmpty()) {
-        paragraphs.add(para);
+      if (para.hasText()) {
+        paragraphs.accept(para);
       }
       para = new TeXParagraph(element.defaultRole);
       para = processElements(element.elements, element.defaultRole, element.defaultRole, para, 
@@ -77,11 +140,9 @@ public class TeXParagraphsParser {
     }
 
     // Add the last paragraph.
-    if (!para.getText().isEmpty()) {
-      paragraphs.add(para);
+    if (para.hasText()) {
+      paragraphs.accept(para);
     }
-
-    return paragraphs;
   }
 
   // ==============================================================================================
@@ -93,7 +154,7 @@ public class TeXParagraphsParser {
     List<TeXParagraph> paragraphs = new ArrayList<>();
     TeXParagraph para = new TeXParagraph();
 
-    processGroup(document, DEFAULT_PARAGRAPH_ROLE, DEFAULT_PARAGRAPH_ROLE, para, paragraphs);
+    processGroup(document, DEFAULT_PARAGRAPH_ROLE, DEFAULT_PARAGRAPH_ROLE, para, paragraphs::add);
 
     return paragraphs;
   }
@@ -101,14 +162,14 @@ public class TeXParagraphsParser {
   /**
    * Processes the given (standalone) option. The given role represents the
    * current role context, 'para' represents the current paragraph and 'paras'
-   * represents the list of paragraphs where to put identified paragraphs into.
+   * represents the consumer where to put identified paragraphs into.
    * 
    * <p>A standalone option means an option that is not associated with any other
    * command, e.g. "foo bar [1]". Standalone options should be considered as
    * "normal" text.
    */
   protected TeXParagraph processOption(Option opt, String role, String defaultRole, 
-      TeXParagraph para, List<TeXParagraph> paras) {
+      TeXParagraph para, Consumer<TeXParagraph> paras) {
     para.registerText("[", opt);
     para = processElements(opt.getElements(), role, defaultRole, para, paras);
     para.registerText("]", opt);
@@ -118,25 +179,29 @@ public class TeXParagraphsParser {
   /**
    * Processes the given group. The given role represents the current role
    * context, 'para' represents the current paragraph and 'paras' represents the
-   * list of paragraphs where to put identified paragraphs into.
+   * consumer where to put identified paragraphs into.
    */
   protected TeXParagraph processGroup(Group group, String role, String defaultRole, 
-      TeXParagraph para, List<TeXParagraph> paras) {
+      TeXParagraph para, Consumer<TeXParagraph> paras) {
     return processElements(group.getElements(), role, defaultRole, para, paras);
   }
 
   /**
    * Processes the given elements. The given role represents the current role
    * context, 'para' represents the current paragraph and 'paras' represents the
-   * list of paragraphs where to put identified paragraphs into.
+   * consumer where to put identified paragraphs into.
    */
   protected TeXParagraph processElements(List<Element> elements, String role, String defaultRole, 
-      TeXParagraph para, List<TeXParagraph> paras) {
+      TeXParagraph para, Consumer<TeXParagraph> paras) {
 
     Iterator<Element> itr = new Iterator<>(elements);
     while (itr.hasNext()) {
       Element elem = itr.next();
 
+      if (tracker != null) {
+        tracker.countElement();
+      }
+
       if (elem instanceof Option) {
         // There may be (valid) text like "foo bar [2]", see cond-mat0001200.
         // So, if the element is a standalone option, handle it as text.
@@ -158,7 +223,7 @@ public class TeXParagraphsParser {
    * Processes the given text element.
    */
   protected TeXParagraph processText(Text textElement, String role, String defaultRole, 
-      Iterator<Element> itr, TeXParagraph para, List<TeXParagraph> paras) {
+      Iterator<Element> itr, TeXParagraph para, Consumer<TeXParagraph> paras) {
     String text = textElement.toString().trim();
 
     // Don't allow text that starts with '@' to ignore commands like
@@ -200,27 +265,27 @@ public class TeXParagraphsParser {
    * Process the given command.
    */
   protected TeXParagraph processCommand(Command cmd, String role, String defaultRole, 
-      Iterator<Element> itr, TeXParagraph para, List<TeXParagraph> paras) {
-    // Check, if the command is a cross reference. TODO
-    if (StringUtils.equals(cmd.getName(), "\\onlinecite")) {
-      cmd.setName("\\cite");
+      Iterator<Element> itr, TeXParagraph para, Consumer<TeXParagraph> paras) {
+    switch (cmd.getNameId()) {
+      case CommandNames.ONLINECITE:
+        // Check, if the command is a cross reference. TODO
+        cmd.setName("\\cite");
+        break;
+      case CommandNames.DOCUMENTSTYLE:
+        this.documentStyle = cmd.getGroup().getText();
+        break;
+      default:
+        break;
     }
 
-    // Check, if the command is a cross reference. TODO
-    if (StringUtils.equals(cmd.getName(), "\\documentstyle")) {
-      this.documentStyle = cmd.getGroup().getText();
-    }
-
-    if (StringUtils.equals(cmd.getName(), "\\ref", "\\eqref", "\\cite", "\\citep", "\\citet", 
-        "\\citealp", "\\citealt", "\\citetext", "\\citeauthor", "\\citeyear", "\\citeyearpar", 
-        "\\Citep", "\\Citet", "\\Citealp", "\\Citealt", "\\Citetext", "\\Citeauthor", "\\Citeyear",
-        "\\Citeyearpar", "\\citetalias", "\\citepalias")) {
+    if (CommandNames.isCrossReference(cmd.getNameId())) {
       processCrossReferenceCommand(cmd, itr, para);
     }
 
     TeXElementReference ref = getTeXElementReference(cmd, role);
 
     if (ref == null) {
+      numUnresolvedCommands++;
       itr.skipTo(guessEndCommand(cmd, role));
       // Do nothing if there is no element reference for the command.
       return para;
@@ -363,22 +428,7 @@ public class TeXParagraphsParser {
    * operators, like "+" and "=", but not around "/".
    */
   protected String normalizeFormulaText(String text) {
-    for (String c : Characters.MATH_SYMBOLS_NO_SPACES) {
-      Matcher m = Pattern.compile("\\s*(" + Pattern.quote(c) + ")\\s*").matcher(text);
-      text = m.replaceAll(c);
-    }
-
-    for (String c : Characters.MATH_SYMBOLS_FOLLOWED_BY_SPACE) {
-      Matcher m = Pattern.compile("\\s*(" + Pattern.quote(c) + ")\\s*").matcher(text);
-      text = m.replaceAll(c + " ");
-    }
-
-    for (String c : Characters.MATH_SYMBOLS_SURROUNDED_BY_SPACES) {
-      Matcher m = Pattern.compile("\\s*(" + Pattern.quote(c) + ")\\s*").matcher(text);
-      text = m.replaceAll(" " + c + " ");
-    }
-
-    return text;
+    return formulaNormalizer.normalize(text);
   }
 
   /**
@@ -425,7 +475,7 @@ public class TeXParagraphsParser {
 
     Command cmd = (Command) element;
 
-    return "_".equals(cmd.getName());
+    return cmd.nameEquals(CommandNames.SUBSCRIPT);
   }
 
   protected boolean isSuperscriptCommand(Element element) {
@@ -435,7 +485,7 @@ public class TeXParagraphsParser {
 
     Command cmd = (Command) element;
 
-    return "^".equals(cmd.getName());
+    return cmd.nameEquals(CommandNames.SUPERSCRIPT);
   }
 
   /**
@@ -536,12 +586,12 @@ public class TeXParagraphsParser {
 
       Command cmd = (Command) element;
 
-      if ("^".equals(cmd.getName())) {
+      if (cmd.nameEquals(CommandNames.SUPERSCRIPT)) {
         // TODO: superscripts
         return getTextOfFormulaElement(cmd.getGroup(), itr);
       }
 
-      if ("_".equals(cmd.getName())) {
+      if (cmd.nameEquals(CommandNames.SUBSCRIPT)) {
         // TODO: subscripts
         return getTextOfFormulaElement(cmd.getGroup(), itr);
       }
@@ -555,6 +605,7 @@ public class TeXParagraphsParser {
       TeXElementReference ref = getTeXElementReference(cmd, null);
 
       if (ref == null) {
+        numUnresolvedCommands++;
         return null;
       }
 
@@ -852,7 +903,7 @@ public class TeXParagraphsParser {
     }
 
     // If the command is "\begin{foobar}", it must end with "\end{foobar}".
-    if (command.nameEquals("\\begin")) {
+    if (command.nameEquals(CommandNames.BEGIN)) {
       String value = command.getValue();
       return "\\end{" + value + "}";
     }
@@ -873,7 +924,7 @@ public class TeXParagraphsParser {
    * introduced.
    */
   protected TeXParagraph checkForParagraphStart(Element element, String role, String defaultRole, 
-      TeXParagraph para, List<TeXParagraph> paras) {
+      TeXParagraph para, Consumer<TeXParagraph> paras) {
     TeXElementReference ref = getTeXElementReference(element, role);
     // Obtain if the current element starts a paragraph.
     boolean startsParagraph = ref != null && ref.startsParagraph();
@@ -892,7 +943,7 @@ public class TeXParagraphsParser {
 
     if (startsParagraph) {
       if (!para.isEmpty()) {
-        paras.add(para);
+        paras.accept(para);
         // Introduce a new paragraph.
       }
       para = new TeXParagraph(role);
@@ -911,7 +962,7 @@ public class TeXParagraphsParser {
    * was introduced.
    */
   protected TeXParagraph checkForParagraphEnd(Element element, String role, String defaultRole, 
-      TeXParagraph para, List<TeXParagraph> paras) {
+      TeXParagraph para, Consumer<TeXParagraph> paras) {
     TeXElementReference ref = getTeXElementReference(element, role);
 
     // Obtain if the current element starts a paragraph.
@@ -919,7 +970,7 @@ public class TeXParagraphsParser {
 
     if (endsParagraph) {
       if (!para.isEmpty()) {
-        paras.add(para);
+        paras.accept(para);
       }
       para = new TeXParagraph(defaultRole != null ? defaultRole : DEFAULT_PARAGRAPH_ROLE);
     }
@@ -1,21 +1,24 @@
 package preprocess;
 
-import static model.TeXParagraphParserSettings.TEX_ELEMENT_REFERENCES_PATH;
-
 import java.io.BufferedWriter;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.StringWriter;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
-import de.freiburg.iif.collection.ConstantLookupList;
+import de.freiburg.iif.collection.IdentityIndexedList;
 import model.Command;
 import model.Document;
 import model.Element;
 import model.Group;
 import model.MacroDefinition;
+import model.MacroTemplate;
 import model.Marker;
 import model.NewLine;
 import model.NewParagraph;
@@ -23,8 +26,12 @@ import model.TeXElementReference;
 import model.TeXElementReferences;
 import model.Text;
 import model.Whitespace;
+import parse.FastTeXParser;
 import parse.ParseException;
 import parse.TeXParser;
+import parse.TeXParserType;
+import parse.TeXSource;
+import parse.TeXWorkTracker;
 
 /**
  * Class that resolves all macros in tex files.
@@ -61,14 +68,74 @@ public class TeXMacroResolver extends TeXParser {
 
   protected TeXElementReferences refs;
 
+  /**
+   * The stream of the tex file (null if there is a source given).
+   */
+  protected InputStream stream;
+
+  /**
+   * The source of the tex file (null if there is a stream given).
+   */
+  protected TeXSource source;
+
+  /**
+   * The parser to parse the tex file with.
+   */
+  protected TeXParserType parserType = TeXParserType.JAVACC;
+
+  /**
+   * The compiled macros, per name of the defined command.
+   */
+  protected Map<String, MacroTemplate> templates = new HashMap<>();
+
   /**
    * Creates a macro resolver for the given tex file.
    * 
    * @throws IOException if something went wrong.
    */
   public TeXMacroResolver(InputStream stream) throws IOException {
+    this(stream, TeXElementReferences.getDefault());
+  }
+
+  /**
+   * Creates a macro resolver for the given tex file that uses the given
+   * element references.
+   */
+  public TeXMacroResolver(InputStream stream, TeXElementReferences refs) {
     super(stream);
-    this.refs = new TeXElementReferences(TEX_ELEMENT_REFERENCES_PATH);
+    this.stream = stream;
+    this.refs = refs;
+  }
+
+  /**
+   * Creates a macro resolver for the tex file with the given source that uses
+   * the given element references.
+   */
+  public TeXMacroResolver(TeXSource source, TeXElementReferences refs) {
+    super(source.newReader());
+    this.source = source;
+    this.refs = refs;
+  }
+
+  /**
+   * Sets the parser to parse the tex file with (the JavaCC generated parser
+   * of this class by default).
+   */
+  public TeXMacroResolver setParserType(TeXParserType parserType) {
+    this.parserType = parserType;
+    return this;
+  }
+
+  /**
+   * Sets the tracker of the work spent on the tex file. The parsed elements,
+   * the resolved elements and the macro expansions are counted, so the
+   * resolving is aborted by a TeXWorkBudgetExceededException if the budget
+   * of the tracker is exceeded (e.g., on recursive macros).
+   */
+  @Override
+  public TeXMacroResolver setWorkTracker(TeXWorkTracker tracker) {
+    super.setWorkTracker(tracker);
+    return this;
   }
 
   /**
@@ -83,19 +150,52 @@ public class TeXMacroResolver extends TeXParser {
     }
   }
 
+  /**
+   * Resolves the macros for the tex file and returns the result as string,
+   * without writing any file.
+   */
+  public String resolveMacros() throws IOException, ParseException {
+    StringWriter result = new StringWriter();
+    try (BufferedWriter w = new BufferedWriter(result)) {
+      preprocess(w);
+    }
+    return result.toString();
+  }
+
   /**
    * Starts the preprocessing for the given tex file and writes the result to
    * the given writer.
    */
   public void preprocess(BufferedWriter writer) throws IOException,
     ParseException {
-    Document document = parse();
-        
+    Document document = parseDocument();
+
     while (document.hasNext()) {
       handleElement(document.next(), writer);
     }
   }
 
+  /**
+   * Parses the tex file with the selected parser.
+   */
+  protected Document parseDocument() throws IOException, ParseException {
+    if (this.parserType != TeXParserType.FAST) {
+      return parse();
+    }
+    TeXSource source = this.source;
+    if (source == null) {
+      source = TeXSource.read(new InputStreamReader(this.stream));
+    }
+    // Register the macros parsed by the fast parser in this resolver.
+    return new FastTeXParser(source) {
+      @Override
+      protected void registerMacroDefinition(MacroDefinition macro) {
+        super.registerMacroDefinition(macro);
+        TeXMacroResolver.this.registerMacroDefinition(macro);
+      }
+    }.setWorkTracker(this.tracker).parse();
+  }
+
   /**
    * Handles the given element from parsed tex document.
    */
@@ -174,7 +274,7 @@ public class TeXMacroResolver extends TeXParser {
   /**
    * Resolves the given element.
    */
-  protected ConstantLookupList<Element> resolve(Element element) {
+  protected IdentityIndexedList<Element> resolve(Element element) {
     Group group = new Group();
     resolveElement(element, group);
     return group.elements;
@@ -184,6 +284,10 @@ public class TeXMacroResolver extends TeXParser {
    * Resolves the given command recursively.
    */
   protected void resolveElement(Element element, Group result) {
+    if (tracker != null) {
+      tracker.countElement();
+    }
+
     if (element instanceof Group) {
       resolveGroup((Group) element, result);
     } else if (element instanceof Command) {
@@ -205,7 +309,7 @@ public class TeXMacroResolver extends TeXParser {
         resolveElement(element, resolvedGroup);
       }
       // Update the elements of the group to the resolved ones.
-      group.elements = resolvedGroup.elements;
+      group.setElements(resolvedGroup.elements);
     }
     result.addElement(group);
   }
@@ -220,28 +324,15 @@ public class TeXMacroResolver extends TeXParser {
 
     // Check, if the command was defined via a macro.
     if (isDefinedByMacro(command)) {
-      // Resolve the macro.
-      Group macro = getMacro(command).clone();
-
-      // Plug in the arguments (replace the markers by arguments).
-      List<Marker> markers = macro.get(Marker.class, true);
-      for (Marker marker : markers) {
-        if (marker != null && command.hasGroups(marker.getId())) {
-          Group arg = command.getGroup(marker.getId());
-          if (arg != null) {
-            macro.replace(marker, arg.trimmedElements);
-          }
-        }
+      if (tracker != null) {
+        tracker.enterExpansion();
       }
-
-      // Resolve the elements of the macro.
-      for (Element element : macro.elements) {
-        element.setBeginColumnNumber(command.getBeginColumnNumber());
-        element.setEndColumnNumber(command.getEndColumnNumber());
-        element.setBeginLineNumber(command.getBeginLineNumber());
-        element.setEndLineNumber(command.getEndLineNumber());
-
-        resolveElement(element, result);
+      try {
+        resolveMacro(command, result);
+      } finally {
+        if (tracker != null) {
+          tracker.exitExpansion();
+        }
       }
       // Append a whitespace after a macro.
       // result.addElement(new Whitespace(
@@ -259,6 +350,24 @@ public class TeXMacroResolver extends TeXParser {
     }
   }
 
+  /**
+   * Resolves the given command that is defined by a macro.
+   */
+  protected void resolveMacro(Command command, Group result) {
+    // Resolve the macro (plug in the arguments).
+    Group macro = getMacroTemplate(command).instantiate(command);
+
+    // Resolve the elements of the macro.
+    for (Element element : macro.elements) {
+      element.setBeginColumnNumber(command.getBeginColumnNumber());
+      element.setEndColumnNumber(command.getEndColumnNumber());
+      element.setBeginLineNumber(command.getBeginLineNumber());
+      element.setEndLineNumber(command.getEndLineNumber());
+
+      resolveElement(element, result);
+    }
+  }
+
   // ___________________________________________________________________________
 
   /**
@@ -372,4 +481,27 @@ public class TeXMacroResolver extends TeXParser {
   protected Group getMacro(Command command) {
     return macros.get(command.getName());
   }
+
+  /**
+   * Returns the compiled macro definition for the given command.
+   */
+  protected MacroTemplate getMacroTemplate(Command command) {
+    MacroTemplate template = templates.get(command.getName());
+    if (template == null) {
+      // The macro wasn't registered via registerMacroDefinition().
+      template = new MacroTemplate(getMacro(command));
+      templates.put(command.getName(), template);
+    }
+    return template;
+  }
+
+  @Override
+  protected void registerMacroDefinition(MacroDefinition macro) {
+    super.registerMacroDefinition(macro);
+    if (macro != null && !macro.getValues().isEmpty()) {
+      // Compile the macro once, instead of on each call.
+      String name = macro.getKey().getText();
+      templates.put(name, new MacroTemplate(macros.get(name)));
+    }
+  }
 }
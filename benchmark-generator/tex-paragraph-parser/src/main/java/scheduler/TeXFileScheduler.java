@@ -0,0 +1,90 @@
+package scheduler;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Semaphore;
+import java.util.function.Consumer;
+
+/**
+ * A scheduler that processes a batch of tex files in parallel.
+ *
+ * @author Claudius Korzen
+ */
+public interface TeXFileScheduler {
+  /**
+   * Processes the given files by the given task and blocks until all files
+   * were processed (or timed out).
+   */
+  void process(List<Path> files, Consumer<Path> task)
+    throws InterruptedException;
+
+  /**
+   * Returns the number of files whose processing timed out.
+   */
+  int getNumTimeouts();
+
+  /**
+   * Returns the number of files whose processing exceeded its work budget
+   * (i.e., that failed with a TeXWorkBudgetExceededException).
+   */
+  int getNumExceededBudgets();
+
+  /**
+   * Returns the number of files that are processed in parallel.
+   */
+  int getParallelism();
+
+  /**
+   * Returns the number of files that were passed to {@link #process} but 
+   * whose processing didn't start yet.
+   */
+  int getNumQueuedFiles();
+
+  /**
+   * Returns the number of files in process.
+   */
+  int getNumActiveFiles();
+
+  /**
+   * Returns the time spent on processing files (summed over all files whose
+   * processing finished), in nanoseconds.
+   */
+  long getBusyNanos();
+
+  /**
+   * Returns the permits that limit the number of files that are parsed (the
+   * CPU-bound part of the processing) at the same time, or null if there is
+   * no such limit (because the number of threads is limited anyway).
+   */
+  default Semaphore getParsePermits() {
+    return null;
+  }
+
+  /**
+   * Returns a copy of the given files, sorted by their sizes in descending
+   * order, such that the largest files are processed first and don't create
+   * a long tail at the end of the batch.
+   */
+  static List<Path> sortBySizeDescending(List<Path> files) {
+    final Map<Path, Long> sizes = new HashMap<>();
+    for (Path file : files) {
+      long size;
+      try {
+        size = Files.size(file);
+      } catch (IOException e) {
+        size = 0;
+      }
+      sizes.put(file, size);
+    }
+
+    List<Path> sorted = new ArrayList<>(files);
+    Collections.sort(sorted, (a, b) -> Long.compare(sizes.get(b), sizes.get(a)));
+    return sorted;
+  }
+}
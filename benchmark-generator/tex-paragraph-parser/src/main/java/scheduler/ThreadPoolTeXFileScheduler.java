@@ -0,0 +1,307 @@
+package scheduler;
+
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+
+import parse.TeXWorkBudgetExceededException;
+
+/**
+ * A scheduler that processes tex files in a pool of platform threads, at most
+ * the given number of files at the same time. The files are processed in 
+ * order of their sizes (largest first). Timeouts are enforced by a single, 
+ * shared watchdog thread that cancels (interrupts) the tasks that run for too
+ * long. 
+ * 
+ * A cancelled task may not respond to the interruption and keep its thread 
+ * busy. The number of files in process is therefore limited by permits 
+ * instead of by the number of threads: the watchdog releases the permit of a
+ * timed out file, such that the next file is processed on a new thread.
+ *
+ * @author Claudius Korzen
+ */
+public class ThreadPoolTeXFileScheduler implements TeXFileScheduler {
+  /**
+   * The number of threads to use.
+   */
+  protected final int parallelism;
+
+  /**
+   * The maximal time to spend on a single file.
+   */
+  protected final long timeout;
+
+  /**
+   * The unit of the timeout.
+   */
+  protected final TimeUnit unit;
+
+  /**
+   * The permits for files in process.
+   */
+  protected final Semaphore slots;
+
+  /**
+   * The number of files whose processing timed out.
+   */
+  protected final AtomicInteger numTimeouts = new AtomicInteger();
+
+  /**
+   * The number of files whose processing exceeded its work budget.
+   */
+  protected final AtomicInteger numExceededBudgets = new AtomicInteger();
+
+  /**
+   * The number of files whose processing didn't start yet.
+   */
+  protected final AtomicInteger numQueuedFiles = new AtomicInteger();
+
+  /**
+   * The number of files in process.
+   */
+  protected final AtomicInteger numActiveFiles = new AtomicInteger();
+
+  /**
+   * The time spent on processing files, in nanoseconds.
+   */
+  protected final LongAdder busyNanos = new LongAdder();
+
+  /**
+   * Creates a new scheduler that processes the files in the given number of
+   * threads and cancels each file that takes longer than the given timeout. 
+   * A timeout <= 0 disables the timeouts.
+   */
+  public ThreadPoolTeXFileScheduler(int parallelism, long timeout,
+      TimeUnit unit) {
+    this.parallelism = Math.max(1, parallelism);
+    this.timeout = timeout;
+    this.unit = unit;
+    // Fair, such that the files are processed in the order they were 
+    // submitted.
+    this.slots = new Semaphore(this.parallelism, true);
+  }
+
+  @Override
+  public void process(List<Path> files, Consumer<Path> task)
+    throws InterruptedException {
+    List<Path> sorted = TeXFileScheduler.sortBySizeDescending(files);
+
+    ExecutorService executor = createExecutor();
+    ScheduledExecutorService watchdog = Executors.newSingleThreadScheduledExecutor(
+        newThreadFactory("tex-file-watchdog"));
+
+    CountDownLatch latch = new CountDownLatch(sorted.size());
+    this.numQueuedFiles.addAndGet(sorted.size());
+    try {
+      for (Path file : sorted) {
+        beforeSubmit();
+        executor.execute(new TeXFileTask(file, task, watchdog, latch));
+      }
+      // Wait until each file was processed or timed out.
+      latch.await();
+    } finally {
+      executor.shutdownNow();
+      watchdog.shutdownNow();
+      // The files that weren't started yet won't be started anymore.
+      this.numQueuedFiles.set(0);
+    }
+  }
+
+  /**
+   * Creates the executor that processes the files.
+   */
+  protected ExecutorService createExecutor() {
+    // The number of files in process is limited by the slots, so the pool 
+    // starts a new thread if the threads are busy with timed out files. The
+    // worker threads are daemons, such that a task that doesn't respond to 
+    // cancellation doesn't prevent the JVM from exiting.
+    return Executors.newCachedThreadPool(newThreadFactory("tex-file-worker"));
+  }
+
+  /**
+   * Is called before a file is submitted to the executor. Blocks to limit
+   * the number of files in process.
+   */
+  protected void beforeSubmit() throws InterruptedException {
+    this.slots.acquire();
+  }
+
+  /**
+   * Is called after a file was processed or timed out (in which case its 
+   * task may still be running).
+   */
+  protected void afterFinish() {
+    this.slots.release();
+  }
+
+  /**
+   * Is called when the task of a file stopped running (after 
+   * {@link #afterFinish()}, possibly long after a timeout).
+   */
+  protected void afterExit() {
+    // Nothing to do by default.
+  }
+
+  @Override
+  public int getNumTimeouts() {
+    return this.numTimeouts.get();
+  }
+
+  @Override
+  public int getNumExceededBudgets() {
+    return this.numExceededBudgets.get();
+  }
+
+  @Override
+  public int getParallelism() {
+    return this.parallelism;
+  }
+
+  @Override
+  public int getNumQueuedFiles() {
+    return this.numQueuedFiles.get();
+  }
+
+  @Override
+  public int getNumActiveFiles() {
+    return this.numActiveFiles.get();
+  }
+
+  @Override
+  public long getBusyNanos() {
+    return this.busyNanos.sum();
+  }
+
+  /**
+   * Creates a thread factory that creates daemon threads with given name.
+   */
+  protected static ThreadFactory newThreadFactory(final String name) {
+    final AtomicInteger num = new AtomicInteger();
+    return r -> {
+      Thread thread = new Thread(r, name + "-" + num.incrementAndGet());
+      thread.setDaemon(true);
+      return thread;
+    };
+  }
+
+  // ___________________________________________________________________________
+
+  /**
+   * A task that processes a single tex file and is cancelled by the watchdog
+   * on timeout.
+   */
+  class TeXFileTask extends FutureTask<Void> {
+    /**
+     * The file to process.
+     */
+    protected final Path file;
+
+    /**
+     * The watchdog that cancels this task on timeout.
+     */
+    protected final ScheduledExecutorService watchdog;
+
+    /**
+     * The latch to count down when this task is finished.
+     */
+    protected final CountDownLatch latch;
+
+    /**
+     * The flag to indicate whether this task is finished (or timed out).
+     */
+    protected final AtomicBoolean finished = new AtomicBoolean();
+
+    /**
+     * Creates a new task that processes the given file by the given task.
+     */
+    TeXFileTask(Path file, Consumer<Path> task,
+        ScheduledExecutorService watchdog, CountDownLatch latch) {
+      super(() -> task.accept(file), null);
+      this.file = file;
+      this.watchdog = watchdog;
+      this.latch = latch;
+    }
+
+    @Override
+    public void run() {
+      numQueuedFiles.decrementAndGet();
+      numActiveFiles.incrementAndGet();
+      long start = System.nanoTime();
+      ScheduledFuture<?> timer = null;
+      if (timeout > 0) {
+        timer = watchdog.schedule(this::timeout, timeout, unit);
+      }
+      try {
+        super.run();
+        reportError();
+      } finally {
+        if (timer != null) {
+          timer.cancel(false);
+        }
+        busyNanos.add(System.nanoTime() - start);
+        numActiveFiles.decrementAndGet();
+        finish();
+        afterExit();
+      }
+    }
+
+    /**
+     * Cancels this task because it timed out.
+     */
+    protected void timeout() {
+      if (!isDone() && cancel(true)) {
+        numTimeouts.incrementAndGet();
+        System.err.println("Timeout on processing: " + this.file);
+        // Don't wait for the task to respond to the interruption.
+        finish();
+      }
+    }
+
+    /**
+     * Reports the error that occurred on processing the file, if any. The task
+     * is responsible for handling exceptions, so this are usually errors like
+     * a StackOverflowError, or an exceeded work budget (which is counted).
+     */
+    protected void reportError() {
+      if (isCancelled()) {
+        return;
+      }
+      try {
+        get();
+      } catch (ExecutionException e) {
+        if (e.getCause() instanceof TeXWorkBudgetExceededException) {
+          numExceededBudgets.incrementAndGet();
+          System.err.println("Work budget exceeded on processing: " + this.file + ": "
+              + e.getCause().getMessage());
+          return;
+        }
+        System.err.println("Error on processing: " + this.file + ": " + e.getCause());
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+    }
+
+    /**
+     * Marks this task as finished.
+     */
+    protected void finish() {
+      if (this.finished.compareAndSet(false, true)) {
+        this.latch.countDown();
+        afterFinish();
+      }
+    }
+  }
+}
@@ -0,0 +1,124 @@
+package serializer;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+
+import binary.TeXBinaryFormat;
+import de.freiburg.iif.collection.IntRangeSet;
+import model.TeXFile;
+import model.TeXParagraph;
+import model.TeXWordBuffer;
+
+/**
+ * Class to serialize the paragraphs of a tex file to the compact binary 
+ * format described in {@link TeXBinaryFormat}. Like the tsv serializer, it
+ * writes all paragraphs with their role, line numbers and (trimmed) text.
+ * 
+ * Unlike the textual formats, the binary format can only be written to files
+ * and streams, not to character writers.
+ * 
+ * @author Claudius Korzen
+ */
+public class TeXParagraphBinarySerializer extends TeXParagraphSerializer {
+  /**
+   * The ids of the roles written so far.
+   */
+  protected final Map<String, Integer> roleIds = new HashMap<>();
+
+  /**
+   * The buffer to encode a paragraph into.
+   */
+  protected final EncodingBuffer encoded = new EncodingBuffer();
+
+  /**
+   * The default constructor.
+   */
+  public TeXParagraphBinarySerializer(TeXFile texFile) {
+    super(texFile);
+  }
+
+  @Override
+  protected void encodeHeader(Utf8ChannelWriter out) throws IOException {
+    // The role dictionary is built up per document.
+    roleIds.clear();
+    out.writeBytes(ByteBuffer.wrap(TeXBinaryFormat.MAGIC));
+  }
+
+  @Override
+  protected boolean encodeParagraph(Utf8ChannelWriter out, TeXParagraph para,
+      int index) throws IOException {
+    encoded.reset();
+
+    // The role, defined on its first occurrence.
+    String role = para.getRole();
+    if (role == null) {
+      TeXBinaryFormat.writeVarint(encoded, TeXBinaryFormat.NO_ROLE);
+    } else {
+      Integer roleId = roleIds.get(role);
+      if (roleId != null) {
+        TeXBinaryFormat.writeVarint(encoded, roleId);
+      } else {
+        roleId = roleIds.size() + 1;
+        roleIds.put(role, roleId);
+        TeXBinaryFormat.writeVarint(encoded, roleId);
+        writeBytes(role.getBytes(StandardCharsets.UTF_8));
+      }
+    }
+
+    // The line numbers, delta-encoded (streamed from the ranges of lines).
+    IntRangeSet lines = para.getTexLineNumberSet();
+    TeXBinaryFormat.writeVarint(encoded, lines.size());
+    for (int i = 0; i < lines.getNumRanges(); i++) {
+      int start = lines.getRangeStart(i);
+      int end = lines.getRangeEnd(i);
+      if (i == 0) {
+        TeXBinaryFormat.writeZigzagVarint(encoded, start);
+      } else {
+        TeXBinaryFormat.writeVarint(encoded, start - lines.getRangeEnd(i - 1));
+      }
+      // All following lines of the range have a delta of 1.
+      for (int line = start; line != end; line++) {
+        TeXBinaryFormat.writeVarint(encoded, 1);
+      }
+    }
+
+    // The (trimmed) text, encoded directly from the buffer of the words.
+    TeXWordBuffer text = para.getWordBuffer();
+    int start = text.trimStart(0, text.length());
+    int end = text.trimEnd(start, text.length());
+    ByteBuffer bytes = StandardCharsets.UTF_8.encode(
+        text.toCharBuffer(start, end));
+    TeXBinaryFormat.writeVarint(encoded, bytes.remaining());
+    encoded.write(bytes.array(), bytes.arrayOffset() + bytes.position(),
+        bytes.remaining());
+
+    out.writeBytes(encoded.toByteBuffer());
+    return true;
+  }
+
+  /**
+   * Writes the given bytes, prefixed by their length, to the encoding buffer.
+   */
+  protected void writeBytes(byte[] bytes) {
+    TeXBinaryFormat.writeVarint(encoded, bytes.length);
+    encoded.write(bytes, 0, bytes.length);
+  }
+
+  // ___________________________________________________________________________
+
+  /**
+   * A byte array output stream that exposes its content without copying.
+   */
+  protected static class EncodingBuffer extends ByteArrayOutputStream {
+    /**
+     * Returns the content of this buffer as a byte buffer (without copying).
+     */
+    public ByteBuffer toByteBuffer() {
+      return ByteBuffer.wrap(buf, 0, count);
+    }
+  }
+}
@@ -1,18 +1,12 @@
 package serializer;
 
-import java.io.BufferedWriter;
 import java.io.IOException;
-import java.io.OutputStream;
-import java.io.OutputStreamWriter;
-import java.nio.file.Files;
+import java.io.Writer;
 import java.nio.file.Path;
-import java.util.ArrayList;
-import java.util.List;
 
-import de.freiburg.iif.collection.CollectionUtils;
 import model.TeXFile;
 import model.TeXParagraph;
-import model.TeXWord;
+import model.TeXWordBuffer;
 
 /**
  * Class to serialize the paragraphs of a tex file to plain txt file, where
@@ -20,117 +14,101 @@ import model.TeXWord;
  * 
  * @author Claudius Korzen
  */
-public class TeXParagraphExtendedTxtSerializer {
+public class TeXParagraphExtendedTxtSerializer
+    extends TeXParagraphTextSerializer {
   /**
-   * The tex file to process.
+   * The prefix of the source in the header, if the positions refer to a
+   * resolved text that was only held in memory (and not written to a file).
    */
-  protected TeXFile texFile;
+  public static final String RESOLVED_IN_MEMORY_PREFIX = "resolved-in-memory:";
 
   /**
    * The default constructor.
    */
   public TeXParagraphExtendedTxtSerializer(TeXFile texFile) {
-    this.texFile = texFile;
+    super(texFile);
   }
 
-  /**
-   * Serializes the paragraphs of given tex file to given path.
-   */
-  public void serialize(Path target) throws IOException {
-    serialize(target, null);
+  @Override
+  protected void writeHeader(Writer writer) throws IOException {
+    // Write the source file to the header of the file. The line numbers refer
+    // to the intermediate file with the resolved macros. If it wasn't written
+    // (the macros were resolved in memory only), the positions don't refer to
+    // the original tex file, which is marked by a prefix.
+    Path tmpPath = texFile.getRelativeTmpPath();
+    String source = tmpPath != null ? tmpPath.toString()
+        : RESOLVED_IN_MEMORY_PREFIX + texFile.getRelativePath();
+    writer.write("##source\t" + source + "\n");
   }
 
-  /**
-   * Serializes the paragraphs of given tex file to given path.
-   */
-  public void serialize(Path target, List<String> roles) throws IOException {
-    // Create the target file if it doesn't exist yet.
-    if (!Files.exists(target)) {
-      Files.createDirectories(target.getParent());
-      Files.createFile(target);
-    }
-
-    try (OutputStream stream = Files.newOutputStream(target)) {
-      serializeTeXParagraphs(stream, roles);
-    }
-  }
-
-  /**
-   * Serializes the paragraphs of given tex file to given output stream.
-   */
-  public void serializeTeXParagraphs(OutputStream s, List<String> roles)
+  @Override
+  protected boolean writeParagraph(Writer writer, TeXParagraph para, int index)
     throws IOException {
-    try (BufferedWriter w = new BufferedWriter(new OutputStreamWriter(s))) {
-      serializeTeXParagraphs(w, roles);  
-    }
-  }
+    TeXWordBuffer words = para.getWordBuffer();
 
-  /**
-   * Serializes the paragraphs of given tex file to given writer.
-   */
-  public void serializeTeXParagraphs(BufferedWriter writer, List<String> roles)
-    throws IOException {
-    List<TeXParagraph> paragraphs = texFile.getTeXParagraphs();
+    // The words are written directly from the buffer. The whitespaces between
+    // the words are deferred until the next written word, such that the
+    // paragraph is written trimmed (without building its text first).
+    boolean written = false;
+    int pendingWhitespaces = 0;
 
-    if (paragraphs == null) {
-      return;
-    }
+    for (int i = 0; i < words.getNumWords(); i++) {
+      int start = words.trimStart(words.getWordStart(i), words.getWordEnd(i));
+      int end = words.trimEnd(start, words.getWordEnd(i));
+      String position = "(" + words.getWordLineNumber(i) + ","
+          + words.getWordColumnNumber(i) + ")";
 
-    // Create list of paragraph texts.
-    List<String> paraTexts = new ArrayList<>();
-    for (TeXParagraph para : paragraphs) {
-      // Don't consider the paragraph if there is a list of roles given and
-      // it doesn't contain the role of the paragraph.
+      // FIXME: In case of a cite follows the word, the word is "xxx [cite]"
+      // Split them into words.
+      int subStart = start;
+      while (true) {
+        int subEnd = subStart;
+        while (subEnd < end && !isWhitespace(words.charAt(subEnd))) {
+          subEnd++;
+        }
 
-      if (roles != null && !roles.contains(para.getRole())) {
-        continue;
-      }
-      
-      List<TeXWord> words = para.getWords();
-      
-      StringBuilder paraText = new StringBuilder();
-      
-      for (int i = 0; i < words.size(); i++) {
-        TeXWord word = words.get(i);
-        String text = word.text.trim();
-        int lineNumber = word.lineNumber;
-        int columnNumber = word.columnNumber;
-        
-        // FIXME: In case of a cite follows the word, the word is "xxx [cite]"
-        // Split them into words.
-        String[] subwords = text.split("\\s");
-        
-        for (int j = 0; j < subwords.length; j++) {
-          String subtext = subwords[j];
-          if (!subtext.trim().isEmpty()) {
-            paraText.append(subwords[j]);
-            paraText.append("(" + lineNumber + "," + columnNumber + ")");
-            
-            if (j < subwords.length - 1) {
-              paraText.append(" ");
+        if (words.trimStart(subStart, subEnd) < subEnd) {
+          if (!written) {
+            // Separate the texts by a double newline.
+            if (index > 0) {
+              writer.write("\n\n");
             }
+            subStart = words.trimStart(subStart, subEnd);
+            pendingWhitespaces = 0;
+            written = true;
+          }
+          for (; pendingWhitespaces > 0; pendingWhitespaces--) {
+            writer.write(' ');
+          }
+          words.write(writer, subStart, subEnd);
+          writer.write(position);
+
+          // The last subword is followed by the whitespace between the words.
+          if (subEnd < end) {
+            pendingWhitespaces++;
           }
         }
-        
-        if (i < words.size() - 1) {
-          paraText.append(" ");
+
+        if (subEnd >= end) {
+          break;
         }
+        subStart = subEnd + 1;
       }
-      
-      String text = paraText.toString();
-
-      if (text != null) {
-        text = text.trim();
 
-        if (!text.isEmpty()) {
-          paraTexts.add(text);
-        }
+      if (i < words.getNumWords() - 1) {
+        pendingWhitespaces++;
       }
     }
 
-    // Write the source file to the header of the file.
-    writer.write("##source\t" + texFile.getRelativeTmpPath() + "\n");
-    // Join the text by a double newline.
-    writer.write(CollectionUtils.join(paraTexts, "\n\n"));
+    return written;
+  }
+
+  /**
+   * Returns true if the given character is a whitespace, as matched by the
+   * regular expression "\\s".
+   */
+  protected static boolean isWhitespace(char c) {
+    return c == ' ' || c == '\t' || c == '\n' || c == '\u000B' || c == '\f'
+        || c == '\r';
   }
 }
@@ -0,0 +1,320 @@
+package serializer;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.function.Consumer;
+
+import model.TeXFile;
+import model.TeXParagraph;
+
+/**
+ * The base class of the serializers of the paragraphs of a tex file. The
+ * paragraphs are written one by one to a {@link Sink}, such that a paragraph
+ * can be serialized as soon as it was identified (without collecting all the
+ * paragraphs of the tex file in memory first).
+ *
+ * The output is always written as bytes, to a file or a stream. Textual
+ * formats are encoded as UTF-8 and can also be written to character writers,
+ * see {@link TeXParagraphTextSerializer}.
+ *
+ * @author Claudius Korzen
+ */
+public abstract class TeXParagraphSerializer {
+  /**
+   * The supported output formats.
+   */
+  public static final List<String> FORMATS =
+      Arrays.asList("txt", "txt2", "tsv", "bin");
+
+  /**
+   * The tex file to process.
+   */
+  protected TeXFile texFile;
+
+  /**
+   * The default constructor.
+   */
+  public TeXParagraphSerializer(TeXFile texFile) {
+    this.texFile = texFile;
+  }
+
+  /**
+   * Creates the serializer of the given tex file for the given output format
+   * (one of {@link #FORMATS}). Returns null if the format isn't supported.
+   */
+  public static TeXParagraphSerializer forFormat(String format,
+      TeXFile texFile) {
+    if (format == null) {
+      return null;
+    }
+    switch (format) {
+      case "txt":
+        return new TeXParagraphTxtSerializer(texFile);
+      case "txt2":
+        return new TeXParagraphExtendedTxtSerializer(texFile);
+      case "tsv":
+        return new TeXParagraphTsvSerializer(texFile);
+      case "bin":
+        return new TeXParagraphBinarySerializer(texFile);
+      default:
+        return null;
+    }
+  }
+
+  // ---------------------------------------------------------------------------
+
+  /**
+   * Serializes the paragraphs of given tex file to given path.
+   */
+  public void serialize(Path target) throws IOException {
+    serialize(target, null);
+  }
+
+  /**
+   * Serializes the paragraphs of given tex file to given path.
+   */
+  public void serialize(Path target, List<String> roles) throws IOException {
+    try (Sink sink = open(target, roles)) {
+      serializeTeXParagraphs(sink);
+      sink.commit();
+    }
+  }
+
+  /**
+   * Serializes the paragraphs of given tex file to given output stream.
+   */
+  public void serializeTeXParagraphs(OutputStream stream, List<String> roles)
+    throws IOException {
+    try (Sink sink = open(stream, roles)) {
+      serializeTeXParagraphs(sink);
+      sink.commit();
+    }
+  }
+
+  /**
+   * Passes the paragraphs of given tex file to the given sink.
+   */
+  protected void serializeTeXParagraphs(Sink sink) throws IOException {
+    List<TeXParagraph> paragraphs = texFile.getTeXParagraphs();
+
+    if (paragraphs == null) {
+      return;
+    }
+
+    try {
+      paragraphs.forEach(sink);
+    } catch (UncheckedIOException e) {
+      throw e.getCause();
+    }
+  }
+
+  // ---------------------------------------------------------------------------
+
+  /**
+   * Opens a sink that serializes the paragraphs passed to it to the given
+   * path. The paragraphs are written to a temporary file in the directory
+   * of the target, which is moved to the target on {@link Sink#commit()}
+   * and deleted if the sink is closed without being committed.
+   */
+  public Sink open(Path target, List<String> roles) throws IOException {
+    Path dir = target.toAbsolutePath().getParent();
+    Files.createDirectories(dir);
+    // Don't use Files.createTempFile(), which restricts the permissions.
+    Path tmp = dir.resolve("." + target.getFileName() + "."
+        + Long.toHexString(ThreadLocalRandom.current().nextLong()) + ".tmp");
+
+    FileChannel channel = FileChannel.open(tmp, StandardOpenOption.WRITE,
+        StandardOpenOption.CREATE_NEW);
+    try {
+      return new Sink(new Utf8ChannelWriter(channel), roles, tmp, target);
+    } catch (RuntimeException e) {
+      channel.close();
+      Files.deleteIfExists(tmp);
+      throw e;
+    }
+  }
+
+  /**
+   * Opens a sink that serializes the paragraphs passed to it to the given
+   * stream. The stream is closed on closing the sink.
+   */
+  public Sink open(OutputStream stream, List<String> roles) {
+    return new Sink(new Utf8ChannelWriter(Channels.newChannel(stream)), roles);
+  }
+
+  // ---------------------------------------------------------------------------
+
+  /**
+   * Encodes the header of the serialization (if any). It is written before
+   * the first paragraph, not on opening the sink, because it may depend on
+   * properties of the tex file that are only known once the parsing started.
+   */
+  protected void encodeHeader(Utf8ChannelWriter out) throws IOException {
+
+  }
+
+  /**
+   * Encodes the given paragraph. The given index is the number of paragraphs
+   * written before. Returns true if the paragraph was written, false if it
+   * was omitted (e.g., because it is empty).
+   */
+  protected abstract boolean encodeParagraph(Utf8ChannelWriter out,
+      TeXParagraph para, int index) throws IOException;
+
+  /**
+   * Returns true if the given paragraph is to be serialized, that is if it
+   * isn't null and if its role is contained in the given roles (null for
+   * all roles).
+   */
+  protected static boolean isSelected(TeXParagraph para, List<String> roles) {
+    return para != null && (roles == null || roles.contains(para.getRole()));
+  }
+
+  // ___________________________________________________________________________
+
+  /**
+   * A consumer of paragraphs that serializes each given paragraph
+   * immediately. Paragraphs whose role isn't contained in the given roles
+   * are ignored. Any IOException is rethrown as UncheckedIOException.
+   */
+  public class Sink implements Consumer<TeXParagraph>, Closeable {
+    /**
+     * The writer to write to.
+     */
+    protected final Utf8ChannelWriter writer;
+
+    /**
+     * The roles of the paragraphs to serialize (null for all roles).
+     */
+    protected final List<String> roles;
+
+    /**
+     * The temporary file to write to (null if not writing to a file).
+     */
+    protected final Path tmpFile;
+
+    /**
+     * The target file (null if not writing to a file).
+     */
+    protected final Path targetFile;
+
+    /**
+     * The number of written paragraphs.
+     */
+    protected int numParagraphs;
+
+    /**
+     * The flag that indicates whether the header was written.
+     */
+    protected boolean headerWritten;
+
+    /**
+     * The flag that indicates whether the sink was committed.
+     */
+    protected boolean committed;
+
+    /**
+     * Creates a new sink that writes to the given writer.
+     */
+    protected Sink(Utf8ChannelWriter writer, List<String> roles) {
+      this(writer, roles, null, null);
+    }
+
+    /**
+     * Creates a new sink that writes to the given writer, which writes to
+     * the given temporary file.
+     */
+    protected Sink(Utf8ChannelWriter writer, List<String> roles, Path tmpFile,
+        Path targetFile) {
+      this.writer = writer;
+      this.roles = roles;
+      this.tmpFile = tmpFile;
+      this.targetFile = targetFile;
+    }
+
+    @Override
+    public void accept(TeXParagraph para) {
+      // Don't consider the paragraph if there is a list of roles given and
+      // it doesn't contain the role of the paragraph.
+      if (!isSelected(para, roles)) {
+        return;
+      }
+
+      try {
+        ensureHeaderWritten();
+        if (encodeParagraph(writer, para, numParagraphs)) {
+          numParagraphs++;
+        }
+      } catch (IOException e) {
+        throw new UncheckedIOException(e);
+      }
+    }
+
+    /**
+     * Writes the header, if it wasn't written yet.
+     */
+    protected void ensureHeaderWritten() throws IOException {
+      if (!headerWritten) {
+        encodeHeader(writer);
+        headerWritten = true;
+      }
+    }
+
+    /**
+     * Writes the header (if it wasn't written yet) and flushes the writer.
+     */
+    protected void finish() throws IOException {
+      ensureHeaderWritten();
+      writer.flush();
+    }
+
+    /**
+     * Completes the serialization: closes the writer and moves the
+     * temporary file to the target file.
+     */
+    public void commit() throws IOException {
+      finish();
+      writer.close();
+      if (tmpFile != null) {
+        Files.move(tmpFile, targetFile, StandardCopyOption.REPLACE_EXISTING);
+      }
+      committed = true;
+    }
+
+    /**
+     * Returns the number of written paragraphs.
+     */
+    public int getNumParagraphs() {
+      return numParagraphs;
+    }
+
+    /**
+     * Closes the writer. Deletes the temporary file if the sink wasn't
+     * committed.
+     */
+    @Override
+    public void close() throws IOException {
+      if (committed) {
+        return;
+      }
+      try {
+        writer.close();
+      } finally {
+        if (tmpFile != null) {
+          Files.deleteIfExists(tmpFile);
+        }
+      }
+    }
+  }
+}
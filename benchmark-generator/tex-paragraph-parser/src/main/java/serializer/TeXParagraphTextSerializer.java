@@ -0,0 +1,76 @@
+package serializer;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.List;
+
+import model.TeXFile;
+import model.TeXParagraph;
+
+/**
+ * The base class of the serializers of the paragraphs of a tex file to a
+ * textual format. In addition to files and streams (where the text is encoded
+ * as UTF-8), the paragraphs can be written to character writers.
+ *
+ * @author Claudius Korzen
+ */
+public abstract class TeXParagraphTextSerializer
+    extends TeXParagraphSerializer {
+  /**
+   * The default constructor.
+   */
+  public TeXParagraphTextSerializer(TeXFile texFile) {
+    super(texFile);
+  }
+
+  /**
+   * Serializes the paragraphs of given tex file to given writer. The writer
+   * isn't closed.
+   */
+  public void serializeTeXParagraphs(BufferedWriter writer, List<String> roles)
+    throws IOException {
+    List<TeXParagraph> paragraphs = texFile.getTeXParagraphs();
+
+    writeHeader(writer);
+    if (paragraphs != null) {
+      int numParagraphs = 0;
+      for (TeXParagraph para : paragraphs) {
+        if (isSelected(para, roles)
+            && writeParagraph(writer, para, numParagraphs)) {
+          numParagraphs++;
+        }
+      }
+    }
+    writer.flush();
+  }
+
+  // ---------------------------------------------------------------------------
+
+  @Override
+  protected final void encodeHeader(Utf8ChannelWriter out)
+    throws IOException {
+    writeHeader(out);
+  }
+
+  @Override
+  protected final boolean encodeParagraph(Utf8ChannelWriter out,
+      TeXParagraph para, int index) throws IOException {
+    return writeParagraph(out, para, index);
+  }
+
+  /**
+   * Writes the header of the serialization (if any).
+   */
+  protected void writeHeader(Writer writer) throws IOException {
+
+  }
+
+  /**
+   * Writes the given paragraph. The given index is the number of paragraphs
+   * written before. Returns true if the paragraph was written, false if it
+   * was omitted (e.g., because it is empty).
+   */
+  protected abstract boolean writeParagraph(Writer writer, TeXParagraph para,
+      int index) throws IOException;
+}
@@ -1,15 +1,11 @@
 package serializer;
 
-import java.io.BufferedWriter;
 import java.io.IOException;
-import java.io.OutputStream;
-import java.io.OutputStreamWriter;
-import java.nio.file.Files;
-import java.nio.file.Path;
-import java.util.List;
+import java.io.Writer;
 
 import model.TeXFile;
 import model.TeXParagraph;
+import model.TeXWordBuffer;
 
 /**
  * Class to serialize the paragraphs of a tex file.
@@ -17,78 +13,47 @@ import model.TeXParagraph;
  * @author Claudius Korzen
  *
  */
-public class TeXParagraphTsvSerializer {
+public class TeXParagraphTsvSerializer extends TeXParagraphTextSerializer {
   /**
-   * The tex file to process.
+   * The line separator (as written by BufferedWriter.newLine()).
    */
-  protected TeXFile texFile;
-    
+  protected static final String LINE_SEPARATOR = System.lineSeparator();
+
   /**
    * The default constructor.
    */
   public TeXParagraphTsvSerializer(TeXFile texFile) {
-    this.texFile = texFile;
-  }
-  
-  /**
-   * Serializes the paragraphs of given tex file to given path.
-   */
-  public void serialize(Path target) throws IOException {
-    serialize(target, null);
-  }
-  
-  /**
-   * Serializes the paragraphs of given tex file to given path.
-   */
-  public void serialize(Path target, List<String> roles) throws IOException {
-    // Create the target file if it doesn't exist yet.
-    if (!Files.exists(target)) {
-      Files.createDirectories(target.getParent());
-      Files.createFile(target);
-    }
-    
-    try (OutputStream stream = Files.newOutputStream(target)) {
-      serializeTeXParagraphs(stream, roles);
-    }
+    super(texFile);
   }
-  
-  /**
-   * Serializes the paragraphs of given tex file to given output stream.
-   */
-  public void serializeTeXParagraphs(OutputStream stream, List<String> roles) 
-      throws IOException {
-    try (BufferedWriter writer = 
-        new BufferedWriter(new OutputStreamWriter(stream))) {
-      serializeTeXParagraphs(writer, roles);  
-    }
-  }
-  
-  /**
-   * Serializes the paragraphs of given tex file to given writer.
-   * @throws IOException if something went wrong.
-   */
-  public void serializeTeXParagraphs(BufferedWriter writer, List<String> roles) 
-      throws IOException {
+
+  @Override
+  protected void writeHeader(Writer writer) throws IOException {
     writer.write(String.format("%s\t%s\t%s\t%s\t%s", 
         "feature", "start line", "end line", "bounding boxes", "text"));
-    writer.newLine();
+    writer.write(LINE_SEPARATOR);
+  }
+
+  @Override
+  protected boolean writeParagraph(Writer writer, TeXParagraph para, int index)
+    throws IOException {
+    String feature = para.getRole() != null ? para.getRole() : "text";
+    // The start and end line are read from the ranges of lines in O(1).
+    int startLine = para.getTexStartLine();
+    int endLine = para.getTexEndLine();
     
-    for (TeXParagraph para : texFile.getTeXParagraphs()) {
-      // Don't consider the paragraph if there is a list of roles given and
-      // it doesn't contain the role of the paragraph.
-      if (roles != null && !roles.contains(para.getRole())) {
-        continue;
-      }
-            
-      String feature = para.getRole() != null ? para.getRole() : "text";
-      int startLine = para.getTexStartLine();
-      int endLine = para.getTexEndLine();
-      
-      String text = para.getText().trim();
-      
-      writer.write(String.format("%s\t%d\t%d\t%s", feature, startLine, endLine,
-          text));
-      writer.newLine();
-    }
+    TeXWordBuffer text = para.getWordBuffer();
+    int start = text.trimStart(0, text.length());
+    int end = text.trimEnd(start, text.length());
+
+    // Write the fields directly, instead of formatting a row string first.
+    writer.write(feature);
+    writer.write('\t');
+    writer.write(Integer.toString(startLine));
+    writer.write('\t');
+    writer.write(Integer.toString(endLine));
+    writer.write('\t');
+    text.write(writer, start, end);
+    writer.write(LINE_SEPARATOR);
+    return true;
   }
 }
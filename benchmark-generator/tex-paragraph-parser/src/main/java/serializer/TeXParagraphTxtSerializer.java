@@ -1,107 +1,42 @@
 package serializer;
 
-import java.io.BufferedWriter;
 import java.io.IOException;
-import java.io.OutputStream;
-import java.io.OutputStreamWriter;
-import java.nio.file.Files;
-import java.nio.file.Path;
-import java.util.ArrayList;
-import java.util.List;
+import java.io.Writer;
 
-import de.freiburg.iif.collection.CollectionUtils;
 import model.TeXFile;
 import model.TeXParagraph;
+import model.TeXWordBuffer;
 
 /**
  * Class to serialize the paragraphs of a tex file to plain txt file.
  * 
  * @author Claudius Korzen
  */
-public class TeXParagraphTxtSerializer {
-  /**
-   * The tex file to process.
-   */
-  protected TeXFile texFile;
-
+public class TeXParagraphTxtSerializer extends TeXParagraphTextSerializer {
   /**
    * The default constructor.
    */
   public TeXParagraphTxtSerializer(TeXFile texFile) {
-    this.texFile = texFile;
-  }
-
-  /**
-   * Serializes the paragraphs of given tex file to given path.
-   */
-  public void serialize(Path target) throws IOException {
-    serialize(target, null);
-  }
-
-  /**
-   * Serializes the paragraphs of given tex file to given path.
-   */
-  public void serialize(Path target, List<String> roles) throws IOException {
-    // Create the target file if it doesn't exist yet.
-    if (!Files.exists(target)) {
-      Files.createDirectories(target.getParent());
-      Files.createFile(target);
-    }
-
-    try (OutputStream stream = Files.newOutputStream(target)) {
-      serializeTeXParagraphs(stream, roles);
-    }
+    super(texFile);
   }
 
-  /**
-   * Serializes the paragraphs of given tex file to given output stream.
-   */
-  public void serializeTeXParagraphs(OutputStream stream, List<String> roles)
-    throws IOException {
-    try (BufferedWriter writer 
-        = new BufferedWriter(new OutputStreamWriter(stream))) {
-      serializeTeXParagraphs(writer, roles);  
-    }
-  }
-
-  /**
-   * Serializes the paragraphs of given tex file to given writer.
-   */
-  public void serializeTeXParagraphs(BufferedWriter writer,
-      List<String> roles)
+  @Override
+  protected boolean writeParagraph(Writer writer, TeXParagraph para, int index)
     throws IOException {
-    List<TeXParagraph> paragraphs = texFile.getTeXParagraphs();
+    // Write the trimmed text directly from the buffer of the words.
+    TeXWordBuffer text = para.getWordBuffer();
+    int start = text.trimStart(0, text.length());
+    int end = text.trimEnd(start, text.length());
 
-    if (paragraphs == null) {
-      return;
+    if (start == end) {
+      return false;
     }
 
-    // Create list of paragraph texts.
-    List<String> paraTexts = new ArrayList<>();
-    for (TeXParagraph para : paragraphs) {
-      // Don't serialize any paragraphs that don't have any pdf paragraphs.
-
-      if (para != null) {
-        // Don't consider the paragraph if there is a list of roles given and
-        // it doesn't contain the role of the paragraph.
-
-        if (roles != null && !roles.contains(para.getRole())) {
-          continue;
-        }
-
-        String text = para.getText();
-
-        if (text != null) {
-          text = text.trim();
-
-          if (!text.isEmpty()) {
-            paraTexts.add(text);
-          }
-        }
-      }
+    // Separate the texts by a double newline.
+    if (index > 0) {
+      writer.write("\n\n");
     }
-
-    // Join the text by a double newline.
-    writer.write(CollectionUtils.join(paraTexts, "\n\n"));
+    text.write(writer, start, end);
+    return true;
   }
 }
@@ -0,0 +1,246 @@
+package serializer;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A writer that encodes the written characters as UTF-8 (independent of the
+ * platform's default charset) into a byte buffer and writes the buffer to a
+ * channel whenever it is full.
+ *
+ * The byte buffer is borrowed from a small shared pool on construction and
+ * is returned on closing the writer, such that the buffers are reused for all
+ * the serialized files. The pool is bounded, so that the direct memory held
+ * doesn't grow with the number of threads (e.g., of virtual threads).
+ *
+ * @author Claudius Korzen
+ */
+public class Utf8ChannelWriter extends Writer {
+  /**
+   * The size of the byte buffers.
+   */
+  public static final int BUFFER_SIZE = 1 << 16;
+
+  /**
+   * The maximum number of byte buffers kept in the pool.
+   */
+  public static final int MAX_POOLED_BUFFERS =
+      Math.max(4, 2 * Runtime.getRuntime().availableProcessors());
+
+  /**
+   * The byte buffers that aren't borrowed by a writer at the moment.
+   */
+  protected static final Queue<ByteBuffer> BUFFERS =
+      new ConcurrentLinkedQueue<>();
+
+  /**
+   * The number of byte buffers in the pool (the size of the queue is
+   * computed in linear time).
+   */
+  protected static final AtomicInteger NUM_POOLED_BUFFERS = new AtomicInteger();
+
+  /**
+   * The channel to write to.
+   */
+  protected final WritableByteChannel channel;
+
+  /**
+   * The encoder. Malformed input (like a lone surrogate) is replaced by '?',
+   * just as String.getBytes() does.
+   */
+  protected final CharsetEncoder encoder = StandardCharsets.UTF_8.newEncoder()
+      .onMalformedInput(CodingErrorAction.REPLACE)
+      .onUnmappableCharacter(CodingErrorAction.REPLACE);
+
+  /**
+   * The byte buffer to encode the characters into.
+   */
+  protected ByteBuffer buffer;
+
+  /**
+   * A high surrogate at the end of the previous write, that must be encoded
+   * together with the first character of the next write (0 if there is none).
+   */
+  protected char pendingHighSurrogate;
+
+  /**
+   * The flag that indicates whether this writer was closed.
+   */
+  protected boolean closed;
+
+  /**
+   * Creates a new writer that writes to the given channel.
+   */
+  public Utf8ChannelWriter(WritableByteChannel channel) {
+    this.channel = channel;
+    this.buffer = borrowBuffer();
+  }
+
+  // ---------------------------------------------------------------------------
+
+  @Override
+  public void write(char[] chars, int offset, int length) throws IOException {
+    encode(CharBuffer.wrap(chars, offset, length), false);
+  }
+
+  @Override
+  public void write(String string, int offset, int length) throws IOException {
+    encode(CharBuffer.wrap(string, offset, offset + length), false);
+  }
+
+  @Override
+  public void write(int c) throws IOException {
+    write(new char[] { (char) c }, 0, 1);
+  }
+
+  @Override
+  public Writer append(CharSequence chars) throws IOException {
+    encode(CharBuffer.wrap(chars != null ? chars : "null"), false);
+    return this;
+  }
+
+  /**
+   * Writes the given raw bytes (e.g., of a binary format) after the 
+   * characters written so far.
+   */
+  public void writeBytes(ByteBuffer bytes) throws IOException {
+    ensureOpen();
+
+    if (bytes.remaining() > buffer.remaining()) {
+      drain();
+    }
+    if (bytes.remaining() > buffer.remaining()) {
+      // The bytes don't fit into the buffer at all.
+      while (bytes.hasRemaining()) {
+        channel.write(bytes);
+      }
+      return;
+    }
+    buffer.put(bytes);
+  }
+
+  /**
+   * Encodes the given characters into the buffer and writes the buffer to
+   * the channel whenever it is full.
+   */
+  protected void encode(CharBuffer chars, boolean endOfInput)
+    throws IOException {
+    ensureOpen();
+
+    while (pendingHighSurrogate != 0 && (chars.hasRemaining() || endOfInput)) {
+      CharBuffer pair = CharBuffer.allocate(2);
+      pair.put(pendingHighSurrogate);
+      if (chars.hasRemaining()) {
+        pair.put(chars.get());
+      }
+      pair.flip();
+      pendingHighSurrogate = 0;
+      encode(pair, endOfInput && !chars.hasRemaining());
+    }
+
+    while (true) {
+      CoderResult result = encoder.encode(chars, buffer, endOfInput);
+      if (result.isOverflow()) {
+        drain();
+      } else if (result.isUnderflow()) {
+        break;
+      } else {
+        result.throwException();
+      }
+    }
+
+    // A high surrogate at the end of the input is left by the encoder.
+    if (chars.hasRemaining()) {
+      pendingHighSurrogate = chars.get();
+    }
+  }
+
+  /**
+   * Writes the content of the buffer to the channel.
+   */
+  protected void drain() throws IOException {
+    buffer.flip();
+    while (buffer.hasRemaining()) {
+      channel.write(buffer);
+    }
+    buffer.clear();
+  }
+
+  /**
+   * Throws an exception if this writer was closed.
+   */
+  protected void ensureOpen() throws IOException {
+    if (closed) {
+      throw new IOException("The writer is closed.");
+    }
+  }
+
+  // ---------------------------------------------------------------------------
+
+  @Override
+  public void flush() throws IOException {
+    ensureOpen();
+    drain();
+  }
+
+  @Override
+  public void close() throws IOException {
+    if (closed) {
+      return;
+    }
+    try {
+      encode(CharBuffer.allocate(0), true);
+      while (encoder.flush(buffer).isOverflow()) {
+        drain();
+      }
+      drain();
+    } finally {
+      closed = true;
+      try {
+        channel.close();
+      } finally {
+        returnBuffer(buffer);
+        buffer = null;
+      }
+    }
+  }
+
+  // ---------------------------------------------------------------------------
+
+  /**
+   * Takes a byte buffer from the pool or allocates a new one if the pool is
+   * empty.
+   */
+  protected static ByteBuffer borrowBuffer() {
+    ByteBuffer buffer = BUFFERS.poll();
+    if (buffer == null) {
+      return ByteBuffer.allocateDirect(BUFFER_SIZE);
+    }
+    NUM_POOLED_BUFFERS.decrementAndGet();
+    buffer.clear();
+    return buffer;
+  }
+
+  /**
+   * Gives the given byte buffer back to the pool, unless the pool is full
+   * (then the buffer is left to the garbage collector).
+   */
+  protected static void returnBuffer(ByteBuffer buffer) {
+    if (NUM_POOLED_BUFFERS.incrementAndGet() <= MAX_POOLED_BUFFERS) {
+      buffer.clear();
+      BUFFERS.offer(buffer);
+    } else {
+      NUM_POOLED_BUFFERS.decrementAndGet();
+    }
+  }
+}
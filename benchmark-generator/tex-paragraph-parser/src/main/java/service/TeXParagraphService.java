@@ -0,0 +1,652 @@
+package service;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.InvalidPathException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.List;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+import de.freiburg.iif.metrics.Counter;
+import de.freiburg.iif.metrics.MetricsHttpServer;
+import de.freiburg.iif.net.HttpRequest;
+import de.freiburg.iif.net.HttpResponse;
+import identifier.TeXParagraphsIdentifier;
+import metrics.TeXPipelineMetrics;
+import model.TeXElementReferences;
+import model.TeXFile;
+import model.TeXParagraphParserSettings;
+import parse.TeXParserType;
+import parse.TeXSource;
+import parse.TeXWorkBudget;
+import parse.TeXWorkBudgetExceededException;
+import parse.TeXWorkBudgetExceededException.Resource;
+import serializer.TeXParagraphSerializer;
+
+/**
+ * A resident http service that identifies the paragraphs of tex files. It
+ * keeps the element references and the parsers warm between requests, so
+ * the requests don't pay the startup of the JVM and the loading of the
+ * references.
+ *
+ * The paragraphs are requested at {@link #PARAGRAPHS_PATH}, either by
+ * POSTing the content of a tex file or by GETting a tex file given by its
+ * path (relative to the root directory, if there is one). The query may
+ * contain the following parameters:
+ *
+ * <ul>
+ * <li>format: the output format (txt, txt2, tsv or bin; default: txt).</li>
+ * <li>role: a role (or role profile) of the paragraphs to return; may be
+ * given multiple times (default: all roles).</li>
+ * <li>path: the path to the tex file (GET only).</li>
+ * <li>name: the name of the posted tex file, as written to the header of
+ * txt2 (default: payload.tex).</li>
+ * </ul>
+ *
+ * Example: curl --data-binary @paper.tex "http://127.0.0.1:8080/paragraphs?format=tsv"
+ *
+ * The posted tex file is decoded while it is read from the connection (of
+ * known length or chunked), without a copy of its bytes. The paragraphs are
+ * written to the response while they are identified: a small output is
+ * answered with its length (and the status of the processing), a larger
+ * output is streamed in chunks as soon as it exceeds
+ * {@link #RESPONSE_BUFFER_SIZE}. If the processing fails after the first
+ * chunk was sent, the connection is closed without the last chunk, such
+ * that the client can tell that the output is incomplete.
+ *
+ * The number of requests processed at the same time is limited. A request
+ * waits for a free slot at most as long as its time limit and is rejected
+ * with 503 otherwise. A posted tex file is only read with a slot, and is
+ * rejected with 413 if it exceeds the maximal payload size. Each request
+ * is processed within the work budget; a request that exceeds the time
+ * limit of the budget is answered with 504, a request that exceeds another
+ * limit with 422. The metrics of the service are exposed at /metrics and
+ * /metrics.json, its health at {@link #HEALTH_PATH}.
+ *
+ * @author Claudius Korzen
+ */
+public class TeXParagraphService extends MetricsHttpServer {
+  /**
+   * The path to request the paragraphs at.
+   */
+  public static final String PARAGRAPHS_PATH = "/paragraphs";
+
+  /**
+   * The path to check the health of the service at.
+   */
+  public static final String HEALTH_PATH = "/health";
+
+  /**
+   * The default name of a posted tex file.
+   */
+  public static final String DEFAULT_NAME = "payload.tex";
+
+  /**
+   * The content type of plain texts.
+   */
+  protected static final String TEXT_CONTENT_TYPE = "text/plain; charset=utf-8";
+
+  /**
+   * The maximal number of bytes of an output that are buffered before the
+   * output is streamed.
+   */
+  protected static final int RESPONSE_BUFFER_SIZE = 64 * 1024;
+
+  /**
+   * The default maximal size of a posted tex file, in bytes.
+   */
+  public static final long DEFAULT_MAX_PAYLOAD_SIZE = 64L * 1024 * 1024;
+
+  /**
+   * The tex element references, shared by all requests.
+   */
+  protected final TeXElementReferences refs;
+
+  /**
+   * The metrics of the service.
+   */
+  protected final TeXPipelineMetrics metrics;
+
+  /**
+   * The maximal number of requests processed at the same time.
+   */
+  protected final int maxConcurrentRequests;
+
+  /**
+   * The permits to process a request.
+   */
+  protected final Semaphore permits;
+
+  /**
+   * The number of requests rejected because there was no free slot.
+   */
+  protected final Counter numRejectedRequests;
+
+  /**
+   * The parser to parse the tex files with.
+   */
+  protected TeXParserType parserType = TeXParserType.JAVACC;
+
+  /**
+   * The budget of the work to spend on a single request.
+   */
+  protected TeXWorkBudget workBudget = TeXWorkBudget.NONE;
+
+  /**
+   * The directory that contains the tex files that may be requested by path
+   * (null if no tex files may be requested by path).
+   */
+  protected Path rootDirectory;
+
+  /**
+   * The maximal size of a posted tex file, in bytes (0 for no limit).
+   */
+  protected long maxPayloadSize = DEFAULT_MAX_PAYLOAD_SIZE;
+
+  /**
+   * Creates a new service that uses the given element references and
+   * processes at most the given number of requests at the same time.
+   */
+  public TeXParagraphService(TeXElementReferences refs,
+      int maxConcurrentRequests) {
+    this(refs, maxConcurrentRequests, new TeXPipelineMetrics());
+  }
+
+  /**
+   * Creates a new service that records its metrics in the given metrics.
+   */
+  protected TeXParagraphService(TeXElementReferences refs,
+      int maxConcurrentRequests, TeXPipelineMetrics metrics) {
+    super(metrics.getRegistry());
+    this.refs = refs;
+    this.metrics = metrics;
+    this.maxConcurrentRequests = Math.max(1, maxConcurrentRequests);
+    // Fair, such that the requests are processed in order of their arrival.
+    this.permits = new Semaphore(this.maxConcurrentRequests, true);
+
+    String prefix = TeXPipelineMetrics.PREFIX + "service_";
+    this.numRejectedRequests = this.registry.counter(
+        prefix + "rejected_requests_total",
+        "The number of requests rejected because there was no free slot.");
+    this.registry.gauge(prefix + "active_requests",
+        "The number of requests in process.",
+        () -> this.maxConcurrentRequests - this.permits.availablePermits());
+    this.registry.gauge(prefix + "queued_requests",
+        "The number of requests waiting for a free slot.",
+        () -> this.permits.getQueueLength());
+    this.registry.gauge(prefix + "open_connections",
+        "The number of open (incl. idle) connections.",
+        () -> getNumConnections());
+    this.registry.gauge(prefix + "max_concurrent_requests",
+        "The maximal number of requests processed at the same time.",
+        () -> this.maxConcurrentRequests);
+  }
+
+  /**
+   * Sets the parser to parse the tex files with (the JavaCC generated parser
+   * by default).
+   */
+  public TeXParagraphService setParserType(TeXParserType parserType) {
+    this.parserType = parserType;
+    return this;
+  }
+
+  /**
+   * Sets the budget of the work to spend on a single request (no limits by
+   * default). Its time limit is the timeout of the requests.
+   */
+  public TeXParagraphService setWorkBudget(TeXWorkBudget budget) {
+    this.workBudget = budget;
+    return this;
+  }
+
+  /**
+   * Sets the directory that contains the tex files that may be requested by
+   * path. If there is no such directory (the default), only posted tex files
+   * are processed.
+   */
+  public TeXParagraphService setRootDirectory(Path rootDirectory) {
+    this.rootDirectory = rootDirectory != null
+        ? rootDirectory.toAbsolutePath().normalize() : null;
+    return this;
+  }
+
+  /**
+   * Sets the maximal size of a posted tex file, in bytes (0 for no limit).
+   * Larger tex files are rejected with 413.
+   */
+  public TeXParagraphService setMaxPayloadSize(long maxPayloadSize) {
+    this.maxPayloadSize = Math.max(0, maxPayloadSize);
+    return this;
+  }
+
+  /**
+   * Returns the metrics of this service.
+   */
+  public TeXPipelineMetrics getMetrics() {
+    return this.metrics;
+  }
+
+  // ___________________________________________________________________________
+
+  @Override
+  public void handleHttpRequest(HttpRequest req) throws IOException {
+    switch (req.getPath()) {
+      case PARAGRAPHS_PATH:
+        try {
+          handleParagraphsRequest(req);
+        } catch (RequestException e) {
+          if (req.getHttpResponse() != null) {
+            // Parts of the output were sent already. Abort the response.
+            throw new IOException(e.getMessage(), e);
+          }
+          respond(req, e.statusCode, e.status, TEXT_CONTENT_TYPE,
+              e.getMessage() + "\n");
+        }
+        break;
+      case HEALTH_PATH:
+        respond(req, 200, "OK", TEXT_CONTENT_TYPE, "OK\n");
+        break;
+      default:
+        // The metrics.
+        super.handleHttpRequest(req);
+        break;
+    }
+  }
+
+  /**
+   * Identifies the paragraphs of the requested tex file and writes them in
+   * the requested format to the response.
+   */
+  protected void handleParagraphsRequest(HttpRequest req)
+    throws IOException, RequestException {
+    String format = req.getQueryParameter("format", "txt");
+    List<String> roles = TeXParagraphParserSettings.resolveRoles(
+        req.getQueryParameters().get("role"));
+
+    if (!TeXParagraphSerializer.FORMATS.contains(format)) {
+      throw new RequestException(400, "Bad Request", "Unsupported format: "
+          + format + ". Supported formats: " + TeXParagraphSerializer.FORMATS);
+    }
+    if (this.maxPayloadSize > 0
+        && req.getContentLength() > this.maxPayloadSize) {
+      throw payloadTooLarge();
+    }
+
+    String contentType = "bin".equals(format) ? "application/octet-stream"
+        : "tsv".equals(format) ? "text/tab-separated-values; charset=utf-8"
+        : TEXT_CONTENT_TYPE;
+
+    // The payload is read with a permit, such that the number of tex files
+    // held in memory is bounded as well.
+    acquirePermit();
+    try {
+      CountingInputStream payload = new CountingInputStream(req,
+          this.maxPayloadSize);
+      TeXFile texFile = createTeXFile(req, payload);
+      TeXParagraphSerializer serializer =
+          TeXParagraphSerializer.forFormat(format, texFile);
+
+      long start = System.nanoTime();
+      ResponseStream output = new ResponseStream(req, contentType);
+      try {
+        identifyParagraphs(texFile, serializer, roles, output);
+      } catch (TeXWorkBudgetExceededException e) {
+        if (e.getResource() == Resource.TIME) {
+          metrics.recordTimeout();
+          throw new RequestException(504, "Gateway Timeout", e.getMessage());
+        }
+        metrics.recordExceededBudget();
+        throw new RequestException(422, "Unprocessable Entity",
+            e.getMessage());
+      } catch (IOException | RuntimeException | StackOverflowError e) {
+        metrics.recordFailedFile();
+        throw new RequestException(500, "Internal Server Error",
+            "Error on processing " + texFile.getPath() + ": " + e);
+      }
+      output.finish();
+      metrics.recordProcessedFile(System.nanoTime() - start,
+          getSize(texFile, payload));
+    } finally {
+      this.permits.release();
+    }
+  }
+
+  /**
+   * Creates the tex file to process from the given request: from the given
+   * payload of a POST request or from the path given by a GET request.
+   */
+  protected TeXFile createTeXFile(HttpRequest req, InputStream payload)
+    throws IOException, RequestException {
+    if ("POST".equals(req.getMethod())) {
+      Path name = toPath(req.getQueryParameter("name", DEFAULT_NAME))
+          .getFileName();
+      if (name == null) {
+        throw new RequestException(400, "Bad Request", "Invalid name.");
+      }
+      TeXSource content;
+      try {
+        content = TeXSource.read(payload);
+      } catch (PayloadTooLargeException e) {
+        throw payloadTooLarge();
+      }
+      TeXFile texFile = new TeXFile(name, content);
+      // The header of txt2 refers to the name of the file.
+      texFile.setBaseDirectory(Paths.get(""));
+      return texFile;
+    }
+
+    if (!"GET".equals(req.getMethod())) {
+      throw new RequestException(405, "Method Not Allowed",
+          "Only GET and POST are supported.");
+    }
+
+    String path = req.getQueryParameter("path", null);
+    if (path == null) {
+      throw new RequestException(400, "Bad Request", "Either post the tex "
+          + "file or give its path by the parameter 'path'.");
+    }
+    if (this.rootDirectory == null) {
+      throw new RequestException(403, "Forbidden", "There is no root "
+          + "directory to request tex files by path from.");
+    }
+    Path file = this.rootDirectory.resolve(toPath(path)).normalize();
+    if (!file.startsWith(this.rootDirectory)) {
+      throw new RequestException(403, "Forbidden", "The path is outside of "
+          + "the root directory.");
+    }
+    if (!Files.isRegularFile(file) || !Files.isReadable(file)) {
+      throw new RequestException(404, "Not Found", "No such tex file: "
+          + path);
+    }
+    TeXFile texFile = new TeXFile(file);
+    texFile.setBaseDirectory(this.rootDirectory);
+    return texFile;
+  }
+
+  /**
+   * Acquires a permit to process a request. Waits at most as long as the
+   * time limit of the work budget.
+   */
+  protected void acquirePermit() throws RequestException {
+    long timeout = this.workBudget.getMaxTime(TimeUnit.MILLISECONDS);
+    boolean acquired;
+    try {
+      if (timeout == TeXWorkBudget.UNLIMITED) {
+        this.permits.acquire();
+        acquired = true;
+      } else {
+        acquired = this.permits.tryAcquire(timeout, TimeUnit.MILLISECONDS);
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      acquired = false;
+    }
+    if (!acquired) {
+      this.numRejectedRequests.inc();
+      throw new RequestException(503, "Service Unavailable", "Too many "
+          + "requests in process, try again later.");
+    }
+  }
+
+  /**
+   * Identifies the paragraphs of the given tex file and writes their
+   * serialization to the given stream (while they are identified).
+   */
+  protected void identifyParagraphs(TeXFile texFile,
+      TeXParagraphSerializer serializer, List<String> roles,
+      OutputStream output) throws IOException {
+    TeXParagraphsIdentifier identifier;
+    long start;
+    try (TeXParagraphSerializer.Sink sink = serializer.open(output, roles)) {
+      identifier = new TeXParagraphsIdentifier(texFile, null, this.refs)
+          .setInMemory(true).setParserType(this.parserType)
+          .setWorkBudget(this.workBudget).setParagraphConsumer(sink);
+      identifier.identify();
+      this.metrics.recordIdentification(identifier);
+      start = System.nanoTime();
+      sink.commit();
+    }
+    this.metrics.recordSerialization(identifier.getConsumeParagraphsNanos()
+        + System.nanoTime() - start);
+  }
+
+  /**
+   * Returns the size of the given tex file in bytes (of the given payload,
+   * if the tex file was posted).
+   */
+  protected static long getSize(TeXFile texFile, CountingInputStream payload)
+    throws IOException {
+    if (texFile.getContent() != null) {
+      return payload.getCount();
+    }
+    return Files.size(texFile.getPath());
+  }
+
+  /**
+   * Returns the exception to answer a too large posted tex file with.
+   */
+  protected RequestException payloadTooLarge() {
+    return new RequestException(413, "Payload Too Large", "The tex file "
+        + "exceeds the maximal size of " + this.maxPayloadSize + " bytes.");
+  }
+
+  /**
+   * Returns the given string as path.
+   */
+  protected static Path toPath(String path) throws RequestException {
+    try {
+      return Paths.get(path);
+    } catch (InvalidPathException e) {
+      throw new RequestException(400, "Bad Request", "Invalid path: " + path);
+    }
+  }
+
+  // ___________________________________________________________________________
+
+  /**
+   * The stream of the payload of a request, which counts the read bytes and
+   * fails with a {@link PayloadTooLargeException} once more than a maximal
+   * number of bytes was read. The payload is requested from the request on
+   * the first read, such that the client isn't asked to send the payload
+   * ("100 Continue") before it is needed.
+   */
+  protected static class CountingInputStream extends InputStream {
+    /**
+     * The request.
+     */
+    protected final HttpRequest req;
+
+    /**
+     * The stream of the payload (null until the first read).
+     */
+    protected InputStream in;
+
+    /**
+     * The number of read bytes.
+     */
+    protected long count;
+
+    /**
+     * The maximal number of bytes to read (0 for no limit).
+     */
+    protected final long maxCount;
+
+    /**
+     * Creates a new stream of the payload of the given request, which reads
+     * at most the given number of bytes (0 for no limit).
+     */
+    CountingInputStream(HttpRequest req, long maxCount) {
+      this.req = req;
+      this.maxCount = maxCount;
+    }
+
+    @Override
+    public int read() throws IOException {
+      int b = getStream().read();
+      if (b >= 0) {
+        count(1);
+      }
+      return b;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+      int n = getStream().read(b, off, len);
+      if (n > 0) {
+        count(n);
+      }
+      return n;
+    }
+
+    /**
+     * Counts the given number of read bytes.
+     */
+    protected void count(int n) throws PayloadTooLargeException {
+      this.count += n;
+      if (this.maxCount > 0 && this.count > this.maxCount) {
+        throw new PayloadTooLargeException();
+      }
+    }
+
+    /**
+     * Returns the stream of the payload.
+     */
+    protected InputStream getStream() throws IOException {
+      if (this.in == null) {
+        this.in = this.req.getPayloadStream();
+      }
+      return this.in;
+    }
+
+    /**
+     * Returns the number of read bytes.
+     */
+    public long getCount() {
+      return this.count;
+    }
+  }
+
+  /**
+   * The exception thrown on reading more than the maximal size of a payload.
+   */
+  protected static class PayloadTooLargeException extends IOException {
+    /**
+     * The serial version id.
+     */
+    private static final long serialVersionUID = 1L;
+  }
+
+  /**
+   * The stream of the output of a request. The output is buffered up to
+   * {@link #RESPONSE_BUFFER_SIZE} bytes. A larger output is streamed: the
+   * response (with status 200) is created, the buffer is written to its
+   * payload and all further bytes are written directly (in chunks). Closing
+   * this stream doesn't complete the response; see {@link #finish()}.
+   */
+  protected class ResponseStream extends OutputStream {
+    /**
+     * The request.
+     */
+    protected final HttpRequest req;
+
+    /**
+     * The content type of the output.
+     */
+    protected final String contentType;
+
+    /**
+     * The buffer of the output (null if the output is streamed).
+     */
+    protected ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+
+    /**
+     * The stream of the payload of the response (null until the output is
+     * streamed).
+     */
+    protected OutputStream payload;
+
+    /**
+     * Creates a new stream of the output of the given request.
+     */
+    ResponseStream(HttpRequest req, String contentType) {
+      this.req = req;
+      this.contentType = contentType;
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+      write(new byte[] { (byte) b }, 0, 1);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+      if (this.payload == null
+          && this.buffer.size() + len > RESPONSE_BUFFER_SIZE) {
+        HttpResponse response = this.req.createHttpResponse(200, "OK");
+        response.addHeader("Content-Type", this.contentType);
+        this.payload = response.getPayloadStream();
+        this.buffer.writeTo(this.payload);
+        this.buffer = null;
+      }
+      if (this.payload != null) {
+        this.payload.write(b, off, len);
+      } else {
+        this.buffer.write(b, off, len);
+      }
+    }
+
+    @Override
+    public void close() {
+      // The response is completed by finish().
+    }
+
+    /**
+     * Completes the response: answers the buffered output, or writes the
+     * last chunk of the streamed output.
+     */
+    public void finish() throws IOException {
+      if (this.payload == null) {
+        respond(this.req, 200, "OK", this.contentType,
+            this.buffer.toByteArray());
+      } else {
+        this.req.getHttpResponse().finish();
+      }
+    }
+  }
+
+  /**
+   * An exception that is answered with the given http status.
+   */
+  protected static class RequestException extends Exception {
+    /**
+     * The serial version id.
+     */
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * The status code of the response.
+     */
+    protected final int statusCode;
+
+    /**
+     * The status of the response.
+     */
+    protected final String status;
+
+    /**
+     * Creates a new exception that is answered with the given status and
+     * message.
+     */
+    RequestException(int statusCode, String status, String message) {
+      super(message);
+      this.statusCode = statusCode;
+      this.status = status;
+    }
+  }
+}
@@ -0,0 +1,103 @@
+package shard;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import binary.TeXBinaryDocument;
+import binary.TeXBinaryParagraph;
+
+/**
+ * A shard reader that maps the shards into memory and exposes the contents
+ * as views of the mapped buffers, without copying them. Contents in the
+ * binary paragraph format can be accessed as {@link TeXBinaryDocument}s.
+ *
+ * Each shard must be smaller than 2GB (which holds for shards with the
+ * default maximal size).
+ *
+ * @author Claudius Korzen
+ */
+public class TeXMappedShardReader extends TeXShardReader {
+  /**
+   * The mapped shards, in the same order as the paths.
+   */
+  protected final List<MappedByteBuffer> mappedShards = new ArrayList<>();
+
+  /**
+   * Opens and maps the shards in the given directory.
+   */
+  public TeXMappedShardReader(Path directory) throws IOException {
+    super(directory);
+
+    try {
+      for (int i = 0; i < shards.size(); i++) {
+        FileChannel channel = shards.get(i);
+        if (channel.size() > Integer.MAX_VALUE) {
+          throw new IOException("The shard is too large to be mapped: "
+              + shardPaths.get(i));
+        }
+        mappedShards.add(
+            channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+      }
+    } catch (IOException e) {
+      close();
+      throw e;
+    }
+  }
+
+  // ---------------------------------------------------------------------------
+
+  /**
+   * Returns the content of the given key as read-only view of the mapped
+   * shard or null if there is no such content.
+   */
+  public ByteBuffer map(String key) {
+    Location location = getLocation(key);
+    if (location == null) {
+      return null;
+    }
+
+    ByteBuffer buffer = mappedShards.get(location.shard).duplicate();
+    buffer.position((int) location.offset);
+    buffer.limit((int) location.offset + location.length);
+    return buffer.slice().asReadOnlyBuffer();
+  }
+
+  @Override
+  public byte[] read(String key) throws IOException {
+    ByteBuffer buffer = map(key);
+    if (buffer == null) {
+      return null;
+    }
+    byte[] content = new byte[buffer.remaining()];
+    buffer.get(content);
+    return content;
+  }
+
+  /**
+   * Returns the document of the given key, which must be written in the
+   * binary paragraph format, or null if there is no such document.
+   */
+  public TeXBinaryDocument getDocument(String key) throws IOException {
+    ByteBuffer buffer = map(key);
+    return buffer != null ? new TeXBinaryDocument(buffer) : null;
+  }
+
+  /**
+   * Returns the paragraphs with the given role of the document of the given
+   * key, which must be written in the binary paragraph format.
+   */
+  public List<TeXBinaryParagraph> getParagraphs(String key, String role)
+      throws IOException {
+    TeXBinaryDocument document = getDocument(key);
+    if (document == null) {
+      return Collections.emptyList();
+    }
+    return document.getParagraphs(role);
+  }
+}
@@ -0,0 +1,248 @@
+package shard;
+
+import static shard.TeXShardWriter.INDEX_EXTENSION;
+import static shard.TeXShardWriter.INDEX_HEADER;
+import static shard.TeXShardWriter.SEPARATOR;
+import static shard.TeXShardWriter.SHARD_EXTENSION;
+import static shard.TeXShardWriter.SHARD_PREFIX;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+/**
+ * Provides random access to the contents written by a {@link TeXShardWriter}
+ * by the (relative) path of the tex file. The indexes of all shards are read
+ * on opening; the contents are read on demand. If a tex file was written more
+ * than once (e.g., in different runs), the content of the latest shard wins.
+ *
+ * Index entries that point beyond the end of their shard (e.g., after a
+ * crash) are ignored. The reader is safe to use by concurrent threads.
+ *
+ * @author Claudius Korzen
+ */
+public class TeXShardReader implements Closeable {
+  /**
+   * The directory of the shards.
+   */
+  protected final Path directory;
+
+  /**
+   * The paths to the shards, ordered by their numbers.
+   */
+  protected final List<Path> shardPaths = new ArrayList<>();
+
+  /**
+   * The channels to the shards, in the same order as the paths.
+   */
+  protected final List<FileChannel> shards = new ArrayList<>();
+
+  /**
+   * The locations of the contents, per key.
+   */
+  protected final Map<String, Location> locations = new LinkedHashMap<>();
+
+  /**
+   * Opens the shards in the given directory.
+   */
+  public TeXShardReader(Path directory) throws IOException {
+    this.directory = directory;
+
+    // Order the shards by their numbers.
+    TreeMap<Integer, Path> paths = new TreeMap<>();
+    try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory,
+        SHARD_PREFIX + "*" + SHARD_EXTENSION)) {
+      for (Path path : stream) {
+        Integer number = TeXShardWriter.getShardNumber(path);
+        if (number != null) {
+          paths.put(number, path);
+        }
+      }
+    }
+
+    try {
+      for (Path path : paths.values()) {
+        FileChannel channel = FileChannel.open(path, StandardOpenOption.READ);
+        shardPaths.add(path);
+        shards.add(channel);
+        readIndex(shards.size() - 1, channel.size());
+      }
+    } catch (IOException e) {
+      close();
+      throw e;
+    }
+  }
+
+  /**
+   * Reads the index of the shard with the given position in the list of
+   * shards.
+   */
+  protected void readIndex(int shard, long shardSize) throws IOException {
+    Path shardPath = shardPaths.get(shard);
+    String name = shardPath.getFileName().toString();
+    Path indexPath = shardPath.resolveSibling(
+        name.substring(0, name.length() - SHARD_EXTENSION.length())
+        + INDEX_EXTENSION);
+    if (!Files.isRegularFile(indexPath)) {
+      return;
+    }
+
+    try (BufferedReader reader = Files.newBufferedReader(indexPath,
+        StandardCharsets.UTF_8)) {
+      String line = reader.readLine();
+      if (!INDEX_HEADER.equals(line)) {
+        throw new IOException("Invalid header in shard index " + indexPath);
+      }
+      while ((line = reader.readLine()) != null) {
+        String[] fields = line.split(SEPARATOR, -1);
+        if (fields.length != 3) {
+          // Probably a truncated line.
+          continue;
+        }
+        long offset;
+        int length;
+        try {
+          offset = Long.parseLong(fields[1]);
+          length = Integer.parseInt(fields[2]);
+        } catch (NumberFormatException e) {
+          continue;
+        }
+        if (offset < 0 || length < 0 || offset + length > shardSize) {
+          continue;
+        }
+        // Remove the key first, such that the order reflects the latest write.
+        locations.remove(fields[0]);
+        locations.put(fields[0], new Location(shard, offset, length));
+      }
+    }
+  }
+
+  // ---------------------------------------------------------------------------
+
+  /**
+   * Returns the keys (the relative paths of the tex files) of all contents,
+   * in order of writing.
+   */
+  public Set<String> getKeys() {
+    return Collections.unmodifiableSet(locations.keySet());
+  }
+
+  /**
+   * Returns true, if there is a content for the given key.
+   */
+  public boolean contains(String key) {
+    return locations.containsKey(key);
+  }
+
+  /**
+   * Returns the number of contents.
+   */
+  public int size() {
+    return locations.size();
+  }
+
+  /**
+   * Returns the location of the content of the given key or null if there
+   * is no such content.
+   */
+  public Location getLocation(String key) {
+    return locations.get(key);
+  }
+
+  /**
+   * Returns the path to the shard with the given position.
+   */
+  public Path getShardPath(int shard) {
+    return shardPaths.get(shard);
+  }
+
+  /**
+   * Returns the content of the given key or null if there is no such
+   * content.
+   */
+  public byte[] read(String key) throws IOException {
+    Location location = locations.get(key);
+    if (location == null) {
+      return null;
+    }
+
+    ByteBuffer buffer = ByteBuffer.allocate(location.length);
+    FileChannel channel = shards.get(location.shard);
+    long position = location.offset;
+    while (buffer.hasRemaining()) {
+      // Positional reads don't affect the position of the channel, so they
+      // can be done concurrently.
+      int n = channel.read(buffer, position);
+      if (n < 0) {
+        throw new EOFException("Unexpected end of shard "
+            + shardPaths.get(location.shard));
+      }
+      position += n;
+    }
+    return buffer.array();
+  }
+
+  /**
+   * Returns the content of the given key as string or null if there is no
+   * such content.
+   */
+  public String readString(String key) throws IOException {
+    byte[] content = read(key);
+    return content != null ? new String(content, StandardCharsets.UTF_8) : null;
+  }
+
+  @Override
+  public void close() throws IOException {
+    IOException exception = null;
+    for (FileChannel channel : shards) {
+      try {
+        channel.close();
+      } catch (IOException e) {
+        exception = e;
+      }
+    }
+    if (exception != null) {
+      throw exception;
+    }
+  }
+
+  // ___________________________________________________________________________
+
+  /**
+   * The location of a content in the shards.
+   */
+  public static class Location {
+    /** The position of the shard in the list of shards. */
+    public final int shard;
+
+    /** The offset of the content in the shard. */
+    public final long offset;
+
+    /** The length of the content in bytes. */
+    public final int length;
+
+    /**
+     * Creates a new location.
+     */
+    public Location(int shard, long offset, int length) {
+      this.shard = shard;
+      this.offset = offset;
+      this.length = length;
+    }
+  }
+}
@@ -0,0 +1,278 @@
+package shard;
+
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * Appends the serialized paragraphs of many tex files to a small number of
+ * large shard files instead of writing one output file per tex file.
+ *
+ * Each shard "shard-NNNNN.dat" is a sequence of length-prefixed records of
+ * the form [key length][key][content length][content], where the key is the
+ * (relative) path of the tex file, encoded as UTF-8, and the content is the
+ * serialized output of the tex file. The lengths are 4-byte big-endian
+ * integers. A shard is rolled over once it would exceed the maximal size (a
+ * single record may exceed it).
+ *
+ * Each shard has a sidecar index "shard-NNNNN.idx" with one line
+ * "key TAB offset TAB length" per record, where offset and length denote the
+ * position of the content in the shard. See {@link TeXShardReader}.
+ *
+ * The writer is safe to use by concurrent workers. Each record is appended
+ * as a whole, so workers should serialize a tex file into a buffer first. A
+ * new writer never appends to existing shards, but starts with the next
+ * free shard number.
+ *
+ * The shards and indexes are written by streams instead of (interruptible)
+ * channels: a worker that is interrupted (e.g., on timeout) while appending 
+ * would otherwise close the files for all other workers.
+ *
+ * @author Claudius Korzen
+ */
+public class TeXShardWriter implements Closeable {
+  /**
+   * The prefix of the shard files.
+   */
+  public static final String SHARD_PREFIX = "shard-";
+
+  /**
+   * The file extension of the shard files.
+   */
+  public static final String SHARD_EXTENSION = ".dat";
+
+  /**
+   * The file extension of the index files.
+   */
+  public static final String INDEX_EXTENSION = ".idx";
+
+  /**
+   * The header of the index files.
+   */
+  public static final String INDEX_HEADER = "#tex-shard-index\t1";
+
+  /**
+   * The separator of the fields in the index files.
+   */
+  public static final String SEPARATOR = "\t";
+
+  /**
+   * The default maximal size of a shard, in bytes.
+   */
+  public static final long DEFAULT_MAX_SHARD_SIZE = 256L * 1024 * 1024;
+
+  /**
+   * The directory of the shards.
+   */
+  protected final Path directory;
+
+  /**
+   * The maximal size of a shard, in bytes.
+   */
+  protected final long maxShardSize;
+
+  /**
+   * The number of the current shard.
+   */
+  protected int shardNumber;
+
+  /**
+   * The path to the current shard (null if no shard is open).
+   */
+  protected Path shardPath;
+
+  /**
+   * The stream to the current shard.
+   */
+  protected FileOutputStream shard;
+
+  /**
+   * The writer of the index of the current shard.
+   */
+  protected BufferedWriter index;
+
+  /**
+   * The current size of the current shard.
+   */
+  protected long shardSize;
+
+  /**
+   * The number of appended records.
+   */
+  protected int numRecords;
+
+  /**
+   * Creates a new shard writer that writes to the given directory.
+   */
+  public TeXShardWriter(Path directory) throws IOException {
+    this(directory, DEFAULT_MAX_SHARD_SIZE);
+  }
+
+  /**
+   * Creates a new shard writer that writes shards of the given maximal size
+   * (in bytes) to the given directory.
+   */
+  public TeXShardWriter(Path directory, long maxShardSize)
+      throws IOException {
+    if (maxShardSize <= 0) {
+      throw new IllegalArgumentException("The shard size must be positive.");
+    }
+    this.directory = directory;
+    this.maxShardSize = maxShardSize;
+    Files.createDirectories(directory);
+    this.shardNumber = findNextShardNumber(directory);
+  }
+
+  // ---------------------------------------------------------------------------
+
+  /**
+   * Appends the given content of the tex file with the given key. Returns
+   * the path to the shard the content was written to.
+   */
+  public synchronized Path append(String key, byte[] content)
+      throws IOException {
+    // The index is read line by line, so a key must not contain a line
+    // break (nor the separator).
+    if (key == null || key.contains(SEPARATOR) || key.contains("\n")
+        || key.contains("\r")) {
+      throw new IllegalArgumentException("Invalid key: " + key);
+    }
+
+    byte[] keyBytes = key.getBytes(StandardCharsets.UTF_8);
+    int recordSize = 4 + keyBytes.length + 4 + content.length;
+
+    if (shard == null || (shardSize > 0
+        && shardSize + recordSize > maxShardSize)) {
+      rollOver();
+    }
+
+    ByteBuffer header = ByteBuffer.allocate(4 + keyBytes.length + 4);
+    header.putInt(keyBytes.length);
+    header.put(keyBytes);
+    header.putInt(content.length);
+    shard.write(header.array());
+    long offset = shardSize + header.capacity();
+    shard.write(content);
+
+    // Write the index entry after the record, such that an entry never
+    // points to a record that wasn't written.
+    index.write(key + SEPARATOR + offset + SEPARATOR + content.length);
+    index.newLine();
+
+    shardSize += recordSize;
+    numRecords++;
+    return shardPath;
+  }
+
+  /**
+   * Closes the current shard (if any) and opens the next one.
+   */
+  protected void rollOver() throws IOException {
+    closeShard();
+
+    String name = String.format("%s%05d", SHARD_PREFIX, shardNumber++);
+    shardPath = directory.resolve(name + SHARD_EXTENSION);
+    shard = new FileOutputStream(Files.createFile(shardPath).toFile());
+    Path indexPath = directory.resolve(name + INDEX_EXTENSION);
+    index = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(
+        Files.createFile(indexPath).toFile()), StandardCharsets.UTF_8));
+    index.write(INDEX_HEADER);
+    index.newLine();
+    shardSize = 0;
+  }
+
+  /**
+   * Closes the current shard and its index (if any).
+   */
+  protected void closeShard() throws IOException {
+    try {
+      if (index != null) {
+        index.close();
+      }
+    } finally {
+      index = null;
+      if (shard != null) {
+        shard.close();
+      }
+      shard = null;
+    }
+  }
+
+  /**
+   * Forces the current shard to the storage device and flushes its index,
+   * such that all appended records can be found by a reader, even if the
+   * process doesn't close this writer. Call this before recording appended
+   * records elsewhere (e.g., in a manifest).
+   */
+  public synchronized void flush() throws IOException {
+    if (shard != null) {
+      shard.getFD().sync();
+    }
+    if (index != null) {
+      index.flush();
+    }
+  }
+
+  /**
+   * Returns the number of appended records.
+   */
+  public synchronized int getNumRecords() {
+    return numRecords;
+  }
+
+  /**
+   * Returns the directory of the shards.
+   */
+  public Path getDirectory() {
+    return directory;
+  }
+
+  @Override
+  public synchronized void close() throws IOException {
+    closeShard();
+  }
+
+  // ---------------------------------------------------------------------------
+
+  /**
+   * Returns the number following the highest number of the shards in the
+   * given directory.
+   */
+  protected static int findNextShardNumber(Path directory) throws IOException {
+    int next = 0;
+    try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory,
+        SHARD_PREFIX + "*" + SHARD_EXTENSION)) {
+      for (Path path : stream) {
+        Integer number = getShardNumber(path);
+        if (number != null) {
+          next = Math.max(next, number + 1);
+        }
+      }
+    }
+    return next;
+  }
+
+  /**
+   * Returns the number of the given shard or null if the given path isn't
+   * the path of a shard.
+   */
+  protected static Integer getShardNumber(Path path) {
+    String name = path.getFileName().toString();
+    if (!name.startsWith(SHARD_PREFIX) || !name.endsWith(SHARD_EXTENSION)) {
+      return null;
+    }
+    try {
+      return Integer.parseInt(name.substring(SHARD_PREFIX.length(),
+          name.length() - SHARD_EXTENSION.length()));
+    } catch (NumberFormatException e) {
+      return null;
+    }
+  }
+}
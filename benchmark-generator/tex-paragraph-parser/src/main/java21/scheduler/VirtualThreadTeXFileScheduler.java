@@ -0,0 +1,88 @@
+package scheduler;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A scheduler that processes each tex file on its own virtual thread, such
+ * that blocking I/O doesn't pin a platform thread. The CPU-bound parsing is
+ * limited by a semaphore sized to the given parallelism (see
+ * {@link #getParsePermits()}), the number of files in process at the same
+ * time is limited to a multiple of it.
+ * 
+ * Timeouts are enforced as in {@link ThreadPoolTeXFileScheduler}, i.e. by a
+ * watchdog (on a platform thread) that cancels the virtual thread of a file 
+ * when it runs for too long. A file that doesn't respond to the cancellation
+ * doesn't block the batch, but stays in flight until its thread exits. 
+ * 
+ * Virtual threads are not preempted, so the I/O of other files only proceeds
+ * while all parse permits are held if there are more carrier threads than
+ * permits. The number of carrier threads is a JVM-wide setting that this
+ * scheduler doesn't change; start the JVM with
+ * -Djdk.virtualThreadScheduler.parallelism=&lt;parallelism + 1&gt; to provide
+ * one more carrier thread than permits (the default is the number of cores).
+ * 
+ * Requires Java 21 (build with profile "jdk21").
+ *
+ * @author Claudius Korzen
+ */
+public class VirtualThreadTeXFileScheduler extends ThreadPoolTeXFileScheduler {
+  /**
+   * The number of files that may be in process per parse permit. Limits the
+   * number of files read into memory at the same time.
+   */
+  protected static final int FILES_IN_FLIGHT_PER_PERMIT = 2;
+
+  /**
+   * The permits for parsing a file.
+   */
+  protected final Semaphore parsePermits;
+
+  /**
+   * The permits for files in process.
+   */
+  protected final Semaphore filesInFlight;
+
+  /**
+   * Creates a new scheduler that parses at most the given number of files at
+   * the same time and cancels each file that takes longer than the given 
+   * timeout. A timeout <= 0 disables the timeouts.
+   */
+  public VirtualThreadTeXFileScheduler(int parallelism, long timeout,
+      TimeUnit unit) {
+    super(parallelism, timeout, unit);
+    // Fair, such that the files are parsed in the order they were submitted.
+    this.parsePermits = new Semaphore(this.parallelism, true);
+    this.filesInFlight = new Semaphore(
+        this.parallelism * FILES_IN_FLIGHT_PER_PERMIT, true);
+  }
+
+  @Override
+  protected ExecutorService createExecutor() {
+    return Executors.newThreadPerTaskExecutor(
+        Thread.ofVirtual().name("tex-file-worker-", 0).factory());
+  }
+
+  @Override
+  protected void beforeSubmit() throws InterruptedException {
+    this.filesInFlight.acquire();
+  }
+
+  @Override
+  protected void afterFinish() {
+    // A file that timed out is still in flight until its thread exits (it 
+    // may still hold its content in memory or a parse permit).
+  }
+
+  @Override
+  protected void afterExit() {
+    this.filesInFlight.release();
+  }
+
+  @Override
+  public Semaphore getParsePermits() {
+    return this.parsePermits;
+  }
+}
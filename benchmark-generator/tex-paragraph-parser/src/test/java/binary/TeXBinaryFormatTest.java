@@ -0,0 +1,214 @@
+package binary;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Tests for the TeXBinaryFormat and the TeXBinaryDocument.
+ *
+ * @author Claudius Korzen
+ */
+public class TeXBinaryFormatTest {
+  /**
+   * Test that varints are read back as written.
+   */
+  @Test
+  public void testVarint() throws IOException {
+    int[] values = { 0, 1, 127, 128, 300, 16383, 16384, 1 << 28,
+        Integer.MAX_VALUE };
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    for (int value : values) {
+      TeXBinaryFormat.writeVarint(out, value);
+    }
+    ByteBuffer in = ByteBuffer.wrap(out.toByteArray());
+    for (int value : values) {
+      Assert.assertEquals(value, TeXBinaryFormat.readVarint(in));
+    }
+    Assert.assertFalse(in.hasRemaining());
+
+    // Small values take a single byte.
+    out.reset();
+    TeXBinaryFormat.writeVarint(out, 127);
+    Assert.assertEquals(1, out.size());
+  }
+
+  /**
+   * Test that zigzag varints are read back as written.
+   */
+  @Test
+  public void testZigzagVarint() throws IOException {
+    int[] values = { 0, -1, 1, -64, 64, -65, 1000, -1000, Integer.MAX_VALUE,
+        Integer.MIN_VALUE };
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    for (int value : values) {
+      TeXBinaryFormat.writeZigzagVarint(out, value);
+    }
+    ByteBuffer in = ByteBuffer.wrap(out.toByteArray());
+    for (int value : values) {
+      Assert.assertEquals(value, TeXBinaryFormat.readZigzagVarint(in));
+    }
+
+    // Small negative values take a single byte.
+    out.reset();
+    TeXBinaryFormat.writeZigzagVarint(out, -64);
+    Assert.assertEquals(1, out.size());
+  }
+
+  /**
+   * Test that truncated and malformed varints are rejected.
+   */
+  @Test
+  public void testInvalidVarint() {
+    assertInvalid(new byte[0]);
+    assertInvalid(new byte[] { (byte) 0x80 });
+    assertInvalid(new byte[] { (byte) 0x80, (byte) 0x80, (byte) 0x80,
+        (byte) 0x80, (byte) 0x80, 0x01 });
+  }
+
+  /**
+   * Test that the roles are defined on their first occurrence and referenced
+   * afterwards.
+   */
+  @Test
+  public void testRoleDictionary() throws IOException {
+    ByteArrayOutputStream out = document();
+    paragraph(out, 1, "heading", new int[] { 3 }, "Intro");
+    paragraph(out, 2, "text", new int[] { 4, 5, 7 }, "Some text.");
+    paragraph(out, 1, null, new int[] { 9 }, "More.");
+    paragraph(out, TeXBinaryFormat.NO_ROLE, null, new int[0], "");
+
+    TeXBinaryDocument document =
+        new TeXBinaryDocument(ByteBuffer.wrap(out.toByteArray()));
+    Assert.assertEquals(Arrays.asList("heading", "text"),
+        document.getRoles());
+    Assert.assertEquals(4, document.getParagraphs().size());
+    Assert.assertEquals(2, document.getParagraphs("heading").size());
+    Assert.assertEquals(1, document.getParagraphs(null).size());
+
+    TeXBinaryParagraph para = document.getParagraphs().get(1);
+    Assert.assertEquals("text", para.getRole());
+    Assert.assertArrayEquals(new int[] { 4, 5, 7 }, para.getLineNumbers());
+    Assert.assertEquals(4, para.getStartLine());
+    Assert.assertEquals(7, para.getEndLine());
+    Assert.assertEquals("Some text.", para.getTextAsString());
+
+    para = document.getParagraphs().get(3);
+    Assert.assertNull(para.getRole());
+    Assert.assertEquals(-1, para.getStartLine());
+    Assert.assertEquals(0, para.getTextLength());
+  }
+
+  /**
+   * Test that truncated and invalid documents are rejected.
+   */
+  @Test
+  public void testInvalidDocument() throws IOException {
+    ByteArrayOutputStream out = document();
+    paragraph(out, 1, "text", new int[] { 1, 2 }, "First.");
+    paragraph(out, 1, null, new int[] { 3 }, "Second.");
+    byte[] bytes = out.toByteArray();
+
+    // A document truncated at any position is either rejected or consists
+    // of the complete paragraphs before the position.
+    for (int length = 0; length < bytes.length; length++) {
+      try {
+        TeXBinaryDocument document = new TeXBinaryDocument(
+            ByteBuffer.wrap(Arrays.copyOf(bytes, length)));
+        Assert.assertTrue(document.getParagraphs().size() < 2);
+      } catch (IOException e) {
+        // Expected.
+      }
+    }
+
+    // A reference to an undefined role.
+    out = document();
+    paragraph(out, 2, "text", new int[] { 1 }, "Text.");
+    assertInvalidDocument(out.toByteArray());
+
+    // A negative role reference.
+    out = document();
+    TeXBinaryFormat.writeVarint(out, -1);
+    assertInvalidDocument(out.toByteArray());
+
+    // A text longer than the document.
+    out = document();
+    TeXBinaryFormat.writeVarint(out, TeXBinaryFormat.NO_ROLE);
+    TeXBinaryFormat.writeVarint(out, 0);
+    TeXBinaryFormat.writeVarint(out, 100);
+    assertInvalidDocument(out.toByteArray());
+
+    // No magic bytes.
+    assertInvalidDocument("TPB".getBytes(StandardCharsets.UTF_8));
+  }
+
+  // ___________________________________________________________________________
+
+  /**
+   * Returns a stream that starts with the magic bytes.
+   */
+  protected static ByteArrayOutputStream document() {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    out.write(TeXBinaryFormat.MAGIC, 0, TeXBinaryFormat.MAGIC.length);
+    return out;
+  }
+
+  /**
+   * Writes a paragraph record with the given role reference, role (written
+   * if not null), line numbers and text to the given stream.
+   */
+  protected static void paragraph(ByteArrayOutputStream out, int roleRef,
+      String role, int[] lines, String text) {
+    TeXBinaryFormat.writeVarint(out, roleRef);
+    if (role != null) {
+      writeString(out, role);
+    }
+    TeXBinaryFormat.writeVarint(out, lines.length);
+    for (int i = 0; i < lines.length; i++) {
+      if (i == 0) {
+        TeXBinaryFormat.writeZigzagVarint(out, lines[i]);
+      } else {
+        TeXBinaryFormat.writeVarint(out, lines[i] - lines[i - 1]);
+      }
+    }
+    writeString(out, text);
+  }
+
+  /**
+   * Writes the given string, prefixed by its length, to the given stream.
+   */
+  protected static void writeString(ByteArrayOutputStream out, String str) {
+    byte[] bytes = str.getBytes(StandardCharsets.UTF_8);
+    TeXBinaryFormat.writeVarint(out, bytes.length);
+    out.write(bytes, 0, bytes.length);
+  }
+
+  /**
+   * Asserts that reading a varint from the given bytes fails.
+   */
+  protected static void assertInvalid(byte[] bytes) {
+    try {
+      TeXBinaryFormat.readVarint(ByteBuffer.wrap(bytes));
+      Assert.fail("Read a varint from " + Arrays.toString(bytes));
+    } catch (IOException e) {
+      // Expected.
+    }
+  }
+
+  /**
+   * Asserts that reading a document from the given bytes fails.
+   */
+  protected static void assertInvalidDocument(byte[] bytes) {
+    try {
+      new TeXBinaryDocument(ByteBuffer.wrap(bytes));
+      Assert.fail("Read a document from " + Arrays.toString(bytes));
+    } catch (IOException e) {
+      // Expected.
+    }
+  }
+}
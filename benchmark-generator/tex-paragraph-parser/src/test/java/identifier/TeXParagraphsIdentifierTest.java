@@ -0,0 +1,106 @@
+package identifier;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.UncheckedIOException;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Semaphore;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import model.TeXElementReferences;
+import model.TeXFile;
+import model.TeXParagraph;
+import parse.TeXSource;
+
+/**
+ * Tests for the TeXParagraphsIdentifier.
+ *
+ * @author Claudius Korzen
+ */
+public class TeXParagraphsIdentifierTest {
+  /**
+   * A tex document with two paragraphs.
+   */
+  protected static final String DOCUMENT = "\\documentclass{article}\n"
+      + "\\begin{document}\n"
+      + "The first paragraph.\n\n"
+      + "The second paragraph.\n"
+      + "\\end{document}\n";
+
+  /**
+   * Test that the paragraphs are passed to the consumer without holding a
+   * parse permit.
+   */
+  @Test
+  public void testConsumerWithoutParsePermit() throws IOException {
+    final Semaphore permits = new Semaphore(1);
+    final List<String> texts = new ArrayList<>();
+    TeXParagraphsIdentifier identifier = createIdentifier()
+        .setParsePermits(permits).setParagraphConsumer(para -> {
+          Assert.assertEquals(1, permits.availablePermits());
+          texts.add(para.getText().trim());
+        });
+    identifier.identify();
+
+    Assert.assertEquals(texts.toString(), 2, texts.size());
+    Assert.assertEquals(2, identifier.getNumParagraphs());
+    Assert.assertEquals(1, permits.availablePermits());
+    Assert.assertEquals(identify(null), texts);
+  }
+
+  /**
+   * Test that an UncheckedIOException thrown by the consumer is rethrown as
+   * IOException, with and without parse permits.
+   */
+  @Test
+  public void testConsumerError() {
+    for (Semaphore permits : new Semaphore[] { null, new Semaphore(1) }) {
+      TeXParagraphsIdentifier identifier = createIdentifier()
+          .setParsePermits(permits).setParagraphConsumer(para -> {
+            throw new UncheckedIOException(new IOException("x"));
+          });
+      try {
+        identifier.identify();
+        Assert.fail("No exception thrown.");
+      } catch (IOException e) {
+        Assert.assertEquals("x", e.getMessage());
+      }
+      if (permits != null) {
+        Assert.assertEquals(1, permits.availablePermits());
+      }
+    }
+  }
+
+  // ___________________________________________________________________________
+
+  /**
+   * Returns the texts of the paragraphs of the test document, identified with
+   * the given parse permits and passed to a consumer as soon as identified.
+   */
+  protected static List<String> identify(Semaphore permits)
+    throws IOException {
+    List<String> texts = new ArrayList<>();
+    createIdentifier().setParsePermits(permits)
+        .setParagraphConsumer(para -> texts.add(para.getText().trim()))
+        .identify();
+    return texts;
+  }
+
+  /**
+   * Creates an identifier for the test document (in memory).
+   */
+  protected static TeXParagraphsIdentifier createIdentifier() {
+    try {
+      TeXFile file = new TeXFile(Paths.get("test.tex"),
+          TeXSource.read(new StringReader(DOCUMENT)));
+      return new TeXParagraphsIdentifier(file, null,
+          TeXElementReferences.getDefault());
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+}
@@ -0,0 +1,218 @@
+package manifest;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.Arrays;
+
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import manifest.TeXFileManifest.Entry;
+import manifest.TeXFileManifest.FileState;
+import manifest.TeXFileManifest.Status;
+import parse.ParseException;
+import parse.TeXWorkBudget;
+import parse.TeXWorkBudgetExceededException;
+import parse.TeXWorkBudgetExceededException.Resource;
+import parse.TokenMgrError;
+
+/**
+ * Tests for the TeXFileManifest.
+ *
+ * @author Claudius Korzen
+ */
+public class TeXFileManifestTest {
+  /**
+   * The directory of the manifests and tex files.
+   */
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  /**
+   * Test the hashes of files and strings.
+   */
+  @Test
+  public void testHash() throws IOException {
+    Path file = write("a.tex", "abc");
+    // The SHA-256 hash of "abc".
+    Assert.assertEquals("ba7816bf8f01cfea414140de5dae2223"
+        + "b00361a396177a9cb410ff61f20015ad", TeXFileManifest.hash(file));
+
+    Assert.assertEquals(TeXFileManifest.hash("a", "b"),
+        TeXFileManifest.hash("a", "b"));
+    Assert.assertNotEquals(TeXFileManifest.hash("ab", "c"),
+        TeXFileManifest.hash("a", "bc"));
+    // Missing values are hashed like empty values.
+    Assert.assertEquals(TeXFileManifest.hash("a", null),
+        TeXFileManifest.hash("a", ""));
+    Assert.assertEquals(64, TeXFileManifest.hash("a").length());
+  }
+
+  /**
+   * Test that the content hash is only recomputed if the size or the
+   * modification time of a file changed.
+   */
+  @Test
+  public void testComputeState() throws IOException {
+    Path file = write("a.tex", "abc");
+    TeXFileManifest manifest = new TeXFileManifest(manifestPath());
+    FileState state = manifest.computeState("a.tex", file);
+    Assert.assertEquals(TeXFileManifest.hash(file), state.contentHash);
+    Assert.assertEquals(3, state.size);
+
+    // A recorded hash is reused for an unchanged size and time.
+    manifest.record("a.tex", new FileState("recorded", state.size,
+        state.lastModified), "config", null, Status.FAILED);
+    Assert.assertEquals("recorded",
+        manifest.computeState("a.tex", file).contentHash);
+
+    // A changed time leads to a new hash.
+    Files.setLastModifiedTime(file,
+        FileTime.fromMillis(state.lastModified + 1000));
+    Assert.assertEquals(state.contentHash,
+        manifest.computeState("a.tex", file).contentHash);
+  }
+
+  /**
+   * Test the rules on whether a file is up to date.
+   */
+  @Test
+  public void testIsUpToDate() throws IOException {
+    Path output = write("a.txt", "output");
+    FileState state = new FileState("hash", 3, 1);
+    TeXFileManifest manifest = new TeXFileManifest(manifestPath());
+    Assert.assertFalse(manifest.isUpToDate("a.tex", state, "c", output));
+
+    manifest.record("a.tex", state, "c", output, Status.OK);
+    Assert.assertTrue(manifest.isUpToDate("a.tex", state, "c", output));
+    Assert.assertFalse(manifest.isUpToDate("a.tex", state, "c2", output));
+    Assert.assertFalse(manifest.isUpToDate("a.tex",
+        new FileState("hash2", 3, 1), "c", output));
+    Assert.assertFalse(manifest.isUpToDate("a.tex", null, "c", output));
+    // The output must still exist.
+    Assert.assertFalse(manifest.isUpToDate("a.tex", state, "c",
+        folder.getRoot().toPath().resolve("b.txt")));
+    Assert.assertFalse(manifest.isUpToDate("a.tex", state, "c", null));
+
+    // Files that can't be parsed or exceed their budget are skipped (with 
+    // the same input), even without output.
+    for (Status status : Arrays.asList(Status.PARSE_ERROR,
+        Status.BUDGET_EXCEEDED)) {
+      manifest.record("b.tex", state, "c", null, status);
+      Assert.assertTrue(manifest.isUpToDate("b.tex", state, "c", null));
+      Assert.assertFalse(manifest.isUpToDate("b.tex", state, "c2", null));
+    }
+
+    // Other failures (e.g., I/O errors) may not repeat and are retried.
+    manifest.record("b.tex", state, "c", null, Status.FAILED);
+    Assert.assertFalse(manifest.isUpToDate("b.tex", state, "c", null));
+  }
+
+  /**
+   * Test the status of failed processings.
+   */
+  @Test
+  public void testStatusOf() {
+    Assert.assertEquals(Status.PARSE_ERROR,
+        Status.of(new IOException(new ParseException("x"))));
+    Assert.assertEquals(Status.PARSE_ERROR, Status.of(new TokenMgrError()));
+    Assert.assertEquals(Status.BUDGET_EXCEEDED,
+        Status.of(new TeXWorkBudgetExceededException(Resource.ELEMENTS, 1,
+            TeXWorkBudget.NONE)));
+    Assert.assertEquals(Status.FAILED, Status.of(new IOException("x")));
+    Assert.assertEquals(Status.FAILED, Status.of(new StackOverflowError()));
+  }
+
+  /**
+   * Test that the entries are written and read back.
+   */
+  @Test
+  public void testWriteAndRead() throws IOException {
+    Path path = manifestPath();
+    TeXFileManifest manifest = new TeXFileManifest(path);
+    manifest.record("b/b.tex", new FileState("h2", 2, 20), "c",
+        folder.getRoot().toPath().resolve("b.txt"), Status.BUDGET_EXCEEDED);
+    manifest.record("a/a.tex", new FileState("h1", 1, 10), "c", null,
+        Status.OK);
+    // Paths that can't be stored aren't recorded.
+    manifest.record("c\tc.tex", new FileState("h3", 3, 30), "c", null,
+        Status.OK);
+    manifest.record("c\nc.tex", new FileState("h3", 3, 30), "c", null,
+        Status.OK);
+    manifest.record("c\rc.tex", new FileState("h3", 3, 30), "c", null,
+        Status.OK);
+    Assert.assertEquals(2, manifest.size());
+    manifest.write();
+
+    // The entries are written sorted, the temporary file is gone.
+    Assert.assertEquals(TeXFileManifest.HEADER,
+        Files.readAllLines(path, StandardCharsets.UTF_8).get(0));
+    Assert.assertTrue(Files.readAllLines(path, StandardCharsets.UTF_8)
+        .get(1).startsWith("a/a.tex\t"));
+    Assert.assertEquals(1, folder.getRoot().list().length);
+
+    TeXFileManifest read = new TeXFileManifest(path);
+    Assert.assertEquals(2, read.size());
+    Entry entry = read.getEntry("b/b.tex");
+    Assert.assertEquals("h2", entry.contentHash);
+    Assert.assertEquals(2, entry.size);
+    Assert.assertEquals(20, entry.lastModified);
+    Assert.assertEquals("c", entry.configHash);
+    Assert.assertEquals(folder.getRoot().toPath().resolve("b.txt").toString(),
+        entry.output);
+    Assert.assertEquals(Status.BUDGET_EXCEEDED, entry.status);
+    Assert.assertEquals("", read.getEntry("a/a.tex").output);
+
+    // A rewrite replaces the manifest.
+    read.record("a/a.tex", new FileState("h4", 4, 40), "c", null,
+        Status.FAILED);
+    read.write();
+    Assert.assertEquals(Status.FAILED,
+        new TeXFileManifest(path).getEntry("a/a.tex").status);
+  }
+
+  /**
+   * Test that invalid lines are skipped and that other files are rejected.
+   */
+  @Test
+  public void testParse() throws IOException {
+    Assert.assertNull(Entry.parse("a.tex\th"));
+    Assert.assertNull(Entry.parse("a.tex\th\tx\t1\tc\t\tOK"));
+    Assert.assertNull(Entry.parse("a.tex\th\t1\t1\tc\t\tUNKNOWN"));
+    Entry entry = Entry.parse("a.tex\th\t1\t2\tc\to\tOK");
+    Assert.assertEquals("a.tex\th\t1\t2\tc\to\tOK", entry.toString());
+
+    Path path = write("manifest.tsv", TeXFileManifest.HEADER + "\n"
+        + "a.tex\th\t1\t2\tc\to\tOK\n" + "truncated\th\t1\n");
+    Assert.assertEquals(1, new TeXFileManifest(path).size());
+
+    try {
+      new TeXFileManifest(write("other.tsv", "a\tb\n"));
+      Assert.fail();
+    } catch (IOException e) {
+      // Expected.
+    }
+  }
+
+  // ___________________________________________________________________________
+
+  /**
+   * Returns the path to a (not yet existing) manifest.
+   */
+  protected Path manifestPath() {
+    return folder.getRoot().toPath().resolve("manifest.tsv");
+  }
+
+  /**
+   * Writes the given string to the file with the given name.
+   */
+  protected Path write(String name, String content) throws IOException {
+    return Files.write(folder.getRoot().toPath().resolve(name),
+        content.getBytes(StandardCharsets.UTF_8));
+  }
+}
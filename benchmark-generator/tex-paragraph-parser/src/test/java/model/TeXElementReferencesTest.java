@@ -0,0 +1,90 @@
+package model;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Tests for the snapshots of the TeXElementReferences.
+ *
+ * @author Claudius Korzen
+ */
+public class TeXElementReferencesTest {
+  /**
+   * The directory of the snapshots.
+   */
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  /**
+   * Test that a snapshot is created and read back.
+   */
+  @Test
+  public void testLoadSnapshot() throws IOException {
+    TeXElementReferences refs = TeXElementReferences.getDefault();
+    Path snapshot = folder.getRoot().toPath().resolve("refs.bin");
+
+    TeXElementReferences created = TeXElementReferences.loadSnapshot(snapshot);
+    Assert.assertTrue(Files.isRegularFile(snapshot));
+    Assert.assertEquals(refs.getSourceHash(),
+        TeXElementReferences.readSnapshotSourceHash(snapshot));
+
+    TeXElementReferences read = TeXElementReferences.loadSnapshot(snapshot);
+    Assert.assertNotSame(created, read);
+    Assert.assertEquals(refs.getFingerprint(), read.getFingerprint());
+    Assert.assertEquals(refs.getSourceHash(), read.getSourceHash());
+  }
+
+  /**
+   * Test that a snapshot created from another references file is rebuilt.
+   */
+  @Test
+  public void testStaleSnapshot() throws IOException {
+    TeXElementReferences refs = TeXElementReferences.getDefault();
+    Path snapshot = folder.getRoot().toPath().resolve("refs.bin");
+
+    Map<String, List<TeXElementReference>> stale = new LinkedHashMap<>();
+    stale.put("\\foo", Collections.singletonList(
+        new TeXElementReference(new String[] { "\\foo" })));
+    new TeXElementReferences(stale, "0000", 0).writeSnapshot(snapshot);
+    Assert.assertEquals("0000",
+        TeXElementReferences.readSnapshotSourceHash(snapshot));
+
+    TeXElementReferences loaded = TeXElementReferences.loadSnapshot(snapshot);
+    Assert.assertEquals(refs.getFingerprint(), loaded.getFingerprint());
+    Assert.assertEquals(refs.getSourceHash(),
+        TeXElementReferences.readSnapshotSourceHash(snapshot));
+  }
+
+  /**
+   * Test that a snapshot of a former version is rebuilt.
+   */
+  @Test
+  public void testFormerSnapshotVersion() throws IOException {
+    TeXElementReferences refs = TeXElementReferences.getDefault();
+    Path snapshot = folder.getRoot().toPath().resolve("refs.bin");
+    try (OutputStream os = Files.newOutputStream(snapshot);
+        DataOutputStream out = new DataOutputStream(os)) {
+      out.writeInt(TeXElementReferences.SNAPSHOT_MAGIC);
+      out.writeInt(1);
+      out.writeInt(0);
+    }
+    Assert.assertNull(TeXElementReferences.readSnapshotSourceHash(snapshot));
+
+    TeXElementReferences loaded = TeXElementReferences.loadSnapshot(snapshot);
+    Assert.assertEquals(refs.getFingerprint(), loaded.getFingerprint());
+    Assert.assertEquals(refs.getSourceHash(),
+        TeXElementReferences.readSnapshotSourceHash(snapshot));
+  }
+}
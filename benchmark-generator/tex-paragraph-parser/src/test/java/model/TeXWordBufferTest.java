@@ -0,0 +1,139 @@
+package model;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Tests for the TeXWordBuffer.
+ *
+ * @author Claudius Korzen
+ */
+public class TeXWordBufferTest {
+  /**
+   * Test that the fragments are appended to the last word and that the words
+   * are separated by a single whitespace.
+   */
+  @Test
+  public void testWords() {
+    TeXWordBuffer buffer = new TeXWordBuffer();
+    Assert.assertEquals(0, buffer.getNumWords());
+    Assert.assertEquals("", buffer.toString());
+
+    buffer.startWord("Hel", 1, 5);
+    buffer.appendToWord(new StringBuilder("lo"));
+    buffer.startWord("world", 2, 7);
+    buffer.appendToWord(".");
+
+    Assert.assertEquals(2, buffer.getNumWords());
+    Assert.assertEquals("Hello world.", buffer.toString());
+    Assert.assertEquals(12, buffer.length());
+    Assert.assertEquals('w', buffer.charAt(6));
+    Assert.assertEquals("world", buffer.subSequence(6, 11));
+
+    Assert.assertEquals(0, buffer.getWordStart(0));
+    Assert.assertEquals(5, buffer.getWordEnd(0));
+    Assert.assertEquals(6, buffer.getWordStart(1));
+    Assert.assertEquals(12, buffer.getWordEnd(1));
+    Assert.assertEquals("Hello", buffer.getWordText(0));
+    Assert.assertEquals("world.", buffer.getWordText(1));
+    Assert.assertEquals(2, buffer.getWordLineNumber(1));
+    Assert.assertEquals(7, buffer.getWordColumnNumber(1));
+
+    List<TeXWord> words = buffer.getWords();
+    Assert.assertEquals(2, words.size());
+    Assert.assertEquals("Hello", words.get(0).text);
+    Assert.assertEquals(1, words.get(0).lineNumber);
+    Assert.assertEquals(5, words.get(0).columnNumber);
+  }
+
+  /**
+   * Test that the buffer grows beyond its initial capacities.
+   */
+  @Test
+  public void testGrowth() {
+    TeXWordBuffer buffer = new TeXWordBuffer();
+    StringBuilder expected = new StringBuilder();
+    for (int i = 0; i < 100; i++) {
+      buffer.startWord("word" + i, i, 2 * i);
+      buffer.appendToWord("-" + i);
+      expected.append(i > 0 ? " " : "").append("word" + i + "-" + i);
+    }
+    Assert.assertEquals(100, buffer.getNumWords());
+    Assert.assertEquals(expected.toString(), buffer.toString());
+    Assert.assertEquals("word99-99", buffer.getWordText(99));
+    Assert.assertEquals(99, buffer.getWordLineNumber(99));
+    Assert.assertEquals(198, buffer.getWordColumnNumber(99));
+  }
+
+  /**
+   * Test the trimming of ranges, like String.trim().
+   */
+  @Test
+  public void testTrim() {
+    TeXWordBuffer buffer = new TeXWordBuffer();
+    buffer.startWord("\t a\u0001b \n", 1, 1);
+    buffer.startWord("  ", 2, 2);
+
+    int start = buffer.getWordStart(0);
+    int end = buffer.getWordEnd(0);
+    int trimmedStart = buffer.trimStart(start, end);
+    int trimmedEnd = buffer.trimEnd(trimmedStart, end);
+    Assert.assertEquals(buffer.getWordText(0).trim(),
+        buffer.subSequence(trimmedStart, trimmedEnd));
+
+    // A range of whitespaces is trimmed to an empty range.
+    start = buffer.getWordStart(1);
+    end = buffer.getWordEnd(1);
+    Assert.assertEquals(end, buffer.trimStart(start, end));
+    Assert.assertEquals(start, buffer.trimEnd(start, end));
+  }
+
+  /**
+   * Test that ranges are written and wrapped without creating strings.
+   */
+  @Test
+  public void testWrite() throws IOException {
+    TeXWordBuffer buffer = new TeXWordBuffer();
+    buffer.startWord("Hello", 1, 1);
+    buffer.startWord("world", 1, 7);
+
+    StringWriter writer = new StringWriter();
+    buffer.write(writer, 6, 11);
+    Assert.assertEquals("world", writer.toString());
+    Assert.assertEquals("Hello", buffer.toCharBuffer(0, 5).toString());
+  }
+
+  /**
+   * Test the errors on invalid accesses.
+   */
+  @Test
+  public void testInvalidAccess() {
+    TeXWordBuffer buffer = new TeXWordBuffer();
+    try {
+      buffer.appendToWord("x");
+      Assert.fail("Appended to a missing word.");
+    } catch (IllegalStateException e) {
+      // Expected.
+    }
+
+    buffer.startWord("x", 1, 1);
+    for (int i : new int[] { -1, 1 }) {
+      try {
+        buffer.getWordText(i);
+        Assert.fail("Accessed word " + i);
+      } catch (IndexOutOfBoundsException e) {
+        // Expected.
+      }
+    }
+    try {
+      buffer.charAt(1);
+      Assert.fail("Accessed char 1");
+    } catch (IndexOutOfBoundsException e) {
+      // Expected.
+    }
+  }
+}
@@ -0,0 +1,155 @@
+package parser;
+
+import java.io.InputStream;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import model.Characters;
+import model.Document;
+import model.TeXElementReferences;
+import parse.TeXParser;
+import parse.TeXSource;
+import preprocess.TeXMacroResolver;
+
+/**
+ * Tests that the TeXFormulaNormalizer normalizes formulas exactly like the
+ * former implementation of TeXParagraphsParser.normalizeFormulaText(), which
+ * applied a regular expression per math symbol.
+ *
+ * @author Claudius Korzen
+ */
+public class TeXFormulaNormalizerTest {
+  /**
+   * The tex documents to take the formulas from (the corpus of the
+   * benchmarks).
+   */
+  protected static final String[] DOCUMENTS = { "/corpus/aastex-sample2.tex",
+      "/corpus/plenum-sample.tex", "/corpus/revtex-josaa.tex" };
+
+  /**
+   * The element references (loaded once for all tests).
+   */
+  protected static TeXElementReferences refs;
+
+  /**
+   * Loads the element references.
+   */
+  @BeforeClass
+  public static void loadReferences() throws Exception {
+    refs = TeXElementReferences.getDefault();
+  }
+
+  /**
+   * Test the formulas of the test documents.
+   */
+  @Test
+  public void testDocuments() throws Exception {
+    final List<String> formulas = new ArrayList<>();
+    for (String name : DOCUMENTS) {
+      String resolved;
+      try (InputStream is = getClass().getResourceAsStream(name)) {
+        resolved = new TeXMacroResolver(TeXSource.read(is), refs)
+            .resolveMacros();
+      }
+      Document document = new TeXParser(new StringReader(resolved)).parse();
+      new TeXParagraphsParser(document, refs) {
+        @Override
+        protected String normalizeFormulaText(String text) {
+          formulas.add(text);
+          return super.normalizeFormulaText(text);
+        }
+      }.identifyParagraphs();
+    }
+    Assert.assertTrue(formulas.size() > 100);
+
+    TeXFormulaNormalizer normalizer = new TeXFormulaNormalizer();
+    for (String formula : formulas) {
+      assertNormalization(normalizer, formula);
+    }
+  }
+
+  /**
+   * Test formulas with multi-character symbols and whitespaces that join
+   * letters to such symbols on being removed.
+   */
+  @Test
+  public void testEdgeCases() {
+    String[] formulas = { "", " ", "x", "a+b", " a  +  b ", "a\t=\nb",
+        "a = - b", "a=b=c", "f (x) , g [ y ]", "1 / 2", "a, b;c:d.",
+        "sin x", "sinh x", "arcsin x", "arc sin x", "arc sin(x)",
+        "a r c s i n x", "s i n (x)", "x mod y", "xmody", "m o d",
+        "log log x", "cosh(x) cos(x)", "lim_{n → ∞} x", "min max",
+        "arccos arcsin", "a ≤ b ≥ c", "a · b", "| x |", "{ }", "( ( x ) )",
+        "deggcd (a, b)", "exp (x) ", "  (  ", "x ,", ", x" };
+    TeXFormulaNormalizer normalizer = new TeXFormulaNormalizer();
+    for (String formula : formulas) {
+      assertNormalization(normalizer, formula);
+    }
+    Assert.assertNull(normalizer.normalize(null));
+  }
+
+  /**
+   * Test random formulas of symbols, letters and whitespaces.
+   */
+  @Test
+  public void testRandomFormulas() {
+    String[] parts = { "+", "-", "=", ",", ".", ":", "(", ")", "{", "/", "|",
+        "<", "≤", "·", "a", "r", "c", "s", "i", "n", "h", "o", "m", "d", "x",
+        "1", "sin", "arc", "mod", " ", " ", "  ", "\t", "\n" };
+    Random random = new Random(42);
+    TeXFormulaNormalizer normalizer = new TeXFormulaNormalizer();
+    for (int i = 0; i < 20000; i++) {
+      StringBuilder formula = new StringBuilder();
+      int length = random.nextInt(12);
+      for (int j = 0; j < length; j++) {
+        formula.append(parts[random.nextInt(parts.length)]);
+      }
+      assertNormalization(normalizer, formula.toString());
+    }
+  }
+
+  // ___________________________________________________________________________
+
+  /**
+   * Asserts that the given normalizer normalizes the given formula like the
+   * regular expressions.
+   */
+  protected static void assertNormalization(TeXFormulaNormalizer normalizer,
+      String formula) {
+    Assert.assertEquals("'" + formula + "'", normalizeByRegex(formula),
+        normalizer.normalize(formula));
+  }
+
+  /**
+   * The former implementation of TeXParagraphsParser.normalizeFormulaText().
+   */
+  protected static String normalizeByRegex(String text) {
+    for (String c : Characters.MATH_SYMBOLS_NO_SPACES) {
+      Matcher m = Pattern.compile("\\s*(" + Pattern.quote(c) + ")\\s*")
+          .matcher(text);
+      text = m.replaceAll(c);
+    }
+
+    for (String c : Characters.MATH_SYMBOLS_FOLLOWED_BY_SPACE) {
+      Matcher m = Pattern.compile("\\s*(" + Pattern.quote(c) + ")\\s*")
+          .matcher(text);
+      text = m.replaceAll(c + " ");
+    }
+
+    for (String c : Characters.MATH_SYMBOLS_SURROUNDED_BY_SPACES) {
+      Matcher m = Pattern.compile("\\s*(" + Pattern.quote(c) + ")\\s*")
+          .matcher(text);
+      text = m.replaceAll(" " + c + " ");
+    }
+
+    return text;
+  }
+}
@@ -0,0 +1,98 @@
+package parser;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import model.Document;
+import model.TeXElementReferences;
+import model.TeXParagraph;
+import parse.TeXParser;
+
+/**
+ * Tests for the TeXParagraphsParser.
+ *
+ * @author Claudius Korzen
+ */
+public class TeXParagraphsParserTest {
+  /**
+   * A tex document with cross references.
+   */
+  protected static final String DOCUMENT = "\\documentclass{article}\n"
+      + "\\begin{document}\n"
+      + "As shown in \\cite{a,b} and \\onlinecite{c}, see \\ref{d}.\n"
+      + "\\end{document}\n";
+
+  /**
+   * Test that the cross references are replaced by placeholders.
+   */
+  @Test
+  public void testCrossReferences() throws Exception {
+    String text = identify(DOCUMENT);
+    Assert.assertTrue(text, text.contains("[\\cite=a] [\\cite=b]"));
+    Assert.assertTrue(text, text.contains("[\\cite=c]"));
+    Assert.assertTrue(text, text.contains("[\\ref=d]"));
+  }
+
+  /**
+   * Test that the cross references are replaced by placeholders in a fresh
+   * JVM, where the first document is parsed before this parser is loaded.
+   */
+  @Test
+  public void testCrossReferencesInFreshJvm() throws Exception {
+    String java = Paths.get(System.getProperty("java.home"), "bin", "java")
+        .toString();
+    Process process = new ProcessBuilder(java, "-cp",
+        System.getProperty("java.class.path"),
+        TeXParagraphsParserTest.class.getName())
+        .redirectError(ProcessBuilder.Redirect.INHERIT).start();
+    String text = read(process.getInputStream());
+    Assert.assertEquals(0, process.waitFor());
+    Assert.assertEquals(identify(DOCUMENT), text);
+  }
+
+  /**
+   * Prints the paragraphs of the test document (run by
+   * testCrossReferencesInFreshJvm()).
+   */
+  public static void main(String[] args) throws Exception {
+    System.out.print(identify(DOCUMENT));
+    System.out.flush();
+  }
+
+  // ___________________________________________________________________________
+
+  /**
+   * Returns the texts of the paragraphs of the given tex document, one per
+   * line.
+   */
+  protected static String identify(String content) throws Exception {
+    Document document = new TeXParser(new StringReader(content)).parse();
+    TeXParagraphsParser parser =
+        new TeXParagraphsParser(document, TeXElementReferences.getDefault());
+    StringBuilder sb = new StringBuilder();
+    for (TeXParagraph para : parser.identifyParagraphs()) {
+      sb.append(para.getText().trim()).append("\n");
+    }
+    return sb.toString();
+  }
+
+  /**
+   * Reads the given stream to a string.
+   */
+  protected static String read(InputStream is) throws IOException {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    byte[] buffer = new byte[8192];
+    int n;
+    while ((n = is.read(buffer)) > 0) {
+      out.write(buffer, 0, n);
+    }
+    return new String(out.toByteArray(), StandardCharsets.UTF_8);
+  }
+}
@@ -0,0 +1,165 @@
+package scheduler;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import parse.TeXWorkBudget;
+import parse.TeXWorkBudgetExceededException;
+import parse.TeXWorkBudgetExceededException.Resource;
+
+/**
+ * Tests for the ThreadPoolTeXFileScheduler.
+ *
+ * @author Claudius Korzen
+ */
+public class ThreadPoolTeXFileSchedulerTest {
+  /**
+   * The directory of the tex files.
+   */
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  /**
+   * Test that the files are processed in order of their sizes, largest
+   * first (up to the files that are in process at the same time).
+   */
+  @Test(timeout = 30000)
+  public void testSizeOrdering() throws Exception {
+    List<Path> files = createFiles(3, 10, 1, 7, 0);
+    List<Path> processed = Collections.synchronizedList(new ArrayList<>());
+
+    TeXFileScheduler scheduler = createScheduler(1, 0);
+    scheduler.process(files, processed::add);
+
+    List<Long> sizes = Arrays.asList(10L, 7L, 3L, 1L, 0L);
+    Assert.assertEquals(5, processed.size());
+    for (int i = 0; i < processed.size(); i++) {
+      int rank = sizes.indexOf(Files.size(processed.get(i)));
+      Assert.assertTrue(Math.abs(rank - i) < getMaxFilesInProcess(1));
+    }
+  }
+
+  /**
+   * Test that all files are processed, with at most the given number of
+   * files at the same time, and that the counters are updated.
+   */
+  @Test(timeout = 30000)
+  public void testCompletion() throws Exception {
+    List<Path> files = createFiles(1, 2, 3, 4, 5, 6, 7, 8, 9, 10);
+    final AtomicInteger numActive = new AtomicInteger();
+    final AtomicInteger maxActive = new AtomicInteger();
+    final List<Path> processed = Collections.synchronizedList(
+        new ArrayList<>());
+
+    final TeXFileScheduler scheduler = createScheduler(3, 10000);
+    scheduler.process(files, file -> {
+      int active = numActive.incrementAndGet();
+      maxActive.accumulateAndGet(active, Math::max);
+      sleep(20);
+      numActive.decrementAndGet();
+      processed.add(file);
+      if (file.endsWith("f4.tex")) {
+        throw new TeXWorkBudgetExceededException(Resource.ELEMENTS, 1,
+            TeXWorkBudget.NONE);
+      }
+    });
+
+    Assert.assertEquals(10, processed.size());
+    Assert.assertTrue(maxActive.get() <= getMaxFilesInProcess(3));
+    Assert.assertEquals(0, scheduler.getNumTimeouts());
+    Assert.assertEquals(1, scheduler.getNumExceededBudgets());
+    Assert.assertEquals(0, scheduler.getNumQueuedFiles());
+    Assert.assertEquals(0, scheduler.getNumActiveFiles());
+    Assert.assertTrue(scheduler.getBusyNanos() > 0);
+  }
+
+  /**
+   * Test that a file that times out and doesn't respond to the cancellation
+   * is counted and doesn't block the other files.
+   */
+  @Test(timeout = 30000)
+  public void testTimeout() throws Exception {
+    List<Path> files = createFiles(10, 5, 1);
+    final Path stuckFile = files.get(0);
+    final CountDownLatch release = new CountDownLatch(1);
+    final List<Path> processed = Collections.synchronizedList(
+        new ArrayList<>());
+
+    TeXFileScheduler scheduler = createScheduler(1, 200);
+    scheduler.process(files, file -> {
+      if (file.equals(stuckFile)) {
+        // Ignore the interruption until the end of the test.
+        while (release.getCount() > 0) {
+          try {
+            release.await();
+          } catch (InterruptedException e) {
+            // Ignore.
+          }
+        }
+        return;
+      }
+      processed.add(file);
+    });
+    release.countDown();
+
+    Assert.assertEquals(files.subList(1, 3), processed);
+    Assert.assertEquals(1, scheduler.getNumTimeouts());
+    Assert.assertEquals(0, scheduler.getNumQueuedFiles());
+  }
+
+  // ___________________________________________________________________________
+
+  /**
+   * Creates the scheduler to test.
+   */
+  protected TeXFileScheduler createScheduler(int parallelism,
+      long timeoutMillis) {
+    return new ThreadPoolTeXFileScheduler(parallelism, timeoutMillis,
+        TimeUnit.MILLISECONDS);
+  }
+
+  /**
+   * Returns the maximal number of files in process at the same time for the
+   * given parallelism.
+   */
+  protected int getMaxFilesInProcess(int parallelism) {
+    return parallelism;
+  }
+
+  /**
+   * Creates files "f0.tex", "f1.tex", ... with the given sizes.
+   */
+  protected List<Path> createFiles(int... sizes) throws IOException {
+    List<Path> files = new ArrayList<>();
+    for (int i = 0; i < sizes.length; i++) {
+      Path file = folder.getRoot().toPath().resolve("f" + i + ".tex");
+      Files.write(file, new byte[sizes[i]]);
+      files.add(file);
+    }
+    return files;
+  }
+
+  /**
+   * Sleeps the given number of milliseconds.
+   */
+  protected static void sleep(long millis) {
+    try {
+      Thread.sleep(millis);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+}
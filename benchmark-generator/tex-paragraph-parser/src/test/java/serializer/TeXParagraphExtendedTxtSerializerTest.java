@@ -0,0 +1,179 @@
+package serializer;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import model.Element;
+import model.TeXFile;
+import model.TeXParagraph;
+import model.TeXWord;
+import parse.TeXSource;
+
+/**
+ * Tests for the TeXParagraphExtendedTxtSerializer ("txt2").
+ *
+ * @author Claudius Korzen
+ */
+public class TeXParagraphExtendedTxtSerializerTest {
+  /**
+   * Test that fragments of a word are written as a single word, at the
+   * position of the first fragment.
+   */
+  @Test
+  public void testFragments() throws IOException {
+    TeXParagraph para = createParagraph("Hel", "lo", null, "world", ".");
+    Assert.assertEquals("Hello(1,1) world.(4,4)", write(para));
+  }
+
+  /**
+   * Test that a word with whitespaces (like a word followed by a cross
+   * reference) is split, where each part gets the position of the word.
+   */
+  @Test
+  public void testSeparators() throws IOException {
+    Assert.assertEquals("see(1,1) [\\cite=a](1,1) and(3,3)",
+        write(createParagraph("see [\\cite=a]", null, "and")));
+    Assert.assertEquals("x(1,1) y(1,1) z(1,1)",
+        write(createParagraph("x  y\tz")));
+    // A word of whitespaces still separates its neighbours.
+    Assert.assertEquals("a(1,1)  b(5,5)",
+        write(createParagraph("a", null, "  ", null, "b")));
+  }
+
+  /**
+   * Test that the paragraphs are trimmed and that empty paragraphs are
+   * omitted.
+   */
+  @Test
+  public void testTrimming() throws IOException {
+    Assert.assertEquals("a(3,3)",
+        write(createParagraph(" ", null, " a\n", null, "\t")));
+    Assert.assertNull(write(createParagraph(" \n ", null, "\t")));
+    Assert.assertNull(write(createParagraph()));
+  }
+
+  /**
+   * Test that the paragraphs are separated by a double newline, after the
+   * header with the source.
+   */
+  @Test
+  public void testParagraphs() throws IOException {
+    Path base = Paths.get("in");
+    TeXFile texFile = new TeXFile(base.resolve("a/a.tex"),
+        TeXSource.read(new StringReader("")));
+    texFile.setBaseDirectory(base);
+    texFile.setTeXParagraphs(Arrays.asList(createParagraph("a"),
+        createParagraph(" "), createParagraph("b", null, "c")));
+
+    StringWriter out = new StringWriter();
+    try (BufferedWriter writer = new BufferedWriter(out)) {
+      new TeXParagraphExtendedTxtSerializer(texFile)
+          .serializeTeXParagraphs(writer, null);
+    }
+    Assert.assertEquals("##source\t"
+        + TeXParagraphExtendedTxtSerializer.RESOLVED_IN_MEMORY_PREFIX
+        + Paths.get("a/a.tex") + "\n" + "a(1,1)\n\nb(1,1) c(3,3)",
+        out.toString());
+  }
+
+  /**
+   * Test random paragraphs against the former implementation, which built
+   * the text of each word with String.trim() and String.split().
+   */
+  @Test
+  public void testRandomParagraphs() throws IOException {
+    char[] alphabet = { 'a', 'b', ' ', ' ', '\t', '\n', '\r', '\f',
+        '\u000B', '\u0001', '[', '=' };
+    Random random = new Random(0);
+    for (int i = 0; i < 5000; i++) {
+      List<String> fragments = new ArrayList<>();
+      int numFragments = random.nextInt(8);
+      for (int j = 0; j < numFragments; j++) {
+        if (j > 0 && random.nextInt(3) == 0) {
+          fragments.add(null);
+        }
+        StringBuilder sb = new StringBuilder();
+        int length = random.nextInt(5);
+        for (int k = 0; k < length; k++) {
+          sb.append(alphabet[random.nextInt(alphabet.length)]);
+        }
+        fragments.add(sb.toString());
+      }
+      TeXParagraph para = createParagraph(fragments.toArray(new String[0]));
+
+      String expected = writeFormerly(para);
+      Assert.assertEquals(fragments.toString(),
+          expected.isEmpty() ? null : expected, write(para));
+    }
+  }
+
+  // ___________________________________________________________________________
+
+  /**
+   * Creates a paragraph from the given fragments, where null introduces a
+   * whitespace (that is, starts a new word). The i-th fragment is located at
+   * line i + 1 and column i + 1.
+   */
+  protected static TeXParagraph createParagraph(String... fragments) {
+    TeXParagraph para = new TeXParagraph("text");
+    for (int i = 0; i < fragments.length; i++) {
+      if (fragments[i] == null) {
+        para.registerWhitespace();
+      } else {
+        para.registerText(fragments[i], new Element(i + 1, i + 1, i + 1,
+            i + 1));
+      }
+    }
+    return para;
+  }
+
+  /**
+   * Writes the given paragraph as the first paragraph. Returns null if the
+   * paragraph was omitted.
+   */
+  protected static String write(TeXParagraph para) throws IOException {
+    StringWriter writer = new StringWriter();
+    boolean written = new TeXParagraphExtendedTxtSerializer(null)
+        .writeParagraph(writer, para, 0);
+    Assert.assertEquals(written, writer.getBuffer().length() > 0);
+    return written ? writer.toString() : null;
+  }
+
+  /**
+   * Returns the text of the given paragraph as built by the former
+   * implementation.
+   */
+  protected static String writeFormerly(TeXParagraph para) {
+    List<TeXWord> words = para.getWords();
+    StringBuilder paraText = new StringBuilder();
+    for (int i = 0; i < words.size(); i++) {
+      TeXWord word = words.get(i);
+      String[] subwords = word.text.trim().split("\\s");
+      for (int j = 0; j < subwords.length; j++) {
+        if (!subwords[j].trim().isEmpty()) {
+          paraText.append(subwords[j]);
+          paraText.append("(" + word.lineNumber + "," + word.columnNumber
+              + ")");
+          if (j < subwords.length - 1) {
+            paraText.append(" ");
+          }
+        }
+      }
+      if (i < words.size() - 1) {
+        paraText.append(" ");
+      }
+    }
+    return paraText.toString().trim();
+  }
+}
@@ -0,0 +1,184 @@
+package serializer;
+
+import java.io.BufferedWriter;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import binary.TeXBinaryDocument;
+import binary.TeXBinaryParagraph;
+import identifier.TeXParagraphsIdentifier;
+import model.TeXElementReferences;
+import model.TeXFile;
+import model.TeXParagraph;
+import shard.TeXMappedShardReader;
+import shard.TeXShardWriter;
+
+/**
+ * Tests for the serializers of the paragraphs of a tex file.
+ *
+ * @author Claudius Korzen
+ */
+public class TeXParagraphSerializerTest {
+  /**
+   * A small tex document with paragraphs of different roles.
+   */
+  protected static final String DOCUMENT = "\\documentclass{article}\n"
+      + "\\begin{document}\n"
+      + "\\section{Introduction}\n"
+      + "Hello world.\n\n"
+      + "The second paragraph,\n"
+      + "on two lines.\n"
+      + "\\end{document}\n";
+
+  /**
+   * The element references (loaded once for all tests).
+   */
+  protected static TeXElementReferences refs;
+
+  /**
+   * The directory of the tex files and the outputs.
+   */
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  /**
+   * Loads the element references.
+   */
+  @BeforeClass
+  public static void loadReferences() throws IOException {
+    refs = TeXElementReferences.getDefault();
+  }
+
+  /**
+   * Test that the textual formats are written identically to character
+   * writers and to streams.
+   */
+  @Test
+  public void testTextFormats() throws IOException {
+    TeXFile texFile = identify(DOCUMENT);
+    List<String> roles = Arrays.asList("text");
+    for (String format : Arrays.asList("txt", "txt2", "tsv")) {
+      TeXParagraphSerializer serializer =
+          TeXParagraphSerializer.forFormat(format, texFile);
+      Assert.assertTrue(serializer instanceof TeXParagraphTextSerializer);
+      TeXParagraphTextSerializer textSerializer =
+          (TeXParagraphTextSerializer) serializer;
+
+      for (List<String> r : Arrays.asList(null, roles)) {
+        StringWriter chars = new StringWriter();
+        try (BufferedWriter writer = new BufferedWriter(chars)) {
+          textSerializer.serializeTeXParagraphs(writer, r);
+        }
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        serializer.serializeTeXParagraphs(bytes, r);
+        Assert.assertEquals(format, chars.toString(),
+            new String(bytes.toByteArray(), StandardCharsets.UTF_8));
+
+        Path target = folder.getRoot().toPath().resolve(format + ".out");
+        serializer.serialize(target, r);
+        Assert.assertArrayEquals(format, bytes.toByteArray(),
+            Files.readAllBytes(target));
+      }
+    }
+
+    String txt = toString("txt", texFile, roles);
+    Assert.assertTrue(txt, txt.startsWith("Hello world.\n\nThe second"));
+    Assert.assertFalse(txt, txt.contains("Introduction"));
+  }
+
+  /**
+   * Test that the binary format can't be written to character writers and
+   * that it is read back as written.
+   */
+  @Test
+  public void testBinaryFormat() throws IOException {
+    TeXFile texFile = identify(DOCUMENT);
+    TeXParagraphSerializer serializer =
+        TeXParagraphSerializer.forFormat("bin", texFile);
+    Assert.assertFalse(serializer instanceof TeXParagraphTextSerializer);
+
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    serializer.serializeTeXParagraphs(bytes, null);
+    TeXBinaryDocument document =
+        new TeXBinaryDocument(ByteBuffer.wrap(bytes.toByteArray()));
+    assertEquals(texFile.getTeXParagraphs(), document.getParagraphs());
+
+    // The binary documents can be read from the shards as well.
+    Path dir = folder.newFolder("shards").toPath();
+    try (TeXShardWriter writer = new TeXShardWriter(dir)) {
+      writer.append("a.tex", bytes.toByteArray());
+      writer.append("b.tex", "no binary document".getBytes(
+          StandardCharsets.UTF_8));
+    }
+    try (TeXMappedShardReader reader = new TeXMappedShardReader(dir)) {
+      assertEquals(texFile.getTeXParagraphs(),
+          reader.getDocument("a.tex").getParagraphs());
+      Assert.assertEquals(document.getParagraphs("text").size(),
+          reader.getParagraphs("a.tex", "text").size());
+      Assert.assertNull(reader.getDocument("c.tex"));
+      Assert.assertTrue(reader.getParagraphs("c.tex", "text").isEmpty());
+      try {
+        reader.getDocument("b.tex");
+        Assert.fail();
+      } catch (IOException e) {
+        // Expected.
+      }
+    }
+  }
+
+  // ___________________________________________________________________________
+
+  /**
+   * Identifies the paragraphs of the given tex document.
+   */
+  protected TeXFile identify(String content) throws IOException {
+    Path path = folder.newFile().toPath();
+    Files.write(path, content.getBytes(StandardCharsets.UTF_8));
+    TeXFile texFile = new TeXFile(path);
+    new TeXParagraphsIdentifier(texFile, null, refs).setInMemory(true)
+        .identify();
+    return texFile;
+  }
+
+  /**
+   * Returns the serialization of the given tex file in the given format.
+   */
+  protected static String toString(String format, TeXFile texFile,
+      List<String> roles) throws IOException {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    TeXParagraphSerializer.forFormat(format, texFile)
+        .serializeTeXParagraphs(bytes, roles);
+    return new String(bytes.toByteArray(), StandardCharsets.UTF_8);
+  }
+
+  /**
+   * Asserts that the given binary paragraphs are the given paragraphs.
+   */
+  protected static void assertEquals(List<TeXParagraph> expected,
+      List<TeXBinaryParagraph> actual) {
+    Assert.assertEquals(expected.size(), actual.size());
+    for (int i = 0; i < expected.size(); i++) {
+      TeXParagraph para = expected.get(i);
+      TeXBinaryParagraph binary = actual.get(i);
+      Assert.assertEquals(para.getRole(), binary.getRole());
+      Assert.assertEquals(para.getTexLineNumbers().size(),
+          binary.getNumLineNumbers());
+      Assert.assertEquals(para.getTexStartLine(), binary.getStartLine());
+      Assert.assertEquals(para.getTexEndLine(), binary.getEndLine());
+      Assert.assertEquals(para.getText().trim(), binary.getTextAsString());
+    }
+  }
+}
@@ -0,0 +1,74 @@
+package serializer;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Tests for the Utf8ChannelWriter.
+ *
+ * @author Claudius Korzen
+ */
+public class Utf8ChannelWriterTest {
+  /**
+   * Test that characters and raw bytes are written in order, also if they
+   * don't fit into the buffer and if a surrogate pair is split across writes.
+   */
+  @Test
+  public void testWrite() throws IOException {
+    StringBuilder large = new StringBuilder();
+    while (large.length() <= Utf8ChannelWriter.BUFFER_SIZE) {
+      large.append("äbc😀");
+    }
+
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    try (Utf8ChannelWriter writer =
+        new Utf8ChannelWriter(Channels.newChannel(out))) {
+      writer.write("a\uD83D");
+      writer.write("\uDE00b");
+      writer.writeBytes(ByteBuffer.wrap(new byte[] { 1, 2 }));
+      writer.write(large.toString());
+      writer.writeBytes(ByteBuffer.wrap(new byte[Utf8ChannelWriter.BUFFER_SIZE
+          + 1]));
+    }
+
+    ByteArrayOutputStream expected = new ByteArrayOutputStream();
+    expected.write("a😀b".getBytes(StandardCharsets.UTF_8));
+    expected.write(new byte[] { 1, 2 });
+    expected.write(large.toString().getBytes(StandardCharsets.UTF_8));
+    expected.write(new byte[Utf8ChannelWriter.BUFFER_SIZE + 1]);
+    Assert.assertArrayEquals(expected.toByteArray(), out.toByteArray());
+  }
+
+  /**
+   * Test that the buffers are reused and that the pool of buffers is
+   * bounded.
+   */
+  @Test
+  public void testBufferPool() throws IOException {
+    List<Utf8ChannelWriter> writers = new ArrayList<>();
+    for (int i = 0; i < 2 * Utf8ChannelWriter.MAX_POOLED_BUFFERS; i++) {
+      writers.add(new Utf8ChannelWriter(
+          Channels.newChannel(new ByteArrayOutputStream())));
+    }
+    Assert.assertTrue(Utf8ChannelWriter.BUFFERS.isEmpty());
+    for (Utf8ChannelWriter writer : writers) {
+      writer.close();
+    }
+    Assert.assertEquals(Utf8ChannelWriter.MAX_POOLED_BUFFERS,
+        Utf8ChannelWriter.BUFFERS.size());
+
+    ByteBuffer buffer = Utf8ChannelWriter.BUFFERS.peek();
+    Utf8ChannelWriter writer = new Utf8ChannelWriter(
+        Channels.newChannel(new ByteArrayOutputStream()));
+    Assert.assertSame(buffer, writer.buffer);
+    writer.close();
+  }
+}
@@ -0,0 +1,267 @@
+package service;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.InetAddress;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import model.TeXElementReferences;
+import parse.TeXWorkBudget;
+
+/**
+ * Tests for the TeXParagraphService, on the loopback interface.
+ *
+ * @author Claudius Korzen
+ */
+public class TeXParagraphServiceTest {
+  /**
+   * A small tex document with two paragraphs.
+   */
+  protected static final String DOCUMENT = "\\documentclass{article}\n"
+      + "\\begin{document}\n"
+      + "Hello world.\n\n"
+      + "The second paragraph.\n"
+      + "\\end{document}\n";
+
+  /**
+   * The element references (loaded once for all tests).
+   */
+  protected static TeXElementReferences refs;
+
+  /**
+   * The directory of the tex files that may be requested by path.
+   */
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  /**
+   * The service under test.
+   */
+  protected TeXParagraphService service;
+
+  /**
+   * Loads the element references.
+   */
+  @BeforeClass
+  public static void loadReferences() throws IOException {
+    refs = TeXElementReferences.getDefault();
+  }
+
+  /**
+   * Stops the service.
+   */
+  @After
+  public void tearDown() {
+    if (service != null) {
+      service.stop();
+    }
+  }
+
+  /**
+   * Test that posted tex files are answered with their paragraphs.
+   */
+  @Test
+  public void testPost() throws IOException {
+    start(new TeXParagraphService(refs, 1));
+
+    Response response = request("POST", "/paragraphs", DOCUMENT);
+    Assert.assertEquals(200, response.statusCode);
+    Assert.assertTrue(response.body, response.body.contains("Hello world."));
+    Assert.assertTrue(response.body,
+        response.body.contains("The second paragraph."));
+
+    response = request("POST", "/paragraphs?format=txt2&name=a/b.tex",
+        DOCUMENT);
+    Assert.assertEquals(200, response.statusCode);
+    Assert.assertTrue(response.body, response.body.startsWith("##source\t"));
+    Assert.assertTrue(response.body, response.body.contains("b.tex"));
+
+    Assert.assertEquals(400, request("POST", "/paragraphs?format=x",
+        DOCUMENT).statusCode);
+    Assert.assertEquals(405, request("PUT", "/paragraphs", DOCUMENT)
+        .statusCode);
+    Assert.assertEquals(200, request("GET", "/health", null).statusCode);
+    Assert.assertTrue(request("GET", "/metrics", null).body.contains(
+        "texparagraphs_files_total{status=\"ok\"} 2"));
+  }
+
+  /**
+   * Test that tex files are requested by path only within the root
+   * directory.
+   */
+  @Test
+  public void testGet() throws IOException {
+    Path root = folder.newFolder("root").toPath();
+    Files.write(root.resolve("a.tex"),
+        DOCUMENT.getBytes(StandardCharsets.UTF_8));
+    Files.write(folder.getRoot().toPath().resolve("secret.tex"),
+        DOCUMENT.getBytes(StandardCharsets.UTF_8));
+
+    start(new TeXParagraphService(refs, 1));
+    Assert.assertEquals(403, request("GET", "/paragraphs?path=a.tex", null)
+        .statusCode);
+    service.stop();
+
+    start(new TeXParagraphService(refs, 1).setRootDirectory(root));
+    Response response = request("GET", "/paragraphs?path=a.tex", null);
+    Assert.assertEquals(200, response.statusCode);
+    Assert.assertTrue(response.body, response.body.contains("Hello world."));
+
+    Assert.assertEquals(403, request("GET",
+        "/paragraphs?path=../secret.tex", null).statusCode);
+    Assert.assertEquals(403, request("GET",
+        "/paragraphs?path=%2E%2E/secret.tex", null).statusCode);
+    Assert.assertEquals(404, request("GET", "/paragraphs?path=b.tex", null)
+        .statusCode);
+    Assert.assertEquals(400, request("GET", "/paragraphs", null).statusCode);
+  }
+
+  /**
+   * Test that the limits of the work budget are answered with 422 and 504.
+   */
+  @Test
+  public void testBudget() throws IOException {
+    start(new TeXParagraphService(refs, 1)
+        .setWorkBudget(new TeXWorkBudget(1, 0, 0)));
+    Assert.assertEquals(422, request("POST", "/paragraphs", DOCUMENT)
+        .statusCode);
+    service.stop();
+
+    // The time is checked periodically, so the document must be large.
+    StringBuilder document = new StringBuilder("\\begin{document}\n");
+    for (int i = 0; i < 5000; i++) {
+      document.append("word ").append(i).append("\n\n");
+    }
+    document.append("\\end{document}\n");
+    start(new TeXParagraphService(refs, 1)
+        .setWorkBudget(new TeXWorkBudget(0, 0, 0, 1, TimeUnit.NANOSECONDS)));
+    Assert.assertEquals(504, request("POST", "/paragraphs",
+        document.toString()).statusCode);
+    Assert.assertTrue(request("GET", "/metrics", null).body.contains(
+        "texparagraphs_files_total{status=\"timeout\"} 1"));
+  }
+
+  /**
+   * Test that requests are rejected with 503 if there is no free slot in
+   * time.
+   */
+  @Test
+  public void testNoFreeSlot() throws Exception {
+    start(new TeXParagraphService(refs, 1)
+        .setWorkBudget(new TeXWorkBudget(0, 0, 0, 100, TimeUnit.MILLISECONDS)));
+    service.permits.acquire();
+    try {
+      Assert.assertEquals(503, request("POST", "/paragraphs", DOCUMENT)
+          .statusCode);
+    } finally {
+      service.permits.release();
+    }
+    Assert.assertEquals(200, request("POST", "/paragraphs", DOCUMENT)
+        .statusCode);
+  }
+
+  /**
+   * Test that too large posted tex files are rejected with 413.
+   */
+  @Test
+  public void testPayloadTooLarge() throws IOException {
+    start(new TeXParagraphService(refs, 1).setMaxPayloadSize(16));
+    Assert.assertEquals(413, request("POST", "/paragraphs", DOCUMENT)
+        .statusCode);
+    Assert.assertEquals(413, request("POST", "/paragraphs", DOCUMENT, true)
+        .statusCode);
+    Assert.assertEquals(200, request("POST", "/paragraphs", "Hello.")
+        .statusCode);
+  }
+
+  // ___________________________________________________________________________
+
+  /**
+   * Starts the given service on any free port of the loopback interface.
+   */
+  protected void start(TeXParagraphService service) throws IOException {
+    this.service = service;
+    service.start(InetAddress.getLoopbackAddress(), 0);
+  }
+
+  /**
+   * Sends a request with the given method, target and body (may be null) to
+   * the service.
+   */
+  protected Response request(String method, String target, String body)
+    throws IOException {
+    return request(method, target, body, false);
+  }
+
+  /**
+   * Sends a request with the given method, target and body (may be null) to
+   * the service, with the body chunked if chunked is true.
+   */
+  protected Response request(String method, String target, String body,
+      boolean chunked) throws IOException {
+    URL url = new URL("http", InetAddress.getLoopbackAddress()
+        .getHostAddress(), service.getPort(), target);
+    HttpURLConnection conn = (HttpURLConnection) url.openConnection();
+    conn.setRequestMethod(method);
+    conn.setConnectTimeout(5000);
+    conn.setReadTimeout(30000);
+    if (body != null) {
+      byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+      conn.setDoOutput(true);
+      if (chunked) {
+        conn.setChunkedStreamingMode(4);
+      } else {
+        conn.setFixedLengthStreamingMode(bytes.length);
+      }
+      try (OutputStream out = conn.getOutputStream()) {
+        out.write(bytes);
+      } catch (IOException e) {
+        // The service may reject the payload before reading it completely.
+      }
+    }
+
+    Response response = new Response();
+    response.statusCode = conn.getResponseCode();
+    InputStream in = response.statusCode < 400 ? conn.getInputStream()
+        : conn.getErrorStream();
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    if (in != null) {
+      try {
+        byte[] buffer = new byte[8192];
+        int n;
+        while ((n = in.read(buffer)) >= 0) {
+          bytes.write(buffer, 0, n);
+        }
+      } finally {
+        in.close();
+      }
+    }
+    response.body = new String(bytes.toByteArray(), StandardCharsets.UTF_8);
+    conn.disconnect();
+    return response;
+  }
+
+  /**
+   * A response of the service.
+   */
+  protected static class Response {
+    /** The status code. */
+    protected int statusCode;
+    /** The body. */
+    protected String body;
+  }
+}
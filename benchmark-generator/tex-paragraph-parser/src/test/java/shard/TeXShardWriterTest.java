@@ -0,0 +1,179 @@
+package shard;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Tests for the TeXShardWriter and the shard readers.
+ *
+ * @author Claudius Korzen
+ */
+public class TeXShardWriterTest {
+  /**
+   * The directory of the shards.
+   */
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  /**
+   * Test that the written contents are read back, across shards.
+   */
+  @Test
+  public void testRoundTrip() throws IOException {
+    Path dir = folder.getRoot().toPath();
+    try (TeXShardWriter writer = new TeXShardWriter(dir, 32)) {
+      writer.append("a/a.tex", bytes("first"));
+      writer.append("b/b.tex", bytes("a content larger than the shard"));
+      writer.append("c/c.tex", bytes(""));
+      Assert.assertEquals(3, writer.getNumRecords());
+    }
+    Assert.assertTrue(Files.exists(dir.resolve("shard-00001.dat")));
+
+    try (TeXShardReader reader = new TeXShardReader(dir)) {
+      Assert.assertEquals(Arrays.asList("a/a.tex", "b/b.tex", "c/c.tex"),
+          Arrays.asList(reader.getKeys().toArray()));
+      Assert.assertEquals("first", reader.readString("a/a.tex"));
+      Assert.assertEquals("a content larger than the shard",
+          reader.readString("b/b.tex"));
+      Assert.assertEquals("", reader.readString("c/c.tex"));
+      Assert.assertFalse(reader.contains("d/d.tex"));
+    }
+
+    try (TeXMappedShardReader reader = new TeXMappedShardReader(dir)) {
+      ByteBuffer content = reader.map("b/b.tex");
+      Assert.assertEquals(31, content.remaining());
+      Assert.assertEquals("first", new String(reader.read("a/a.tex"),
+          StandardCharsets.UTF_8));
+    }
+  }
+
+  /**
+   * Test that a new writer starts a new shard and that the latest content
+   * of a tex file wins.
+   */
+  @Test
+  public void testLatestWins() throws IOException {
+    Path dir = folder.getRoot().toPath();
+    try (TeXShardWriter writer = new TeXShardWriter(dir)) {
+      writer.append("a.tex", bytes("old"));
+    }
+    try (TeXShardWriter writer = new TeXShardWriter(dir)) {
+      Path shard = writer.append("a.tex", bytes("new"));
+      Assert.assertEquals("shard-00001.dat", shard.getFileName().toString());
+    }
+    try (TeXShardReader reader = new TeXShardReader(dir)) {
+      Assert.assertEquals(1, reader.size());
+      Assert.assertEquals("new", reader.readString("a.tex"));
+    }
+  }
+
+  /**
+   * Test that flushed records can be read while the writer is still open
+   * (e.g., if the process is killed afterwards).
+   */
+  @Test
+  public void testFlush() throws IOException {
+    Path dir = folder.getRoot().toPath();
+    try (TeXShardWriter writer = new TeXShardWriter(dir)) {
+      writer.append("a.tex", bytes("a"));
+      writer.append("b.tex", bytes("b"));
+      writer.flush();
+
+      try (TeXShardReader reader = new TeXShardReader(dir)) {
+        Assert.assertEquals(2, reader.size());
+        Assert.assertEquals("b", reader.readString("b.tex"));
+      }
+    }
+  }
+
+  /**
+   * Test that keys that would corrupt the index are rejected.
+   */
+  @Test
+  public void testInvalidKeys() throws IOException {
+    Path dir = folder.getRoot().toPath();
+    try (TeXShardWriter writer = new TeXShardWriter(dir)) {
+      for (String key : new String[] { "a\tb", "a\nb", "a\rb" }) {
+        try {
+          writer.append(key, bytes("x"));
+          Assert.fail("Accepted key: " + key);
+        } catch (IllegalArgumentException e) {
+          // Expected.
+        }
+      }
+      Assert.assertEquals(0, writer.getNumRecords());
+    }
+  }
+
+  /**
+   * Test that an interrupted worker neither fails to append nor closes the
+   * shard for the other workers.
+   */
+  @Test
+  public void testInterruptedAppend() throws Exception {
+    Path dir = folder.getRoot().toPath();
+    try (final TeXShardWriter writer = new TeXShardWriter(dir)) {
+      writer.append("a.tex", bytes("a"));
+
+      final Exception[] error = new Exception[1];
+      Thread worker = new Thread(() -> {
+        Thread.currentThread().interrupt();
+        try {
+          writer.append("b.tex", bytes("b"));
+          writer.flush();
+        } catch (Exception e) {
+          error[0] = e;
+        }
+      });
+      worker.start();
+      worker.join();
+      Assert.assertNull(error[0]);
+
+      writer.append("c.tex", bytes("c"));
+      writer.flush();
+      Assert.assertEquals(3, writer.getNumRecords());
+    }
+    try (TeXShardReader reader = new TeXShardReader(dir)) {
+      Assert.assertEquals(3, reader.size());
+      Assert.assertEquals("b", reader.readString("b.tex"));
+      Assert.assertEquals("c", reader.readString("c.tex"));
+    }
+  }
+
+  /**
+   * Test that index entries that point beyond the end of their shard are
+   * ignored.
+   */
+  @Test
+  public void testTruncatedShard() throws IOException {
+    Path dir = folder.getRoot().toPath();
+    try (TeXShardWriter writer = new TeXShardWriter(dir)) {
+      writer.append("a.tex", bytes("a"));
+      writer.append("b.tex", bytes("bbbbbbbb"));
+    }
+    Path shard = dir.resolve("shard-00000.dat");
+    byte[] content = Files.readAllBytes(shard);
+    Files.write(shard, Arrays.copyOf(content, content.length - 4));
+
+    try (TeXShardReader reader = new TeXShardReader(dir)) {
+      Assert.assertTrue(reader.contains("a.tex"));
+      Assert.assertFalse(reader.contains("b.tex"));
+    }
+  }
+
+  /**
+   * Returns the given string, encoded as UTF-8.
+   */
+  protected static byte[] bytes(String str) {
+    return str.getBytes(StandardCharsets.UTF_8);
+  }
+}
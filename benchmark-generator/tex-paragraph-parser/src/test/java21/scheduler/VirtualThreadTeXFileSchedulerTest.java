@@ -0,0 +1,64 @@
+package scheduler;
+
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Tests for the VirtualThreadTeXFileScheduler (runs the tests of the
+ * ThreadPoolTeXFileScheduler, too). Requires Java 21 (build with profile
+ * "jdk21").
+ *
+ * @author Claudius Korzen
+ */
+public class VirtualThreadTeXFileSchedulerTest
+    extends ThreadPoolTeXFileSchedulerTest {
+  /**
+   * Test that a file that timed out stays in flight until its thread exits.
+   */
+  @Test(timeout = 30000)
+  public void testFilesInFlightAfterTimeout() throws Exception {
+    List<Path> files = createFiles(10, 5, 1);
+    final Path stuckFile = files.get(0);
+    final CountDownLatch release = new CountDownLatch(1);
+
+    VirtualThreadTeXFileScheduler scheduler =
+        new VirtualThreadTeXFileScheduler(1, 200, TimeUnit.MILLISECONDS);
+    int numPermits = scheduler.filesInFlight.availablePermits();
+    scheduler.process(files, file -> {
+      while (file.equals(stuckFile) && release.getCount() > 0) {
+        try {
+          release.await();
+        } catch (InterruptedException e) {
+          // Ignore the interruption until released.
+        }
+      }
+    });
+    Assert.assertEquals(1, scheduler.getNumTimeouts());
+    Assert.assertEquals(numPermits - 1,
+        scheduler.filesInFlight.availablePermits());
+
+    release.countDown();
+    while (scheduler.filesInFlight.availablePermits() < numPermits) {
+      Thread.sleep(10);
+    }
+    Assert.assertEquals(numPermits, scheduler.filesInFlight.availablePermits());
+  }
+
+  @Override
+  protected TeXFileScheduler createScheduler(int parallelism,
+      long timeoutMillis) {
+    return new VirtualThreadTeXFileScheduler(parallelism, timeoutMillis,
+        TimeUnit.MILLISECONDS);
+  }
+
+  @Override
+  protected int getMaxFilesInProcess(int parallelism) {
+    return parallelism
+        * VirtualThreadTeXFileScheduler.FILES_IN_FLIGHT_PER_PERMIT;
+  }
+}
@@ -1,7 +1,10 @@
 package model;
 
+import java.io.IOException;
+import java.io.ObjectInputStream;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
 
 import parse.Token;
 
@@ -24,6 +27,11 @@ public class Command extends Element {
    * formula).
    */
   protected String name;
+
+  /**
+   * The id of the name of this command in {@link CommandNames}.
+   */
+  protected transient int nameId;
   
   /**
    * The list of options and groups of this command. The order in list 
@@ -57,6 +65,7 @@ public class Command extends Element {
     this.options = new ArrayList<>();
     this.arguments = new ArrayList<>();
     this.name = name;
+    this.nameId = CommandNames.getId(name);
   }
   
   // ___________________________________________________________________________
@@ -68,6 +77,8 @@ public class Command extends Element {
    */
   public void addArgument(Element element) {
     this.arguments.add(element);
+    element.addOwner(this);
+    modified();
     
     this.beginLine = Math.min(this.beginLine, element.beginLine);
     this.endLine = Math.max(this.endLine, element.endLine);
@@ -200,13 +211,36 @@ public class Command extends Element {
    */
   public void setName(String name) {
     this.name = name;
+    this.nameId = CommandNames.getId(name);
+    modified();
+  }
+
+  /**
+   * Returns the id of the name of this command in {@link CommandNames}
+   * (CommandNames.NONE if the name isn't registered).
+   */
+  public int getNameId() {
+    return this.nameId;
   }
   
   /**
-   * Returns true, if the name of this command starts with the given string.
+   * Returns true, if the name of this command is equal to the given string,
+   * with or without the preceding "\".
    */
   public boolean nameEquals(String command) {
-    return name.equals(command) || name.equals("\\" + command);
+    if (name.equals(command)) {
+      return true;
+    }
+    int length = command.length();
+    return name.length() == length + 1 && name.charAt(0) == '\\'
+        && name.regionMatches(1, command, 0, length);
+  }
+
+  /**
+   * Returns true, if the name of this command has the given id.
+   */
+  public boolean nameEquals(int nameId) {
+    return nameId != CommandNames.NONE && this.nameId == nameId;
   }
   
   // ___________________________________________________________________________
@@ -240,7 +274,7 @@ public class Command extends Element {
   }
   
   @Override
-  public String toString() {
+  protected String computeString() {
     StringBuilder sb = new StringBuilder();
     sb.append(getName());
     
@@ -249,18 +283,41 @@ public class Command extends Element {
     // (Error is: "TeX capacity exceeded, sorry [input stack size=5000]").
     // The reason is the option of bibitem, without the option, the file is 
     // compilable.
-    boolean ignoreOptions = "\\bibitem".equals(getName());
+    boolean ignoreOptions = nameId == CommandNames.BIBITEM;
     
     for (Element arg : arguments) {
+      // Compute the string of ignored options as well, to keep the strings of
+      // all owned elements cached (see Element.computeString()).
+      String str = arg.toString();
       if (!ignoreOptions || !(arg instanceof Option)) {
-        sb.append(arg);
+        sb.append(str);
       }
     }
    
     // In case of command "\" followed by a line break, the command is 
     // "\<linebreak>". To avoid issues on encoding this command in element
     // references, remove all linebreaks.
-    return sb.toString().replaceAll("\\r?\\n", " ");
+    return removeLineBreaks(sb);
+  }
+
+  /**
+   * Replaces all line breaks ("\n" or "\r\n") in the given string by a 
+   * whitespace (like replaceAll("\\r?\\n", " "), but without regex).
+   */
+  protected static String removeLineBreaks(StringBuilder sb) {
+    int i = sb.indexOf("\n");
+    if (i < 0) {
+      return sb.toString();
+    }
+    StringBuilder result = new StringBuilder(sb.length());
+    int start = 0;
+    for (; i >= 0; i = sb.indexOf("\n", start)) {
+      int end = i > start && sb.charAt(i - 1) == '\r' ? i - 1 : i;
+      result.append(sb, start, end).append(' ');
+      start = i + 1;
+    }
+    result.append(sb, start, sb.length());
+    return result.toString();
   }
 
   /**
@@ -289,4 +346,24 @@ public class Command extends Element {
     
     return false;
   }
+  
+  @Override
+  protected void copyReferences(Map<Element, Element> copies) {
+    super.copyReferences(copies);
+    this.arguments = copy(this.arguments, copies);
+    this.options = copy(this.options, copies);
+    this.groups = copy(this.groups, copies);
+    addOwner(this.arguments, this);
+  }
+
+  /**
+   * Looks up the id of the name on deserialization (the ids are valid within
+   * a JVM only) and registers this command as the owner of its arguments.
+   */
+  private void readObject(ObjectInputStream in)
+      throws IOException, ClassNotFoundException {
+    in.defaultReadObject();
+    this.nameId = CommandNames.getId(name);
+    addOwner(this.arguments, this);
+  }
 }
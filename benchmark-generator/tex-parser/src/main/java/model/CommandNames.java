@@ -0,0 +1,162 @@
+package model;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * A global symbol table that maps the names of commands (like "\cite") to
+ * small integer ids. Each command gets the id of its name on creation, so
+ * decisions based on the name of a command can be made by comparing ints or
+ * by a lookup in an array (or BitSet) instead of comparing strings.
+ *
+ * Only the names the code dispatches on are registered: the names in this
+ * class have fixed ids, such that they can be used in switch statements.
+ * They are registered on loading this class, that is, before the first
+ * command is created. Further names can be registered by
+ * {@link #intern(String)}, but a command keeps the id it got on creation, so
+ * commands created before registering their name have the id NONE. All other
+ * names (e.g., the names of the macros of a document) have the id NONE, such
+ * that the table doesn't grow with the processed documents.
+ *
+ * @author Claudius Korzen
+ */
+public final class CommandNames {
+  /** The id of a null name. */
+  public static final int NONE = -1;
+  /** The id of "\begin". */
+  public static final int BEGIN = 0;
+  /** The id of "\end". */
+  public static final int END = 1;
+  /** The id of "_" (subscript). */
+  public static final int SUBSCRIPT = 2;
+  /** The id of "^" (superscript). */
+  public static final int SUPERSCRIPT = 3;
+  /** The id of "\bibitem". */
+  public static final int BIBITEM = 4;
+  /** The id of "\onlinecite". */
+  public static final int ONLINECITE = 5;
+  /** The id of "\documentstyle". */
+  public static final int DOCUMENTSTYLE = 6;
+  /** The id of "\cite", the first of the cross reference commands. */
+  public static final int CITE = 7;
+
+  /**
+   * The names of the cross reference commands, with the ids CITE, CITE + 1,
+   * and so on.
+   */
+  protected static final String[] CROSS_REFERENCES = { "\\cite", "\\ref",
+      "\\eqref", "\\citep", "\\citet", "\\citealp", "\\citealt", "\\citetext",
+      "\\citeauthor", "\\citeyear", "\\citeyearpar", "\\Citep", "\\Citet",
+      "\\Citealp", "\\Citealt", "\\Citetext", "\\Citeauthor", "\\Citeyear",
+      "\\Citeyearpar", "\\citetalias", "\\citepalias" };
+
+  /**
+   * The ids of the names.
+   */
+  protected static final Map<String, Integer> IDS = new ConcurrentHashMap<>();
+
+  /**
+   * The names, per id.
+   */
+  protected static volatile String[] names = new String[256];
+
+  /**
+   * The number of names.
+   */
+  protected static int numNames;
+
+  static {
+    register(BEGIN, "\\begin");
+    register(END, "\\end");
+    register(SUBSCRIPT, "_");
+    register(SUPERSCRIPT, "^");
+    register(BIBITEM, "\\bibitem");
+    register(ONLINECITE, "\\onlinecite");
+    register(DOCUMENTSTYLE, "\\documentstyle");
+    for (int i = 0; i < CROSS_REFERENCES.length; i++) {
+      register(CITE + i, CROSS_REFERENCES[i]);
+    }
+  }
+
+  /**
+   * Registers the given name with the given fixed id.
+   */
+  protected static void register(int id, String name) {
+    if (intern(name) != id) {
+      throw new IllegalStateException("Couldn't register the command name '"
+          + name + "' with id " + id + ".");
+    }
+  }
+
+  /**
+   * This class isn't instantiable.
+   */
+  private CommandNames() {}
+
+  // ___________________________________________________________________________
+
+  /**
+   * Returns the id of the given name, registers the name if it is unknown yet.
+   * Returns NONE if the given name is null. Register only the (fixed) names
+   * to dispatch on, never names read from documents; use
+   * {@link #getId(String)} to look names up.
+   */
+  public static int intern(String name) {
+    if (name == null) {
+      return NONE;
+    }
+    Integer id = IDS.get(name);
+    return id != null ? id : add(name);
+  }
+
+  /**
+   * Registers the given name if it is unknown yet, and returns its id.
+   */
+  protected static synchronized int add(String name) {
+    Integer id = IDS.get(name);
+    if (id != null) {
+      return id;
+    }
+    String[] names = CommandNames.names;
+    if (numNames == names.length) {
+      names = Arrays.copyOf(names, names.length * 2);
+    }
+    names[numNames] = name;
+    // Publish the array before the id, such that getName() finds the name.
+    CommandNames.names = names;
+    IDS.put(name, numNames);
+    return numNames++;
+  }
+
+  /**
+   * Returns the id of the given name or NONE if the name is unknown.
+   */
+  public static int getId(String name) {
+    Integer id = name != null ? IDS.get(name) : null;
+    return id != null ? id : NONE;
+  }
+
+  /**
+   * Returns true, if the given id is the id of a cross reference command
+   * (like "\cite" or "\ref").
+   */
+  public static boolean isCrossReference(int id) {
+    return id >= CITE && id < CITE + CROSS_REFERENCES.length;
+  }
+
+  /**
+   * Returns the name with the given id or null if there is no such name.
+   */
+  public static String getName(int id) {
+    String[] names = CommandNames.names;
+    return id >= 0 && id < names.length ? names[id] : null;
+  }
+
+  /**
+   * Returns the number of registered names.
+   */
+  public static int size() {
+    return IDS.size();
+  }
+}
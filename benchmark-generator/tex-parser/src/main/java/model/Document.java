@@ -78,4 +78,26 @@ public class Document extends Group {
   public void addMacroDefinition(String name, Group macroDefintion) {
     this.macroDefinitions.put(name, macroDefintion);  
   }
+  
+  @Override
+  protected void copyReferences(Map<Element, Element> copies) {
+    super.copyReferences(copies);
+    this.crossReferences = copy(this.crossReferences, copies);
+    this.macroDefinitions = copy(this.macroDefinitions, copies);
+  }
+  
+  /**
+   * Returns a map with copies of the groups in the given map.
+   */
+  protected static Map<String, Group> copy(Map<String, Group> groups,
+      Map<Element, Element> copies) {
+    if (groups == null) {
+      return null;
+    }
+    Map<String, Group> copy = new HashMap<>();
+    for (Map.Entry<String, Group> entry : groups.entrySet()) {
+      copy.put(entry.getKey(), copy(entry.getValue(), copies));
+    }
+    return copy;
+  }
 }
@@ -1,6 +1,12 @@
 package model;
 
 import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Predicate;
 
 import parse.Token;
 
@@ -10,7 +16,7 @@ import parse.Token;
  *
  * @author Claudius Korzen
  */
-public class Element implements Serializable {
+public class Element implements Serializable, Cloneable {
   /**
    * The serial id.
    */
@@ -28,6 +34,26 @@ public class Element implements Serializable {
   /** The column where the element ends. */
   protected int endColumn = Integer.MIN_VALUE;
   
+  /**
+   * The element that contains this element, that is, whose string 
+   * representation is built from the string of this element (null if there
+   * is no such element).
+   */
+  protected transient Element owner;
+  
+  /**
+   * The further owners of this element, if it is contained in more than one
+   * element (like the arguments of a macro call, which are plugged into the
+   * instance of the macro).
+   */
+  protected transient Element[] moreOwners;
+  
+  /**
+   * The cached string representation of this element. If not null, the 
+   * strings of the elements it was computed from are cached as well.
+   */
+  protected transient String cachedString;
+  
   /**
    * Creates a new element with given begin line and end line.
    */
@@ -121,6 +147,99 @@ public class Element implements Serializable {
     return this.toString();
   }
   
+  @Override
+  public String toString() {
+    if (cachedString == null) {
+      cachedString = computeString();
+    }
+    return cachedString;
+  }
+  
+  /**
+   * Computes the string representation of this element (which is cached by 
+   * toString()). The strings of the owned elements must be taken from their
+   * toString(), such that their strings are cached as well (see modified()).
+   */
+  protected String computeString() {
+    return super.toString();
+  }
+  
+  /**
+   * Must be called on each modification of an element that affects its 
+   * string representation. Invalidates the cached string of this element and
+   * of its owners, up to the first element without cached string (whose 
+   * owners can't have a cached string either).
+   */
+  protected void modified() {
+    if (cachedString != null) {
+      cachedString = null;
+      if (owner != null) {
+        owner.modified();
+      }
+      if (moreOwners != null) {
+        for (Element element : moreOwners) {
+          element.modified();
+        }
+      }
+    }
+  }
+  
+  /**
+   * Registers the given element as an owner of this element, that is, as an
+   * element whose string representation is built from the string of this 
+   * element.
+   */
+  protected void addOwner(Element element) {
+    if (owner == null || owner == element) {
+      owner = element;
+      return;
+    }
+    if (moreOwners == null) {
+      moreOwners = new Element[] { element };
+      return;
+    }
+    for (Element e : moreOwners) {
+      if (e == element) {
+        return;
+      }
+    }
+    moreOwners = Arrays.copyOf(moreOwners, moreOwners.length + 1);
+    moreOwners[moreOwners.length - 1] = element;
+  }
+  
+  /**
+   * Replaces the first owner of this element that matches the given 
+   * predicate by the given element (or registers the element as an owner if 
+   * no owner matches).
+   */
+  protected void replaceOwner(Predicate<Element> predicate, Element element) {
+    if (owner != null && predicate.test(owner)) {
+      owner = null;
+    } else if (moreOwners != null) {
+      for (int i = 0; i < moreOwners.length; i++) {
+        if (predicate.test(moreOwners[i])) {
+          moreOwners[i] = element;
+          return;
+        }
+      }
+    }
+    addOwner(element);
+  }
+  
+  /**
+   * Registers the given element as an owner of the given elements.
+   */
+  protected static void addOwner(Iterable<? extends Element> elements,
+      Element element) {
+    if (elements != null) {
+      for (Element e : elements) {
+        if (e != null) {
+          e.addOwner(element);
+        }
+      }
+    }
+  }
+  
   // ---------------------------------------------------------------------------
   
   /**
@@ -131,4 +250,70 @@ public class Element implements Serializable {
   public boolean equalsOrContainsStr(String string) {
     return toString().equals(string);
   }
+  
+  // ---------------------------------------------------------------------------
+  
+  /**
+   * Returns a deep copy of this element. Elements that are referenced more
+   * than once are copied only once, so the copy has the same structure as the
+   * original (as on serializing and deserializing the element).
+   */
+  public Element copy() {
+    return copy(new IdentityHashMap<>());
+  }
+  
+  /**
+   * Returns a deep copy of this element, using the given map of the elements
+   * copied so far (from original to copy).
+   */
+  public Element copy(Map<Element, Element> copies) {
+    Element copy = copies.get(this);
+    if (copy == null) {
+      try {
+        copy = (Element) super.clone();
+      } catch (CloneNotSupportedException e) {
+        throw new AssertionError(e);
+      }
+      // The owners of the copy are registered by the copies of the owners.
+      copy.owner = null;
+      copy.moreOwners = null;
+      copies.put(this, copy);
+      copy.copyReferences(copies);
+    }
+    return copy;
+  }
+  
+  /**
+   * Replaces the references of this (shallow) copy to mutable objects by 
+   * copies. Must be overridden by subclasses with such references (which 
+   * must register the copy as an owner of the copied elements).
+   */
+  protected void copyReferences(Map<Element, Element> copies) {
+    // Nothing to do, an element only holds primitive values.
+  }
+  
+  /**
+   * Returns a copy of the given element (which may be null).
+   */
+  @SuppressWarnings("unchecked")
+  protected static <T extends Element> T copy(T element,
+      Map<Element, Element> copies) {
+    // The copy is of the same class as the element.
+    return element != null ? (T) element.copy(copies) : null;
+  }
+  
+  /**
+   * Returns a list with copies of the given elements.
+   */
+  protected static <T extends Element> List<T> copy(List<T> elements,
+      Map<Element, Element> copies) {
+    if (elements == null) {
+      return null;
+    }
+    List<T> copy = new ArrayList<>(elements.size());
+    for (T element : elements) {
+      copy.add(copy(element, copies));
+    }
+    return copy;
+  }
 }
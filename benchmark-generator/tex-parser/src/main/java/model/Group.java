@@ -1,13 +1,12 @@
 package model;
 
-import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
+import java.io.IOException;
 import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
 
-import de.freiburg.iif.collection.ConstantLookupList;
+import de.freiburg.iif.collection.IdentityIndexedList;
 
 /**
  * A group in a tex file, that is a bunch of elements wrapped in "{...}".
@@ -21,11 +20,11 @@ public class Group extends Element implements Iterable<Element> {
   /**
    * The elements of this group.
    */
-  public ConstantLookupList<Element> elements;
+  public IdentityIndexedList<Element> elements;
   /**
    * The elements without leading and trailing whitespaces.
    */
-  public ConstantLookupList<Element> trimmedElements;
+  public IdentityIndexedList<Element> trimmedElements;
 
   public List<Element> whitespaceQueue;
 
@@ -39,8 +38,8 @@ public class Group extends Element implements Iterable<Element> {
    */
   public Group() {
     super(null);
-    this.elements = new ConstantLookupList<>();
-    this.trimmedElements = new ConstantLookupList<>();
+    this.elements = new IdentityIndexedList<>();
+    this.trimmedElements = new IdentityIndexedList<>();
     this.whitespaceQueue = new ArrayList<>();
   }
 
@@ -60,6 +59,8 @@ public class Group extends Element implements Iterable<Element> {
   public void addElement(Element element) {
     if (element != null) {
       this.elements.add(element);
+      element.addOwner(this);
+      modified();
 
       this.beginLine = Math.min(this.beginLine, element.beginLine);
       this.endLine = Math.max(this.endLine, element.endLine);
@@ -205,7 +206,7 @@ public class Group extends Element implements Iterable<Element> {
    */
   protected <T extends Element> void replaceRecursive(Group group, 
       Element element1, List<Element> elements) {
-    group.elements.replace(element1, elements);
+    group.replaceElement(element1, elements);
 
     for (int i = 0; i < group.elements.size(); i++) {
       Element element = group.elements.get(i);
@@ -223,6 +224,19 @@ public class Group extends Element implements Iterable<Element> {
     }
   }
 
+  /**
+   * Replaces the given element of this group (not recursively) by the given
+   * elements (if not empty).
+   */
+  protected void replaceElement(Element element, List<Element> elements) {
+    if (elements.isEmpty() || this.elements.indexOf(element) < 0) {
+      return;
+    }
+    this.elements.replace(element, elements);
+    addOwner(elements, this);
+    modified();
+  }
+
   // ___________________________________________________________________________
 
   /**
@@ -232,6 +246,22 @@ public class Group extends Element implements Iterable<Element> {
     return this.elements;
   }
 
+  /**
+   * Sets the elements of this group.
+   */
+  public void setElements(IdentityIndexedList<Element> elements) {
+    this.elements = elements;
+    // The elements are usually taken over from another (temporary) group,
+    // which isn't their owner anymore.
+    for (Element element : elements) {
+      if (element != null) {
+        element.replaceOwner(e -> e != this && e instanceof Group
+            && ((Group) e).elements == elements, this);
+      }
+    }
+    modified();
+  }
+
   /**
    * Returns the elements of this group without leading and trailing 
    * whitespaces.
@@ -276,7 +306,7 @@ public class Group extends Element implements Iterable<Element> {
   }
 
   @Override
-  public String toString() {
+  protected String computeString() {
     return toString(true, true);
   }
 
@@ -298,24 +328,35 @@ public class Group extends Element implements Iterable<Element> {
   }
 
   /**
-   * Clones this group.
+   * Clones this group (deeply).
    */
   public Group clone() {
-    try {
-      try (ByteArrayOutputStream baos = new ByteArrayOutputStream();
-          ObjectOutputStream oos = new ObjectOutputStream(baos)) {
-        oos.writeObject(this);
-        try (ByteArrayInputStream bais = 
-              new ByteArrayInputStream(baos.toByteArray());
-            ObjectInputStream ois = new ObjectInputStream(bais)) {
-          Group group = (Group) ois.readObject();
-          return group;
-        }
-      }
-    } catch (Exception e) {
-      e.printStackTrace();
-      return null;
-    }
+    return (Group) copy();
+  }
+
+  @Override
+  protected void copyReferences(Map<Element, Element> copies) {
+    this.elements = copy(this.elements, copies);
+    this.trimmedElements = copy(this.trimmedElements, copies);
+    this.whitespaceQueue = copy(this.whitespaceQueue, copies);
+    addOwner(this.elements, this);
+  }
+
+  /**
+   * Returns a copy of the given list with copies of its elements.
+   */
+  protected static IdentityIndexedList<Element> copy(
+      IdentityIndexedList<Element> elements, Map<Element, Element> copies) {
+    return elements != null ? elements.copy(e -> copy(e, copies)) : null;
+  }
+
+  /**
+   * Registers this group as the owner of its elements on deserialization.
+   */
+  private void readObject(ObjectInputStream in)
+      throws IOException, ClassNotFoundException {
+    in.defaultReadObject();
+    addOwner(this.elements, this);
   }
 
   @Override
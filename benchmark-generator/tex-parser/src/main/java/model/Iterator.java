@@ -42,7 +42,7 @@ public class Iterator<T> implements java.util.Iterator<T> {
   public boolean hasNext() {
     return currentIndex < elements.size()
         && elements.get(currentIndex) != null
-        && !elements.get(currentIndex).toString().equals(end);
+        && (end == null || !elements.get(currentIndex).toString().equals(end));
   }
 
   @Override
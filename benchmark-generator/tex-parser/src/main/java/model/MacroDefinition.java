@@ -1,7 +1,10 @@
 package model;
 
+import java.io.IOException;
+import java.io.ObjectInputStream;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
 
 import parse.Token;
 
@@ -38,6 +41,10 @@ public class MacroDefinition extends Command {
    */
   public void setKey(Group group) {
     this.key = group;
+    if (group != null) {
+      group.addOwner(this);
+    }
+    modified();
   }
   
   /**
@@ -52,6 +59,8 @@ public class MacroDefinition extends Command {
    */
   public void addValue(Group group) {
     this.values.add(group);
+    group.addOwner(this);
+    modified();
   }
   
   /**
@@ -62,10 +71,13 @@ public class MacroDefinition extends Command {
   }
   
   @Override
-  public String toString() {
+  protected String computeString() {
     StringBuilder sb = new StringBuilder();
     sb.append(getName());
-    sb.append(getKey().getText());
+    // The string of the key is "{<text>}". Take it from toString() to keep the
+    // string of the key cached (see Element.computeString()).
+    String key = getKey().toString();
+    sb.append(key, 1, key.length() - 1);
     if (!getValues().isEmpty()) {
       for (Group v : getValues()) {
         sb.append(v);
@@ -74,4 +86,27 @@ public class MacroDefinition extends Command {
     return sb.toString();
   }
   
+  @Override
+  protected void copyReferences(Map<Element, Element> copies) {
+    super.copyReferences(copies);
+    this.key = copy(this.key, copies);
+    this.values = copy(this.values, copies);
+    if (this.key != null) {
+      this.key.addOwner(this);
+    }
+    addOwner(this.values, this);
+  }
+  
+  /**
+   * Registers this definition as the owner of its key and values on 
+   * deserialization.
+   */
+  private void readObject(ObjectInputStream in)
+      throws IOException, ClassNotFoundException {
+    in.defaultReadObject();
+    if (this.key != null) {
+      this.key.addOwner(this);
+    }
+    addOwner(this.values, this);
+  }
 }
@@ -0,0 +1,148 @@
+package model;
+
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A macro (the group to plug in on calling a macro defined command), compiled
+ * once on its definition. The template holds a private copy of the macro and
+ * knows in advance where the markers (#1, #2, ...) are, so instantiating it
+ * only needs a (structural) copy and the replacement of the markers by the
+ * arguments, without searching the macro again on each call.
+ *
+ * An instance is the same as cloning the macro and replacing each of its
+ * markers via {@link Group#replace(Element, List)}, except for the positions:
+ * the elements of the macro are placed at the call of the macro (see
+ * {@link #instantiate(Command)}).
+ *
+ * @author Claudius Korzen
+ */
+public class MacroTemplate {
+  /**
+   * The macro.
+   */
+  protected final Group macro;
+
+  /**
+   * The slots of the arguments, in order of the markers in the macro.
+   */
+  protected final List<Slot> slots = new ArrayList<>();
+
+  /**
+   * Compiles the given macro. The macro isn't changed.
+   */
+  public MacroTemplate(Group macro) {
+    this.macro = macro.clone();
+
+    for (Marker marker : this.macro.get(Marker.class, true)) {
+      if (marker != null && getSlot(marker) == null) {
+        Slot slot = new Slot(marker);
+        findGroups(this.macro, marker, slot.groups);
+        slots.add(slot);
+      }
+    }
+  }
+
+  /**
+   * Collects the groups that contain the given marker, in the same order as
+   * traversed by {@link Group#replace(Element, List)}.
+   */
+  protected void findGroups(Group group, Marker marker, List<Group> result) {
+    if (group.elements.indexOf(marker) > -1) {
+      result.add(group);
+    }
+
+    for (Element element : group.elements) {
+      if (element instanceof Group) {
+        findGroups((Group) element, marker, result);
+      }
+
+      if (element instanceof Command) {
+        for (Group commandGroup : ((Command) element).getGroups()) {
+          findGroups(commandGroup, marker, result);
+        }
+      }
+    }
+  }
+
+  /**
+   * Returns the slot of the given marker or null if there is no such slot.
+   */
+  protected Slot getSlot(Marker marker) {
+    for (Slot slot : slots) {
+      if (slot.marker == marker) {
+        return slot;
+      }
+    }
+    return null;
+  }
+
+  // ---------------------------------------------------------------------------
+
+  /**
+   * Instantiates this template for the given call of the macro: Each marker
+   * #i is replaced by the (trimmed) elements of the i-th group of the command.
+   * Markers without such group are kept.
+   *
+   * The elements of the macro get the position of the command, such that all
+   * elements of the instance refer to the document that contains the call
+   * (instead of to the definition of the macro, which may even be in another
+   * file). The arguments keep their own positions.
+   */
+  public Group instantiate(Command command) {
+    Map<Element, Element> copies = new IdentityHashMap<>();
+    Group instance = (Group) macro.copy(copies);
+    for (Element copy : copies.values()) {
+      copy.beginLine = command.beginLine;
+      copy.endLine = command.endLine;
+      copy.beginColumn = command.beginColumn;
+      copy.endColumn = command.endColumn;
+    }
+
+    for (Slot slot : slots) {
+      int id = slot.marker.getId();
+      if (!command.hasGroups(id)) {
+        continue;
+      }
+      Group arg = command.getGroup(id);
+      if (arg == null) {
+        continue;
+      }
+      Element marker = copies.get(slot.marker);
+      for (Group group : slot.groups) {
+        ((Group) copies.get(group)).replaceElement(marker,
+            arg.trimmedElements);
+      }
+    }
+    return instance;
+  }
+
+  /**
+   * Returns the number of distinct markers in the macro.
+   */
+  public int getNumSlots() {
+    return slots.size();
+  }
+
+  // ___________________________________________________________________________
+
+  /**
+   * A marker of the macro, together with the groups containing it.
+   */
+  protected static class Slot {
+    /** The marker. */
+    protected final Marker marker;
+
+    /** The groups of the macro that contain the marker. */
+    protected final List<Group> groups = new ArrayList<>();
+
+    /**
+     * Creates a new slot for the given marker.
+     */
+    protected Slot(Marker marker) {
+      this.marker = marker;
+    }
+  }
+}
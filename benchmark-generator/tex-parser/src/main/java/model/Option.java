@@ -15,7 +15,7 @@ public class Option extends Group {
   public Option() { }
   
   @Override
-  public String toString() {
+  protected String computeString() {
     StringBuilder sb = new StringBuilder();
     sb.append("[");
     sb.append(getText());
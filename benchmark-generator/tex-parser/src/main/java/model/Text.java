@@ -1,5 +1,9 @@
 package model;
 
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.util.Map;
+
 import parse.Token;
 
 /**
@@ -10,28 +14,38 @@ import parse.Token;
 public class Text extends Element {
   /** The serial id. */
   protected static final long serialVersionUID = -7150317095394410328L;
-  /** The text. */
-  protected StringBuilder text;  
+  /**
+   * The text. Either the (immutable) text given on creation, which may be a
+   * view on the source of the tex file (see parse.TeXSource), or a
+   * StringBuilder if text was appended.
+   */
+  protected CharSequence text;  
   
   /**
-   * The constructor.
+   * The constructor. The given text isn't copied, so it must not be modified
+   * afterwards.
    */
-  public Text(String text, Token token) {
+  public Text(CharSequence text, Token token) {
     super(token);
-    this.text = new StringBuilder(text);
+    this.text = text;
   }
   
   /**
-   * The constructor.
+   * The constructor. The given text isn't copied, so it must not be modified
+   * afterwards.
    */
-  public Text(String text, int beginLine, int endLine, int beginColumn, 
+  public Text(CharSequence text, int beginLine, int endLine, int beginColumn, 
       int endColumn) {
     super(beginLine, endLine, beginColumn, endColumn);
-    this.text = new StringBuilder(text);
+    this.text = text;
   }
   
   public void appendText(String text) {
-    this.text.append(text);
+    if (!(this.text instanceof StringBuilder)) {
+      this.text = new StringBuilder(this.text);
+    }
+    ((StringBuilder) this.text).append(text);
+    modified();
   }
   
   /**
@@ -42,7 +56,7 @@ public class Text extends Element {
   }
   
   @Override
-  public String toString() {
+  protected String computeString() {
     return text.toString();
   }
   
@@ -56,4 +70,20 @@ public class Text extends Element {
   public boolean isWhitespace() {
     return getText() != null && getText().trim().isEmpty();
   }
+  
+  @Override
+  protected void copyReferences(Map<Element, Element> copies) {
+    // The given text is immutable, only an appended text must be copied.
+    if (this.text instanceof StringBuilder) {
+      this.text = new StringBuilder(this.text);
+    }
+  }
+  
+  /**
+   * Serializes the text as string (and not the source it may refer to).
+   */
+  private void writeObject(ObjectOutputStream out) throws IOException {
+    this.text = this.text.toString();
+    out.defaultWriteObject();
+  }
 }
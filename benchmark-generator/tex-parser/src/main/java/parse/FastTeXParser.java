@@ -0,0 +1,1647 @@
+package parse;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.NoSuchElementException;
+
+import model.Command;
+import model.CommandNames;
+import model.Document;
+import model.Element;
+import model.Group;
+import model.MacroDefinition;
+import model.Marker;
+import model.NewLine;
+import model.NewParagraph;
+import model.Option;
+import model.Text;
+import model.Whitespace;
+
+/**
+ * A hand-written recursive descent parser for tex documents, as alternative
+ * to the JavaCC generated TeXParser. It produces the same element trees as
+ * TeXParser, but works on the tokens of a {@link TeXScanner} (arrays of ints
+ * instead of objects) and memoizes the results of the syntactic lookaheads,
+ * which TeXParser computes again and again for nested groups.
+ *
+ * The productions and the lookaheads follow the grammar in TeXParser.jj one
+ * by one (in the same order), so keep both in sync. Each scan*() method
+ * checks, if the production can be parsed at a given token index, and returns
+ * the index behind the production or FAIL. Each parse*() method parses the
+ * production at the current token index. Where TeXParser looks ahead a single
+ * token only, the sets of the first tokens of the productions are checked.
+ *
+ * @author Claudius Korzen
+ */
+public class FastTeXParser implements TeXParserConstants {
+  /**
+   * The result of a scan that doesn't match.
+   */
+  protected static final int FAIL = -1;
+
+  /** The token kinds of whitespaces. */
+  protected static final long WHITESPACES = mask(WHITESPACE);
+
+  /** The token kinds of whitespaces and newlines. */
+  protected static final long WHITESPACES_OR_NEW_LINES =
+      mask(WHITESPACE, NEW_LINE);
+
+  /** The token kinds of chars and digits. */
+  protected static final long CHARS_OR_DIGITS = mask(CHAR, DIGIT);
+
+  /** The token kinds of symbols of text. */
+  protected static final long TEXT_SYMBOLS =
+      mask(CHAR, DIGIT, STAR, OTHER_SYMBOL, AT);
+
+  /** The token kinds of the symbols of the names of usual commands. */
+  protected static final long USUAL_COMMAND_SYMBOLS = mask(CHAR, DIGIT, AT);
+
+  /** The token kinds of the symbols of the names of macros. */
+  protected static final long MACRO_COMMAND_SYMBOLS =
+      mask(CHAR, DIGIT, OTHER_SYMBOL);
+
+  /** The token kinds of the identifiers of usual commands. */
+  protected static final long USUAL_COMMAND_IDENTIFIERS = mask(COMMAND_PREFIX,
+      DEF_COMMAND_PREFIX, COMMAND_WITH_CHAR_ARG_OPTIONAL_WHITESPACE_DEFAULT,
+      COMMAND_WITH_CHAR_ARG_OPTIONAL_WHITESPACE_TABBING,
+      COMMAND_WITH_CHAR_ARG_OPTIONAL_WHITESPACE_COMMON,
+      COMMAND_WITH_CHAR_ARG_MANDATORY_WHITESPACE,
+      COMMAND_WITH_WORD_ARG_OPTIONAL_WHITESPACE,
+      COMMAND_WITH_WORD_ARG_MANDATORY_WHITESPACE);
+
+  /** The token kinds of the names of well-defined commands. */
+  protected static final long WELL_DEFINED_COMMANDS = mask(
+      WELL_DEFINED_DEFAULT_COMMAND, WELL_DEFINED_TABBING_COMMAND,
+      WELL_DEFINED_COMMON_COMMAND, BEGIN_TABBING, END_TABBING);
+
+  /** The token kinds of the identifiers of macros. */
+  protected static final long MACRO_COMMAND_IDENTIFIERS =
+      USUAL_COMMAND_IDENTIFIERS | WELL_DEFINED_COMMANDS;
+
+  /** The token kinds of commands with char arguments & optional whitespace. */
+  protected static final long CHAR_ARG_OPTIONAL_WHITESPACE_COMMANDS = mask(
+      COMMAND_WITH_CHAR_ARG_OPTIONAL_WHITESPACE_DEFAULT,
+      COMMAND_WITH_CHAR_ARG_OPTIONAL_WHITESPACE_TABBING,
+      COMMAND_WITH_CHAR_ARG_OPTIONAL_WHITESPACE_COMMON);
+
+  /** The token kinds of subscripts and superscripts. */
+  protected static final long FORMULA_SCRIPTS = mask(UNDERSCORE, CIRCUMFLEX);
+
+  /** The token kinds of macro definitions. */
+  protected static final long MACRO_DEFINITIONS =
+      mask(DEF_COMMAND_PREFIX, NEW_COMMAND_PREFIX);
+
+  /** The token kinds a command can start with. */
+  protected static final long COMMAND_STARTS =
+      MACRO_DEFINITIONS | MACRO_COMMAND_IDENTIFIERS;
+
+  /** The token kinds an element can start with. */
+  protected static final long ELEMENT_STARTS = FORMULA_SCRIPTS | COMMAND_STARTS
+      | TEXT_SYMBOLS | mask(GROUP_START, NEW_PARAGRAPH, NEW_LINE, WHITESPACE,
+          MARKER);
+
+  /**
+   * The one-char strings of the chars < 128.
+   */
+  protected static final String[] ONE_CHAR_STRINGS = new String[128];
+
+  static {
+    for (char c = 0; c < ONE_CHAR_STRINGS.length; c++) {
+      ONE_CHAR_STRINGS[c] = String.valueOf(c);
+    }
+  }
+
+  /**
+   * The parsed macro definitions.
+   */
+  protected Map<String, Group> macros = new HashMap<>();
+
+  /**
+   * The sorted names of the parsed macro definitions, to find the macros with
+   * a given prefix by a binary search.
+   */
+  protected String[] macroNames = new String[0];
+
+  /**
+   * The scheduled characters on checking if a command name belongs to a
+   * macro defined command (a queue from scheduleStart to scheduleEnd).
+   */
+  protected char[] schedule = new char[16];
+
+  /** The index of the first scheduled character. */
+  protected int scheduleStart;
+
+  /** The index behind the last scheduled character. */
+  protected int scheduleEnd;
+
+  /**
+   * The lookahead string on checking if a command name belongs to a macro
+   * defined command.
+   */
+  protected char[] lookahead = new char[16];
+
+  /** The length of the lookahead string. */
+  protected int lookaheadLength;
+
+  // ___________________________________________________________________________
+
+  /** The text to parse (shared with the text elements). */
+  protected final char[] text;
+
+  /** The number of tokens (including EOF). */
+  protected final int numTokens;
+
+  /** The token kinds. */
+  protected final int[] kinds;
+  /** The offsets of the first chars of the tokens. */
+  protected final int[] begins;
+  /** The offsets behind the last chars of the tokens. */
+  protected final int[] ends;
+  /** The lines of the first chars of the tokens. */
+  protected final int[] beginLines;
+  /** The columns of the first chars of the tokens. */
+  protected final int[] beginColumns;
+  /** The lines of the last chars of the tokens. */
+  protected final int[] endLines;
+  /** The columns of the last chars of the tokens. */
+  protected final int[] endColumns;
+
+  /**
+   * The index of the next token to parse.
+   */
+  protected int pos;
+
+  // The memoized results of the scans, per token index: 0 if unknown, the
+  // result + 2 otherwise. The scans depend on the set of macros, so the
+  // results are cleared on registering a new macro.
+
+  /** The memoized results of scanGroup(). */
+  protected final int[] groupScans;
+  /** The memoized results of scanOption(). */
+  protected final int[] optionScans;
+  /** The memoized results of scanElement(). */
+  protected final int[] elementScans;
+  /** The memoized results of scanCommand(). */
+  protected final int[] commandScans;
+
+  /**
+   * The token that carries the positions of the element to create.
+   */
+  protected final Token position = new Token();
+
+  /**
+   * The buffer to build the names of commands and text of tokens that aren't
+   * adjacent.
+   */
+  protected final StringBuilder buffer = new StringBuilder();
+
+  /**
+   * The names of the parsed commands (a hash table with linear probing), to
+   * share the strings of the names between the commands with the same name.
+   */
+  protected String[] names = new String[256];
+
+  /**
+   * The number of names in the hash table.
+   */
+  protected int numNames;
+
+  /**
+   * The tracker of the work spent on the document (may be null).
+   */
+  protected TeXWorkTracker tracker;
+
+  /**
+   * Creates a parser for the given tex document.
+   */
+  public FastTeXParser(String text) {
+    this(text.toCharArray(), text.length());
+  }
+
+  /**
+   * Creates a parser for the tex document in the given stream, decoded by the
+   * default charset (like TeXParser).
+   */
+  public FastTeXParser(InputStream stream) throws IOException {
+    this(new InputStreamReader(stream));
+  }
+
+  /**
+   * Creates a parser for the tex document in the given reader.
+   */
+  public FastTeXParser(Reader reader) throws IOException {
+    this(TeXSource.read(reader));
+  }
+
+  /**
+   * Creates a parser for the tex document in the given source. The text
+   * elements refer to the source.
+   */
+  public FastTeXParser(TeXSource source) {
+    this(source.array(), source.length());
+  }
+
+  /**
+   * Creates a parser for the first length chars of the given tex document.
+   * The text elements refer to the given array, so it must not be modified
+   * afterwards.
+   */
+  public FastTeXParser(char[] text, int length) {
+    this(new TeXScanner(text, length));
+  }
+
+  /**
+   * Creates a parser for the tokens of the given scanner.
+   */
+  public FastTeXParser(TeXScanner scanner) {
+    this.text = scanner.text;
+    this.numTokens = scanner.numTokens;
+    this.kinds = scanner.kinds;
+    this.begins = scanner.begins;
+    this.ends = scanner.ends;
+    this.beginLines = scanner.beginLines;
+    this.beginColumns = scanner.beginColumns;
+    this.endLines = scanner.endLines;
+    this.endColumns = scanner.endColumns;
+    this.groupScans = new int[numTokens];
+    this.optionScans = new int[numTokens];
+    this.elementScans = new int[numTokens];
+    this.commandScans = new int[numTokens];
+  }
+
+  // ___________________________________________________________________________
+
+  /**
+   * Parses the document.
+   */
+  public Document parse() throws ParseException {
+    Document document = new Document();
+    parseDocument(document);
+    consume(EOF);
+    return document;
+  }
+
+  /**
+   * Registers the given macro definition.
+   */
+  protected void registerMacroDefinition(MacroDefinition macro) {
+    if (macro != null && !macro.getValues().isEmpty()) {
+      String name = macro.getKey().getText();
+      if (macros.put(name, macro.getValues().get(0)) == null) {
+        int index = Arrays.binarySearch(macroNames, name);
+        String[] names = new String[macroNames.length + 1];
+        System.arraycopy(macroNames, 0, names, 0, -index - 1);
+        names[-index - 1] = name;
+        System.arraycopy(macroNames, -index - 1, names, -index,
+            macroNames.length + index + 1);
+        macroNames = names;
+        // The lookaheads depend on the names of the macros.
+        Arrays.fill(groupScans, 0);
+        Arrays.fill(optionScans, 0);
+        Arrays.fill(elementScans, 0);
+        Arrays.fill(commandScans, 0);
+      }
+    }
+  }
+
+  /**
+   * Sets the tracker of the work spent on the document. Each parsed element
+   * is counted (like in TeXParser), so the parsing is aborted by a
+   * TeXWorkBudgetExceededException if the budget of the tracker is exceeded.
+   */
+  public FastTeXParser setWorkTracker(TeXWorkTracker tracker) {
+    this.tracker = tracker;
+    return this;
+  }
+
+  /**
+   * Is called on each parsed element (before it is added to its context).
+   */
+  protected void onElement(Element element) {
+    if (tracker != null) {
+      tracker.countElement();
+    }
+  }
+
+  // ___________________________________________________________________________
+  // The productions.
+
+  /**
+   * Parses the elements of the document into the given context.
+   */
+  protected void parseDocument(Group context) throws ParseException {
+    while (lookaheadElement(mask(GROUP_END, OPTION_END))) {
+      if (lookaheadElement(0)) {
+        parseElement(context);
+      } else if (kinds[pos] == GROUP_END || kinds[pos] == OPTION_END) {
+        int t = pos++;
+        context.addElement(new Text(text(t, t), token(t)));
+      } else {
+        throw parseException();
+      }
+    }
+  }
+
+  /**
+   * Parses an element into the given context.
+   */
+  protected void parseElement(Group context) throws ParseException {
+    Element element;
+    if (scanFormulaScript(pos, UNDERSCORE) != FAIL) {
+      element = parseFormulaScript(UNDERSCORE);
+    } else if (scanFormulaScript(pos, CIRCUMFLEX) != FAIL) {
+      element = parseFormulaScript(CIRCUMFLEX);
+    } else if (scanCommand(pos) != FAIL) {
+      element = parseCommand();
+    } else if (scanPotentialGroup(pos) != FAIL) {
+      element = parsePotentialGroup();
+    } else if (scanText(pos) != FAIL) {
+      element = parseText();
+    } else if (kinds[pos] == NEW_PARAGRAPH) {
+      element = new NewParagraph(token(pos++));
+    } else if (kinds[pos] == NEW_LINE) {
+      element = new NewLine(token(pos++));
+    } else if (kinds[pos] == WHITESPACE) {
+      element = parseWhitespace();
+    } else if (kinds[pos] == MARKER) {
+      element = parseMarker();
+    } else {
+      throw parseException();
+    }
+    onElement(element);
+    context.addElement(element);
+  }
+
+  /**
+   * Parses a subscript or a superscript (given by the kind of its token).
+   */
+  protected Command parseFormulaScript(int kind) throws ParseException {
+    int t = consume(kind);
+    Command command = new Command(name(t, t), token(t));
+    skip(WHITESPACES_OR_NEW_LINES);
+    switch (kinds[pos]) {
+      case GROUP_START:
+        command.addArgument(parseGroup());
+        break;
+      case STAR:
+      case DIGIT:
+      case CHAR:
+      case AT:
+      case OTHER_SYMBOL:
+        t = pos++;
+        command.addArgument(new Text(text(t, t), token(t)));
+        break;
+      default:
+        if (lookaheadCommand(0)) {
+          command.addArgument(parseCommand());
+        } else {
+          throw parseException();
+        }
+    }
+    return command;
+  }
+
+  /**
+   * Parses a command.
+   */
+  protected Command parseCommand() throws ParseException {
+    Command command;
+    if (scanMacroDefinition(pos) != FAIL) {
+      MacroDefinition definition = parseMacroDefinition();
+      registerMacroDefinition(definition);
+      command = definition;
+    } else if (scanMacroDefinedCommand(pos) != FAIL) {
+      command = parseMacroDefinedCommand();
+    } else if (scanCharArgCommandWithOptionalWhitespace(pos) != FAIL) {
+      command = parseCharArgCommandWithOptionalWhitespace();
+    } else if (scanCharArgCommandWithMandatoryWhitespace(pos) != FAIL) {
+      command = parseCharArgCommandWithMandatoryWhitespace();
+    } else if (scanWordArgCommandWithOptionalWhitespace(pos) != FAIL) {
+      command = parseWordArgCommandWithOptionalWhitespace();
+    } else if (scanWordArgCommandWithMandatoryWhitespace(pos) != FAIL) {
+      command = parseWordArgCommandWithMandatoryWhitespace();
+    } else if (scanUsualCommand(pos) != FAIL) {
+      command = parseUsualCommand();
+    } else if (scanWellDefinedCommand(pos) != FAIL) {
+      command = parseWellDefinedCommand();
+    } else {
+      throw parseException();
+    }
+    return command;
+  }
+
+  /**
+   * Parses a macro definition (\def or \newcommand).
+   */
+  protected MacroDefinition parseMacroDefinition() throws ParseException {
+    switch (kinds[pos]) {
+      case DEF_COMMAND_PREFIX:
+        return parseDefCommand();
+      case NEW_COMMAND_PREFIX:
+        return parseNewCommandCommand();
+      default:
+        throw parseException();
+    }
+  }
+
+  /**
+   * Parses a macro definition of form "\def\foo#1#2{...}".
+   */
+  protected MacroDefinition parseDefCommand() throws ParseException {
+    int t = consume(DEF_COMMAND_PREFIX);
+    MacroDefinition definition = new MacroDefinition(name(t, t), token(t));
+    skip(WHITESPACES_OR_NEW_LINES);
+    if (is(kinds[pos], MACRO_COMMAND_IDENTIFIERS)) {
+      definition.setKey(new Group(parseMacroCommand()));
+    } else if (kinds[pos] == GROUP_START) {
+      pos++;
+      definition.addValue(new Group(parseMacroCommand()));
+      consume(GROUP_END);
+    } else {
+      throw parseException();
+    }
+    skip(WHITESPACES);
+    while (kinds[pos] == MARKER) {
+      parseMarker();
+      skip(WHITESPACES);
+    }
+    definition.addValue(parseGroup());
+    return definition;
+  }
+
+  /**
+   * Parses a macro definition of form "\newcommand{\foo}[2]{...}".
+   */
+  protected MacroDefinition parseNewCommandCommand() throws ParseException {
+    int t = consume(NEW_COMMAND_PREFIX);
+    MacroDefinition definition = new MacroDefinition(name(t, t), token(t));
+    skip(WHITESPACES_OR_NEW_LINES);
+    if (is(kinds[pos], MACRO_COMMAND_IDENTIFIERS)) {
+      definition.setKey(new Group(parseMacroCommand()));
+    } else if (kinds[pos] == GROUP_START) {
+      definition.setKey(parseGroup());
+    } else {
+      throw parseException();
+    }
+    skip(WHITESPACES_OR_NEW_LINES);
+    while (kinds[pos] == OPTION_START) {
+      parseOption();
+      skip(WHITESPACES_OR_NEW_LINES);
+    }
+    definition.addValue(parseGroup());
+    return definition;
+  }
+
+  /**
+   * Parses the command that is defined by a macro definition.
+   */
+  protected Command parseMacroCommand() throws ParseException {
+    String name = parseMacroCommandName();
+    return new Command(name, position);
+  }
+
+  /**
+   * Parses the name of the command that is defined by a macro definition.
+   */
+  protected String parseMacroCommandName() throws ParseException {
+    int identifier = consume(MACRO_COMMAND_IDENTIFIERS);
+    int last = identifier;
+    while (is(kinds[pos], MACRO_COMMAND_SYMBOLS)) {
+      last = pos++;
+    }
+    setPosition(identifier, last);
+    return name(identifier, last);
+  }
+
+  /**
+   * Parses a command that is defined by a macro.
+   */
+  protected Command parseMacroDefinedCommand() throws ParseException {
+    String name = parseMacroDefinedCommandName();
+    Command command = new Command(name, position);
+    if (scanOption(pos) != FAIL) {
+      parseOption();
+    }
+    while (scanGroup(pos) != FAIL) {
+      command.addArgument(parseGroup());
+    }
+    return command;
+  }
+
+  /**
+   * Parses the name of a command that is defined by a macro.
+   */
+  protected String parseMacroDefinedCommandName() throws ParseException {
+    if (!belongsToMacroDefinedCommandName(pos)) {
+      throw parseException();
+    }
+    int identifier = consume(MACRO_COMMAND_IDENTIFIERS);
+    int last = identifier;
+    while (belongsToMacroDefinedCommandName(pos)) {
+      last = consume(MACRO_COMMAND_SYMBOLS);
+    }
+    // Like TeXParser, the name ends at the identifier.
+    setPosition(identifier, identifier);
+    return name(identifier, last);
+  }
+
+  /**
+   * Parses a command with an optional option and optional groups.
+   */
+  protected Command parseUsualCommand() throws ParseException {
+    String name = parseUsualCommandName();
+    Command command = new Command(name, position);
+    if (scanOption(skip(pos, WHITESPACES)) != FAIL) {
+      skip(WHITESPACES);
+      command.addArgument(parseOption());
+    }
+    while (scanGroup(skip(pos, WHITESPACES)) != FAIL) {
+      skip(WHITESPACES);
+      command.addArgument(parseGroup());
+    }
+    if (scanOption(pos) != FAIL) {
+      command.addArgument(parseOption());
+    }
+    return command;
+  }
+
+  /**
+   * Parses the name of a usual command.
+   */
+  protected String parseUsualCommandName() throws ParseException {
+    int identifier = consume(USUAL_COMMAND_IDENTIFIERS);
+    int last = identifier;
+    while (is(kinds[pos], USUAL_COMMAND_SYMBOLS)) {
+      last = pos++;
+    }
+    if (kinds[pos] == STAR) {
+      last = pos++;
+    }
+    setPosition(identifier, last);
+    return name(identifier, last);
+  }
+
+  /**
+   * Parses a well-defined command.
+   */
+  protected Command parseWellDefinedCommand() throws ParseException {
+    int t = consume(WELL_DEFINED_COMMANDS);
+    String name = name(t, t);
+    if (scanOption(pos) != FAIL) {
+      parseOption();
+    }
+    return new Command(name, token(t));
+  }
+
+  /**
+   * Parses a command with a char argument and optional whitespaces in
+   * between (like \"a).
+   */
+  protected Command parseCharArgCommandWithOptionalWhitespace()
+      throws ParseException {
+    int t = consume(CHAR_ARG_OPTIONAL_WHITESPACE_COMMANDS);
+    Command command = new Command(name(t, t), token(t));
+    skip(WHITESPACES_OR_NEW_LINES);
+    command.addArgument(parseCharArgument());
+    return command;
+  }
+
+  /**
+   * Parses a command with a char argument and mandatory whitespaces in
+   * between (like \hat a).
+   */
+  protected Command parseCharArgCommandWithMandatoryWhitespace()
+      throws ParseException {
+    int t = consume(COMMAND_WITH_CHAR_ARG_MANDATORY_WHITESPACE);
+    Command command = new Command(name(t, t), token(t));
+    int kind = kinds[pos];
+    if (kind == WHITESPACE || kind == NEW_LINE) {
+      skip(WHITESPACES_OR_NEW_LINES);
+      command.addArgument(parseCharArgument());
+    } else if (kind == GROUP_START || is(kind, USUAL_COMMAND_IDENTIFIERS)) {
+      command.addArgument(parseCharArgument());
+    } else {
+      throw parseException();
+    }
+    return command;
+  }
+
+  /**
+   * Parses the argument of a command with a char argument: a char, a digit,
+   * a command or a group.
+   */
+  protected Group parseCharArgument() throws ParseException {
+    int kind = kinds[pos];
+    if (kind == CHAR || kind == DIGIT) {
+      int t = pos++;
+      return new Group(new Text(text(t, t), token(t)));
+    } else if (is(kind, USUAL_COMMAND_IDENTIFIERS)) {
+      String name = parseUsualCommandName();
+      return new Group(new Command(name, position));
+    } else if (kind == GROUP_START) {
+      return parseGroup();
+    }
+    throw parseException();
+  }
+
+  /**
+   * Parses a command with a word argument and optional whitespaces in
+   * between (like \vskip 1cm).
+   */
+  protected Command parseWordArgCommandWithOptionalWhitespace()
+      throws ParseException {
+    int t = consume(COMMAND_WITH_WORD_ARG_OPTIONAL_WHITESPACE);
+    Command command = new Command(name(t, t), token(t));
+    skip(WHITESPACES_OR_NEW_LINES);
+    if (kinds[pos] == GROUP_START) {
+      command.addArgument(parseGroup());
+    } else if (lookaheadCommand(TEXT_SYMBOLS)) {
+      parseWordArgument(command);
+    } else {
+      throw parseException();
+    }
+    return command;
+  }
+
+  /**
+   * Parses a command with a word argument and mandatory whitespaces in
+   * between (like \input file).
+   */
+  protected Command parseWordArgCommandWithMandatoryWhitespace()
+      throws ParseException {
+    int t = consume(COMMAND_WITH_WORD_ARG_MANDATORY_WHITESPACE);
+    Command command = new Command(name(t, t), token(t));
+    int kind = kinds[pos];
+    if (kind == GROUP_START) {
+      command.addArgument(parseGroup());
+    } else if (kind == WHITESPACE || kind == NEW_LINE) {
+      skip(WHITESPACES_OR_NEW_LINES);
+      if (lookaheadCommand(TEXT_SYMBOLS)) {
+        parseWordArgument(command);
+      } else if (kinds[pos] == GROUP_START) {
+        command.addArgument(parseGroup());
+      } else {
+        throw parseException();
+      }
+    } else {
+      throw parseException();
+    }
+    return command;
+  }
+
+  /**
+   * Parses a word argument (an optional command and a text) into the given
+   * command.
+   */
+  protected void parseWordArgument(Command command) throws ParseException {
+    if (lookaheadCommand(0)) {
+      command.addArgument(parseCommand());
+    }
+    command.addArgument(parseText());
+  }
+
+  /**
+   * Parses a text.
+   */
+  protected Text parseText() throws ParseException {
+    int first = consume(TEXT_SYMBOLS);
+    int last = first;
+    while (is(kinds[pos], TEXT_SYMBOLS)) {
+      last = pos++;
+    }
+    return new Text(text(first, last), beginLines[first], endLines[last],
+        beginColumns[first], endColumns[last]);
+  }
+
+  /**
+   * Parses a group or a single "{" (which doesn't start a group) as text.
+   */
+  protected Element parsePotentialGroup() throws ParseException {
+    if (scanGroup(pos) != FAIL) {
+      return parseGroup();
+    }
+    int t = consume(GROUP_START);
+    return new Text(text(t, t), token(t));
+  }
+
+  /**
+   * Parses a group.
+   */
+  protected Group parseGroup() throws ParseException {
+    Group group = new Group();
+    consume(GROUP_START);
+    while (lookaheadElement(mask(OPTION_END))) {
+      if (scanElement(pos) != FAIL) {
+        parseElement(group);
+      } else if (kinds[pos] == OPTION_END) {
+        int t = pos++;
+        group.addElement(new Text(text(t, t), token(t)));
+      } else {
+        throw parseException();
+      }
+    }
+    consume(GROUP_END);
+    return group;
+  }
+
+  /**
+   * Parses an option.
+   */
+  protected Option parseOption() throws ParseException {
+    Option option = new Option();
+    consume(OPTION_START);
+    while (lookaheadElement(mask(GROUP_END))) {
+      if (scanElement(pos) != FAIL) {
+        parseElement(option);
+      } else if (kinds[pos] == GROUP_END) {
+        int t = pos++;
+        option.addElement(new Text(text(t, t), token(t)));
+      } else {
+        throw parseException();
+      }
+    }
+    consume(OPTION_END);
+    return option;
+  }
+
+  /**
+   * Parses a marker (like #1).
+   */
+  protected Marker parseMarker() throws ParseException {
+    int t = consume(MARKER);
+    return new Marker(text[begins[t] + 1] - '0', token(t));
+  }
+
+  /**
+   * Parses a sequence of whitespaces.
+   */
+  protected Whitespace parseWhitespace() throws ParseException {
+    int t = consume(WHITESPACE);
+    while (kinds[pos] == WHITESPACE) {
+      t = pos++;
+    }
+    return new Whitespace(token(t));
+  }
+
+  // ___________________________________________________________________________
+  // The lookaheads.
+
+  /**
+   * Checks with a lookahead of a single token, if an element or a token of
+   * the given kinds starts at the current token (like TeXParser does). Like
+   * in scanElement(), the lookahead for macro defined commands (which has
+   * side effects on the schedule) is done after checking for subscripts,
+   * superscripts and macro definitions.
+   */
+  protected boolean lookaheadElement(long kinds) {
+    int kind = this.kinds[pos];
+    if (is(kind, FORMULA_SCRIPTS | MACRO_DEFINITIONS)) {
+      return true;
+    }
+    belongsToMacroDefinedCommandName(pos);
+    return is(kind, ELEMENT_STARTS | kinds);
+  }
+
+  /**
+   * Checks with a lookahead of a single token, if a command or a token of the
+   * given kinds starts at the current token (like TeXParser does). Like in
+   * scanCommand(), the lookahead for macro defined commands is done after
+   * checking for macro definitions.
+   */
+  protected boolean lookaheadCommand(long kinds) {
+    int kind = this.kinds[pos];
+    if (is(kind, MACRO_DEFINITIONS)) {
+      return true;
+    }
+    belongsToMacroDefinedCommandName(pos);
+    return is(kind, COMMAND_STARTS | kinds);
+  }
+
+  /**
+   * Returns true, if the results of scans can be memoized: if there is no
+   * pending state of the lookahead for macro defined commands.
+   */
+  protected boolean isMemoizable() {
+    return lookaheadLength == 0 && scheduleStart == scheduleEnd;
+  }
+
+  /**
+   * Scans an element.
+   */
+  protected int scanElement(int p) {
+    if (!isMemoizable()) {
+      return scanElementUnmemoized(p);
+    }
+    if (elementScans[p] != 0) {
+      return elementScans[p] - 2;
+    }
+    int end = scanElementUnmemoized(p);
+    if (isMemoizable()) {
+      elementScans[p] = end + 2;
+    }
+    return end;
+  }
+
+  /**
+   * Scans an element, without memoization.
+   */
+  protected int scanElementUnmemoized(int p) {
+    int q;
+    if ((q = scanFormulaScript(p, UNDERSCORE)) != FAIL) {
+      return q;
+    }
+    if ((q = scanFormulaScript(p, CIRCUMFLEX)) != FAIL) {
+      return q;
+    }
+    if ((q = scanCommand(p)) != FAIL) {
+      return q;
+    }
+    if ((q = scanPotentialGroup(p)) != FAIL) {
+      return q;
+    }
+    if ((q = scanText(p)) != FAIL) {
+      return q;
+    }
+    if ((q = scanToken(p, NEW_PARAGRAPH)) != FAIL) {
+      return q;
+    }
+    if ((q = scanToken(p, NEW_LINE)) != FAIL) {
+      return q;
+    }
+    if ((q = scanWhitespace(p)) != FAIL) {
+      return q;
+    }
+    return scanToken(p, MARKER);
+  }
+
+  /**
+   * Scans a subscript or a superscript (given by the kind of its token).
+   */
+  protected int scanFormulaScript(int p, int kind) {
+    int q = scanToken(p, kind);
+    if (q == FAIL) {
+      return FAIL;
+    }
+    q = skip(q, WHITESPACES_OR_NEW_LINES);
+    int r;
+    if ((r = scanGroup(q)) != FAIL) {
+      return r;
+    }
+    if ((r = scanTokens(q, TEXT_SYMBOLS)) != FAIL) {
+      return r;
+    }
+    return scanCommand(q);
+  }
+
+  /**
+   * Scans a command.
+   */
+  protected int scanCommand(int p) {
+    if (!isMemoizable()) {
+      return scanCommandUnmemoized(p);
+    }
+    if (commandScans[p] != 0) {
+      return commandScans[p] - 2;
+    }
+    int end = scanCommandUnmemoized(p);
+    if (isMemoizable()) {
+      commandScans[p] = end + 2;
+    }
+    return end;
+  }
+
+  /**
+   * Scans a command, without memoization.
+   */
+  protected int scanCommandUnmemoized(int p) {
+    int q;
+    if ((q = scanMacroDefinition(p)) != FAIL) {
+      return q;
+    }
+    if ((q = scanMacroDefinedCommand(p)) != FAIL) {
+      return q;
+    }
+    if ((q = scanCharArgCommandWithOptionalWhitespace(p)) != FAIL) {
+      return q;
+    }
+    if ((q = scanCharArgCommandWithMandatoryWhitespace(p)) != FAIL) {
+      return q;
+    }
+    if ((q = scanWordArgCommandWithOptionalWhitespace(p)) != FAIL) {
+      return q;
+    }
+    if ((q = scanWordArgCommandWithMandatoryWhitespace(p)) != FAIL) {
+      return q;
+    }
+    if ((q = scanUsualCommand(p)) != FAIL) {
+      return q;
+    }
+    return scanWellDefinedCommand(p);
+  }
+
+  /**
+   * Scans a macro definition.
+   */
+  protected int scanMacroDefinition(int p) {
+    int q = scanDefCommand(p);
+    return q != FAIL ? q : scanNewCommandCommand(p);
+  }
+
+  /**
+   * Scans a macro definition of form "\def\foo#1#2{...}".
+   */
+  protected int scanDefCommand(int p) {
+    int q = scanToken(p, DEF_COMMAND_PREFIX);
+    if (q == FAIL) {
+      return FAIL;
+    }
+    q = skip(q, WHITESPACES_OR_NEW_LINES);
+    int r = scanMacroCommandName(q);
+    if (r == FAIL) {
+      r = scanToken(q, GROUP_START);
+      if (r == FAIL || (r = scanMacroCommandName(r)) == FAIL) {
+        return FAIL;
+      }
+      if ((r = scanToken(r, GROUP_END)) == FAIL) {
+        return FAIL;
+      }
+    }
+    q = skip(r, WHITESPACES);
+    while ((r = scanToken(q, MARKER)) != FAIL) {
+      q = skip(r, WHITESPACES);
+    }
+    return scanGroup(q);
+  }
+
+  /**
+   * Scans a macro definition of form "\newcommand{\foo}[2]{...}".
+   */
+  protected int scanNewCommandCommand(int p) {
+    int q = scanToken(p, NEW_COMMAND_PREFIX);
+    if (q == FAIL) {
+      return FAIL;
+    }
+    q = skip(q, WHITESPACES_OR_NEW_LINES);
+    int r = scanMacroCommandName(q);
+    if (r == FAIL && (r = scanGroup(q)) == FAIL) {
+      return FAIL;
+    }
+    q = skip(r, WHITESPACES_OR_NEW_LINES);
+    while ((r = scanOption(q)) != FAIL) {
+      q = skip(r, WHITESPACES_OR_NEW_LINES);
+    }
+    return scanGroup(q);
+  }
+
+  /**
+   * Scans the name of the command that is defined by a macro definition.
+   */
+  protected int scanMacroCommandName(int p) {
+    int q = scanTokens(p, MACRO_COMMAND_IDENTIFIERS);
+    return q != FAIL ? skip(q, MACRO_COMMAND_SYMBOLS) : FAIL;
+  }
+
+  /**
+   * Scans a command that is defined by a macro.
+   */
+  protected int scanMacroDefinedCommand(int p) {
+    if (!belongsToMacroDefinedCommandName(p)) {
+      return FAIL;
+    }
+    int q = scanTokens(p, MACRO_COMMAND_IDENTIFIERS);
+    if (q == FAIL) {
+      return FAIL;
+    }
+    q = skip(q, MACRO_COMMAND_SYMBOLS);
+    int r = scanOption(q);
+    if (r != FAIL) {
+      q = r;
+    }
+    while ((r = scanGroup(q)) != FAIL) {
+      q = r;
+    }
+    return q;
+  }
+
+  /**
+   * Scans a command with a char argument and optional whitespaces in between.
+   */
+  protected int scanCharArgCommandWithOptionalWhitespace(int p) {
+    int q = scanTokens(p, CHAR_ARG_OPTIONAL_WHITESPACE_COMMANDS);
+    if (q == FAIL) {
+      return FAIL;
+    }
+    return scanCharArgument(skip(q, WHITESPACES_OR_NEW_LINES));
+  }
+
+  /**
+   * Scans a command with a char argument and mandatory whitespaces in
+   * between.
+   */
+  protected int scanCharArgCommandWithMandatoryWhitespace(int p) {
+    int q = scanToken(p, COMMAND_WITH_CHAR_ARG_MANDATORY_WHITESPACE);
+    if (q == FAIL) {
+      return FAIL;
+    }
+    int r = scanTokens(q, WHITESPACES_OR_NEW_LINES);
+    if (r != FAIL) {
+      r = scanCharArgument(skip(r, WHITESPACES_OR_NEW_LINES));
+      if (r != FAIL) {
+        return r;
+      }
+    }
+    if ((r = scanGroup(q)) != FAIL) {
+      return r;
+    }
+    return scanUsualCommandName(q);
+  }
+
+  /**
+   * Scans the argument of a command with a char argument.
+   */
+  protected int scanCharArgument(int p) {
+    int q;
+    if ((q = scanTokens(p, CHARS_OR_DIGITS)) != FAIL) {
+      return q;
+    }
+    if ((q = scanUsualCommandName(p)) != FAIL) {
+      return q;
+    }
+    return scanGroup(p);
+  }
+
+  /**
+   * Scans a command with a word argument and optional whitespaces in between.
+   */
+  protected int scanWordArgCommandWithOptionalWhitespace(int p) {
+    int q = scanToken(p, COMMAND_WITH_WORD_ARG_OPTIONAL_WHITESPACE);
+    if (q == FAIL) {
+      return FAIL;
+    }
+    q = skip(q, WHITESPACES_OR_NEW_LINES);
+    int r = scanGroup(q);
+    return r != FAIL ? r : scanWordArgument(q);
+  }
+
+  /**
+   * Scans a command with a word argument and mandatory whitespaces in
+   * between.
+   */
+  protected int scanWordArgCommandWithMandatoryWhitespace(int p) {
+    int q = scanToken(p, COMMAND_WITH_WORD_ARG_MANDATORY_WHITESPACE);
+    if (q == FAIL) {
+      return FAIL;
+    }
+    int r = scanGroup(q);
+    if (r != FAIL) {
+      return r;
+    }
+    if ((r = scanTokens(q, WHITESPACES_OR_NEW_LINES)) == FAIL) {
+      return FAIL;
+    }
+    r = skip(r, WHITESPACES_OR_NEW_LINES);
+    int s = scanWordArgument(r);
+    return s != FAIL ? s : scanGroup(r);
+  }
+
+  /**
+   * Scans a word argument (an optional command and a text).
+   */
+  protected int scanWordArgument(int p) {
+    int q = scanCommand(p);
+    return scanText(q != FAIL ? q : p);
+  }
+
+  /**
+   * Scans a command with an optional option and optional groups.
+   */
+  protected int scanUsualCommand(int p) {
+    int q = scanUsualCommandName(p);
+    if (q == FAIL) {
+      return FAIL;
+    }
+    int r = scanOption(skip(q, WHITESPACES));
+    if (r != FAIL) {
+      q = r;
+    }
+    while ((r = scanGroup(skip(q, WHITESPACES))) != FAIL) {
+      q = r;
+    }
+    r = scanOption(q);
+    return r != FAIL ? r : q;
+  }
+
+  /**
+   * Scans the name of a usual command.
+   */
+  protected int scanUsualCommandName(int p) {
+    int q = scanTokens(p, USUAL_COMMAND_IDENTIFIERS);
+    if (q == FAIL) {
+      return FAIL;
+    }
+    q = skip(q, USUAL_COMMAND_SYMBOLS);
+    int r = scanToken(q, STAR);
+    return r != FAIL ? r : q;
+  }
+
+  /**
+   * Scans a well-defined command.
+   */
+  protected int scanWellDefinedCommand(int p) {
+    int q = scanTokens(p, WELL_DEFINED_COMMANDS);
+    if (q == FAIL) {
+      return FAIL;
+    }
+    int r = scanOption(q);
+    return r != FAIL ? r : q;
+  }
+
+  /**
+   * Scans a group or a single "{".
+   */
+  protected int scanPotentialGroup(int p) {
+    int q = scanGroup(p);
+    return q != FAIL ? q : scanToken(p, GROUP_START);
+  }
+
+  /**
+   * Scans a text.
+   */
+  protected int scanText(int p) {
+    int q = scanTokens(p, TEXT_SYMBOLS);
+    return q != FAIL ? skip(q, TEXT_SYMBOLS) : FAIL;
+  }
+
+  /**
+   * Scans a sequence of whitespaces.
+   */
+  protected int scanWhitespace(int p) {
+    int q = scanToken(p, WHITESPACE);
+    return q != FAIL ? skip(q, WHITESPACES) : FAIL;
+  }
+
+  /**
+   * Scans a group.
+   */
+  protected int scanGroup(int p) {
+    if (!isMemoizable()) {
+      return scanGroupUnmemoized(p);
+    }
+    if (groupScans[p] != 0) {
+      return groupScans[p] - 2;
+    }
+    int end = scanGroupUnmemoized(p);
+    if (isMemoizable()) {
+      groupScans[p] = end + 2;
+    }
+    return end;
+  }
+
+  /**
+   * Scans a group, without memoization.
+   */
+  protected int scanGroupUnmemoized(int p) {
+    int q = scanToken(p, GROUP_START);
+    if (q == FAIL) {
+      return FAIL;
+    }
+    int r;
+    while ((r = scanElement(q)) != FAIL || (r = scanToken(q, OPTION_END))
+        != FAIL) {
+      q = r;
+    }
+    return scanToken(q, GROUP_END);
+  }
+
+  /**
+   * Scans an option.
+   */
+  protected int scanOption(int p) {
+    if (!isMemoizable()) {
+      return scanOptionUnmemoized(p);
+    }
+    if (optionScans[p] != 0) {
+      return optionScans[p] - 2;
+    }
+    int end = scanOptionUnmemoized(p);
+    if (isMemoizable()) {
+      optionScans[p] = end + 2;
+    }
+    return end;
+  }
+
+  /**
+   * Scans an option, without memoization.
+   */
+  protected int scanOptionUnmemoized(int p) {
+    int q = scanToken(p, OPTION_START);
+    if (q == FAIL) {
+      return FAIL;
+    }
+    int r;
+    while ((r = scanElement(q)) != FAIL || (r = scanToken(q, GROUP_END))
+        != FAIL) {
+      q = r;
+    }
+    return scanToken(q, OPTION_END);
+  }
+
+  /**
+   * Scans a token of the given kind.
+   */
+  protected int scanToken(int p, int kind) {
+    return kinds[p] == kind ? p + 1 : FAIL;
+  }
+
+  /**
+   * Scans a token of one of the given kinds.
+   */
+  protected int scanTokens(int p, long kinds) {
+    return is(this.kinds[p], kinds) ? p + 1 : FAIL;
+  }
+
+  /**
+   * Scans any number of tokens of the given kinds.
+   */
+  protected int skip(int p, long kinds) {
+    int q;
+    while ((q = scanTokens(p, kinds)) != FAIL) {
+      p = q;
+    }
+    return p;
+  }
+
+  // ___________________________________________________________________________
+  // The lookahead for the names of commands that are defined by macros.
+
+  /**
+   * Returns true, if the token at the given index belongs to the name of a
+   * command that is defined by a macro. This is a port of
+   * TeXParser.belongsToMacroDefinedCommandName() and has the same (stateful)
+   * semantics.
+   */
+  protected boolean belongsToMacroDefinedCommandName(int p) {
+    if (scheduleStart != scheduleEnd) {
+      // There are scheduled characters. Check, if the current token satisfy
+      // the schedule.
+      if (satisfySchedule(p)) {
+        return true;
+      }
+      resetLookahead();
+    }
+
+    if (macroNames.length == 0) {
+      // Shortcut: there is no macro to look for.
+      resetLookahead();
+      return false;
+    }
+
+    boolean onlyLettersOrDigits = true;
+    for (int i = p;; i++) {
+      if (!isValidToken(i)) {
+        resetLookahead();
+        return false;
+      }
+      for (int j = begins[i]; j < ends[i]; j++) {
+        char c = text[j];
+        appendLookahead(c);
+
+        // Don't consider the first char (which must be the identifier).
+        if (lookaheadLength > 1) {
+          onlyLettersOrDigits &= Character.isLetterOrDigit(c);
+        }
+
+        // Continue, if there is a macro that starts with the lookahead.
+        int index = findMacroName();
+        int successor = index < 0 ? -index - 1 : index + 1;
+        if (successor < macroNames.length
+            && startsWithLookahead(macroNames[successor])) {
+          continue;
+        }
+
+        // Check if there is a macro that is equal to the lookahead.
+        if (index >= 0) {
+          char next = getNextTokenChar(i, j);
+          if (onlyLettersOrDigits && Character.isLetterOrDigit(next)) {
+            resetLookahead();
+            return false;
+          }
+          // Schedule the chars of all following tokens.
+          scheduleStart = scheduleEnd = 0;
+          for (int k = ends[p] - begins[p]; k < lookaheadLength; k++) {
+            if (scheduleEnd == schedule.length) {
+              schedule = Arrays.copyOf(schedule, scheduleEnd * 2);
+            }
+            schedule[scheduleEnd++] = lookahead[k];
+          }
+          return true;
+        }
+        resetLookahead();
+        return false;
+      }
+    }
+  }
+
+  /**
+   * Returns true, if the token at the given index satisfies the schedule.
+   */
+  protected boolean satisfySchedule(int p) {
+    for (int j = begins[p]; j < ends[p]; j++) {
+      if (scheduleStart == scheduleEnd) {
+        // Like LinkedList.pop() on an empty list.
+        throw new NoSuchElementException();
+      }
+      if (text[j] != schedule[scheduleStart++]) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Returns true, if there is a token with a non-empty image at the given
+   * index.
+   */
+  protected boolean isValidToken(int i) {
+    return i < numTokens && ends[i] > begins[i];
+  }
+
+  /**
+   * Returns the char behind the given char offset of the given token: the
+   * next char of the token or the first char of the next token (0 if there
+   * is no such char).
+   */
+  protected char getNextTokenChar(int i, int j) {
+    if (j + 1 < ends[i]) {
+      return text[j + 1];
+    }
+    return isValidToken(i + 1) ? text[begins[i + 1]] : 0;
+  }
+
+  /**
+   * Appends the given char to the lookahead.
+   */
+  protected void appendLookahead(char c) {
+    if (lookaheadLength == lookahead.length) {
+      lookahead = Arrays.copyOf(lookahead, lookaheadLength * 2);
+    }
+    lookahead[lookaheadLength++] = c;
+  }
+
+  /**
+   * Resets the current lookahead.
+   */
+  protected void resetLookahead() {
+    lookaheadLength = 0;
+    scheduleStart = scheduleEnd = 0;
+  }
+
+  /**
+   * Searches the lookahead in the sorted macro names. Returns the index of
+   * the name if it is included, (-(insertion point) - 1) otherwise (like
+   * Arrays.binarySearch()).
+   */
+  protected int findMacroName() {
+    int low = 0;
+    int high = macroNames.length - 1;
+    while (low <= high) {
+      int mid = (low + high) >>> 1;
+      int cmp = compareToLookahead(macroNames[mid]);
+      if (cmp < 0) {
+        low = mid + 1;
+      } else if (cmp > 0) {
+        high = mid - 1;
+      } else {
+        return mid;
+      }
+    }
+    return -(low + 1);
+  }
+
+  /**
+   * Compares the given string to the lookahead (like String.compareTo()).
+   */
+  protected int compareToLookahead(String string) {
+    int n = Math.min(string.length(), lookaheadLength);
+    for (int i = 0; i < n; i++) {
+      char c = string.charAt(i);
+      if (c != lookahead[i]) {
+        return c - lookahead[i];
+      }
+    }
+    return string.length() - lookaheadLength;
+  }
+
+  /**
+   * Returns true, if the given string starts with the lookahead.
+   */
+  protected boolean startsWithLookahead(String string) {
+    if (string.length() < lookaheadLength) {
+      return false;
+    }
+    for (int i = 0; i < lookaheadLength; i++) {
+      if (string.charAt(i) != lookahead[i]) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  // ___________________________________________________________________________
+
+  /**
+   * Consumes the current token, if it is of the given kind. Returns the index
+   * of the consumed token.
+   */
+  protected int consume(int kind) throws ParseException {
+    if (kinds[pos] != kind) {
+      throw parseException();
+    }
+    return pos++;
+  }
+
+  /**
+   * Consumes the current token, if it is of one of the given kinds. Returns
+   * the index of the consumed token.
+   */
+  protected int consume(long kinds) throws ParseException {
+    if (!is(this.kinds[pos], kinds)) {
+      throw parseException();
+    }
+    return pos++;
+  }
+
+  /**
+   * Consumes any number of tokens of the given kinds.
+   */
+  protected void skip(long kinds) {
+    while (is(this.kinds[pos], kinds)) {
+      pos++;
+    }
+  }
+
+  /**
+   * Returns true, if the given kind is included in the given kinds.
+   */
+  protected static boolean is(int kind, long kinds) {
+    return (kinds & (1L << kind)) != 0;
+  }
+
+  /**
+   * Returns the bit mask of the given token kinds.
+   */
+  protected static long mask(int... kinds) {
+    long mask = 0;
+    for (int kind : kinds) {
+      mask |= 1L << kind;
+    }
+    return mask;
+  }
+
+  /**
+   * Returns the image of the i-th token.
+   */
+  protected String image(int i) {
+    int length = ends[i] - begins[i];
+    char c = text[begins[i]];
+    if (length == 1 && c < ONE_CHAR_STRINGS.length) {
+      return ONE_CHAR_STRINGS[c];
+    }
+    return new String(text, begins[i], length);
+  }
+
+  /**
+   * Returns the text of the tokens from the first to the last given token: a
+   * view on the source if the tokens are adjacent in the source (which they
+   * are, unless there is a comment in between), a string otherwise.
+   */
+  protected CharSequence text(int first, int last) {
+    int begin = begins[first];
+    int end = ends[last];
+    if (!isAdjacent(first, last)) {
+      return concat(first, last);
+    }
+    if (end - begin == 1 && text[begin] < ONE_CHAR_STRINGS.length) {
+      return ONE_CHAR_STRINGS[text[begin]];
+    }
+    return new TeXSource(text, begin, end);
+  }
+
+  /**
+   * Returns the name of a command that consists of the tokens from the first
+   * to the last given token. All commands with the same name in a document
+   * share the same string (which is the name registered in
+   * {@link CommandNames}, if the name is registered there).
+   */
+  protected String name(int first, int last) {
+    if (!isAdjacent(first, last)) {
+      return concat(first, last);
+    }
+    int begin = begins[first];
+    int end = ends[last];
+    int hash = 0;
+    for (int i = begin; i < end; i++) {
+      hash = 31 * hash + text[i];
+    }
+    // Look up the name in the hash table (with linear probing).
+    int mask = names.length - 1;
+    int slot = hash & mask;
+    String name;
+    while ((name = names[slot]) != null) {
+      if (name.length() == end - begin && equals(name, begin)) {
+        return name;
+      }
+      slot = (slot + 1) & mask;
+    }
+    name = new String(text, begin, end - begin);
+    String registered = CommandNames.getName(CommandNames.getId(name));
+    if (registered != null) {
+      name = registered;
+    }
+    names[slot] = name;
+    if (++numNames * 2 > names.length) {
+      String[] table = new String[names.length * 2];
+      for (String n : names) {
+        if (n != null) {
+          int s = n.hashCode() & (table.length - 1);
+          while (table[s] != null) {
+            s = (s + 1) & (table.length - 1);
+          }
+          table[s] = n;
+        }
+      }
+      names = table;
+    }
+    return name;
+  }
+
+  /**
+   * Returns true, if the given string is equal to the chars of the text that
+   * start at the given offset.
+   */
+  protected boolean equals(String string, int offset) {
+    for (int i = 0; i < string.length(); i++) {
+      if (string.charAt(i) != text[offset + i]) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Returns true, if the tokens from the first to the last given token are
+   * adjacent in the text.
+   */
+  protected boolean isAdjacent(int first, int last) {
+    for (int i = first; i < last; i++) {
+      if (ends[i] != begins[i + 1]) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Concatenates the images of the tokens from the first to the last given
+   * token.
+   */
+  protected String concat(int first, int last) {
+    buffer.setLength(0);
+    for (int i = first; i <= last; i++) {
+      buffer.append(text, begins[i], ends[i] - begins[i]);
+    }
+    return buffer.toString();
+  }
+
+  /**
+   * Returns the token that carries the position of the i-th token.
+   */
+  protected Token token(int i) {
+    setPosition(i, i);
+    return position;
+  }
+
+  /**
+   * Sets the position to the range from the first to the last given token.
+   */
+  protected void setPosition(int first, int last) {
+    position.beginLine = beginLines[first];
+    position.beginColumn = beginColumns[first];
+    position.endLine = endLines[last];
+    position.endColumn = endColumns[last];
+  }
+
+  /**
+   * Creates an exception for an unexpected current token.
+   */
+  protected ParseException parseException() {
+    String image = pos < numTokens - 1 ? image(pos) : "<EOF>";
+    return new ParseException("Encountered \"" + image + "\" at line "
+        + beginLines[pos] + ", column " + beginColumns[pos] + ".");
+  }
+}
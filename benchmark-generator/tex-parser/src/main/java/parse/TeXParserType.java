@@ -0,0 +1,92 @@
+package parse;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.StringReader;
+
+import model.Document;
+
+/**
+ * The available parsers for tex documents. Both parsers produce the same
+ * element trees.
+ *
+ * @author Claudius Korzen
+ */
+public enum TeXParserType {
+  /** The JavaCC generated {@link TeXParser}. */
+  JAVACC,
+  /** The hand-written {@link FastTeXParser}. */
+  FAST;
+
+  /**
+   * Parses the given tex document.
+   */
+  public Document parse(String document) throws ParseException {
+    return parse(document, null);
+  }
+
+  /**
+   * Parses the given tex document and counts the parsed elements in the
+   * given work tracker (may be null).
+   */
+  public Document parse(String document, TeXWorkTracker tracker)
+    throws ParseException {
+    switch (this) {
+      case FAST:
+        return new FastTeXParser(document).setWorkTracker(tracker).parse();
+      default:
+        return new TeXParser(new StringReader(document))
+            .setWorkTracker(tracker).parse();
+    }
+  }
+
+  /**
+   * Parses the tex document in the given stream, decoded by the default
+   * charset.
+   */
+  public Document parse(InputStream stream)
+    throws IOException, ParseException {
+    switch (this) {
+      case FAST:
+        return new FastTeXParser(stream).parse();
+      default:
+        return new TeXParser(stream).parse();
+    }
+  }
+
+  /**
+   * Parses the tex document in the given source.
+   */
+  public Document parse(TeXSource source) throws ParseException {
+    return parse(source, null);
+  }
+
+  /**
+   * Parses the tex document in the given source and counts the parsed
+   * elements in the given work tracker (may be null).
+   */
+  public Document parse(TeXSource source, TeXWorkTracker tracker)
+    throws ParseException {
+    switch (this) {
+      case FAST:
+        return new FastTeXParser(source).setWorkTracker(tracker).parse();
+      default:
+        return new TeXParser(source.newReader()).setWorkTracker(tracker)
+            .parse();
+    }
+  }
+
+  /**
+   * Returns the parser with the given (case-insensitive) name.
+   *
+   * @throws IllegalArgumentException if there is no parser with this name.
+   */
+  public static TeXParserType fromName(String name) {
+    for (TeXParserType type : values()) {
+      if (type.name().equalsIgnoreCase(name)) {
+        return type;
+      }
+    }
+    throw new IllegalArgumentException("Unknown parser: " + name);
+  }
+}
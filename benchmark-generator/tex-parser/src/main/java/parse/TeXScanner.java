@@ -0,0 +1,576 @@
+package parse;
+
+import java.util.Arrays;
+
+/**
+ * A hand-written, table-driven scanner for tex documents. It splits a char
+ * array into the same tokens (with the same kinds and positions) as the
+ * JavaCC generated TeXParserTokenManager, but stores the tokens in parallel
+ * int arrays instead of creating an object (and a string) per token.
+ *
+ * Single characters are classified by a lookup table, control sequences (and
+ * math shifts) are matched against a trie of the literals of the grammar.
+ *
+ * @author Claudius Korzen
+ */
+public class TeXScanner implements TeXParserConstants {
+  /**
+   * The kinds of the characters < 256 that form a token on their own. The
+   * characters '\\', '$', '%', '#' and the newline characters are handled
+   * separately.
+   */
+  protected static final int[] CHAR_KINDS = new int[256];
+
+  /**
+   * The trie of the literals in the lexical state DEFAULT.
+   */
+  protected static final LiteralTrie DEFAULT_LITERALS = new LiteralTrie();
+
+  /**
+   * The trie of the literals in the lexical state IN_TABBING.
+   */
+  protected static final LiteralTrie TABBING_LITERALS = new LiteralTrie();
+
+  static {
+    Arrays.fill(CHAR_KINDS, OTHER_SYMBOL);
+    for (char c = 'A'; c <= 'Z'; c++) {
+      CHAR_KINDS[c] = CHAR;
+      CHAR_KINDS[Character.toLowerCase(c)] = CHAR;
+    }
+    for (char c : "\u00d6\u00c4\u00dc\u00f6\u00e4\u00fc\u00df".toCharArray()) {
+      CHAR_KINDS[c] = CHAR;
+    }
+    for (char c = '0'; c <= '9'; c++) {
+      CHAR_KINDS[c] = DIGIT;
+    }
+    CHAR_KINDS[' '] = WHITESPACE;
+    CHAR_KINDS['\t'] = WHITESPACE;
+    CHAR_KINDS['\f'] = WHITESPACE;
+    CHAR_KINDS['*'] = STAR;
+    CHAR_KINDS['_'] = UNDERSCORE;
+    CHAR_KINDS['^'] = CIRCUMFLEX;
+    CHAR_KINDS['{'] = GROUP_START;
+    CHAR_KINDS['}'] = GROUP_END;
+    CHAR_KINDS['['] = OPTION_START;
+    CHAR_KINDS[']'] = OPTION_END;
+    CHAR_KINDS['@'] = AT;
+
+    // The literals of both states.
+    for (LiteralTrie trie : new LiteralTrie[] { DEFAULT_LITERALS,
+        TABBING_LITERALS }) {
+      trie.add(COMMAND_PREFIX, "\\");
+      trie.add(DEF_COMMAND_PREFIX, "\\def");
+      trie.add(NEW_COMMAND_PREFIX, "\\newcommand", "\\renewcommand");
+      trie.add(WELL_DEFINED_COMMON_COMMAND, "\\ ", "\\\r\n", "\\\n", "\\\r",
+          "\\!", "\\#", "\\$", "\\%", "\\&", "\\(", "\\)", "\\*", "\\+", "\\,",
+          "\\/", "\\:", "\\;", "\\[", "\\]", "\\\\", "\\\\*", "\\_", "\\{",
+          "\\}", "\\|", "$", "$$", "\\-", "\\noindent");
+      for (String big : new String[] { "\\big", "\\Big", "\\bigg", "\\Bigg" }) {
+        trie.add(WELL_DEFINED_COMMON_COMMAND, big + "(", big + ")", big + "[",
+            big + "]", big + "\\{", big + "\\}", big + "{[}", big + "{]}",
+            big + "{(}", big + "{)}");
+      }
+      trie.add(COMMAND_WITH_CHAR_ARG_OPTIONAL_WHITESPACE_COMMON, "\\\"",
+          "\\^", "\\~", "\\.");
+      trie.add(COMMAND_WITH_CHAR_ARG_MANDATORY_WHITESPACE, "\\acute",
+          "\\grave", "\\hat", "\\widehat", "\\check", "\\tilde", "\\widetilde",
+          "\\bar", "\\overbar", "\\ocirc", "\\cal", "\\mathcal", "\\dot",
+          "\\breve", "\\vec");
+    }
+
+    // The literals of state DEFAULT.
+    DEFAULT_LITERALS.add(WELL_DEFINED_DEFAULT_COMMAND, "\\-", "\\<", "\\>");
+    DEFAULT_LITERALS.add(COMMAND_WITH_CHAR_ARG_OPTIONAL_WHITESPACE_DEFAULT,
+        "\\=", "\\-", "\\'", "\\`");
+    DEFAULT_LITERALS.add(COMMAND_WITH_WORD_ARG_OPTIONAL_WHITESPACE, "\\vskip",
+        "\\hskip", "\\topsep", "\\parsep", "\\partopsep", "\\itemsep",
+        "\\leftmargin", "\\rightmargin", "\\topmargin", "\\bottommargin",
+        "\\listparindent", "\\itemindent", "\\labelwidth", "\\labelsep",
+        "\\parindent", "\\baselineskip", "\\textwidth", "\\textheight",
+        "\\oddsidemargin", "\\evensidemargin", "\\headsep", "\\voffset",
+        "\\hoffset", "\\catcode`", "\\vrule", "\\font", "\\leftskip",
+        "\\rightskip", "\\parskip");
+    DEFAULT_LITERALS.add(COMMAND_WITH_WORD_ARG_MANDATORY_WHITESPACE, "\\input");
+
+    // The literals of state IN_TABBING. The first literal is "\a´" in the
+    // grammar, but JavaCC read the grammar file in the wrong encoding.
+    TABBING_LITERALS.add(WELL_DEFINED_TABBING_COMMAND, "\\=", "\\'", "\\`",
+        "\\<", "\\>", "\\+", "\\-", "\\kill");
+    TABBING_LITERALS.add(COMMAND_WITH_CHAR_ARG_OPTIONAL_WHITESPACE_TABBING,
+        "\\a\uFFFD\uFFFD", "\\a`", "\\a=");
+  }
+
+  /**
+   * The text to scan.
+   */
+  protected final char[] text;
+
+  /**
+   * The number of chars to scan.
+   */
+  protected final int length;
+
+  /**
+   * The number of tokens, including the final EOF token.
+   */
+  protected int numTokens;
+
+  /**
+   * The kinds of the tokens.
+   */
+  protected int[] kinds;
+
+  /**
+   * The offsets of the first chars of the tokens.
+   */
+  protected int[] begins;
+
+  /**
+   * The offsets behind the last chars of the tokens.
+   */
+  protected int[] ends;
+
+  /**
+   * The lines of the first chars of the tokens.
+   */
+  protected int[] beginLines;
+
+  /**
+   * The columns of the first chars of the tokens.
+   */
+  protected int[] beginColumns;
+
+  /**
+   * The lines of the last chars of the tokens.
+   */
+  protected int[] endLines;
+
+  /**
+   * The columns of the last chars of the tokens.
+   */
+  protected int[] endColumns;
+
+  /**
+   * The history of the lexical states.
+   */
+  protected int[] stateHistory = new int[8];
+
+  /**
+   * The number of states in the history.
+   */
+  protected int numStates;
+
+  /**
+   * The current lexical state.
+   */
+  protected int state = DEFAULT;
+
+  // The cursor to compute the lines and columns (like SimpleCharStream).
+
+  /** The offset of the next char to count. */
+  protected int cursor;
+  /** The line of the last counted char. */
+  protected int line = 1;
+  /** The column of the last counted char. */
+  protected int column;
+  /** True, if the last counted char was '\r'. */
+  protected boolean prevCharIsCR;
+  /** True, if the last counted char was '\n'. */
+  protected boolean prevCharIsLF;
+
+  /**
+   * Scans the given text.
+   */
+  public TeXScanner(String text) {
+    this(text.toCharArray(), text.length());
+  }
+
+  /**
+   * Scans the first length chars of the given text.
+   */
+  public TeXScanner(char[] text, int length) {
+    this.text = text;
+    this.length = length;
+    int capacity = length / 2 + 16;
+    this.kinds = new int[capacity];
+    this.begins = new int[capacity];
+    this.ends = new int[capacity];
+    this.beginLines = new int[capacity];
+    this.beginColumns = new int[capacity];
+    this.endLines = new int[capacity];
+    this.endColumns = new int[capacity];
+    scan();
+  }
+
+  // ___________________________________________________________________________
+
+  /**
+   * Scans the text into tokens.
+   */
+  protected void scan() {
+    int pos = 0;
+    while (pos < length) {
+      char c = text[pos];
+
+      if (state == IN_COMMENT) {
+        int end = matchTabbing(pos, "begin");
+        if (end > 0) {
+          addToken(BEGIN_TABBING, pos, end);
+          pushState(IN_TABBING);
+          pos = end;
+        } else if (c == '\r' || c == '\n') {
+          // Switch back to the previous state on a new line.
+          pos += getNewLineLength(pos);
+          popState();
+        } else {
+          pos++;
+        }
+        continue;
+      }
+
+      if (c == '%') {
+        pushState(IN_COMMENT);
+        pos++;
+        continue;
+      }
+
+      int kind;
+      int end = pos + 1;
+      switch (c) {
+        case '\r':
+        case '\n':
+          end = pos + getNewLineLength(pos);
+          int paragraphEnd = matchNewParagraph(pos);
+          kind = paragraphEnd > end ? NEW_PARAGRAPH : NEW_LINE;
+          end = Math.max(end, paragraphEnd);
+          break;
+        case '#':
+          boolean isMarker = end < length && text[end] >= '0'
+              && text[end] <= '9';
+          kind = isMarker ? MARKER : OTHER_SYMBOL;
+          end = isMarker ? end + 1 : end;
+          break;
+        case '\\':
+        case '$':
+          LiteralTrie trie = state == IN_TABBING
+              ? TABBING_LITERALS : DEFAULT_LITERALS;
+          long match = trie.match(text, pos, length);
+          kind = (int) (match >>> 32);
+          end = (int) match;
+          // Check for "\begin{tabbing}" or "\end{tabbing}".
+          int tabbingKind = state == IN_TABBING ? END_TABBING : BEGIN_TABBING;
+          int tabbingEnd = matchTabbing(pos,
+              state == IN_TABBING ? "end" : "begin");
+          if (tabbingEnd > end) {
+            kind = tabbingKind;
+            end = tabbingEnd;
+          }
+          break;
+        default:
+          kind = c < 256 ? CHAR_KINDS[c] : OTHER_SYMBOL;
+      }
+
+      addToken(kind, pos, end);
+      if (kind == BEGIN_TABBING) {
+        pushState(IN_TABBING);
+      } else if (kind == END_TABBING) {
+        popState();
+      }
+      pos = end;
+    }
+    addToken(EOF, length, length);
+  }
+
+  /**
+   * Returns the length of the newline at the given offset.
+   */
+  protected int getNewLineLength(int pos) {
+    if (text[pos] == '\r') {
+      return pos + 1 < length && text[pos + 1] == '\n' ? 2 : 1;
+    }
+    return text[pos] == '\n' ? 1 : 0;
+  }
+
+  /**
+   * Matches a new paragraph (a newline, optional whitespaces and another
+   * newline) at the given offset. Returns the offset behind the longest match
+   * or -1 if there is no match.
+   */
+  protected int matchNewParagraph(int pos) {
+    int end = -1;
+    // The first newline of "\r\n" may be "\r" or "\r\n".
+    int numChoices = getNewLineLength(pos);
+    for (int choice = 1; choice <= numChoices; choice++) {
+      int i = pos + choice;
+      while (i < length && isWhitespace(text[i])) {
+        i++;
+      }
+      if (i < length) {
+        int newLineLength = getNewLineLength(i);
+        if (newLineLength > 0) {
+          end = Math.max(end, i + newLineLength);
+        }
+      }
+    }
+    return end;
+  }
+
+  /**
+   * Matches "\begin{tabbing}" or "\end{tabbing}" (with the given command
+   * name and optional whitespaces in front of the group) at the given offset.
+   * Returns the offset behind the match or -1 if there is no match.
+   */
+  protected int matchTabbing(int pos, String name) {
+    int i = pos;
+    if (i >= length || text[i++] != '\\' || !matches(i, name)) {
+      return -1;
+    }
+    i += name.length();
+    while (i < length && isWhitespace(text[i])) {
+      i++;
+    }
+    return matches(i, "{tabbing}") ? i + 9 : -1;
+  }
+
+  /**
+   * Returns true, if the text contains the given string at the given offset.
+   */
+  protected boolean matches(int pos, String string) {
+    if (pos + string.length() > length) {
+      return false;
+    }
+    for (int i = 0; i < string.length(); i++) {
+      if (text[pos + i] != string.charAt(i)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Returns true, if the given char is a whitespace in terms of the grammar.
+   */
+  protected static boolean isWhitespace(char c) {
+    return c == ' ' || c == '\t' || c == '\f';
+  }
+
+  // ___________________________________________________________________________
+
+  /**
+   * Pushes the given state to the history and switches to it.
+   */
+  protected void pushState(int state) {
+    if (numStates == stateHistory.length) {
+      stateHistory = Arrays.copyOf(stateHistory, numStates * 2);
+    }
+    stateHistory[numStates++] = state;
+    this.state = state;
+  }
+
+  /**
+   * Pops the current state from the history and switches to the previous one.
+   */
+  protected void popState() {
+    numStates--;
+    state = numStates == 0 ? DEFAULT : stateHistory[numStates - 1];
+  }
+
+  /**
+   * Adds a token of the given kind that spans the given offsets.
+   */
+  protected void addToken(int kind, int begin, int end) {
+    if (numTokens == kinds.length) {
+      int capacity = numTokens + (numTokens >> 1) + 16;
+      kinds = Arrays.copyOf(kinds, capacity);
+      begins = Arrays.copyOf(begins, capacity);
+      ends = Arrays.copyOf(ends, capacity);
+      beginLines = Arrays.copyOf(beginLines, capacity);
+      beginColumns = Arrays.copyOf(beginColumns, capacity);
+      endLines = Arrays.copyOf(endLines, capacity);
+      endColumns = Arrays.copyOf(endColumns, capacity);
+    }
+    int i = numTokens++;
+    kinds[i] = kind;
+    begins[i] = begin;
+    ends[i] = end;
+    if (begin == end) {
+      // The EOF token has the position of the last char.
+      countTo(end);
+      beginLines[i] = endLines[i] = line;
+      beginColumns[i] = endColumns[i] = column;
+      return;
+    }
+    countTo(begin + 1);
+    beginLines[i] = line;
+    beginColumns[i] = column;
+    countTo(end);
+    endLines[i] = line;
+    endColumns[i] = column;
+  }
+
+  /**
+   * Counts the lines and columns of the chars up to the given offset (like
+   * SimpleCharStream.updateLineColumn()).
+   */
+  protected void countTo(int end) {
+    for (; cursor < end; cursor++) {
+      char c = text[cursor];
+      column++;
+      if (prevCharIsLF) {
+        prevCharIsLF = false;
+        line += (column = 1);
+      } else if (prevCharIsCR) {
+        prevCharIsCR = false;
+        if (c == '\n') {
+          prevCharIsLF = true;
+        } else {
+          line += (column = 1);
+        }
+      }
+      switch (c) {
+        case '\r':
+          prevCharIsCR = true;
+          break;
+        case '\n':
+          prevCharIsLF = true;
+          break;
+        case '\t':
+          column--;
+          column += (8 - (column & 7));
+          break;
+        default:
+          break;
+      }
+    }
+  }
+
+  // ___________________________________________________________________________
+
+  /**
+   * Returns the number of tokens, including the final EOF token.
+   */
+  public int getNumTokens() {
+    return numTokens;
+  }
+
+  /**
+   * Returns the kind of the i-th token. Returns EOF for all i behind the
+   * last token.
+   */
+  public int getKind(int i) {
+    return i < numTokens ? kinds[i] : EOF;
+  }
+
+  /**
+   * Returns the image of the i-th token.
+   */
+  public String getImage(int i) {
+    return new String(text, begins[i], ends[i] - begins[i]);
+  }
+
+  // ___________________________________________________________________________
+
+  /**
+   * A trie of literals, where each literal is associated with a token kind.
+   * The children of a node are stored as linked list of siblings in parallel
+   * arrays.
+   */
+  protected static class LiteralTrie {
+    /** The chars of the nodes. */
+    protected char[] chars = new char[64];
+    /** The first children of the nodes. */
+    protected int[] children = new int[64];
+    /** The next siblings of the nodes. */
+    protected int[] siblings = new int[64];
+    /** The token kinds of the nodes (-1 if no literal ends at a node). */
+    protected int[] tokenKinds = new int[64];
+    /** The number of nodes (node 0 is the root). */
+    protected int numNodes = 1;
+
+    /**
+     * Creates an empty trie.
+     */
+    public LiteralTrie() {
+      Arrays.fill(children, -1);
+      Arrays.fill(siblings, -1);
+      Arrays.fill(tokenKinds, -1);
+    }
+
+    /**
+     * Adds the given literals with the given token kind. If a literal has
+     * multiple kinds, the smallest kind wins (like in JavaCC).
+     */
+    public void add(int kind, String... literals) {
+      for (String literal : literals) {
+        int node = 0;
+        for (int i = 0; i < literal.length(); i++) {
+          node = getOrAddChild(node, literal.charAt(i));
+        }
+        if (tokenKinds[node] < 0 || kind < tokenKinds[node]) {
+          tokenKinds[node] = kind;
+        }
+      }
+    }
+
+    /**
+     * Returns the child of the given node with the given char, adds it if
+     * it doesn't exist yet.
+     */
+    protected int getOrAddChild(int node, char c) {
+      int child = getChild(node, c);
+      if (child >= 0) {
+        return child;
+      }
+      if (numNodes == chars.length) {
+        int capacity = numNodes * 2;
+        chars = Arrays.copyOf(chars, capacity);
+        children = Arrays.copyOf(children, capacity);
+        siblings = Arrays.copyOf(siblings, capacity);
+        tokenKinds = Arrays.copyOf(tokenKinds, capacity);
+        Arrays.fill(children, numNodes, capacity, -1);
+        Arrays.fill(siblings, numNodes, capacity, -1);
+        Arrays.fill(tokenKinds, numNodes, capacity, -1);
+      }
+      child = numNodes++;
+      chars[child] = c;
+      siblings[child] = children[node];
+      children[node] = child;
+      return child;
+    }
+
+    /**
+     * Returns the child of the given node with the given char or -1 if there
+     * is no such child.
+     */
+    protected int getChild(int node, char c) {
+      int child = children[node];
+      while (child >= 0 && chars[child] != c) {
+        child = siblings[child];
+      }
+      return child;
+    }
+
+    /**
+     * Matches the longest literal at the given offset of the given text.
+     * Returns the kind of the literal in the upper 32 bits and the offset
+     * behind the literal in the lower 32 bits. The first char must start a
+     * literal.
+     */
+    public long match(char[] text, int pos, int length) {
+      int kind = -1;
+      int end = pos;
+      int node = 0;
+      for (int i = pos; i < length; i++) {
+        node = getChild(node, text[i]);
+        if (node < 0) {
+          break;
+        }
+        if (tokenKinds[node] >= 0) {
+          kind = tokenKinds[node];
+          end = i + 1;
+        }
+      }
+      return ((long) kind << 32) | end;
+    }
+  }
+}
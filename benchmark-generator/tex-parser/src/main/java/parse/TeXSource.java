@@ -0,0 +1,277 @@
+package parse;
+
+import java.io.CharArrayReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Reader;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * The chars of a tex document, as a CharSequence.
+ *
+ * A source of a file is decoded in bulk from a memory mapping of the file,
+ * without copying the bytes through streams or readers: as UTF-8, or as
+ * Latin-1 if the file isn't valid UTF-8. The parsers scan the decoded chars
+ * directly, and {@link #subSequence(int, int)} returns views on the chars
+ * instead of copies, such that elements can refer to their text in the
+ * source.
+ *
+ * A source is immutable.
+ *
+ * @author Claudius Korzen
+ */
+public final class TeXSource implements CharSequence {
+  /**
+   * The chars (shared by all views on the source).
+   */
+  final char[] chars;
+
+  /**
+   * The offset of the first char of this source.
+   */
+  final int begin;
+
+  /**
+   * The offset behind the last char of this source.
+   */
+  final int end;
+
+  /**
+   * Creates a source for the chars in the given range of the given array.
+   */
+  TeXSource(char[] chars, int begin, int end) {
+    this.chars = chars;
+    this.begin = begin;
+    this.end = end;
+  }
+
+  // ___________________________________________________________________________
+
+  /**
+   * Maps the given file into memory and decodes it, as UTF-8 or (if the file
+   * isn't valid UTF-8) as Latin-1.
+   */
+  public static TeXSource map(Path file) throws IOException {
+    try (FileChannel channel = FileChannel.open(file,
+        StandardOpenOption.READ)) {
+      long size = channel.size();
+      if (size > Integer.MAX_VALUE) {
+        throw new IOException("The file " + file + " is too large.");
+      }
+      MappedByteBuffer bytes = channel.map(MapMode.READ_ONLY, 0, size);
+      return decode(bytes);
+    }
+  }
+
+  /**
+   * Decodes the given bytes, as UTF-8 or (if the bytes aren't valid UTF-8)
+   * as Latin-1.
+   */
+  public static TeXSource decode(ByteBuffer bytes) {
+    int length = bytes.remaining();
+    int offset = bytes.position();
+    // There are at most as many chars as bytes, in both encodings.
+    char[] chars = new char[length];
+
+    // The ASCII prefix (mostly the whole file) is the same in both encodings.
+    int i = 0;
+    byte b;
+    while (i < length && (b = bytes.get(offset + i)) >= 0) {
+      chars[i++] = (char) b;
+    }
+    if (i == length) {
+      return new TeXSource(chars, 0, length);
+    }
+
+    CharsetDecoder decoder = StandardCharsets.UTF_8.newDecoder()
+        .onMalformedInput(CodingErrorAction.REPORT)
+        .onUnmappableCharacter(CodingErrorAction.REPORT);
+    ByteBuffer in = bytes.duplicate();
+    in.position(offset + i);
+    CharBuffer out = CharBuffer.wrap(chars, i, length - i);
+    CoderResult result = decoder.decode(in, out, true);
+    if (!result.isError()) {
+      result = decoder.flush(out);
+    }
+    if (!result.isError()) {
+      return new TeXSource(chars, 0, out.position());
+    }
+
+    // Latin-1 maps each byte to the char with the same value.
+    for (; i < length; i++) {
+      chars[i] = (char) (bytes.get(offset + i) & 0xFF);
+    }
+    return new TeXSource(chars, 0, length);
+  }
+
+  /**
+   * Reads the given stream until its end and decodes it like
+   * {@link #decode(ByteBuffer)}, as UTF-8 or (if the bytes aren't valid
+   * UTF-8) as Latin-1, without holding all bytes in memory. The bytes are
+   * decoded in chunks as UTF-8. If they turn out not to be valid UTF-8, the
+   * chars decoded from the first non-ASCII byte on are encoded again (which
+   * restores their bytes) and decoded as Latin-1, like the rest of the
+   * stream.
+   */
+  public static TeXSource read(InputStream stream) throws IOException {
+    CharsetDecoder decoder = StandardCharsets.UTF_8.newDecoder()
+        .onMalformedInput(CodingErrorAction.REPORT)
+        .onUnmappableCharacter(CodingErrorAction.REPORT);
+    ByteBuffer bytes = ByteBuffer.allocate(8192);
+    char[] chars = new char[8192];
+    int length = 0;
+    // The index of the first non-ASCII char (-1 if there is none yet).
+    int nonAscii = -1;
+    boolean isLatin1 = false;
+    boolean isEnd = false;
+
+    while (!isEnd) {
+      int n = stream.read(bytes.array(), bytes.position(), bytes.remaining());
+      if (n < 0) {
+        isEnd = true;
+      } else {
+        bytes.position(bytes.position() + n);
+      }
+      bytes.flip();
+
+      // There are at most as many chars as bytes, in both encodings.
+      if (chars.length - length < bytes.remaining()) {
+        chars = Arrays.copyOf(chars,
+            Math.max(2 * chars.length, length + bytes.remaining()));
+      }
+
+      if (!isLatin1) {
+        CharBuffer out = CharBuffer.wrap(chars, length, chars.length - length);
+        CoderResult result = decoder.decode(bytes, out, isEnd);
+        if (isEnd && !result.isError()) {
+          result = decoder.flush(out);
+        }
+        for (int i = length; nonAscii < 0 && i < out.position(); i++) {
+          if (chars[i] > 0x7F) {
+            nonAscii = i;
+          }
+        }
+        length = out.position();
+
+        if (result.isError()) {
+          // Not valid UTF-8. Restore the bytes of the non-ASCII chars.
+          isLatin1 = true;
+          if (nonAscii >= 0) {
+            byte[] restored = new String(chars, nonAscii, length - nonAscii)
+                .getBytes(StandardCharsets.UTF_8);
+            length = nonAscii;
+            if (chars.length - length < restored.length + bytes.remaining()) {
+              chars = Arrays.copyOf(chars,
+                  length + restored.length + bytes.remaining());
+            }
+            for (byte b : restored) {
+              chars[length++] = (char) (b & 0xFF);
+            }
+          }
+        }
+      }
+
+      if (isLatin1) {
+        // Latin-1 maps each byte to the char with the same value.
+        while (bytes.hasRemaining()) {
+          chars[length++] = (char) (bytes.get() & 0xFF);
+        }
+      }
+      bytes.compact();
+    }
+    return new TeXSource(chars, 0, length);
+  }
+
+  /**
+   * Reads the given reader until its end.
+   */
+  public static TeXSource read(Reader reader) throws IOException {
+    char[] chars = new char[8192];
+    int length = 0;
+    int n;
+    while ((n = reader.read(chars, length, chars.length - length)) != -1) {
+      length += n;
+      if (length == chars.length) {
+        chars = Arrays.copyOf(chars, chars.length * 2);
+      }
+    }
+    return new TeXSource(chars, 0, length);
+  }
+
+  /**
+   * Returns a source for the first length chars of the given array (which
+   * must not be modified afterwards).
+   */
+  public static TeXSource wrap(char[] chars, int length) {
+    return new TeXSource(chars, 0, length);
+  }
+
+  // ___________________________________________________________________________
+
+  @Override
+  public int length() {
+    return end - begin;
+  }
+
+  @Override
+  public char charAt(int index) {
+    if (index < 0 || index >= end - begin) {
+      throw new IndexOutOfBoundsException("Index: " + index);
+    }
+    return chars[begin + index];
+  }
+
+  /**
+   * Returns a view on the given range of this source (without copying any
+   * chars).
+   */
+  @Override
+  public TeXSource subSequence(int start, int stop) {
+    if (start < 0 || start > stop || stop > end - begin) {
+      throw new IndexOutOfBoundsException("Range: " + start + ", " + stop);
+    }
+    return new TeXSource(chars, begin + start, begin + stop);
+  }
+
+  /**
+   * Copies the chars in the given range of this source into the given array,
+   * starting at the given offset (like String.getChars()).
+   */
+  public void getChars(int start, int stop, char[] dst, int offset) {
+    if (start < 0 || start > stop || stop > end - begin) {
+      throw new IndexOutOfBoundsException("Range: " + start + ", " + stop);
+    }
+    System.arraycopy(chars, begin + start, dst, offset, stop - start);
+  }
+
+  /**
+   * Returns a reader on the chars of this source (without copying them).
+   */
+  public Reader newReader() {
+    return new CharArrayReader(chars, begin, end - begin);
+  }
+
+  /**
+   * Returns the chars of this source, starting at offset 0 (a copy only if
+   * this source is a view on a range that doesn't start at 0).
+   */
+  char[] array() {
+    return begin == 0 ? chars : Arrays.copyOfRange(chars, begin, end);
+  }
+
+  @Override
+  public String toString() {
+    return new String(chars, begin, end - begin);
+  }
+}
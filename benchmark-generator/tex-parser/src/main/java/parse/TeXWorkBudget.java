@@ -0,0 +1,164 @@
+package parse;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The limits of the work to spend on a single tex document: the number of
+ * elements visited (over all stages, i.e. parsing, resolving the macros and
+ * identifying the paragraphs), the number and the nesting depth of macro
+ * expansions and the wall time. The work is tracked by a
+ * {@link TeXWorkTracker}, created by {@link #start()} per document.
+ *
+ * Budgets are immutable. A document that exceeded its budget can be
+ * processed again with scaled limits (see {@link #scale(double)}).
+ *
+ * @author Claudius Korzen
+ */
+public class TeXWorkBudget {
+  /**
+   * The value of a limit that is disabled.
+   */
+  public static final long UNLIMITED = Long.MAX_VALUE;
+
+  /**
+   * The budget without any limits.
+   */
+  public static final TeXWorkBudget NONE = new TeXWorkBudget(UNLIMITED,
+      UNLIMITED, UNLIMITED, UNLIMITED);
+
+  /**
+   * The maximal number of elements to visit.
+   */
+  protected final long maxElements;
+
+  /**
+   * The maximal number of macro expansions.
+   */
+  protected final long maxExpansions;
+
+  /**
+   * The maximal nesting depth of macro expansions.
+   */
+  protected final long maxExpansionDepth;
+
+  /**
+   * The maximal wall time, in nanoseconds.
+   */
+  protected final long maxTimeNanos;
+
+  /**
+   * Creates a new budget with the given limits and without a time limit.
+   * Limits <= 0 are disabled.
+   */
+  public TeXWorkBudget(long maxElements, long maxExpansions,
+      long maxExpansionDepth) {
+    this(maxElements, maxExpansions, maxExpansionDepth, UNLIMITED);
+  }
+
+  /**
+   * Creates a new budget with the given limits. Limits <= 0 are disabled.
+   */
+  public TeXWorkBudget(long maxElements, long maxExpansions,
+      long maxExpansionDepth, long maxTime, TimeUnit unit) {
+    this(maxElements, maxExpansions, maxExpansionDepth,
+        maxTime > 0 ? unit.toNanos(maxTime) : UNLIMITED);
+  }
+
+  /**
+   * Creates a new budget with the given limits (the time in nanoseconds).
+   */
+  protected TeXWorkBudget(long maxElements, long maxExpansions,
+      long maxExpansionDepth, long maxTimeNanos) {
+    this.maxElements = normalize(maxElements);
+    this.maxExpansions = normalize(maxExpansions);
+    this.maxExpansionDepth = normalize(maxExpansionDepth);
+    this.maxTimeNanos = normalize(maxTimeNanos);
+  }
+
+  // ___________________________________________________________________________
+
+  /**
+   * Starts tracking the work on a document against this budget. The wall time
+   * is measured from now on.
+   */
+  public TeXWorkTracker start() {
+    return new TeXWorkTracker(this);
+  }
+
+  /**
+   * Returns a budget with all limits of this budget multiplied by the given
+   * factor (disabled limits stay disabled).
+   */
+  public TeXWorkBudget scale(double factor) {
+    return new TeXWorkBudget(scale(maxElements, factor),
+        scale(maxExpansions, factor), scale(maxExpansionDepth, factor),
+        scale(maxTimeNanos, factor));
+  }
+
+  /**
+   * Multiplies the given limit by the given factor.
+   */
+  protected static long scale(long limit, double factor) {
+    if (limit == UNLIMITED) {
+      return UNLIMITED;
+    }
+    // The cast saturates at Long.MAX_VALUE.
+    return Math.max(1, (long) (limit * factor));
+  }
+
+  /**
+   * Maps the limits <= 0 to UNLIMITED.
+   */
+  protected static long normalize(long limit) {
+    return limit > 0 ? limit : UNLIMITED;
+  }
+
+  // ___________________________________________________________________________
+
+  /**
+   * Returns the maximal number of elements to visit.
+   */
+  public long getMaxElements() {
+    return maxElements;
+  }
+
+  /**
+   * Returns the maximal number of macro expansions.
+   */
+  public long getMaxExpansions() {
+    return maxExpansions;
+  }
+
+  /**
+   * Returns the maximal nesting depth of macro expansions.
+   */
+  public long getMaxExpansionDepth() {
+    return maxExpansionDepth;
+  }
+
+  /**
+   * Returns the maximal wall time in the given unit.
+   */
+  public long getMaxTime(TimeUnit unit) {
+    if (maxTimeNanos == UNLIMITED) {
+      return UNLIMITED;
+    }
+    return unit.convert(maxTimeNanos, TimeUnit.NANOSECONDS);
+  }
+
+  @Override
+  public String toString() {
+    return "elements: " + toString(maxElements) + ", expansions: "
+        + toString(maxExpansions) + ", expansion depth: "
+        + toString(maxExpansionDepth) + ", time: "
+        + (maxTimeNanos == UNLIMITED ? "-"
+            : TimeUnit.NANOSECONDS.toMillis(maxTimeNanos) + "ms");
+  }
+
+  /**
+   * Returns the given limit as string ("-" if disabled).
+   */
+  protected static String toString(long limit) {
+    return limit == UNLIMITED ? "-" : String.valueOf(limit);
+  }
+}
@@ -0,0 +1,108 @@
+package parse;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The exception thrown by a {@link TeXWorkTracker} if the processing of a tex
+ * document exceeded its {@link TeXWorkBudget}. It is unchecked, such that it
+ * passes through the parsers and the consumers of paragraphs and aborts the
+ * processing of the document as a whole.
+ *
+ * @author Claudius Korzen
+ */
+public class TeXWorkBudgetExceededException extends RuntimeException {
+  /**
+   * The serial version id.
+   */
+  private static final long serialVersionUID = 1L;
+
+  /**
+   * The resource of a budget.
+   */
+  public enum Resource {
+    /** The number of visited elements. */
+    ELEMENTS,
+    /** The number of macro expansions. */
+    EXPANSIONS,
+    /** The nesting depth of macro expansions. */
+    EXPANSION_DEPTH,
+    /** The wall time (the limit is given in nanoseconds). */
+    TIME,
+    /** The thread was interrupted (e.g., on timeout); there is no limit. */
+    INTERRUPTION
+  }
+
+  /**
+   * The exceeded resource.
+   */
+  protected final Resource resource;
+
+  /**
+   * The exceeded limit.
+   */
+  protected final long limit;
+
+  /**
+   * The exceeded budget.
+   */
+  protected final transient TeXWorkBudget budget;
+
+  /**
+   * Creates a new exception for the given exceeded resource and limit of the
+   * given budget.
+   */
+  public TeXWorkBudgetExceededException(Resource resource, long limit,
+      TeXWorkBudget budget) {
+    super(toMessage(resource, limit));
+    this.resource = resource;
+    this.limit = limit;
+    this.budget = budget;
+  }
+
+  /**
+   * Returns the message for the given exceeded resource and limit.
+   */
+  protected static String toMessage(Resource resource, long limit) {
+    switch (resource) {
+      case INTERRUPTION:
+        return "The processing was interrupted.";
+      case TIME:
+        return "The processing exceeded its time limit of "
+            + TimeUnit.NANOSECONDS.toMillis(limit) + "ms.";
+      default:
+        return "The processing exceeded its limit of " + limit + " ("
+            + resource.name().toLowerCase().replace('_', ' ') + ").";
+    }
+  }
+
+  // ___________________________________________________________________________
+
+  /**
+   * Returns the exceeded resource.
+   */
+  public Resource getResource() {
+    return resource;
+  }
+
+  /**
+   * Returns the exceeded limit.
+   */
+  public long getLimit() {
+    return limit;
+  }
+
+  /**
+   * Returns the exceeded budget.
+   */
+  public TeXWorkBudget getBudget() {
+    return budget;
+  }
+
+  /**
+   * Returns true, if the processing was interrupted (and not aborted because
+   * of one of the limits of the budget).
+   */
+  public boolean isInterruption() {
+    return resource == Resource.INTERRUPTION;
+  }
+}
@@ -0,0 +1,176 @@
+package parse;
+
+import parse.TeXWorkBudgetExceededException.Resource;
+
+/**
+ * Tracks the work spent on a single tex document against a
+ * {@link TeXWorkBudget}. The parsers, the macro resolver and the paragraphs
+ * parser report each element they visit and each macro expansion. If a limit
+ * is exceeded, a {@link TeXWorkBudgetExceededException} is thrown, which
+ * aborts the processing of the document.
+ *
+ * The counters are checked on each call; the clock and the interrupt flag of
+ * the current thread only on every {@link #CHECK_INTERVAL}-th call, to keep
+ * the tracking cheap. An interrupted thread (e.g., on timeout) is reported as
+ * exceeded budget of the resource {@link Resource#INTERRUPTION}. The interrupt
+ * flag is kept.
+ *
+ * A tracker is meant to be used by a single thread.
+ *
+ * @author Claudius Korzen
+ */
+public class TeXWorkTracker {
+  /**
+   * The number of calls after which the clock and the interrupt flag are
+   * checked (a power of 2).
+   */
+  public static final int CHECK_INTERVAL = 1024;
+
+  /**
+   * The budget to track the work against.
+   */
+  protected final TeXWorkBudget budget;
+
+  /**
+   * The time when the tracking started, in nanoseconds.
+   */
+  protected final long startTime;
+
+  /**
+   * The number of visited elements.
+   */
+  protected long numElements;
+
+  /**
+   * The number of macro expansions.
+   */
+  protected long numExpansions;
+
+  /**
+   * The current nesting depth of macro expansions.
+   */
+  protected long expansionDepth;
+
+  /**
+   * The number of calls since the last check of the clock.
+   */
+  protected int numCalls;
+
+  /**
+   * Creates a new tracker for the given budget.
+   */
+  public TeXWorkTracker(TeXWorkBudget budget) {
+    this.budget = budget;
+    this.startTime = System.nanoTime();
+  }
+
+  // ___________________________________________________________________________
+
+  /**
+   * Counts a visited element.
+   *
+   * @throws TeXWorkBudgetExceededException if the budget is exceeded.
+   */
+  public void countElement() {
+    if (++numElements > budget.maxElements) {
+      throw exceeded(Resource.ELEMENTS, budget.maxElements);
+    }
+    tick();
+  }
+
+  /**
+   * Counts the start of a macro expansion. Each call must be followed by a
+   * call of {@link #exitExpansion()} (in a finally block).
+   *
+   * @throws TeXWorkBudgetExceededException if the budget is exceeded.
+   */
+  public void enterExpansion() {
+    if (++numExpansions > budget.maxExpansions) {
+      throw exceeded(Resource.EXPANSIONS, budget.maxExpansions);
+    }
+    if (++expansionDepth > budget.maxExpansionDepth) {
+      expansionDepth--;
+      throw exceeded(Resource.EXPANSION_DEPTH, budget.maxExpansionDepth);
+    }
+    tick();
+  }
+
+  /**
+   * Counts the end of a macro expansion.
+   */
+  public void exitExpansion() {
+    expansionDepth--;
+  }
+
+  /**
+   * Checks the clock and the interrupt flag on every CHECK_INTERVAL-th call
+   * (without counting any work, e.g., while a parser scans ahead).
+   *
+   * @throws TeXWorkBudgetExceededException if the budget is exceeded.
+   */
+  public void tick() {
+    if ((++numCalls & (CHECK_INTERVAL - 1)) == 0) {
+      check();
+    }
+  }
+
+  /**
+   * Checks the clock and the interrupt flag of the current thread.
+   *
+   * @throws TeXWorkBudgetExceededException if the budget is exceeded.
+   */
+  public void check() {
+    if (Thread.currentThread().isInterrupted()) {
+      throw exceeded(Resource.INTERRUPTION, 0);
+    }
+    if (budget.maxTimeNanos != TeXWorkBudget.UNLIMITED
+        && System.nanoTime() - startTime > budget.maxTimeNanos) {
+      throw exceeded(Resource.TIME, budget.maxTimeNanos);
+    }
+  }
+
+  /**
+   * Creates the exception for the given exceeded resource.
+   */
+  protected TeXWorkBudgetExceededException exceeded(Resource resource,
+      long limit) {
+    return new TeXWorkBudgetExceededException(resource, limit, budget);
+  }
+
+  // ___________________________________________________________________________
+
+  /**
+   * Returns the budget to track the work against.
+   */
+  public TeXWorkBudget getBudget() {
+    return budget;
+  }
+
+  /**
+   * Returns the number of visited elements.
+   */
+  public long getNumElements() {
+    return numElements;
+  }
+
+  /**
+   * Returns the number of macro expansions.
+   */
+  public long getNumExpansions() {
+    return numExpansions;
+  }
+
+  /**
+   * Returns the current nesting depth of macro expansions.
+   */
+  public long getExpansionDepth() {
+    return expansionDepth;
+  }
+
+  /**
+   * Returns the wall time since the tracking started, in nanoseconds.
+   */
+  public long getElapsedNanos() {
+    return System.nanoTime() - startTime;
+  }
+}
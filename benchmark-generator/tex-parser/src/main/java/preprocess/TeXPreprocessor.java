@@ -8,7 +8,7 @@ import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.List;
 
-import de.freiburg.iif.collection.ConstantLookupList;
+import de.freiburg.iif.collection.IdentityIndexedList;
 import model.Command;
 import model.Document;
 import model.Element;
@@ -168,7 +168,7 @@ public class TeXPreprocessor extends TeXParser {
   /**
    * Resolves the given element.
    */
-  protected ConstantLookupList<Element> resolve(Element element) {
+  protected IdentityIndexedList<Element> resolve(Element element) {
     Group group = new Group();
     resolveElement(element, group);
     return group.elements;
@@ -198,7 +198,7 @@ public class TeXPreprocessor extends TeXParser {
       for (Element element : group.elements) {        resolveElement(element, resolvedGroup);
       }
       // Update the elements of the group to the resolved ones.
-      group.elements = resolvedGroup.elements;
+      group.setElements(resolvedGroup.elements);
     }
     result.addElement(group);
   }
@@ -0,0 +1,85 @@
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import model.Command;
+import model.CommandNames;
+import model.Document;
+import model.Element;
+import model.Group;
+import parse.ParseException;
+import parse.TeXParserType;
+
+/**
+ * Tests for CommandNames.
+ *
+ * @author Claudius Korzen
+ *
+ */
+public class CommandNamesTest {
+  /**
+   * Tests that the fixed names have their ids.
+   */
+  @Test
+  public void testFixedNames() {
+    Assert.assertEquals(CommandNames.BEGIN, CommandNames.getId("\\begin"));
+    Assert.assertEquals(CommandNames.BIBITEM,
+        new Command("\\bibitem", null).getNameId());
+    Assert.assertEquals("\\end", CommandNames.getName(CommandNames.END));
+    Assert.assertEquals(CommandNames.NONE, CommandNames.getId(null));
+    Assert.assertEquals(CommandNames.CITE,
+        new Command("\\cite", null).getNameId());
+    Assert.assertTrue(CommandNames.isCrossReference(
+        CommandNames.getId("\\citepalias")));
+    Assert.assertTrue(CommandNames.isCrossReference(
+        new Command("\\ref", null).getNameId()));
+    Assert.assertFalse(CommandNames.isCrossReference(CommandNames.BIBITEM));
+    Assert.assertFalse(CommandNames.isCrossReference(CommandNames.NONE));
+  }
+
+  /**
+   * Tests that the names of parsed documents aren't registered, such that
+   * the table doesn't grow with the processed documents.
+   */
+  @Test
+  public void testUnregisteredNames() throws ParseException {
+    int size = CommandNames.size();
+    for (TeXParserType type : TeXParserType.values()) {
+      for (int i = 0; i < 100; i++) {
+        String text = "\\def\\macro" + type + i + "{x} \\macro" + type + i
+            + " \\unknown" + type + i + "{y} \\cite{z}";
+        Document document = type.parse(text);
+        for (Command command : getCommands(document)) {
+          if (command.getName().equals("\\cite")) {
+            Assert.assertEquals(CommandNames.getId("\\cite"),
+                command.getNameId());
+          } else {
+            Assert.assertEquals(CommandNames.NONE, command.getNameId());
+            Assert.assertFalse(command.nameEquals(CommandNames.NONE));
+          }
+        }
+      }
+    }
+    Assert.assertEquals(size, CommandNames.size());
+  }
+
+  /**
+   * Returns the commands in the given element (recursively).
+   */
+  protected static List<Command> getCommands(Element element) {
+    List<Command> commands = new ArrayList<>();
+    if (element instanceof Command) {
+      commands.add((Command) element);
+      for (Element argument : ((Command) element).getArguments()) {
+        commands.addAll(getCommands(argument));
+      }
+    } else if (element instanceof Group) {
+      for (Element e : ((Group) element).getElements()) {
+        commands.addAll(getCommands(e));
+      }
+    }
+    return commands;
+  }
+}
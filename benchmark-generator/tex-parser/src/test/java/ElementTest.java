@@ -0,0 +1,130 @@
+import java.util.Arrays;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import de.freiburg.iif.collection.IdentityIndexedList;
+import model.Command;
+import model.Document;
+import model.Element;
+import model.Group;
+import model.Text;
+import parse.ParseException;
+import parse.TeXParserType;
+
+/**
+ * Tests for the cached string representations of elements.
+ *
+ * @author Claudius Korzen
+ */
+public class ElementTest {
+  /**
+   * Tests that modifying a nested element invalidates the cached strings of
+   * the elements that contain it, but not of other elements.
+   */
+  @Test
+  public void testModifyNestedElement() {
+    Text text = new Text("b", null);
+    Group inner = new Group(text);
+    Command command = new Command("\\textbf", null);
+    command.addArgument(inner);
+    Group outer = new Group(new Text("a", null), command);
+    Group other = new Group(new Text("c", null));
+
+    Assert.assertEquals("{a\\textbf{b}}", outer.toString());
+    Assert.assertEquals("{c}", other.toString());
+
+    text.appendText("x");
+    Assert.assertEquals("{bx}", inner.toString());
+    Assert.assertEquals("\\textbf{bx}", command.toString());
+    Assert.assertEquals("{a\\textbf{bx}}", outer.toString());
+
+    inner.addElement(new Text("y", null));
+    Assert.assertEquals("{a\\textbf{bxy}}", outer.toString());
+
+    IdentityIndexedList<Element> elements = new IdentityIndexedList<>();
+    elements.add(new Text("z", null));
+    inner.setElements(elements);
+    Assert.assertEquals("{a\\textbf{z}}", outer.toString());
+
+    ((Text) elements.get(0)).appendText("z");
+    Assert.assertEquals("{a\\textbf{zz}}", outer.toString());
+
+    command.setName("\\emph");
+    Assert.assertEquals("{a\\emph{zz}}", outer.toString());
+  }
+
+  /**
+   * Tests that an element contained in several groups (like an argument that
+   * replaces the markers of a macro) invalidates all of these groups.
+   */
+  @Test
+  public void testModifySharedElement() {
+    Text text = new Text("a", null);
+    Group group1 = new Group(new Group(text));
+    Group group2 = new Group(text);
+    Text marker = new Text("#1", null);
+    Group group3 = new Group(new Group(marker));
+    Assert.assertEquals("{{#1}}", group3.toString());
+    group3.replace(marker, Arrays.<Element>asList(text));
+
+    Assert.assertEquals("{{a}}", group1.toString());
+    Assert.assertEquals("{a}", group2.toString());
+    Assert.assertEquals("{{a}}", group3.toString());
+
+    text.appendText("x");
+    Assert.assertEquals("{{ax}}", group1.toString());
+    Assert.assertEquals("{ax}", group2.toString());
+    Assert.assertEquals("{{ax}}", group3.toString());
+  }
+
+  /**
+   * Tests that modifying a copy invalidates the copies that contain it, but
+   * not the originals (and vice versa).
+   */
+  @Test
+  public void testModifyCopy() {
+    Text text = new Text("a", null);
+    Group original = new Group(new Group(text));
+    Assert.assertEquals("{{a}}", original.toString());
+
+    Group copy = original.clone();
+    Assert.assertEquals("{{a}}", copy.toString());
+
+    Group copiedGroup = (Group) copy.getFirstElement();
+    ((Text) copiedGroup.getFirstElement()).appendText("x");
+    Assert.assertEquals("{{ax}}", copy.toString());
+    Assert.assertEquals("{{a}}", original.toString());
+
+    text.appendText("y");
+    Assert.assertEquals("{{ax}}", copy.toString());
+    Assert.assertEquals("{{ay}}", original.toString());
+  }
+
+  /**
+   * Tests that the strings of a parsed document reflect the modifications of
+   * its elements.
+   */
+  @Test
+  public void testModifyDocument() throws ParseException {
+    for (TeXParserType type : TeXParserType.values()) {
+      Document document = type.parse("a \\textbf{b {c}} d\n");
+      String str = document.toString();
+
+      Command command = document.get(Command.class, true).get(0);
+      Group group = command.getGroup().get(Group.class, false).get(0);
+      Text text = group.get(Text.class, false).get(0);
+      text.appendText("x");
+      Assert.assertEquals(type.toString(), str.replace("{c}", "{cx}"),
+          document.toString());
+
+      Document copy = (Document) document.copy();
+      Assert.assertEquals(type.toString(), document.toString(),
+          copy.toString());
+      command = copy.get(Command.class, true).get(0);
+      command.setName("\\emph");
+      Assert.assertEquals(type.toString(), document.toString().replace(
+          "\\textbf", "\\emph"), copy.toString());
+    }
+  }
+}
@@ -0,0 +1,147 @@
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import model.Command;
+import model.Element;
+import model.Group;
+import model.MacroDefinition;
+import model.Marker;
+import parse.FastTeXParser;
+import parse.TeXParser;
+
+/**
+ * Tests for FastTeXParser, which must produce the same element trees as
+ * TeXParser.
+ *
+ * @author Claudius Korzen
+ *
+ */
+public class FastTeXParserTest {
+
+  /**
+   * Tests the parser on the input files of the preprocessor tests.
+   */
+  @Test
+  public void testFiles() throws IOException {
+    for (String name : new String[] { "preprocessor-input-1.tex",
+        "preprocessor-input-2.tex", "preprocessor-groundtruth-1.tex",
+        "preprocessor-groundtruth-2.tex" }) {
+      byte[] bytes = Files.readAllBytes(Paths.get("src/test/resources", name));
+      assertSameTree(new String(bytes, "UTF-8"));
+    }
+  }
+
+  /**
+   * Tests the parser on commands, groups, options and formulas.
+   */
+  @Test
+  public void testCommands() {
+    assertSameTree("\\section{Intro} Some text.\n\nNext paragraph.");
+    assertSameTree("\\begin{figure}[t]\\caption[a]{b ] c}\\end{figure}");
+    assertSameTree("$x_1^{2} + \\alpha_\\beta$ and $$y$$ and \\[z\\]");
+    assertSameTree("\\\"a \\'{e} \\hat x \\vec{v} \\vskip 1cm \\input file");
+    assertSameTree("\\big( \\Bigg\\{ \\big{[} \\noindent \\\\* \\\\ \\ x");
+    assertSameTree("a } b ] c { d");
+    assertSameTree("\\cite{a}\r\n\r\n\\ref{b}\r\r\n \t\fc");
+  }
+
+  /**
+   * Tests the parser on macro definitions and macro defined commands.
+   */
+  @Test
+  public void testMacros() {
+    assertSameTree("\\def\\foo{F}\\foo \\foox \\foo1 \\fo {\\foo}");
+    assertSameTree("\\def\\ab#1#2{#2#1}\\ab{x}{y} \\a \\abc");
+    assertSameTree("\\newcommand{\\eq}[1][a]{(#1)} \\eq{1} \\eq[2]{3}");
+    assertSameTree("\\renewcommand\\x{X}\\def\\xy{Y}\\xy\\x\\xyz\\x-");
+    assertSameTree("\\def\\A{a}\\def\\AB{b}\\def\\ABC{c}\\AB\\ABC\\ABD\\A@");
+  }
+
+  /**
+   * Tests the parser on comments and tabbing environments.
+   */
+  @Test
+  public void testCommentsAndTabbing() {
+    assertSameTree("a % comment \\foo{\nb%\r\nc %\rd");
+    assertSameTree("\\begin{tabbing}a \\= b \\kill\\- \\a`x\\end{tabbing}\\-");
+    assertSameTree("%\\begin {tabbing}\\= x\n\\end{tabbing}y\n\\=");
+  }
+
+  /**
+   * Asserts that both parsers produce the same element tree for the given
+   * document (or fail with the same exception).
+   */
+  protected void assertSameTree(String document) {
+    String expected;
+    try {
+      expected = toString(new TeXParser(new StringReader(document)).parse());
+    } catch (Exception e) {
+      expected = e.getClass().getName();
+    }
+    String actual;
+    try {
+      actual = toString(new FastTeXParser(document).parse());
+    } catch (Exception e) {
+      actual = e.getClass().getName();
+    }
+    Assert.assertEquals(expected, actual);
+  }
+
+  /**
+   * Returns a string that describes the given element tree: the type, the
+   * position and the string of each element.
+   */
+  protected String toString(Element element) {
+    StringBuilder sb = new StringBuilder();
+    append(element, sb, 0);
+    return sb.toString();
+  }
+
+  /**
+   * Appends the description of the given element tree to the given builder.
+   */
+  protected void append(Element element, StringBuilder sb, int depth) {
+    for (int i = 0; i < depth; i++) {
+      sb.append("  ");
+    }
+    if (element == null) {
+      sb.append("null\n");
+      return;
+    }
+    sb.append(element.getClass().getSimpleName());
+    sb.append(" ").append(element.getBeginLineNumber());
+    sb.append(":").append(element.getBeginColumnNumber());
+    sb.append("-").append(element.getEndLineNumber());
+    sb.append(":").append(element.getEndColumnNumber());
+    sb.append(" '").append(element).append("'");
+    if (element instanceof Marker) {
+      sb.append(" #").append(((Marker) element).getId());
+    }
+    if (element instanceof Command) {
+      sb.append(" ").append(((Command) element).getName());
+    }
+    sb.append("\n");
+    if (element instanceof MacroDefinition) {
+      MacroDefinition definition = (MacroDefinition) element;
+      append(definition.getKey(), sb, depth + 1);
+      for (Group value : definition.getValues()) {
+        append(value, sb, depth + 1);
+      }
+    }
+    if (element instanceof Command) {
+      for (Element argument : ((Command) element).getArguments()) {
+        append(argument, sb, depth + 1);
+      }
+    }
+    if (element instanceof Group) {
+      for (Element child : ((Group) element).elements) {
+        append(child, sb, depth + 1);
+      }
+    }
+  }
+}
@@ -0,0 +1,91 @@
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import model.Command;
+import model.Document;
+import model.Element;
+import model.Group;
+import model.MacroDefinition;
+import model.MacroTemplate;
+import model.Text;
+import parse.ParseException;
+import parse.TeXParserType;
+
+/**
+ * Tests for MacroTemplate.
+ *
+ * @author Claudius Korzen
+ *
+ */
+public class MacroTemplateTest {
+  /**
+   * Tests that the elements of an instance are placed at the call of the
+   * macro and that the arguments keep their positions.
+   */
+  @Test
+  public void testInstantiate() throws ParseException {
+    for (TeXParserType type : TeXParserType.values()) {
+      Document document = type.parse(
+          "\\newcommand{\\foo}[1]{a #1 \\textbf{b #1}}\n\nText \\foo{x}\n");
+
+      MacroDefinition definition = null;
+      Command call = null;
+      for (Element element : document.getElements()) {
+        if (element instanceof MacroDefinition) {
+          definition = (MacroDefinition) element;
+        } else if (element instanceof Command
+            && ((Command) element).getName().equals("\\foo")) {
+          call = (Command) element;
+        }
+      }
+      Assert.assertNotNull(type.toString(), definition);
+      Assert.assertNotNull(type.toString(), call);
+
+      Group macro = definition.getValues().get(0);
+      Group instance = new MacroTemplate(macro).instantiate(call);
+      Assert.assertEquals(type.toString(), "{a x \\textbf{b x}}",
+          instance.toString());
+
+      Element arg = call.getGroup(1).getElements().get(0);
+      Assert.assertNotEquals(call.getBeginColumnNumber(),
+          arg.getBeginColumnNumber());
+      for (Element element : getElements(instance)) {
+        int column = element == arg ? arg.getBeginColumnNumber()
+            : call.getBeginColumnNumber();
+        Assert.assertEquals(element.toString(), 3,
+            element.getBeginLineNumber());
+        Assert.assertEquals(element.toString(), column,
+            element.getBeginColumnNumber());
+      }
+
+      // The macro itself isn't changed.
+      Assert.assertEquals(1, macro.getBeginLineNumber());
+      Assert.assertTrue(getElements(instance).contains(arg));
+      for (Element element : getElements(macro)) {
+        Assert.assertFalse(element instanceof Text
+            && element.getBeginLineNumber() == 3);
+      }
+    }
+  }
+
+  /**
+   * Returns the given element and the elements in it (recursively).
+   */
+  protected static List<Element> getElements(Element element) {
+    List<Element> elements = new ArrayList<>();
+    elements.add(element);
+    if (element instanceof Command) {
+      for (Group group : ((Command) element).getGroups()) {
+        elements.addAll(getElements(group));
+      }
+    } else if (element instanceof Group) {
+      for (Element e : ((Group) element).getElements()) {
+        elements.addAll(getElements(e));
+      }
+    }
+    return elements;
+  }
+}
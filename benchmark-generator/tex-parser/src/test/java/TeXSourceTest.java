@@ -0,0 +1,158 @@
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import model.Document;
+import model.Element;
+import model.Text;
+import parse.ParseException;
+import parse.TeXParserType;
+import parse.TeXSource;
+
+/**
+ * Tests for TeXSource.
+ *
+ * @author Claudius Korzen
+ *
+ */
+public class TeXSourceTest {
+
+  /**
+   * Tests the decoding of ASCII, UTF-8 and Latin-1 bytes.
+   */
+  @Test
+  public void testDecode() {
+    Assert.assertEquals("", decode(new byte[0]).toString());
+    Assert.assertEquals("a \\b{c}", decode(bytes("a \\b{c}", "UTF-8"))
+        .toString());
+    Assert.assertEquals("M\u00FCller \uD83D\uDE00 \u20AC",
+        decode(bytes("M\u00FCller \uD83D\uDE00 \u20AC", "UTF-8")).toString());
+    // Not valid UTF-8, so decoded as Latin-1.
+    Assert.assertEquals("M\u00FCller \u00E9",
+        decode(bytes("M\u00FCller \u00E9", "ISO-8859-1")).toString());
+    Assert.assertEquals("x\u00C3",
+        decode(bytes("x\u00C3", "ISO-8859-1")).toString());
+  }
+
+  /**
+   * Tests the views on a source.
+   */
+  @Test
+  public void testSubSequence() {
+    TeXSource source = decode(bytes("abc\u00FCdef", "UTF-8"));
+    Assert.assertEquals(7, source.length());
+    Assert.assertEquals('\u00FC', source.charAt(3));
+    CharSequence view = source.subSequence(2, 6);
+    Assert.assertEquals("c\u00FCde", view.toString());
+    Assert.assertEquals("\u00FCd", view.subSequence(1, 3).toString());
+    Assert.assertEquals('e', view.charAt(3));
+    try {
+      view.charAt(4);
+      Assert.fail();
+    } catch (IndexOutOfBoundsException e) {
+      // Expected.
+    }
+  }
+
+  /**
+   * Tests mapping and parsing a file.
+   */
+  @Test
+  public void testMap() throws IOException, ParseException {
+    String tex = "\\section{\u00DCber} Text \u00E4\u00F6\u00FC % c\n\nb";
+    Path file = Files.createTempFile("tex-source", ".tex");
+    try {
+      Files.write(file, tex.getBytes(StandardCharsets.UTF_8));
+      TeXSource source = TeXSource.map(file);
+      Assert.assertEquals(tex, source.toString());
+
+      String expected = TeXParserType.JAVACC.parse(tex).toString();
+      for (TeXParserType type : TeXParserType.values()) {
+        Document document = type.parse(source);
+        Assert.assertEquals(expected, document.toString());
+        Element text = document.elements.get(2);
+        Assert.assertTrue(text instanceof Text);
+        Assert.assertEquals("Text", ((Text) text).getText());
+      }
+    } finally {
+      Files.delete(file);
+    }
+  }
+
+  /**
+   * Tests that reading a stream (in small pieces) decodes like decoding the
+   * bytes at once.
+   */
+  @Test
+  public void testReadStream() throws IOException {
+    StringBuilder large = new StringBuilder();
+    for (int i = 0; i < 5000; i++) {
+      large.append("Paragraph ").append(i).append(" \u00FCber \n\n");
+    }
+    String[] texts = { "", "a \\b{c}", "M\u00FCller \uD83D\uDE00 \u20AC",
+        large.toString(), large + "\u00FC" + large + "\uD83D\uDE00" };
+    for (String text : texts) {
+      for (String charset : new String[] { "UTF-8", "ISO-8859-1" }) {
+        byte[] bytes = bytes(text, charset);
+        // Not valid UTF-8 from the middle on.
+        byte[] mixed = Arrays.copyOf(bytes(text, "UTF-8"), bytes.length + 1);
+        mixed[bytes.length] = (byte) 0xE9;
+
+        for (byte[] input : Arrays.asList(bytes, mixed)) {
+          String expected = decode(input).toString();
+          for (int pieceSize : new int[] { 1, 3, 100000 }) {
+            Assert.assertEquals(expected,
+                TeXSource.read(new PieceInputStream(input, pieceSize))
+                    .toString());
+          }
+        }
+      }
+    }
+  }
+
+  /**
+   * Decodes the given bytes.
+   */
+  protected TeXSource decode(byte[] bytes) {
+    return TeXSource.decode(ByteBuffer.wrap(bytes));
+  }
+
+  /**
+   * Encodes the given string.
+   */
+  protected byte[] bytes(String string, String charset) {
+    return string.getBytes(Charset.forName(charset));
+  }
+
+  /**
+   * A stream that returns the given bytes in pieces of at most the given
+   * size.
+   */
+  protected static class PieceInputStream extends ByteArrayInputStream {
+    /**
+     * The maximal size of a piece.
+     */
+    protected final int pieceSize;
+
+    /**
+     * Creates a new stream that returns the given bytes in pieces.
+     */
+    PieceInputStream(byte[] bytes, int pieceSize) {
+      super(bytes);
+      this.pieceSize = pieceSize;
+    }
+
+    @Override
+    public synchronized int read(byte[] b, int off, int len) {
+      return super.read(b, off, Math.min(len, pieceSize));
+    }
+  }
+}
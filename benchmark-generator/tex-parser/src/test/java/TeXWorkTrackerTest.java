@@ -0,0 +1,173 @@
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import parse.ParseException;
+import parse.TeXParserType;
+import parse.TeXWorkBudget;
+import parse.TeXWorkBudgetExceededException;
+import parse.TeXWorkBudgetExceededException.Resource;
+import parse.TeXWorkTracker;
+
+/**
+ * Tests for TeXWorkBudget and TeXWorkTracker.
+ *
+ * @author Claudius Korzen
+ *
+ */
+public class TeXWorkTrackerTest {
+  /**
+   * The document to parse.
+   */
+  protected static final String DOCUMENT =
+      "\\section{Intro} Some {text} with $x_1$.\n\nNext paragraph.";
+
+  /**
+   * Tests the counting of the elements parsed by both parsers.
+   */
+  @Test
+  public void testParseElements() throws ParseException {
+    long numElements = -1;
+    for (TeXParserType type : TeXParserType.values()) {
+      TeXWorkTracker tracker = TeXWorkBudget.NONE.start();
+      type.parse(DOCUMENT, tracker);
+      Assert.assertTrue(tracker.getNumElements() > 0);
+      // Both parsers must count the same elements.
+      if (numElements >= 0) {
+        Assert.assertEquals(numElements, tracker.getNumElements());
+      }
+      numElements = tracker.getNumElements();
+    }
+
+    for (TeXParserType type : TeXParserType.values()) {
+      // The budget suffices.
+      type.parse(DOCUMENT, new TeXWorkBudget(numElements, 0, 0).start());
+
+      // The budget doesn't suffice.
+      try {
+        type.parse(DOCUMENT, new TeXWorkBudget(numElements - 1, 0, 0).start());
+        Assert.fail();
+      } catch (TeXWorkBudgetExceededException e) {
+        Assert.assertEquals(Resource.ELEMENTS, e.getResource());
+        Assert.assertEquals(numElements - 1, e.getLimit());
+        Assert.assertFalse(e.isInterruption());
+      }
+    }
+  }
+
+  /**
+   * Tests the expansion limits.
+   */
+  @Test
+  public void testExpansions() {
+    TeXWorkTracker tracker = new TeXWorkBudget(0, 3, 2).start();
+    tracker.enterExpansion();
+    tracker.enterExpansion();
+    try {
+      tracker.enterExpansion();
+      Assert.fail();
+    } catch (TeXWorkBudgetExceededException e) {
+      Assert.assertEquals(Resource.EXPANSION_DEPTH, e.getResource());
+      Assert.assertEquals(2, e.getLimit());
+    }
+    Assert.assertEquals(2, tracker.getExpansionDepth());
+    tracker.exitExpansion();
+    tracker.exitExpansion();
+    Assert.assertEquals(0, tracker.getExpansionDepth());
+    try {
+      tracker.enterExpansion();
+      Assert.fail();
+    } catch (TeXWorkBudgetExceededException e) {
+      Assert.assertEquals(Resource.EXPANSIONS, e.getResource());
+      Assert.assertEquals(3, e.getLimit());
+    }
+  }
+
+  /**
+   * Tests the time limit and the interruption.
+   */
+  @Test
+  public void testTimeAndInterruption() throws InterruptedException {
+    TeXWorkTracker tracker =
+        new TeXWorkBudget(0, 0, 0, 1, TimeUnit.MILLISECONDS).start();
+    Thread.sleep(5);
+    try {
+      // The clock is checked on every CHECK_INTERVAL-th element only.
+      for (int i = 0; i < TeXWorkTracker.CHECK_INTERVAL; i++) {
+        tracker.countElement();
+      }
+      Assert.fail();
+    } catch (TeXWorkBudgetExceededException e) {
+      Assert.assertEquals(Resource.TIME, e.getResource());
+    }
+
+    tracker = TeXWorkBudget.NONE.start();
+    Thread.currentThread().interrupt();
+    try {
+      tracker.check();
+      Assert.fail();
+    } catch (TeXWorkBudgetExceededException e) {
+      Assert.assertTrue(e.isInterruption());
+      // The interrupt flag is kept.
+      Assert.assertTrue(Thread.interrupted());
+    }
+  }
+
+  /**
+   * Tests that the time limit and the interruption are checked while the
+   * javacc parser scans ahead: the lookahead for the unclosed options of the
+   * document takes exponential time.
+   */
+  @Test(timeout = 30000)
+  public void testTimeAndInterruptionWithinLookahead() throws Exception {
+    StringBuilder sb = new StringBuilder();
+    for (int i = 0; i < 40; i++) {
+      sb.append("\\a[");
+    }
+    final String document = sb.toString();
+
+    try {
+      TeXParserType.JAVACC.parse(document,
+          new TeXWorkBudget(0, 0, 0, 100, TimeUnit.MILLISECONDS).start());
+      Assert.fail();
+    } catch (TeXWorkBudgetExceededException e) {
+      Assert.assertEquals(Resource.TIME, e.getResource());
+    }
+
+    final Throwable[] error = new Throwable[1];
+    Thread thread = new Thread(() -> {
+      try {
+        TeXParserType.JAVACC.parse(document, TeXWorkBudget.NONE.start());
+      } catch (Throwable e) {
+        error[0] = e;
+      }
+    });
+    thread.start();
+    Thread.sleep(100);
+    thread.interrupt();
+    thread.join();
+    Assert.assertTrue(String.valueOf(error[0]),
+        error[0] instanceof TeXWorkBudgetExceededException);
+    Assert.assertTrue(((TeXWorkBudgetExceededException) error[0])
+        .isInterruption());
+  }
+
+  /**
+   * Tests the scaling of budgets.
+   */
+  @Test
+  public void testScale() {
+    TeXWorkBudget budget = new TeXWorkBudget(100, 0, 3, 2, TimeUnit.SECONDS)
+        .scale(2);
+    Assert.assertEquals(200, budget.getMaxElements());
+    Assert.assertEquals(TeXWorkBudget.UNLIMITED, budget.getMaxExpansions());
+    Assert.assertEquals(6, budget.getMaxExpansionDepth());
+    Assert.assertEquals(4, budget.getMaxTime(TimeUnit.SECONDS));
+    Assert.assertEquals(TeXWorkBudget.UNLIMITED,
+        TeXWorkBudget.NONE.scale(2).getMaxElements());
+    // The limits saturate.
+    Assert.assertEquals(TeXWorkBudget.UNLIMITED, new TeXWorkBudget(
+        Long.MAX_VALUE - 1, 0, 0).scale(2).getMaxElements());
+  }
+}